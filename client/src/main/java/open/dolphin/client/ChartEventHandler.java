@@ -7,13 +7,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import javax.websocket.Session;
 import open.dolphin.delegater.ChartEventDelegater;
 import open.dolphin.infomodel.*;
 import open.dolphin.project.Project;
-import open.dolphin.util.BeanUtils;
+import open.dolphin.util.HealthInsuranceCache;
 
 /**
  * カルテオープンなどの状態の変化をまとめて管理する
@@ -44,6 +46,12 @@ public class ChartEventHandler implements PropertyChangeListener {
     // スレッド
     private EventListenTask2 listenTask;
     
+    // ストリーミング受信タスク
+    private EventStreamTask streamTask;
+    
+    // 最後に受け取った通知番号 ストリーム再接続時にここから再送を受ける
+    private volatile long lastSequence;
+    
     private Thread thread;
     
     // 状態変化を各listenerに通知するタスク
@@ -229,16 +237,26 @@ public class ChartEventHandler implements PropertyChangeListener {
 
         exec = Executors.newSingleThreadExecutor();
 
-        listenTask = new EventListenTask2();
-        
-        thread = new Thread(listenTask, "ChartEvent Listen Task");
+        if (Project.getBoolean("chartEvent.stream", true)) {
+            // WebSocket で接続を維持し、再接続時は最後の通知番号から再送を受ける
+            streamTask = new EventStreamTask();
+            thread = new Thread(streamTask, "ChartEvent Stream Task");
+        } else {
+            listenTask = new EventListenTask2();
+            thread = new Thread(listenTask, "ChartEvent Listen Task");
+        }
         thread.setPriority(Thread.NORM_PRIORITY);
         thread.start();
     }
 
     public void stop() {
         
-        listenTask.stop();
+        if (streamTask != null) {
+            streamTask.stop();
+        }
+        if (listenTask != null) {
+            listenTask.stop();
+        }
         thread.interrupt();
         thread = null;
     }
@@ -251,6 +269,7 @@ public class ChartEventHandler implements PropertyChangeListener {
                 stop();
                 exec = null;
                 listenTask = null;
+                streamTask = null;
                 try{
                     Thread.sleep(retryTime);
                 }catch(InterruptedException ex) {}
@@ -284,6 +303,7 @@ public class ChartEventHandler implements PropertyChangeListener {
                     future = ChartEventDelegater.getInstance().subscribe();
                     ChartEventModel cem = future.get();
                     if (cem != null) {
+                        updateSequence(cem);
                         exec.execute(new RemoteOnEventTask2(cem));
                         retryCnt = 0;
                     }                  
@@ -324,6 +344,105 @@ public class ChartEventHandler implements PropertyChangeListener {
         }
     } 
     
+    private void updateSequence(ChartEventModel evt) {
+        if (evt.getSequence() > lastSequence) {
+            lastSequence = evt.getSequence();
+        }
+    }
+    
+    private class EventStreamTask implements Runnable, ChartEventDelegater.StreamListener {
+        
+        // 受信が無くてもこれ以上つながっていれば正常な接続とみなす
+        private static final long MIN_UPTIME = 30000L;
+        
+        private volatile boolean isRunning;
+        
+        private Session session;
+        
+        private CountDownLatch closed;
+        
+        // 今の接続でイベントを受信したかどうか
+        private volatile boolean received;
+        
+        private EventStreamTask() {
+            isRunning = true;
+        }
+        
+        private void stop() {
+            isRunning = false;
+            try {
+                if (session != null && session.isOpen()) {
+                    session.close();
+                }
+            } catch (Exception e) {
+            }
+            if (closed != null) {
+                closed.countDown();
+            }
+        }
+
+        @Override
+        public void run() {
+            
+            int failCnt = 0;
+            
+            while (isRunning) {
+                boolean healthy = false;
+                try {
+                    closed = new CountDownLatch(1);
+                    received = false;
+                    session = ChartEventDelegater.getInstance().openStream(lastSequence, this);
+                    long opened = System.currentTimeMillis();
+                    // 切断されるまで待つ
+                    closed.await();
+                    // 接続できても直ぐに切られる場合は失敗として数える
+                    healthy = received || System.currentTimeMillis() - opened >= MIN_UPTIME;
+                    
+                } catch (InterruptedException e) {
+                    break;
+                    
+                } catch (Exception e) {
+                    System.err.println("chart event stream: " + e.toString());
+                }
+                
+                if (!isRunning) {
+                    break;
+                }
+                if (healthy) {
+                    failCnt = 0;
+                } else if (++failCnt > retryLimit) {
+                    // ストリームを使えない場合はロングポーリングに切り替える
+                    System.err.println("chart event stream is not available, fallback to long polling");
+                    listenTask = new EventListenTask2();
+                    listenTask.run();
+                    return;
+                }
+                
+                if (isRunning) {
+                    try{
+                        Thread.sleep(retryTime);
+                    }catch(InterruptedException ex) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onEvent(ChartEventModel evt) {
+            received = true;
+            updateSequence(evt);
+            exec.execute(new RemoteOnEventTask2(evt));
+        }
+
+        @Override
+        public void onClose() {
+            if (closed != null) {
+                closed.countDown();
+            }
+        }
+    }
+    
     // 自クライアントの状態変更後、サーバーに通知するタスク
     private class LocalOnEventTask implements Runnable {
         
@@ -396,8 +515,7 @@ public class ChartEventHandler implements PropertyChangeListener {
             for (HealthInsuranceModel hm : c) {
                 try {
                     // byte[] を XMLDecord
-                    PVTHealthInsuranceModel hModel = (PVTHealthInsuranceModel) 
-                            BeanUtils.xmlDecode(hm.getBeanBytes());
+                    PVTHealthInsuranceModel hModel = HealthInsuranceCache.getInstance().decode(hm);
                     list.add(hModel);
                 } catch (Exception e) {
                     e.printStackTrace(System.err);
@@ -1408,7 +1408,15 @@ public class ChartImpl extends AbstractMainTool implements Chart, IInfoModel {
             }
             List<SchemaModel> schema = oldModel.getSchema();
             if (schema!=null) {
+                // 複製は id を持たないので、縮小画像だけの場合は元画像を取得してから複製する
+                // 取得できない場合は保存時にエラーになる（縮小画像では保存しない）
+                DocumentDelegater ddl = new DocumentDelegater();
                 schema.stream().forEach((scm) -> {
+                    try {
+                        ddl.fetchFullImage(scm);
+                    } catch (Exception ex) {
+                        logger.warning(ex.getMessage());
+                    }
                     newModel.addSchema(ModelUtils.cloneSchema(scm));
                 });
             }
@@ -12,7 +12,6 @@ import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 import javax.swing.*;
-import open.dolphin.delegater.MasudaDelegater;
 import open.dolphin.delegater.OrcaDelegater;
 import open.dolphin.delegater.OrcaDelegaterFactory;
 import open.dolphin.helper.ComponentMemory;
@@ -33,8 +32,6 @@ public class CheckInteractionPanel {
     private HashMap<String, String[]> rirekiItems;      // カルテに記録されている薬剤
     private HashMap<String, String> kensakuItems;        // 検索にマッチした薬剤
 
-    private static final String yakuzaiClassCode = "2";    // 薬剤のclaim class code
-    private static final int searchPeriod = 3;
     private BlockGlass blockGlass;
 
     private JButton btn_Exit;
@@ -124,41 +121,9 @@ public class CheckInteractionPanel {
         dialog.setVisible(true);
     }
 
+    // 過去３ヶ月の処方薬 患者毎にキャッシュされる
     private void collectMedicine() {
-
-        rirekiItems = new HashMap<>();
-
-        // 過去３ヶ月の薬剤・注射ののModuleModelを取得する
-        MasudaDelegater del = MasudaDelegater.getInstance();
-        List<String> entities = new ArrayList<>();
-        entities.add(IInfoModel.ENTITY_MED_ORDER);
-        entities.add(IInfoModel.ENTITY_INJECTION_ORDER);
-
-        GregorianCalendar gcTo = new GregorianCalendar();
-        gcTo.add(GregorianCalendar.DAY_OF_MONTH,1);
-        Date toDate = gcTo.getTime();
-        GregorianCalendar gcFrom = new GregorianCalendar();
-        gcFrom.add(GregorianCalendar.MONTH, -searchPeriod);
-        Date fromDate = gcFrom.getTime();
-        
-        List<ModuleModel> pastModuleList = del.getModulesEntitySearch(karteId, fromDate, toDate, entities);
-        if (pastModuleList == null) {
-            return;
-        }
-
-        // ModuleModelの薬剤を取得
-        for (ModuleModel mm : pastModuleList) {
-            ClaimBundle cb = (ClaimBundle) mm.getModel();
-            for (ClaimItem ci : cb.getClaimItem()) {
-                if (yakuzaiClassCode.equals(ci.getClassCode())) {     // 用法などじゃなくて薬剤なら、薬剤リストに追加
-                    final SimpleDateFormat frmt = new SimpleDateFormat("yyyy-MM-dd");
-                    String code = ci.getCode();     // コード
-                    String name = ci.getName();     // 薬剤名
-                    String date = frmt.format(mm.getStarted());     // 処方日
-                    rirekiItems.put(code, new String[]{name, date});
-                }
-            }
-        }
+        rirekiItems = RecentMedicationCache.getInstance().get(karteId);
     }
 
     private void closePanel() {
@@ -27,6 +27,7 @@ import open.dolphin.delegater.DocumentDelegater;
 import open.dolphin.delegater.OrcaDelegater;
 import open.dolphin.delegater.OrcaDelegaterFactory;
 import open.dolphin.delegater.PatientDelegater;
+import open.dolphin.delegater.RestClientPool;
 import open.dolphin.delegater.StampDelegater;
 import open.dolphin.delegater.UserDelegater;
 import open.dolphin.helper.ComponentMemory;
@@ -1272,6 +1273,9 @@ public class Dolphin implements MainWindow {
             myFrame.setVisible(false);
             myFrame.dispose();
         }
+        // REST の応答時間を記録し、共有クライアントを閉じる
+        java.util.logging.Logger.getLogger(this.getClass().getName()).info(RestClientPool.getStatistics());
+        RestClientPool.closeAll();
         java.util.logging.Logger.getLogger(this.getClass().getName()).info("Exits application");
         System.exit(0);
     }
@@ -33,7 +33,6 @@ import static open.dolphin.infomodel.IInfoModel.STATUS_FINAL;
 import open.dolphin.letter.KartePDFImpl2;
 import open.dolphin.plugin.PluginLoader;
 import open.dolphin.project.Project;
-import open.dolphin.util.BeanUtils;
 import open.dolphin.util.ZenkakuUtils;
 
 /**
@@ -1199,6 +1198,17 @@ public class KarteEditor extends AbstractChartDocument implements IInfoModel, NC
         }
     }
     
+    // 縮小画像だけで取得したシェーマは元画像を取得してから保存する
+    // アイコン（縮小画像）を JPEG にすると元画像を縮小画像で置き換えてしまうので、取得できない場合は保存しない
+    // 縮小画像はサーバーで作り直す
+    private void fetchFullImage(SchemaModel schema) throws DolphinException {
+        try {
+            new DocumentDelegater().fetchFullImage(schema);
+        } catch (Exception e) {
+            throw new DolphinException(e);
+        }
+    }
+    
 //s.oh^ 2013/11/06 Cliam項目20項目の制御
     private boolean checkClaimItemCount() {
         if(pPane == null || pPane.getTextPane() == null || pPane.getTextPane().getDocument() == null) {
@@ -1368,10 +1378,15 @@ public class KarteEditor extends AbstractChartDocument implements IInfoModel, NC
             for (Object o : schemaOrAttachment) {
                 if (o instanceof SchemaModel) {
                     SchemaModel schema = (SchemaModel)o;
-                    ImageIcon icon = schema.getIcon();
-                    icon = adjustImageSize(icon, maxSImageSize);
-                    byte[] jpegByte = getJPEGByte(icon.getImage());
-                    schema.setJpegByte(jpegByte);
+                    fetchFullImage(schema);
+                    // 変更していない画像は保存されている JPEG をそのまま使う（サーバーで同じ内容として共有される）
+                    if (schema.getJpegByte() == null) {
+                        ImageIcon icon = schema.getIcon();
+                        icon = adjustImageSize(icon, maxSImageSize);
+                        byte[] jpegByte = getJPEGByte(icon.getImage());
+                        schema.setJpegByte(jpegByte);
+                    }
+                    schema.setThumbnailByte(null);
                     schema.setIcon(null);
                     model.addSchema(schema);
                     
@@ -1423,7 +1438,7 @@ public class KarteEditor extends AbstractChartDocument implements IInfoModel, NC
             mb.setFirstConfirmed(docInfo.getFirstConfirmDate());    // 適合開始日
             mb.setRecorded(docInfo.getConfirmDate());               // 記録日
             mb.setStatus(STATUS_FINAL);                             // status
-            mb.setBeanBytes(BeanUtils.getXMLBytes(mb.getModel()));  // byte[]
+            mb.setBeanBytes(BeanCodec.encode(mb.getModel()));  // byte[]
 
             // ModuleInfo を設定する
             // Name, Role, Entity は設定されている
@@ -1840,10 +1855,15 @@ public class KarteEditor extends AbstractChartDocument implements IInfoModel, NC
                     if (schemas!=null && schemas.length>0) {
                         // 保存のため Icon を JPEG に変換する
                         for (SchemaModel schema : schemas) {
-                            ImageIcon icon = schema.getIcon();
-                            icon = adjustImageSize(icon, maxSImageSize);
-                            byte[] jpegByte = getJPEGByte(icon.getImage());
-                            schema.setJpegByte(jpegByte);
+                            fetchFullImage(schema);
+                            // 変更していない画像は保存されている JPEG をそのまま使う
+                            if (schema.getJpegByte() == null) {
+                                ImageIcon icon = schema.getIcon();
+                                icon = adjustImageSize(icon, maxSImageSize);
+                                byte[] jpegByte = getJPEGByte(icon.getImage());
+                                schema.setJpegByte(jpegByte);
+                            }
+                            schema.setThumbnailByte(null);
                             schema.setIcon(null);
                             model.addSchema(schema);
                         }
@@ -1958,7 +1978,7 @@ public class KarteEditor extends AbstractChartDocument implements IInfoModel, NC
                         }
 
                         // 実態をBeanXML化、それのバイトデータ
-                        bean.setBeanBytes(BeanUtils.getXMLBytes(bean.getModel()));
+                        bean.setBeanBytes(BeanCodec.encode(bean.getModel()));
 
                         // ModuleInfo を設定する
                         // Name, Role, Entity は設定されている
@@ -2060,6 +2080,8 @@ public class KarteEditor extends AbstractChartDocument implements IInfoModel, NC
                         }
                     }
                     ddl.putKarte(model);
+                    // 保存できた処方を次の併用禁忌チェックの対象にする
+                    RecentMedicationCache.getInstance().addSaved(chart.getKarte().getId(), model.getModules());
                     //masuda$                   
                     //----------------------------------------------
                     // Send
@@ -3,6 +3,7 @@ package open.dolphin.client;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.regex.Pattern;
 import open.dolphin.impl.labrcv.NLaboImportSummary;
 
 /**
@@ -17,6 +18,8 @@ public interface LabResultParser {
     public static final String DATE_FORMAT_8 = "yyyyMMdd";
     public static final String DATE_FORMAT_10 = "yyyy-MM-dd";
     public static final String CSV_DELIM = "\\s*,\\s*";
+    // 行毎に正規表現をコンパイルしないよう使い回す
+    public static final Pattern CSV_PATTERN = Pattern.compile(CSV_DELIM);
     
     public List<NLaboImportSummary> parse(Path path) throws IOException;
 }
@@ -0,0 +1,173 @@
+package open.dolphin.client;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import open.dolphin.delegater.MasudaDelegater;
+import open.dolphin.infomodel.ClaimBundle;
+import open.dolphin.infomodel.ClaimItem;
+import open.dolphin.infomodel.IInfoModel;
+import open.dolphin.infomodel.ModuleModel;
+
+/**
+ * 患者毎の最近の処方薬（併用禁忌チェック用）のキャッシュ
+ * 過去３ヶ月の薬剤・注射の ModuleModel を取得して薬剤コード -> {薬剤名, 処方日} にしたものを、
+ * カルテ（karteId）毎に一定時間保持する。保存の度に過去の処方を取得し直さないようにする。
+ *
+ * 保存できた処方は addSaved で加えるので、同じクライアントで続けて保存した分は直ぐに反映される。
+ * 他のクライアントで保存された処方を見落とさないよう、キャッシュを使う場合も今日の分はサーバーから取得し直す。
+ * それより前の日付で保存された処方は EXPIRE 以内に反映される。
+ */
+public final class RecentMedicationCache {
+
+    private static final RecentMedicationCache instance = new RecentMedicationCache();
+
+    private static final String YAKUZAI_CLASS_CODE = "2";    // 薬剤のclaim class code
+    private static final int SEARCH_PERIOD = 3;             // 月
+    private static final long EXPIRE = 5L * 60L * 1000L;     // 保持する時間
+    private static final int MAX_ENTRIES = 50;
+
+    private final Map<Long, Entry> map;
+
+    public static RecentMedicationCache getInstance() {
+        return instance;
+    }
+
+    private RecentMedicationCache() {
+        map = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * 過去３ヶ月の処方薬を返す。キャッシュが古ければサーバーから取得する。
+     * @param karteId カルテの PK
+     * @return 薬剤コード -> {薬剤名, 処方日(yyyy-MM-dd)} 呼び出し側で変更してよい
+     */
+    public HashMap<String, String[]> get(long karteId) {
+
+        String today = today();
+        Entry cached;
+        synchronized (this) {
+            cached = map.get(karteId);
+        }
+        if (cached != null && cached.day.equals(today) && System.currentTimeMillis() - cached.fetchedAt < EXPIRE) {
+            // 今日の処方（他のクライアントで保存されたもの）だけ取得し直す
+            // started は確定日時なので今日の 0 時から読む
+            GregorianCalendar gcToday = new GregorianCalendar();
+            gcToday.set(GregorianCalendar.HOUR_OF_DAY, 0);
+            gcToday.set(GregorianCalendar.MINUTE, 0);
+            gcToday.set(GregorianCalendar.SECOND, 0);
+            gcToday.set(GregorianCalendar.MILLISECOND, 0);
+            HashMap<String, String[]> todays = fetch(karteId, gcToday);
+            synchronized (this) {
+                cached.items.putAll(todays);
+                return new HashMap<>(cached.items);
+            }
+        }
+
+        GregorianCalendar gcFrom = new GregorianCalendar();
+        gcFrom.add(GregorianCalendar.MONTH, -SEARCH_PERIOD);
+        HashMap<String, String[]> items = fetch(karteId, gcFrom);
+        synchronized (this) {
+            map.put(karteId, new Entry(today, new HashMap<>(items)));
+        }
+        return items;
+    }
+
+    /**
+     * 保存できた文書の処方薬を加える。保存が成功した後に呼ぶ。
+     * @param karteId カルテの PK
+     * @param modules 保存した文書の ModuleModel
+     */
+    public synchronized void addSaved(long karteId, List<ModuleModel> modules) {
+        Entry e = map.get(karteId);
+        if (e == null || modules == null) {
+            return;
+        }
+        List<ModuleModel> list = new ArrayList<>();
+        for (ModuleModel mm : modules) {
+            String entity = mm.getModuleInfoBean().getEntity();
+            if (IInfoModel.ENTITY_MED_ORDER.equals(entity) || IInfoModel.ENTITY_INJECTION_ORDER.equals(entity)) {
+                list.add(mm);
+            }
+        }
+        collect(list, e.items);
+    }
+
+    /**
+     * カルテのキャッシュを捨てる。
+     * @param karteId カルテの PK
+     */
+    public synchronized void invalidate(long karteId) {
+        map.remove(karteId);
+    }
+
+    // from から今日までの薬剤・注射の ModuleModel を取得する
+    private HashMap<String, String[]> fetch(long karteId, GregorianCalendar gcFrom) {
+
+        HashMap<String, String[]> rirekiItems = new HashMap<>();
+
+        MasudaDelegater del = MasudaDelegater.getInstance();
+        List<String> entities = new ArrayList<>();
+        entities.add(IInfoModel.ENTITY_MED_ORDER);
+        entities.add(IInfoModel.ENTITY_INJECTION_ORDER);
+
+        GregorianCalendar gcTo = new GregorianCalendar();
+        gcTo.add(GregorianCalendar.DAY_OF_MONTH,1);
+        Date toDate = gcTo.getTime();
+        Date fromDate = gcFrom.getTime();
+
+        List<ModuleModel> pastModuleList = del.getModulesEntitySearch(karteId, fromDate, toDate, entities);
+        if (pastModuleList == null) {
+            return rirekiItems;
+        }
+        collect(pastModuleList, rirekiItems);
+        return rirekiItems;
+    }
+
+    // ModuleModelの薬剤を取得
+    private static void collect(List<ModuleModel> modules, Map<String, String[]> rirekiItems) {
+        SimpleDateFormat frmt = new SimpleDateFormat("yyyy-MM-dd");
+        for (ModuleModel mm : modules) {
+            ClaimBundle cb = (ClaimBundle) mm.getModel();
+            if (cb == null || cb.getClaimItem() == null) {
+                continue;
+            }
+            Date started = mm.getStarted() != null ? mm.getStarted() : new Date();
+            for (ClaimItem ci : cb.getClaimItem()) {
+                if (YAKUZAI_CLASS_CODE.equals(ci.getClassCode())) {     // 用法などじゃなくて薬剤なら、薬剤リストに追加
+                    String code = ci.getCode();     // コード
+                    String name = ci.getName();     // 薬剤名
+                    String date = frmt.format(started);     // 処方日
+                    rirekiItems.put(code, new String[]{name, date});
+                }
+            }
+        }
+    }
+
+    private static String today() {
+        return new SimpleDateFormat("yyyyMMdd").format(new Date());
+    }
+
+    private static final class Entry {
+
+        private final String day;
+        private final long fetchedAt;
+        private final HashMap<String, String[]> items;
+
+        private Entry(String day, HashMap<String, String[]> items) {
+            this.day = day;
+            this.fetchedAt = System.currentTimeMillis();
+            this.items = items;
+        }
+    }
+}
@@ -17,6 +17,7 @@ import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
 import javax.swing.JPopupMenu;
 import javax.swing.text.Position;
+import open.dolphin.delegater.DocumentDelegater;
 import open.dolphin.infomodel.SchemaModel;
 import open.dolphin.plugin.PluginLoader;
 import open.dolphin.project.Project;
@@ -124,6 +125,9 @@ public final class SchemaHolder extends AbstractComponentHolder implements Compo
     public void edit() {
         
         try {
+            // 縮小画像だけの場合は元画像を取得してから開く（取得できない場合は開かない）
+            new DocumentDelegater().fetchFullImage(schema);
+            
             PluginLoader<SchemaEditor> loader = PluginLoader.load(SchemaEditor.class);
             Iterator<SchemaEditor> iter = loader.iterator();
             if (iter.hasNext()) {
@@ -2,6 +2,7 @@ package open.dolphin.dao;
 
 import java.sql.*;
 import java.util.Collection;
+import open.dolphin.common.JdbcConnectionPool;
 import open.dolphin.project.Project;
 
 /**
@@ -18,6 +19,10 @@ public class SqlDaoBean extends DaoBean {
     private static final String USER = "orca";
     private static final String PASSWD = "";
     
+    // ORCA への接続はプールして使い回す
+    private static final int POOL_SIZE = 4;
+    private static final long POOL_TIMEOUT = 30000L;
+    
     String dataBase;
     String driver;
     boolean trace = true;
@@ -76,10 +81,12 @@ public class SqlDaoBean extends DaoBean {
             if (rs.next()) {
                 hospNum = rs.getInt(1);
             }
+            rs.close();
         } catch (Exception e) {
             processError(e);
-            closeConnection(con);
+        } finally {
             closeStatement(st);
+            closeConnection(con);
         }
 
         sql = "select version from tbl_dbkanri where kanricd='ORCADB00'";
@@ -90,10 +97,12 @@ public class SqlDaoBean extends DaoBean {
             if (rs.next()) {
                 dbVersion = rs.getString(1);
             }
+            rs.close();
         } catch (Exception e) {
             processError(e);
-            closeConnection(con);
+        } finally {
             closeStatement(st);
+            closeConnection(con);
         }
     }
     
@@ -193,7 +202,9 @@ public class SqlDaoBean extends DaoBean {
     }
     
     public Connection getConnection() throws Exception {
-        return DriverManager.getConnection(getURL(), user, passwd);
+        // close() でプールへ戻る
+        return JdbcConnectionPool.getPool(getURL(), user, passwd, false,
+                POOL_SIZE, POOL_TIMEOUT, JdbcConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE).getConnection();
     }
 
     public String addSingleQuote(String s) {
@@ -14,19 +14,17 @@ import javax.ws.rs.core.Cookie;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import open.dolphin.client.Dolphin;
+import open.dolphin.common.JsonMappers;
 import open.dolphin.exception.FirstCommitWinException;
 import open.dolphin.project.Project;
 import open.dolphin.util.HashUtil;
 import org.apache.commons.io.IOUtils;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.map.SerializationConfig;
-import org.jboss.resteasy.client.jaxrs.ResteasyClient;
-import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
 import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
 
 /**
  * Bsiness Delegater のルートクラス。
+ * WebTarget はサーバー毎に共有する RestClientPool のクライアントから作る。
  *
  * @author Kazushi Minagawa, Digital Globe, Inc.
  */
@@ -45,10 +43,9 @@ public class BusinessDelegater {
         sb.append(Project.getBaseURI()).append(path);
         String uri = sb.toString();
         
-        ResteasyClient client = new ResteasyClientBuilder().build();
-        client.register(new AuthHeadersRequestFilter(userName, HashUtil.MD5(password)));
-        client.register(new StatusChecker());
-        ResteasyWebTarget target = client.target(uri);
+        ResteasyWebTarget target = RestClientPool.getPool(Project.getBaseURI()).target(uri);
+        target.register(new AuthHeadersRequestFilter(userName, HashUtil.MD5(password)));
+        target.register(new StatusChecker());
         return target;
     }
     
@@ -56,10 +53,9 @@ public class BusinessDelegater {
         StringBuilder sb = new StringBuilder();
         sb.append(baseURI).append(path);
         String uri = sb.toString();
-        ResteasyClient client = new ResteasyClientBuilder().build();
-        client.register(new AuthHeadersRequestFilter(userId, HashUtil.MD5(password)));
-        client.register(new StatusChecker());
-        ResteasyWebTarget target = client.target(uri);
+        ResteasyWebTarget target = RestClientPool.getPool(baseURI).target(uri);
+        target.register(new AuthHeadersRequestFilter(userId, HashUtil.MD5(password)));
+        target.register(new StatusChecker());
         return target;
     }
     
@@ -67,10 +63,9 @@ public class BusinessDelegater {
         StringBuilder sb = new StringBuilder();
         sb.append(Project.getBaseURI()).append(path);
         String uri = sb.toString();
-        ResteasyClient client = new ResteasyClientBuilder().build();
-        client.register(new AuthHeadersRequestFilter(Project.getUserModel().getUserId(), Project.getUserModel().getPassword()));
-        client.register(new StatusChecker());
-        ResteasyWebTarget target = client.target(uri);
+        ResteasyWebTarget target = RestClientPool.getPool(Project.getBaseURI()).target(uri);
+        target.register(new AuthHeadersRequestFilter(Project.getUserModel().getUserId(), Project.getUserModel().getPassword()));
+        target.register(new StatusChecker());
         return target;
     }
     
@@ -78,11 +73,10 @@ public class BusinessDelegater {
         StringBuilder sb = new StringBuilder();
         sb.append(Project.getBaseURI()).append(path);
         String uri = sb.toString();
-        ResteasyClient client = new ResteasyClientBuilder().build();
-        client.register(new AuthHeadersRequestFilter(Project.getUserModel().getUserId(), Project.getUserModel().getPassword()));
+        ResteasyWebTarget target = RestClientPool.getPool(Project.getBaseURI()).target(uri);
+        target.register(new AuthHeadersRequestFilter(Project.getUserModel().getUserId(), Project.getUserModel().getPassword()));
         // 先勝ち制御Filter
-        client.register(new FirstCommitWinChecker());
-        ResteasyWebTarget target = client.target(uri);
+        target.register(new FirstCommitWinChecker());
         return target;
     }
     
@@ -90,9 +84,8 @@ public class BusinessDelegater {
         StringBuilder sb = new StringBuilder();
         sb.append(Project.getBaseURI()).append(path);
         String uri = sb.toString();
-        ResteasyClient client = new ResteasyClientBuilder().build();
-        client.register(new AuthHeadersRequestFilterLong(Project.getUserModel().getUserId(), Project.getUserModel().getPassword()));
-        ResteasyWebTarget target = client.target(uri);
+        ResteasyWebTarget target = RestClientPool.getPool(Project.getBaseURI()).subscribeTarget(uri);
+        target.register(new AuthHeadersRequestFilterLong(Project.getUserModel().getUserId(), Project.getUserModel().getPassword()));
         return target;
     }
     
@@ -118,6 +111,10 @@ public class BusinessDelegater {
         return this.getEasy(path, MediaType.TEXT_PLAIN, cls);
     }
     
+    protected <T> T getEasyJpeg(String path, Class<T> cls) {
+        return this.getEasy(path, "image/jpeg", cls);
+    }
+    
     protected <T> T postEasyJson(String path, byte[] data, Class<T> cls) {
         ResteasyWebTarget target = getWebTarget(path);
         Cookie cookie = getProjectCookie(Project.getUserModel().getUserId());
@@ -233,6 +230,8 @@ public class BusinessDelegater {
             int status = crc1.getStatus();
             debug(status);
             if (status/100!=2) {
+                // 接続をプールへ戻すため応答を読み捨てる
+                IOUtils.closeQuietly(crc1.getEntityStream());
                 String err = "HTTP error code : " + status;
                 throw new RuntimeException(err);
             }
@@ -250,6 +249,7 @@ public class BusinessDelegater {
             }
             // Commons
             String err = IOUtils.toString(crc1.getEntityStream(), UTF8);
+            IOUtils.closeQuietly(crc1.getEntityStream());
             
             // First Commit Win?
             if (err!=null && err.contains("First Commit Win")) {
@@ -262,17 +262,13 @@ public class BusinessDelegater {
         }
     }
     
+    // 共有の mapper を返す（設定を変更しないこと）
     protected ObjectMapper getSerializeMapper() {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(SerializationConfig.Feature.WRITE_NULL_MAP_VALUES, false);
-        mapper.configure(SerializationConfig.Feature.FAIL_ON_EMPTY_BEANS, false);
-        return mapper;
+        return JsonMappers.getSerializeMapper();
     }
     
     protected ObjectMapper getDeserializeMapper() {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        return mapper;
+        return JsonMappers.getDeserializeMapper();
     }
     
     protected BufferedReader getReader(Response response) throws Exception {
@@ -1,9 +1,22 @@
 package open.dolphin.delegater;
 
+import java.io.IOException;
+import java.net.URI;
 import java.util.concurrent.Future;
+import javax.json.Json;
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.CloseReason;
+import javax.websocket.ContainerProvider;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
 import javax.ws.rs.core.MediaType;
+import open.dolphin.client.Dolphin;
 import open.dolphin.converter.ChartEventModelConverter;
 import open.dolphin.infomodel.ChartEventModel;
+import open.dolphin.project.Project;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
 
@@ -22,6 +35,14 @@ public class ChartEventDelegater extends BusinessDelegater {
     private static final String SUBSCRIBE_PATH = RES_CE + "/subscribe";
     private static final String PUT_EVENT_PATH = RES_CE + "/event";
     
+    // ストリーミング（WebSocket）はコンテキストルート直下
+    private static final String RESOURCES = "/resources";
+    private static final String STREAM_PATH = "/ws/chartEvent";
+    
+    // サーバーは 30 秒毎に HEARTBEAT を送る 何も届かなければ切れたとみなして閉じる（再接続させる）
+    private static final String HEARTBEAT = "ping";
+    private static final long STREAM_IDLE_TIMEOUT = 90000L;
+    
     private static final ChartEventDelegater instance = new ChartEventDelegater();
     
     private ChartEventDelegater() {
@@ -52,4 +73,87 @@ public class ChartEventDelegater extends BusinessDelegater {
         ResteasyWebTarget target = getWebTargetSubscribe(SUBSCRIBE_PATH);
         return target.request(MediaType.APPLICATION_JSON).async().get(ChartEventModel.class);
     }
+    
+    /**
+     * ChartEvent のストリームに接続する。
+     * @param cursor 最後に受け取った通知番号 初回は 0
+     * @param listener 受信したイベントと切断を受け取るリスナ
+     * @return WebSocket Session
+     * @throws Exception 
+     */
+    public Session openStream(final long cursor, final StreamListener listener) throws Exception {
+        
+        final ObjectMapper mapper = getDeserializeMapper();
+        
+        Endpoint endpoint = new Endpoint() {
+            
+            @Override
+            public void onOpen(Session session, EndpointConfig config) {
+                
+                session.addMessageHandler(new MessageHandler.Whole<String>() {
+                    @Override
+                    public void onMessage(String message) {
+                        if (HEARTBEAT.equals(message)) {
+                            return;
+                        }
+                        try {
+                            listener.onEvent(mapper.readValue(message, ChartEventModel.class));
+                        } catch (IOException e) {
+                            e.printStackTrace(System.err);
+                        }
+                    }
+                });
+                
+                // 購読要求
+                String request = Json.createObjectBuilder()
+                        .add(USER_NAME, Project.getUserModel().getUserId())
+                        .add(PASSWORD, Project.getUserModel().getPassword())
+                        .add("clientUUID", Dolphin.getInstance().getClientUUID())
+                        .add("cursor", cursor)
+                        .build()
+                        .toString();
+                try {
+                    session.getBasicRemote().sendText(request);
+                } catch (IOException e) {
+                    e.printStackTrace(System.err);
+                }
+            }
+
+            @Override
+            public void onClose(Session session, CloseReason closeReason) {
+                listener.onClose();
+            }
+
+            @Override
+            public void onError(Session session, Throwable t) {
+                t.printStackTrace(System.err);
+            }
+        };
+        
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        Session session = container.connectToServer(endpoint, ClientEndpointConfig.Builder.create().build(), getStreamURI());
+        session.setMaxIdleTimeout(STREAM_IDLE_TIMEOUT);
+        return session;
+    }
+    
+    private URI getStreamURI() {
+        // http(s)://host:port/openDolphin/resources -> ws(s)://host:port/openDolphin/ws/chartEvent
+        String base = Project.getBaseURI();
+        if (base.endsWith(RESOURCES)) {
+            base = base.substring(0, base.length() - RESOURCES.length());
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(base.replaceFirst("^http", "ws")).append(STREAM_PATH);
+        return URI.create(sb.toString());
+    }
+    
+    /**
+     * ストリームからのイベントを受け取るリスナ
+     */
+    public interface StreamListener {
+        
+        public void onEvent(ChartEventModel evt);
+        
+        public void onClose();
+    }
 }
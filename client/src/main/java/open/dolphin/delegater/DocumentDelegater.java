@@ -13,6 +13,7 @@ import open.dolphin.dto.DocumentSearchSpec;
 import open.dolphin.dto.ImageSearchSpec;
 import open.dolphin.dto.ModuleSearchSpec;
 import open.dolphin.infomodel.*;
+import open.dolphin.project.Project;
 import open.dolphin.util.BeanUtils;
 import org.codehaus.jackson.map.ObjectMapper;
 
@@ -24,6 +25,9 @@ import org.codehaus.jackson.map.ObjectMapper;
  */
 public final class DocumentDelegater extends BusinessDelegater {
     
+    // 文書のシェーマを縮小画像で取得する
+    private static final String KARTE_IMAGE_THUMBNAIL = "karte.image.thumbnail";
+    
     /**
      * 患者のカルテを取得する。
      * @param patientPK
@@ -83,6 +87,34 @@ public final class DocumentDelegater extends BusinessDelegater {
         return Long.parseLong(pkStr);       
     }
     
+    /**
+     * 縮小画像だけで取得したシェーマの元画像を取得し、jpegByte とアイコンを元画像にする。
+     * 拡大・編集・印刷・保存の前に呼ぶ。元画像を持っている場合は何もしない。
+     * @param schema SchemaModel
+     * @throws java.lang.Exception 取得できない場合
+     */
+    public void fetchFullImage(SchemaModel schema) throws Exception {
+        
+        if (schema == null || schema.getJpegByte() != null || schema.getThumbnailByte() == null) {
+            return;
+        }
+        
+        // PATH
+        StringBuilder sb = new StringBuilder();
+        sb.append("/karte/image/jpeg/");
+        sb.append(schema.getId());
+        String path = sb.toString();
+        
+        // GET
+        byte[] jpegByte = getEasyJpeg(path, byte[].class);
+        if (jpegByte == null || jpegByte.length == 0) {
+            throw new Exception("no image: " + schema.getId());
+        }
+        
+        schema.setJpegByte(jpegByte);
+        schema.setIcon(new ImageIcon(jpegByte));
+    }
+    
     /**
      * Documentを検索して返す。
      * @param ids
@@ -101,6 +133,11 @@ public final class DocumentDelegater extends BusinessDelegater {
         String path = sb.toString();
         path = path.substring(0, path.length()-1);
         
+        // シェーマは縮小画像だけを取得する 元画像は fetchFullImage で取得する
+        if (Project.getBoolean(KARTE_IMAGE_THUMBNAIL, true)) {
+            path = path + "?thumbnail=true";
+        }
+        
         // GET
         DocumentList result  = getEasyJson(path, DocumentList.class);
         
@@ -115,11 +152,12 @@ public final class DocumentDelegater extends BusinessDelegater {
                 }
             }
 
-            // JPEG byte をアイコンへ戻す
+            // JPEG byte をアイコンへ戻す（縮小画像だけの場合はそれを使う）
             Collection<SchemaModel> sc = doc.getSchema();
             if (sc != null && (!sc.isEmpty())) {
                 for (SchemaModel schema : sc) {
-                    ImageIcon icon = new ImageIcon(schema.getJpegByte());
+                    byte[] jpegByte = schema.getJpegByte()!=null ? schema.getJpegByte() : schema.getThumbnailByte();
+                    ImageIcon icon = new ImageIcon(jpegByte);
                     schema.setIcon(icon);
                 }
             }
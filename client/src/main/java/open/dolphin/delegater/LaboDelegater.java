@@ -1,7 +1,10 @@
 package open.dolphin.delegater;
 
+import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.List;
 import open.dolphin.converter.NLaboModuleConverter;
+import open.dolphin.converter.NLaboModuleListConverter;
 import open.dolphin.infomodel.*;
 import org.codehaus.jackson.map.ObjectMapper;
 
@@ -12,33 +15,46 @@ import org.codehaus.jackson.map.ObjectMapper;
  */
 public final class LaboDelegater extends BusinessDelegater {
 
+    // getConstrainedPatients で一度に問い合わせる患者数
+    private static final int CONSTRAINED_CHUNK_SIZE = 100;
+
     //=========================================================
     // 新 LabMozule
     //=========================================================
 
     public List<PatientLiteModel> getConstrainedPatients(List<String> idList) throws Exception {
 
-        // PATH
-        StringBuilder sb = new StringBuilder();
-        sb.append("/lab/patient/");
-        for (String pid : idList) {
-            sb.append(pid);
-            sb.append(CAMMA);
-        }
-        int len = sb.length();
-        sb.setLength(len-1);
-        String path = sb.toString();
-        
-        // GET
-        PatientLiteList result = null;
-        try {
-            result = getEasyJson(path, PatientLiteList.class);
-        } catch (Exception e) {
-            e.printStackTrace(System.err);
+        // URL が長くなり過ぎないよう CONSTRAINED_CHUNK_SIZE 件ずつ問い合わせる
+        List<PatientLiteModel> ret = new ArrayList<>(idList.size());
+
+        for (int i = 0; i < idList.size(); i += CONSTRAINED_CHUNK_SIZE) {
+
+            // PATH
+            StringBuilder sb = new StringBuilder();
+            sb.append("/lab/patient/");
+            for (String pid : idList.subList(i, Math.min(i + CONSTRAINED_CHUNK_SIZE, idList.size()))) {
+                sb.append(pid);
+                sb.append(CAMMA);
+            }
+            int len = sb.length();
+            sb.setLength(len-1);
+            String path = sb.toString();
+
+            // GET
+            PatientLiteList result = null;
+            try {
+                result = getEasyJson(path, PatientLiteList.class);
+            } catch (Exception e) {
+                e.printStackTrace(System.err);
+            }
+            if (result == null || result.getList() == null) {
+                return null;
+            }
+            ret.addAll(result.getList());
         }
         
         // List
-        return result!=null ? result.getList() : null;
+        return ret;
     }
     
     /**
@@ -66,6 +82,42 @@ public final class LaboDelegater extends BusinessDelegater {
         return patient;
     }
 
+    /**
+     * 検査結果を putNLaboModules で送る JSON にする。
+     * @param list 追加する検査モジュール
+     * @return JSON
+     * @throws java.lang.Exception
+     */
+    public byte[] encodeNLaboModules(List<NLaboModule> list) throws Exception {
+
+        // Converter
+        NLaboModuleList modules = new NLaboModuleList();
+        modules.setList(list);
+        NLaboModuleListConverter conv = new NLaboModuleListConverter();
+        conv.setModel(modules);
+
+        // JSON
+        ObjectMapper mapper = this.getSerializeMapper();
+        return mapper.writeValueAsBytes(conv);
+    }
+
+    /**
+     * 検査結果をまとめて追加する。
+     * @param data encodeNLaboModules で作った JSON
+     * @return 登録したモジュールの患者 患者が登録されていないモジュールの患者は含まれない
+     * @throws java.lang.Exception
+     */
+    public List<PatientModel> putNLaboModules(byte[] data) throws Exception {
+
+        // PATH
+        String path = "/lab/module/list";
+
+        // POST
+        PatientList result = postEasyJson(path, data, PatientList.class);
+
+        return result!=null && result.getList()!=null ? result.getList() : new ArrayList<PatientModel>();
+    }
+
     /**
      * ラボモジュールを検索する。
      * @param patientId     対象患者のID
@@ -93,6 +145,41 @@ public final class LaboDelegater extends BusinessDelegater {
         return result.getList();
     }
     
+    /**
+     * ラボデータを検査項目 x 検体採取日の表で取得する。
+     * @param patientId     対象患者のID
+     * @param firstResult   sampleDate が null の場合の最初の番号
+     * @param maxResult     列数
+     * @param newestLeft    新しい検体を左の列にする場合 true
+     * @param sampleDate    前の頁の nextSampleDate 無い場合は null
+     * @param id            前の頁の nextId
+     * @return NLaboTable
+     * @throws java.lang.Exception 
+     */
+    public NLaboTable getLaboTable(String patientId, int firstResult, int maxResult, boolean newestLeft, String sampleDate, long id) throws Exception {
+
+        // PATH
+        StringBuilder sb = new StringBuilder();
+        sb.append("/lab/table/");
+        sb.append(patientId);
+        sb.append(CAMMA);
+        sb.append(String.valueOf(firstResult));
+        sb.append(CAMMA);
+        sb.append(String.valueOf(maxResult));
+        sb.append(CAMMA);
+        sb.append(String.valueOf(newestLeft));
+        if (sampleDate != null) {
+            sb.append(CAMMA);
+            sb.append(URLEncoder.encode(sampleDate, UTF8).replace("+", "%20"));
+            sb.append(CAMMA);
+            sb.append(String.valueOf(id));
+        }
+        String path = sb.toString();
+        
+        // GET
+        return getEasyJson(path, NLaboTable.class);
+    }
+    
 //s.oh^ 2013/09/18 ラボデータの高速化
     public String getLaboTestCount(String pid) {
         // PATH
@@ -1,8 +1,5 @@
 package open.dolphin.delegater;
 
-import java.beans.XMLDecoder;
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -267,11 +264,8 @@ public class OrcaRestDelegater extends BusinessDelegater implements OrcaDelegate
     
     
     private Object xmlDecode(byte[] bytes)  {
-        
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-        return d.readObject();
+        // 従来の XML 形式も読める
+        return BeanCodec.decode(bytes);
     }
     
     /**
@@ -9,8 +9,9 @@ import open.dolphin.infomodel.HealthInsuranceModel;
 import open.dolphin.infomodel.PVTHealthInsuranceModel;
 import open.dolphin.infomodel.PatientModel;
 import open.dolphin.infomodel.PatientVisitList;
+import open.dolphin.infomodel.PatientVisitListDelta;
 import open.dolphin.infomodel.PatientVisitModel;
-import open.dolphin.util.BeanUtils;
+import open.dolphin.util.HealthInsuranceCache;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -113,6 +114,44 @@ public class PVTDelegater extends BusinessDelegater {
         return new ArrayList<>(1);
     }
 
+    /**
+     * 受付リストの差分を取得する。
+     * @param version 最後に受け取った版 初回は 0
+     * @return 差分 取得できなかった場合は null
+     */
+    public PatientVisitListDelta getPvtListDelta(long version) {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(RES_PVT);
+        sb.append("/pvtList/delta/");
+        sb.append(version);
+        String path = sb.toString();
+        
+        try {
+
+            // GET
+            PatientVisitListDelta result = getEasyJson(path, PatientVisitListDelta.class);
+            
+            // Decode
+            List<PatientVisitModel> list = result.getList();
+            if (list != null && list.size() > 0) {
+                for (PatientVisitModel pm : list) {
+                    decodeHealthInsurance(pm.getPatientModel());
+                }
+            } else {
+                result.setList(new ArrayList<>(1));
+            }
+            if (result.getRemoved() == null) {
+                result.setRemoved(new ArrayList<>(1));
+            }
+            return result;
+        } catch (Exception e) {
+            e.printStackTrace(System.err);
+        }
+        
+        return null;
+    }
+
     /**
      * バイナリの健康保険データをオブジェクトにデコードする。
      *
@@ -130,7 +169,7 @@ public class PVTDelegater extends BusinessDelegater {
             for (HealthInsuranceModel model : c) {
                 try {
                     // byte[] を XMLDecord
-                    PVTHealthInsuranceModel hModel = (PVTHealthInsuranceModel) BeanUtils.xmlDecode(model.getBeanBytes());
+                    PVTHealthInsuranceModel hModel = HealthInsuranceCache.getInstance().decode(model);
                     list.add(hModel);
                 } catch (Exception e) {
                     e.printStackTrace(System.err);
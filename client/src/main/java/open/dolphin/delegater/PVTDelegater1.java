@@ -5,7 +5,7 @@ import java.util.Collection;
 import java.util.List;
 import open.dolphin.converter.PatientVisitModelConverter;
 import open.dolphin.infomodel.*;
-import open.dolphin.util.BeanUtils;
+import open.dolphin.util.HealthInsuranceCache;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -127,7 +127,7 @@ public final class PVTDelegater1 extends BusinessDelegater {
             for (HealthInsuranceModel model : c) {
                 try {
                     // byte[] を XMLDecord
-                    PVTHealthInsuranceModel hModel = (PVTHealthInsuranceModel)BeanUtils.xmlDecode(model.getBeanBytes());
+                    PVTHealthInsuranceModel hModel = HealthInsuranceCache.getInstance().decode(model);
                     list.add(hModel);
                 } catch (Exception e) {
                     e.printStackTrace(System.err);
@@ -8,7 +8,7 @@ import open.dolphin.infomodel.HealthInsuranceModel;
 import open.dolphin.infomodel.PVTHealthInsuranceModel;
 import open.dolphin.infomodel.PatientList;
 import open.dolphin.infomodel.PatientModel;
-import open.dolphin.util.BeanUtils;
+import open.dolphin.util.HealthInsuranceCache;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -157,7 +157,7 @@ public final class  PatientDelegater extends BusinessDelegater {
             for (HealthInsuranceModel model : c) {
                 try {
                     // byte[] を XMLDecord
-                    PVTHealthInsuranceModel hModel = (PVTHealthInsuranceModel)BeanUtils.xmlDecode(model.getBeanBytes());
+                    PVTHealthInsuranceModel hModel = HealthInsuranceCache.getInstance().decode(model);
                     patient.addPvtHealthInsurance(hModel);
                 } catch (Exception e) {
                     e.printStackTrace(System.err);
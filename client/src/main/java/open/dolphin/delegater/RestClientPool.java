@@ -0,0 +1,319 @@
+package open.dolphin.delegater;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import open.dolphin.project.Project;
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
+
+/**
+ * サーバー（base URI）毎に共有する REST クライアント
+ *
+ * 全ての Delegater はここから WebTarget を得る。ResteasyClient は接続プールを持ち、
+ * keep-alive で接続を使い回すので、呼び出し毎の TCP（SSL）の確立が無くなる。
+ * 認証等の Filter は WebTarget 毎に登録するので、クライアントは利用者に依らず共有できる。
+ * gzip は RESTEasy の既定の Provider（Accept-Encoding の付加と展開）で扱う。
+ * rest.gzip.request が true の場合は rest.gzip.threshold バイト以上の要求も gzip で送る
+ * （Content-Encoding を付けると RESTEasy の GZIPEncodingInterceptor が圧縮する）。
+ *
+ * ChartEvent の購読（long polling）は接続を長く占有するので、別のクライアントを使う。
+ *
+ * エンドポイント（メソッド + パスの固定部分）毎に応答時間を集計する。
+ *
+ * 設定（Project）
+ *   rest.pool.size        接続の総数 (20)
+ *   rest.pool.perroute    サーバー毎の接続の数 (20)
+ *   rest.connect.timeout  接続を確立するまでの秒数 (10)
+ *   rest.read.timeout     応答を待つ秒数 0 の場合は無制限 (0)
+ *   rest.connection.ttl   接続を使い回す秒数 (60)
+ *   rest.gzip.request     要求を gzip で送る (false)
+ *   rest.gzip.threshold   gzip で送る要求の最小バイト数 (1024)
+ */
+public final class RestClientPool {
+
+    private static final Map<String, RestClientPool> pools = new ConcurrentHashMap<>();
+
+    // 応答時間の集計
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private static final String START_PROPERTY = "open.dolphin.rest.start";
+
+    // 他の ClientResponseFilter より先に時間を計る
+    private static final int LATENCY_PRIORITY = 10000;
+
+    private static final int SUBSCRIBE_POOL_SIZE = 2;
+
+    private final String baseURI;
+    private final ResteasyClient client;
+    private volatile ResteasyClient subscribeClient;
+
+    /**
+     * base URI の共有クライアントを返す。
+     * @param baseURI サーバーの base URI
+     * @return RestClientPool
+     */
+    public static RestClientPool getPool(String baseURI) {
+        RestClientPool pool = pools.get(baseURI);
+        if (pool == null) {
+            RestClientPool created = new RestClientPool(baseURI);
+            pool = pools.putIfAbsent(baseURI, created);
+            if (pool == null) {
+                pool = created;
+            } else {
+                created.close();
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * 全てのクライアントを閉じる。アプリケーションの終了時に使う。
+     */
+    public static void closeAll() {
+        for (RestClientPool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+
+    /**
+     * エンドポイント毎の応答時間の集計を返す。
+     * @return 集計の文字列 一行に一つのエンドポイント
+     */
+    public static String getStatistics() {
+        List<String> keys = new ArrayList<>(histograms.keySet());
+        Collections.sort(keys);
+        StringBuilder sb = new StringBuilder();
+        for (String key : keys) {
+            if (sb.length() > 0) {
+                sb.append("\n");
+            }
+            sb.append(key).append(" ").append(histograms.get(key));
+        }
+        return sb.toString();
+    }
+
+    private RestClientPool(String baseURI) {
+        this.baseURI = baseURI;
+        this.client = newClient(Project.getInt("rest.pool.size", 20),
+                Project.getInt("rest.pool.perroute", 20),
+                Project.getInt("rest.read.timeout", 0));
+    }
+
+    /**
+     * uri の WebTarget を返す。Filter はこの WebTarget に登録すること。
+     * @param uri base URI + path
+     * @return ResteasyWebTarget
+     */
+    public ResteasyWebTarget target(String uri) {
+        return client.target(uri);
+    }
+
+    /**
+     * 購読（long polling）用の WebTarget を返す。
+     * @param uri base URI + path
+     * @return ResteasyWebTarget
+     */
+    public ResteasyWebTarget subscribeTarget(String uri) {
+        if (subscribeClient == null) {
+            synchronized (this) {
+                if (subscribeClient == null) {
+                    // 応答はイベントが起こるまで返らない
+                    subscribeClient = newClient(SUBSCRIBE_POOL_SIZE, SUBSCRIBE_POOL_SIZE, 0);
+                }
+            }
+        }
+        return subscribeClient.target(uri);
+    }
+
+    private ResteasyClient newClient(int poolSize, int perRoute, int readTimeout) {
+        ResteasyClientBuilder builder = new ResteasyClientBuilder()
+                .connectionPoolSize(poolSize)
+                .maxPooledPerRoute(perRoute)
+                .connectionTTL(Project.getInt("rest.connection.ttl", 60), TimeUnit.SECONDS)
+                .establishConnectionTimeout(Project.getInt("rest.connect.timeout", 10), TimeUnit.SECONDS);
+        if (readTimeout > 0) {
+            builder.socketTimeout(readTimeout, TimeUnit.SECONDS);
+        }
+        ResteasyClient ret = builder.build();
+        Map<Class<?>, Integer> contracts = new HashMap<>();
+        contracts.put(ClientRequestFilter.class, Priorities.USER);
+        contracts.put(ClientResponseFilter.class, LATENCY_PRIORITY);
+        ret.register(new LatencyFilter(), contracts);
+        if (Project.getBoolean("rest.gzip.request", false)) {
+            ret.register(new GzipRequestFilter(Project.getInt("rest.gzip.threshold", 1024)));
+        }
+        return ret;
+    }
+
+    private synchronized void close() {
+        try {
+            client.close();
+            if (subscribeClient != null) {
+                subscribeClient.close();
+            }
+        } catch (RuntimeException e) {
+            java.util.logging.Logger.getLogger(RestClientPool.class.getName()).fine(e.getMessage());
+        }
+    }
+
+    // GET /karte/documents/1,2,3 -> GET /karte/documents
+    private String endpoint(String method, URI uri) {
+        String path = uri.getPath();
+        String base = URI.create(baseURI).getPath();
+        if (base != null && path.startsWith(base)) {
+            path = path.substring(base.length());
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(method).append(" ");
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (!isName(segment)) {
+                break;
+            }
+            sb.append("/").append(segment);
+        }
+        return sb.toString();
+    }
+
+    // 英字だけのものをパスの固定部分とする（検索語や ID は含めない）
+    private static boolean isName(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && c != '-' && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 応答時間を計る Filter
+     */
+    private final class LatencyFilter implements ClientRequestFilter, ClientResponseFilter {
+
+        @Override
+        public void filter(ClientRequestContext request) throws IOException {
+            request.setProperty(START_PROPERTY, System.nanoTime());
+        }
+
+        @Override
+        public void filter(ClientRequestContext request, ClientResponseContext response) throws IOException {
+            Object start = request.getProperty(START_PROPERTY);
+            if (!(start instanceof Long)) {
+                return;
+            }
+            long millis = (System.nanoTime() - (Long)start) / 1000000L;
+            String key = endpoint(request.getMethod(), request.getUri());
+            Histogram h = histograms.get(key);
+            if (h == null) {
+                Histogram created = new Histogram();
+                h = histograms.putIfAbsent(key, created);
+                if (h == null) {
+                    h = created;
+                }
+            }
+            h.record(millis);
+        }
+    }
+
+    /**
+     * threshold 以上の要求に Content-Encoding: gzip を付ける Filter
+     */
+    private static final class GzipRequestFilter implements ClientRequestFilter {
+
+        private final int threshold;
+
+        private GzipRequestFilter(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void filter(ClientRequestContext request) throws IOException {
+            if (!request.hasEntity() || request.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+                return;
+            }
+            Object entity = request.getEntity();
+            int size = -1;
+            if (entity instanceof byte[]) {
+                size = ((byte[])entity).length;
+            } else if (entity instanceof String) {
+                // UTF-8 で最大 3 バイト
+                size = ((String)entity).length() * 3;
+            }
+            if (size >= threshold) {
+                request.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, "gzip");
+            }
+        }
+    }
+
+    /**
+     * 応答時間の分布 i 番目の区間は 2^(i-1) 以上 2^i 未満のミリ秒（0 番目は 1ms 未満）
+     */
+    private static final class Histogram {
+
+        private static final int BUCKETS = 18;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private void record(long millis) {
+            int bucket = millis <= 0L ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            total.addAndGet(millis);
+            long cur = max.get();
+            while (millis > cur && !max.compareAndSet(cur, millis)) {
+                cur = max.get();
+            }
+        }
+
+        // 分位点を含む区間の上限
+        private long percentile(double p) {
+            long n = count.get();
+            long target = (long)Math.ceil(n * p);
+            long seen = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return 1L << i;
+                }
+            }
+            return max.get();
+        }
+
+        @Override
+        public String toString() {
+            long n = count.get();
+            StringBuilder sb = new StringBuilder();
+            sb.append("n=").append(n);
+            if (n > 0L) {
+                sb.append(" avg=").append(total.get() / n).append("ms");
+                sb.append(" p50<").append(percentile(0.5)).append("ms");
+                sb.append(" p95<").append(percentile(0.95)).append("ms");
+                sb.append(" max=").append(max.get()).append("ms");
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -9,7 +9,7 @@ import open.dolphin.infomodel.PatientModel;
 import open.dolphin.infomodel.PatientVisitList;
 import open.dolphin.infomodel.PatientVisitModel;
 import open.dolphin.infomodel.PostSchedule;
-import open.dolphin.util.BeanUtils;
+import open.dolphin.util.HealthInsuranceCache;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -135,7 +135,7 @@ public class ScheduleDelegater extends BusinessDelegater {
             for (HealthInsuranceModel model : c) {
                 try {
                     // byte[] を XMLDecord
-                    PVTHealthInsuranceModel hModel = (PVTHealthInsuranceModel) BeanUtils.xmlDecode(model.getBeanBytes());
+                    PVTHealthInsuranceModel hModel = HealthInsuranceCache.getInstance().decode(model);
                     list.add(hModel);
                 } catch (Exception e) {
                     e.printStackTrace(System.err);
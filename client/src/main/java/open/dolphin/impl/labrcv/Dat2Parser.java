@@ -54,7 +54,7 @@ public class Dat2Parser implements LabResultParser {
                 continue;
             }
 
-            String[] data = line.split(CSV_DELIM);    // CSV
+            String[] data = CSV_PATTERN.split(line);    // CSV
 
             if (data.length==0) {
                 continue;
@@ -11,7 +11,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
@@ -20,6 +24,7 @@ import open.dolphin.delegater.LaboDelegater;
 import open.dolphin.impl.lbtest.LaboTestPanel;
 import open.dolphin.impl.pvt.WatingListImpl;
 import open.dolphin.infomodel.ChartEventModel;
+import open.dolphin.infomodel.NLaboModule;
 import open.dolphin.infomodel.PatientLiteModel;
 import open.dolphin.infomodel.PatientModel;
 import open.dolphin.infomodel.PatientVisitModel;
@@ -40,6 +45,9 @@ public class NLaboTestImporter extends AbstractMainComponent implements Property
     
     private static final Color UNCONSTRAINED_COLOR = new Color(255,102,102);
     private static final String[] LAB_FILES = {"DAT","dat","DAT2","dat2","HL7","hl7", "TXT", "txt", "CSV", "csv"};
+
+    // 一度に登録する検査モジュールの数
+    private static final int POST_BATCH_SIZE = 50;
     
     // 選択されている患者情報
     private NLaboImportSummary selectedLabo;
@@ -331,6 +339,9 @@ public class NLaboTestImporter extends AbstractMainComponent implements Property
 
     /**
      * パースした検査結果を登録する。
+     * POST_BATCH_SIZE 件ずつまとめて送る。送る JSON は別スレッドで先に作っておき、
+     * 送信と重ねる（待ち行列は小さくして先読みし過ぎないようにする）。
+     * まとめて送れなかった場合はそのバッチを一件ずつ送り直す。
      */
     private void addLabtest() {
 
@@ -341,41 +352,75 @@ public class NLaboTestImporter extends AbstractMainComponent implements Property
             @Override
             protected Void doInBackground() throws Exception {
 
-                LaboDelegater laboDelegater = new LaboDelegater();
-
-                for (NLaboImportSummary summary : modules) {
+                final LaboDelegater laboDelegater = new LaboDelegater();
+                final BlockingQueue<ImportBatch> queue = new ArrayBlockingQueue<>(2);
 
-//s.oh^ 2013/08/29
-                    //PatientModel pm = laboDelegater.putNLaboModule(summary.getModule());
-                    PatientModel pm ;
+                Thread encoder = new Thread(() -> {
                     try {
-                        pm = laboDelegater.putNLaboModule(summary.getModule());
-                    } catch (Exception ex) {
-                        String why = ex.getMessage();
-                        Window parent = SwingUtilities.getWindowAncestor(getUI());
-                        java.util.ResourceBundle bundle = ClientContext.getMyBundle(NLaboTestImporter.class);
-                        String fmt = bundle.getString("messageFormat.cannotParseFile");
-                        MessageFormat msf = new MessageFormat(fmt);
-                        String message = msf.format(new Object[]{why});
-                        String title = bundle.getString("title.optionPane.labReceiver");
-                        JOptionPane.showMessageDialog(parent, message, ClientContext.getFrameTitle(title), JOptionPane.WARNING_MESSAGE);
-                        pm = null;
+                        for (int i = 0; i < modules.size(); i += POST_BATCH_SIZE) {
+                            List<NLaboImportSummary> batch = modules.subList(i, Math.min(i + POST_BATCH_SIZE, modules.size()));
+                            List<NLaboModule> list = new ArrayList<>(batch.size());
+                            for (NLaboImportSummary summary : batch) {
+                                list.add(summary.getModule());
+                            }
+                            byte[] data;
+                            try {
+                                data = laboDelegater.encodeNLaboModules(list);
+                            } catch (Exception e) {
+                                e.printStackTrace(System.err);
+                                data = null;
+                            }
+                            queue.put(new ImportBatch(batch, data));
+                        }
+                        queue.put(ImportBatch.END);
+                    } catch (InterruptedException e) {
                     }
-//s.oh$
+                }, "lab-import-encoder");
+                encoder.setDaemon(true);
+                encoder.start();
 
-                    if (pm != null) {
-                        summary.setPatient(pm);
-                        summary.setResult(SUCCESS);
+                int done = 0;
+                try {
+                    while (true) {
+                        ImportBatch batch = queue.take();
+                        if (batch == ImportBatch.END) {
+                            break;
+                        }
 
-                    } else {
-                        summary.setResult(ERROR);
-                    }
+                        List<PatientModel> result = null;
+                        if (batch.data != null) {
+                            try {
+                                result = laboDelegater.putNLaboModules(batch.data);
+                            } catch (Exception ex) {
+                                ex.printStackTrace(System.err);
+                            }
+                        }
+
+                        if (result != null) {
+                            Map<String, PatientModel> map = new HashMap<>();
+                            for (PatientModel pm : result) {
+                                map.put(pm.getPatientId(), pm);
+                            }
+                            for (NLaboImportSummary summary : batch.summaries) {
+                                setResult(summary, map.get(summary.getModule().getPatientId()));
+                            }
+                        } else {
+                            for (NLaboImportSummary summary : batch.summaries) {
+                                setResult(summary, putNLaboModule(laboDelegater, summary));
+                            }
+                        }
 
-                    // Table 更新
-                    Runnable awt = () -> {
-                        getTableModel().fireTableDataChanged();
-                    };
-                    EventQueue.invokeLater(awt);
+                        done += batch.summaries.size();
+                        setProgress(done * 100 / modules.size());
+
+                        // Table 更新
+                        Runnable awt = () -> {
+                            getTableModel().fireTableDataChanged();
+                        };
+                        EventQueue.invokeLater(awt);
+                    }
+                } finally {
+                    encoder.interrupt();
                 }
 
                 return null;
@@ -386,7 +431,10 @@ public class NLaboTestImporter extends AbstractMainComponent implements Property
 
             @Override
             public void propertyChange(PropertyChangeEvent evt) {
-                if (evt.getNewValue().equals(javax.swing.SwingWorker.StateValue.STARTED)) {
+                if ("progress".equals(evt.getPropertyName())) {
+                    getProgressBar().setIndeterminate(false);
+                    getProgressBar().setValue((Integer)evt.getNewValue());
+                } else if (evt.getNewValue().equals(javax.swing.SwingWorker.StateValue.STARTED)) {
                     getProgressBar().setIndeterminate(true);
                 } else if (evt.getNewValue().equals(javax.swing.SwingWorker.StateValue.DONE)) {
                     getProgressBar().setIndeterminate(false);
@@ -399,6 +447,54 @@ public class NLaboTestImporter extends AbstractMainComponent implements Property
         worker.execute();
     }
 
+    // 一件ずつ登録する
+    private PatientModel putNLaboModule(LaboDelegater laboDelegater, NLaboImportSummary summary) {
+//s.oh^ 2013/08/29
+        //PatientModel pm = laboDelegater.putNLaboModule(summary.getModule());
+        PatientModel pm ;
+        try {
+            pm = laboDelegater.putNLaboModule(summary.getModule());
+        } catch (Exception ex) {
+            String why = ex.getMessage();
+            Window parent = SwingUtilities.getWindowAncestor(getUI());
+            java.util.ResourceBundle bundle = ClientContext.getMyBundle(NLaboTestImporter.class);
+            String fmt = bundle.getString("messageFormat.cannotParseFile");
+            MessageFormat msf = new MessageFormat(fmt);
+            String message = msf.format(new Object[]{why});
+            String title = bundle.getString("title.optionPane.labReceiver");
+            JOptionPane.showMessageDialog(parent, message, ClientContext.getFrameTitle(title), JOptionPane.WARNING_MESSAGE);
+            pm = null;
+        }
+//s.oh$
+        return pm;
+    }
+
+    private void setResult(NLaboImportSummary summary, PatientModel pm) {
+        if (pm != null) {
+            summary.setPatient(pm);
+            summary.setResult(SUCCESS);
+
+        } else {
+            summary.setResult(ERROR);
+        }
+    }
+
+    /**
+     * まとめて送る検査結果と、その JSON
+     */
+    private static final class ImportBatch {
+
+        private static final ImportBatch END = new ImportBatch(null, null);
+
+        private final List<NLaboImportSummary> summaries;
+        private final byte[] data;
+
+        private ImportBatch(List<NLaboImportSummary> summaries, byte[] data) {
+            this.summaries = summaries;
+            this.data = data;
+        }
+    }
+
     
     /**
      * コンポーンントにリスナを登録し接続する。
@@ -60,7 +60,7 @@ public class WolfParser implements LabResultParser {
                 continue;
             }
 
-            String[] data = line.split(CSV_DELIM);    // CSV
+            String[] data = CSV_PATTERN.split(line);    // CSV
             if (data.length==0) {
                 continue;
             }
@@ -63,7 +63,12 @@ public class LaboTestBean extends AbstractChartDocument {
 //s.oh$
     
     // ラボデータの削除 2013/06/24
-    private List<NLaboModule> modules;
+    // 表示している列の検査モジュール PK と検体採取日
+    private List<Long> moduleIds;
+    private List<String> sampleDates;
+
+    // 頁の最初の番号 -> その頁を取得するキー（前の頁の nextSampleDate/nextId）
+    private final Map<Integer, NLaboTable> pageKeys = new HashMap<>();
     
     public LaboTestBean() {
         String title = ClientContext.getMyBundle(LaboTestBean.class).getString("title.Document");
@@ -78,7 +83,11 @@ public class LaboTestBean extends AbstractChartDocument {
         this.maxResult = maxResult;
     }
 
-    public void createTable(List<NLaboModule> moduleList) {
+    /**
+     * サーバーで検査項目 x 検体採取日に組んだ表からテーブルを生成する。
+     * @param labTable NLaboTable
+     */
+    public void createTable(NLaboTable labTable) {
 
         // 現在のデータをクリアする
         if (tableModel != null && tableModel.getDataProvider() != null) {
@@ -96,111 +105,23 @@ public class LaboTestBean extends AbstractChartDocument {
             header[col] = "";
         }
         
-        if (modules!=null) {
-            modules.clear();
-        }
-        modules = moduleList;       
+        moduleIds = labTable != null ? labTable.getModuleIds() : null;
+        sampleDates = labTable != null ? labTable.getSampleDates() : null;
 
         // 結果がゼロであれば返る
-        if (modules == null || modules.isEmpty()) {
+        if (moduleIds == null || moduleIds.isEmpty()) {
             tableModel = new ListTableModel<>(header, 0);
             table.setModel(tableModel);
             setColumnWidth();
             return;
         }
 
-        // 検体採取日の降順なので昇順にソートする
-//s.oh^ 2013/06/13 カラムの並び順
-        //Collections.sort(modules, new SampleDateComparator());
-        if(!Project.getBoolean("labtest.column.newest.left", false)) {
-            Collections.sort(modules, new SampleDateComparator());
+        // 列の並び（labtest.column.newest.left）と行の並びはサーバーで揃えてある
+        for (int col = 0; col < sampleDates.size() && col + 1 < header.length; col++) {
+            header[col+1] = sampleDates.get(col);
         }
-//s.oh$
 
-        // テスト項目全てに対応する rowObject を生成する
-        List<LabTestRowObject> dataProvider = new ArrayList<>();
-
-        int moduleIndex = 0;
-
-        for (NLaboModule module : modules) {
-
-            // 検体採取日
-            header[moduleIndex+1] = module.getSampleDate();
-
-            // モジュールに含まれる検査項目
-            Collection<NLaboItem> c = module.getItems();
-
-            for (NLaboItem item : c) {
-
-                // RowObject を生成し dataProvider へ加える
-                // 最初のモジュールのテスト項目は無条件に加える
-                if (moduleIndex == 0) {
-                    // row
-                    LabTestRowObject row = new LabTestRowObject();
-                    row.setLabCode(item.getLaboCode());
-                    row.setGroupCode(item.getGroupCode());
-                    row.setParentCode(item.getParentCode());
-                    row.setItemCode(item.getItemCode());
-                    row.setItemName(item.getItemName());
-                    row.setUnit(item.getUnit());
-                    row.setNormalValue(item.getNormalValue());
-                    // valueを moduleIndex番目にセットする
-                    LabTestValueObject value = new LabTestValueObject();
-                    value.setSampleDate(module.getSampleDate());
-                    value.setValue(item.getValue());
-                    value.setOut(item.getAbnormalFlg());
-                    value.setComment1(item.getComment1());
-                    value.setComment2(item.getComment2());
-                    row.addLabTestValueObjectAt(moduleIndex, value);
-                    //
-                    dataProvider.add(row);
-                    continue;
-                }
-
-                // 二つ目のモジュールからは無かったら加える
-                boolean found = false;
-
-                for (LabTestRowObject rowObject : dataProvider) {
-                    if (item.getItemCode().equals(rowObject.getItemCode())) {
-                        found = true;
-                        LabTestValueObject value = new LabTestValueObject();
-                        value.setSampleDate(module.getSampleDate());
-                        value.setValue(item.getValue());
-                        value.setOut(item.getAbnormalFlg());
-                        value.setComment1(item.getComment1());
-                        value.setComment2(item.getComment2());
-                        rowObject.addLabTestValueObjectAt(moduleIndex, value);
-                        break;
-                    }
-                }
-
-                if (!found) {
-                    LabTestRowObject row = new LabTestRowObject();
-                    row.setLabCode(item.getLaboCode());
-                    row.setGroupCode(item.getGroupCode());
-                    row.setParentCode(item.getParentCode());
-                    row.setItemCode(item.getItemCode());
-                    row.setItemName(item.getItemName());
-                    row.setUnit(item.getUnit());
-                    row.setNormalValue(item.getNormalValue());
-                    //
-                    LabTestValueObject value = new LabTestValueObject();
-                    value.setSampleDate(module.getSampleDate());
-                    value.setValue(item.getValue());
-                    value.setOut(item.getAbnormalFlg());
-                    value.setComment1(item.getComment1());
-                    value.setComment2(item.getComment2());
-                    row.addLabTestValueObjectAt(moduleIndex, value);
-                    //
-                    dataProvider.add(row);
-                }
-            }
-
-            moduleIndex++;
-        }
-
-        // dataProvider の要素 rowObject をソートする
-        Collections.sort(dataProvider);
+        List<LabTestRowObject> dataProvider = labTable.getRows() != null ? labTable.getRows() : new ArrayList<LabTestRowObject>();
 
         // Table Model
         tableModel = new ListTableModel<>(header, 0);
@@ -242,13 +163,17 @@ public class LaboTestBean extends AbstractChartDocument {
                     if (index==0) {
                         return;
                     }
-                    final NLaboModule toDelete = modules.get(index-1);
+                    if (index > moduleIds.size()) {
+                        return;
+                    }
+                    final long toDelete = moduleIds.get(index-1);
+                    final String toDeleteDate = sampleDates.get(index-1);
                     JPopupMenu popup = new JPopupMenu();
                     String actionText = ClientContext.getMyBundle(LaboTestBean.class).getString("actionText.delete");
                     popup.add(new AbstractAction(actionText) {
                         @Override
                         public void actionPerformed(ActionEvent e) {
-                            String date = toDelete.getSampleDate().replaceAll(" 00:00", "");
+                            String date = toDeleteDate.replaceAll(" 00:00", "");
                             java.util.ResourceBundle bundle = ClientContext.getMyBundle(LaboTestBean.class);
                             String fmt = bundle.getString("messageFormat.deleteTest");
                             MessageFormat msf = new MessageFormat(fmt);
@@ -263,7 +188,7 @@ public class LaboTestBean extends AbstractChartDocument {
                                 case 0:
                                     break;
                                 case 1:
-                                    deleteLabTest(toDelete.getId());
+                                    deleteLabTest(toDelete);
                                     break;
                             }
                         }
@@ -481,29 +406,31 @@ public class LaboTestBean extends AbstractChartDocument {
 
     /**
      * LaboTest の検索タスクをコールする。
+     * 前の頁を取得済であればそのキーから、無ければ firstResult から取得する。
      */
     private void searchLaboTest(final int firstResult) {
 
         final String pid = getContext().getPatient().getPatientId();
+        final boolean newestLeft = Project.getBoolean("labtest.column.newest.left", false);
+        final NLaboTable key = pageKeys.get(firstResult);
         ldl = new LaboDelegater();
 
-        DBTask task = new DBTask<List<NLaboModule>, Void>(getContext()) {
+        DBTask task = new DBTask<NLaboTable, Void>(getContext()) {
 
             @Override
-            protected List<NLaboModule> doInBackground() throws Exception {
-                List<NLaboModule> result = ldl.getLaboTest(pid, firstResult, getMaxResult());
-                return result;
+            protected NLaboTable doInBackground() throws Exception {
+                if (key != null) {
+                    return ldl.getLaboTable(pid, firstResult, getMaxResult(), newestLeft, key.getNextSampleDate(), key.getNextId());
+                }
+                return ldl.getLaboTable(pid, firstResult, getMaxResult(), newestLeft, null, 0L);
             }
 
             @Override
-            protected void succeeded(List<NLaboModule> result) {
-                int moduleCount = result != null ? result.size() : 0;
-                // 全件表示修正^
-                //countField.setText(String.valueOf(moduleCount));
-//s.oh^ 2014/08/04 ラボデータ表示不具合対応
-                //createTable(result);
-                createTable(checkLaboModules(result));
-//s.oh$
+            protected void succeeded(NLaboTable result) {
+                if (result != null && result.getNextSampleDate() != null) {
+                    pageKeys.put(firstResult + getMaxResult(), result);
+                }
+                createTable(result);
             }
         };
 
@@ -511,47 +438,6 @@ public class LaboTestBean extends AbstractChartDocument {
 
     }
     
-//s.oh^ 2014/08/04 ラボデータ表示不具合対応
-    public List<NLaboModule> checkLaboModules(List<NLaboModule> modules) {
-        if(modules != null) {
-            for(int i = 0; i < modules.size(); i++) {
-                NLaboModule module = modules.get(i);
-                List<NLaboItem> items = new ArrayList<>();
-                for(int j = 0; j < module.getItems().size(); j++) {
-                    NLaboItem item = module.getItems().get(j);
-                    if(items.size() <= 0) {
-                        items.add(item);
-                    }else{
-                        int addedIdx = -1;
-                        boolean notadd = false;
-                        for(int k = 0; k < items.size(); k++) {
-                            NLaboItem addedItem = items.get(k);
-                            if(item.getItemCode().equals(addedItem.getItemCode())) {
-                                if(addedItem.getReportStatus()!= null && addedItem.getReportStatus().equals("E")) {
-                                    notadd = true;
-                                }else{
-                                    items.remove(k);
-                                    addedIdx = k;
-                                    break;
-                                }
-                            }
-                        }
-                        if(!notadd) {
-                            if(addedIdx >= 0) {
-                                items.add(addedIdx, item);
-                            }else{
-                                items.add(item);
-                            }
-                        }
-                    }
-                }
-                module.setItems(items);
-            }
-        }
-        return modules;
-    }
-//s.oh$
-    
     // 全件表示修正^
     private void firstSearch() {
 
@@ -662,6 +548,7 @@ public class LaboTestBean extends AbstractChartDocument {
 
             @Override
             protected void succeeded(Integer result) {
+                pageKeys.clear();
                 if (extractionCombo.getSelectedIndex()==0) {
                     searchLaboTest(0);
                 } else {
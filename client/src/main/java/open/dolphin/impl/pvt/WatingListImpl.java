@@ -213,6 +213,9 @@ public class WatingListImpl extends AbstractMainComponent implements PropertyCha
     // PatientVisitModelの全部
     private List<PatientVisitModel> pvtList;
     
+    // サーバーから最後に受け取った pvtList の版（差分取得用）
+    private long pvtListVersion;
+    
     // pvt delegater
     private PVTDelegater pvtDelegater;
     private int selectedRowBeforeFullPvt;
@@ -1225,21 +1228,22 @@ public class WatingListImpl extends AbstractMainComponent implements PropertyCha
     // pvtを全取得する
     private void getFullPvt() {
 
-        SwingWorker worker = new SwingWorker<List<PatientVisitModel>, Void>() {
+        SwingWorker worker = new SwingWorker<PatientVisitListDelta, Void>() {
 
             @Override
-            protected List<PatientVisitModel> doInBackground() throws Exception {
+            protected PatientVisitListDelta doInBackground() throws Exception {
                 setBusy(true);
-                // サーバーからpvtListを取得する
-                return pvtDelegater.getPvtList();
+                // サーバーからpvtListを取得する 版 0 は全件
+                return pvtDelegater.getPvtListDelta(0L);
             }
 
             @Override
             protected void done() {
                 try {
-                    List<PatientVisitModel> ret = get();
-                    if (ret!=null && ret.size()>0) {
-                        pvtList = ret;
+                    PatientVisitListDelta ret = get();
+                    if (ret!=null) {
+                        pvtList = ret.getList();
+                        pvtListVersion = ret.getVersion();
                     }
                     // フィルタリング
                     filterPatients();
@@ -1269,17 +1273,19 @@ public class WatingListImpl extends AbstractMainComponent implements PropertyCha
             selectedRowBeforeFullPvt = pvtTable.getSelectedRow();
         });
         
+        // 前回以降の差分だけを取得する
+        PatientVisitListDelta delta = null;
         try {
-            List<PatientVisitModel> results = pvtDelegater.getPvtList();
-            if (results!=null && results.size()>0)  {
-                pvtList = results;
-            }
+            delta = pvtDelegater.getPvtListDelta(pvtListVersion);
         } catch (Exception e) {
             e.printStackTrace(System.err);
         }
+        final PatientVisitListDelta results = delta;
         
         SwingUtilities.invokeLater(() -> {
-            filterPatients();
+            if (results != null) {
+                applyPvtDelta(results);
+            }
             countPvt();
             updatePvtInfo();
             
@@ -1337,38 +1343,101 @@ public class WatingListImpl extends AbstractMainComponent implements PropertyCha
     }
 //s.oh$
     
-    // 受付番号を振り、フィルタリングしてtableModelに設定する
-    private void filterPatients() {
-
-        List<PatientVisitModel> list = new ArrayList<>();
-        List<PatientVisitModel> listTmp = new ArrayList<>();
+    // 差分を pvtList に反映する
+    // 既に表示している行の変更はその行だけを更新し、行の増減がある場合のみフィルタリングし直す
+    private void applyPvtDelta(PatientVisitListDelta delta) {
+        
+        pvtListVersion = delta.getVersion();
+        
+        if (delta.isFull()) {
+            pvtList = delta.getList();
+            filterPatients();
+            return;
+        }
+        
+        boolean refilter = false;
+        
+        // 削除された受付
+        for (Long pk : delta.getRemoved()) {
+            int index = indexOfPvt(pvtList, pk);
+            if (index >= 0) {
+                pvtList.remove(index);
+                refilter = true;
+            }
+        }
+        
+        // 追加・変更された受付
+        List<PatientVisitModel> tableDataList = pvtTableModel.getDataProvider();
+        for (PatientVisitModel model : delta.getList()) {
+            int index = indexOfPvt(pvtList, model.getId());
+            if (index < 0) {
+                pvtList.add(model);
+                refilter = true;
+                continue;
+            }
+            pvtList.set(index, model);
+            
+            int row = indexOfPvt(tableDataList, model.getId());
+            if (row >= 0 && isShownPvt(model)) {
+                // 受付番号を継承
+                model.setNumber(tableDataList.get(row).getNumber());
+                tableDataList.set(row, model);
+                pvtTableModel.fireTableRowsUpdated(row, row);
+            } else if (row >= 0 || isShownPvt(model)) {
+                refilter = true;
+            }
+        }
+        
+        if (refilter) {
+            filterPatients();
+        }
+    }
+    
+    private int indexOfPvt(List<PatientVisitModel> list, long pvtPk) {
+        if (list != null) {
+            for (int i = 0; i < list.size(); ++i) {
+                if (list.get(i).getId() == pvtPk) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+    
+    // 受付リストに表示する受付かどうか
+    private boolean isShownPvt(PatientVisitModel pvt) {
         
 //s.oh^ ORCAIDがない場合は全部表示 2013/08/08
-        //if (isAssignedOnly() && pvtList!=null) {
-        if (isAssignedOnly() && pvtList!=null && orcaId != null) {
+        if (isAssignedOnly() && orcaId != null) {
 //s.oh$
-            for (PatientVisitModel pvt : pvtList) {
-                String doctorId = pvt.getDoctorId();
-                if (doctorId == null || doctorId.equals(orcaId) || doctorId.equals(UN_ASSIGNED_ID)) {
-                    listTmp.add(pvt);
-                }
+            String doctorId = pvt.getDoctorId();
+            if (doctorId != null && !doctorId.equals(orcaId) && !doctorId.equals(UN_ASSIGNED_ID)) {
+                return false;
             }
-        } else if (pvtList!=null) {
-            listTmp.addAll(pvtList);
         }
         
 //s.oh^ 2014/08/08 受付フィルタ(診療行為送信済)
         if(isSendedOnly()) {
-            for(PatientVisitModel pvt : listTmp) {
-                if((pvt.getState() & (1 << PatientVisitModel.BIT_SAVE_CLAIM)) > 0 || (pvt.getState() & (1 << PatientVisitModel.BIT_MODIFY_CLAIM)) > 0) {
-                }else{
+            if((pvt.getState() & (1 << PatientVisitModel.BIT_SAVE_CLAIM)) > 0 || (pvt.getState() & (1 << PatientVisitModel.BIT_MODIFY_CLAIM)) > 0) {
+                return false;
+            }
+        }
+//s.oh$
+        return true;
+    }
+    
+    // 受付番号を振り、フィルタリングしてtableModelに設定する
+    private void filterPatients() {
+
+        List<PatientVisitModel> list = new ArrayList<>();
+        
+        if (pvtList!=null) {
+            for (PatientVisitModel pvt : pvtList) {
+                if (isShownPvt(pvt)) {
                     list.add(pvt);
                 }
             }
-        }else{
-            list.addAll(listTmp);
         }
-//s.oh$
         
         for (int i = 0; i < list.size(); ++i) {
             PatientVisitModel pvt = list.get(i);
@@ -115,6 +115,9 @@ public class SchemaEditorImpl implements SchemaEditor {
         if (image != null) {
             ImageIcon icon = new ImageIcon(image);
             model.setIcon(icon);
+            // 画像が変わったので保存時に JPEG を作り直す
+            model.setJpegByte(null);
+            model.setThumbnailByte(null);
             String text = view.getTitleFld().getText().trim();
             if (text.equals("")) {
                 text = DEFAULT_TITLE;
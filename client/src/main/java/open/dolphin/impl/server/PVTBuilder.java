@@ -12,15 +12,12 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.Iterator;
 import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import open.dolphin.infomodel.*;
-import org.jdom.Attribute;
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.JDOMException;
-import org.jdom.Namespace;
-import org.jdom.input.SAXBuilder;
 
 /**
  * PVTBuilder
@@ -29,18 +26,20 @@ import org.jdom.input.SAXBuilder;
  */
 public final class PVTBuilder {
 
-    private static final Namespace mmlCm = Namespace.getNamespace("mmlCm","http://www.medxml.net/MML/SharedComponent/Common/1.0");
-    private static final Namespace mmlNm = Namespace.getNamespace("mmlNm","http://www.medxml.net/MML/SharedComponent/Name/1.0");
-    private static final Namespace mmlFc = Namespace.getNamespace("mmlFc","http://www.medxml.net/MML/SharedComponent/Facility/1.0");
-    private static final Namespace mmlDp = Namespace.getNamespace("mmlDp","http://www.medxml.net/MML/SharedComponent/Department/1.0");
-    private static final Namespace mmlAd = Namespace.getNamespace("mmlAd","http://www.medxml.net/MML/SharedComponent/Address/1.0");
-    private static final Namespace mmlPh = Namespace.getNamespace("mmlPh","http://www.medxml.net/MML/SharedComponent/Phone/1.0");
-    private static final Namespace mmlPsi = Namespace.getNamespace("mmlPsi","http://www.medxml.net/MML/SharedComponent/PersonalizedInfo/1.0");
-    private static final Namespace mmlCi = Namespace.getNamespace("mmlCi","http://www.medxml.net/MML/SharedComponent/CreatorInfo/1.0");
-    private static final Namespace mmlPi = Namespace.getNamespace("mmlPi","http://www.medxml.net/MML/ContentModule/PatientInfo/1.0");
-    private static final Namespace mmlHi = Namespace.getNamespace("mmlHi","http://www.medxml.net/MML/ContentModule/HealthInsurance/1.1");
-    private static final Namespace mmlSc = Namespace.getNamespace("mmlSc","http://www.medxml.net/MML/SharedComponent/Security/1.0");
-    private static final Namespace claim = Namespace.getNamespace("claim","http://www.medxml.net/claim/claimModule/2.1");
+    private static final String mmlCm = "http://www.medxml.net/MML/SharedComponent/Common/1.0";
+    private static final String mmlNm = "http://www.medxml.net/MML/SharedComponent/Name/1.0";
+    private static final String mmlFc = "http://www.medxml.net/MML/SharedComponent/Facility/1.0";
+    private static final String mmlDp = "http://www.medxml.net/MML/SharedComponent/Department/1.0";
+    private static final String mmlAd = "http://www.medxml.net/MML/SharedComponent/Address/1.0";
+    private static final String mmlPh = "http://www.medxml.net/MML/SharedComponent/Phone/1.0";
+    private static final String mmlPsi = "http://www.medxml.net/MML/SharedComponent/PersonalizedInfo/1.0";
+    private static final String mmlCi = "http://www.medxml.net/MML/SharedComponent/CreatorInfo/1.0";
+    private static final String mmlPi = "http://www.medxml.net/MML/ContentModule/PatientInfo/1.0";
+    private static final String mmlHi = "http://www.medxml.net/MML/ContentModule/HealthInsurance/1.1";
+    private static final String mmlSc = "http://www.medxml.net/MML/SharedComponent/Security/1.0";
+    private static final String claim = "http://www.medxml.net/claim/claimModule/2.1";
+    
+    private static final String NO_NAMESPACE = "";
     
     private static final String MmlBody = "MmlBody";
     private static final String MmlModuleItem = "MmlModuleItem";
@@ -114,6 +113,15 @@ public final class PVTBuilder {
     private static final char FULL_SPACE = '　';
     private static final char HALF_SPACE = ' ';
     
+    // 生成済の XMLInputFactory はスレッドセーフに使える
+    private static final XMLInputFactory XML_INPUT_FACTORY;
+    static {
+        XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+    
     private PatientModel patientModel;
     
     private AddressModel curAddress;
@@ -129,6 +137,24 @@ public final class PVTBuilder {
     private PVTClaim pvtClaim;
     
     private String curRepCode;
+    
+    // 走査中の要素のスタック（名前空間 URI、ローカル名、修飾名、直下のテキスト）
+    private final List<String> stackUri = new ArrayList<>();
+    private final List<String> stackLocal = new ArrayList<>();
+    private final List<String> stackQName = new ArrayList<>();
+    private final List<StringBuilder> stackText = new ArrayList<>();
+    
+    // 走査中の MmlModuleItem
+    private String moduleType;
+    private String contentType;
+    private String docUid;
+    private String creatorId;
+    private String creatorName;
+    private String creatorJmari;
+    private String creatorDeptName;
+    private String creatorDeptCode;
+    private boolean inHModule;
+    private boolean hModuleParsed;
 
     
     public PVTBuilder() {
@@ -136,21 +162,31 @@ public final class PVTBuilder {
     
     /**
      * CLAIM モジュールをパースする。
+     * JDOM のツリーを作らず StAX で一度だけ走査し、モデルへ直接設定する。
      *
      * @param reader CLAIM モジュールへの Reader
      */
     public void parse(BufferedReader reader) {
         
+        XMLStreamReader xr = null;
         try {
-            SAXBuilder docBuilder = new SAXBuilder();
-            Document doc = docBuilder.build(reader);
-            Element root = doc.getRootElement();
-            parseBody(root.getChild(MmlBody));
-            reader.close();
+            xr = XML_INPUT_FACTORY.createXMLStreamReader(reader);
+            parseDocument(xr);
             
-        } catch (JDOMException | IOException e) {
+        } catch (Exception e) {
             e.printStackTrace(System.err);
-            java.util.logging.Logger.getLogger(this.getClass().getName()).warning(e.getMessage());
+            
+        } finally {
+            if (xr != null) {
+                try {
+                    xr.close();
+                } catch (XMLStreamException e) {
+                }
+            }
+            try {
+                reader.close();
+            } catch (IOException e) {
+            }
         }
     }
     
@@ -272,421 +308,480 @@ public final class PVTBuilder {
     }
     
     /**
-     * MmlBody 要素をパースする。
+     * 文書全体を走査する。
+     * 要素のスタックと直下のテキストを保持し、開始タグで属性を、終了タグでテキストを処理する。
+     * 
+     * 深さ 0:Mml 1:MmlBody 2:MmlModuleItem 3:docInfo/content
      *
-     * @param body
+     * @param xr XMLStreamReader
      */
-    public void parseBody(Element body) {
+    private void parseDocument(XMLStreamReader xr) throws XMLStreamException {
         
-        // MmlModuleItem のリストを得る
-        List children = body.getChildren(MmlModuleItem);
-        
-        //----------------------------
-        // それをイテレートする
-        //----------------------------
-        for (Iterator iterator = children.iterator(); iterator.hasNext();) {
+        while (xr.hasNext()) {
             
-            Element moduleItem = (Element) iterator.next();
+            switch (xr.next()) {
+                
+                case XMLStreamConstants.START_ELEMENT:
+                    String uri = xr.getNamespaceURI();
+                    String prefix = xr.getPrefix();
+                    String local = xr.getLocalName();
+                    stackUri.add(uri != null ? uri : NO_NAMESPACE);
+                    stackLocal.add(local);
+                    stackQName.add(prefix != null && !prefix.isEmpty() ? prefix + ":" + local : local);
+                    stackText.add(null);
+                    startElement(xr, stackLocal.size() - 1);
+                    break;
+                    
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    int top = stackText.size() - 1;
+                    if (top >= 0) {
+                        StringBuilder sb = stackText.get(top);
+                        if (sb == null) {
+                            sb = new StringBuilder();
+                            stackText.set(top, sb);
+                        }
+                        sb.append(xr.getTextCharacters(), xr.getTextStart(), xr.getTextLength());
+                    }
+                    break;
+                    
+                case XMLStreamConstants.END_ELEMENT:
+                    int depth = stackLocal.size() - 1;
+                    StringBuilder sb = stackText.get(depth);
+                    endElement(depth, sb != null ? sb.toString().trim() : "");
+                    stackUri.remove(depth);
+                    stackLocal.remove(depth);
+                    stackQName.remove(depth);
+                    stackText.remove(depth);
+                    break;
+                    
+                default:
+                    break;
+            }
+        }
+    }
+    
+    private void startElement(XMLStreamReader xr, int depth) {
+        
+        if (depth == 2) {
+            if (at(1, NO_NAMESPACE, MmlBody) && at(2, NO_NAMESPACE, MmlModuleItem)) {
+                // MmlModuleItem = docInfo + content
+                moduleType = null;
+                contentType = null;
+                docUid = null;
+                creatorId = null;
+                creatorName = null;
+                creatorJmari = null;
+                creatorDeptName = null;
+                creatorDeptCode = null;
+            }
+            return;
+        }
+        
+        if (depth < 3 || !at(2, NO_NAMESPACE, MmlModuleItem) || !at(1, NO_NAMESPACE, MmlBody)) {
+            return;
+        }
+        
+        if (depth == 3) {
+            if (at(3, NO_NAMESPACE, docInfo)) {
+                // docInfo の contentModuleType を調べる
+                moduleType = xr.getAttributeValue(null, contentModuleType);
+                
+            } else if (at(3, NO_NAMESPACE, content)) {
+                startContent();
+            }
+            return;
+        }
+        
+        if (contentType == null || !at(3, NO_NAMESPACE, content)) {
+            return;
+        }
+        
+        switch (contentType) {
+            case patientInfo:
+                startPatientInfo(xr);
+                break;
+            case healthInsurance:
+                startHealthInsurance(xr, depth);
+                break;
+            case e_claim:
+                startClaim(xr, depth);
+                break;
+        }
+    }
+    
+    private void endElement(int depth, String text) {
+        
+        if (depth < 2 || !at(1, NO_NAMESPACE, MmlBody) || !at(2, NO_NAMESPACE, MmlModuleItem)) {
+            return;
+        }
+        
+        if (depth == 2) {
+            endModuleItem();
+            return;
+        }
+        
+        if (at(3, NO_NAMESPACE, docInfo)) {
+            endDocInfo(depth, text);
             
-            //---------------------------------------------------
-            // ModuleItem = docInfo + content なので夫々の要素を得る
-            //---------------------------------------------------
-            Element docInfoEle = moduleItem.getChild(docInfo);
-            Element contentEle = moduleItem.getChild(content);
+        } else if (depth > 3 && contentType != null && at(3, NO_NAMESPACE, content)) {
+            switch (contentType) {
+                case patientInfo:
+                    endPatientInfo(stackQName.get(depth), text);
+                    break;
+                case healthInsurance:
+                    endHealthInsurance(depth, text);
+                    break;
+                case e_claim:
+                    endClaim(depth, text);
+                    break;
+            }
+        }
+    }
+    
+    /**
+     * content の開始 contentModuleTypeで分岐する
+     */
+    private void startContent() {
+        
+        if (patientInfo.equals(moduleType)) {
+            //-----------------------
+            // 患者モジュールをパースする
+            //-----------------------
+            patientModel = new PatientModel();
+            contentType = patientInfo;
             
-            // docInfo の contentModuleType を調べる
-            String attr = docInfoEle.getAttributeValue(contentModuleType);
+        } else if (healthInsurance.equals(moduleType)) {
+            //------------------------------
+            // 健康保険モジュールをパースする
+            // GUID は MmlModuleItem の終わりで設定する
+            //------------------------------
+            if (pvtInsurnaces == null) {
+                pvtInsurnaces = new ArrayList<>();
+            }
+            curInsurance = new PVTHealthInsuranceModel();
+            pvtInsurnaces.add(curInsurance);
+            inHModule = false;
+            hModuleParsed = false;
+            contentType = healthInsurance;
             
+        } else if (e_claim.equals(moduleType)) {
             //------------------------------
-            // contentModuleTypeで分岐する
+            // 受付情報をパースする
             //------------------------------
-            if (attr.equals(patientInfo)) {
-                //-----------------------
-                // 患者モジュールをパースする
-                //-----------------------
-                java.util.logging.Logger.getLogger(this.getClass().getName()).fine("patientInfo　をパース中");
-                patientModel = new PatientModel();
-                parsePatientInfo(docInfoEle, contentEle);
-                
-            } else if (attr.equals(healthInsurance)) {
-                //------------------------------
-                // 健康保険モジュールをパースする
-                //------------------------------
-                String uuid = docInfoEle.getChild(docId).getChildTextTrim(uid);
-                
-                java.util.logging.Logger.getLogger(this.getClass().getName()).fine("healthInsurance　をパース中");
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "HealthInsurance UUID = {0}", uuid);
-
-                if (pvtInsurnaces == null) {
-                    pvtInsurnaces = new ArrayList<>();
-                }
-                curInsurance = new PVTHealthInsuranceModel();
-                curInsurance.setGUID(uuid);
-                pvtInsurnaces.add(curInsurance);
-                parseHealthInsurance(docInfoEle, contentEle);
-                
-            } else if (attr.equals(e_claim)) {
-                //------------------------------
-                // 受付情報をパースする
-                //------------------------------
-                java.util.logging.Logger.getLogger(this.getClass().getName()).fine("claim　をパース中");
-                
-                pvtClaim = new PVTClaim();
-                parseClaim(docInfoEle, contentEle);
+            pvtClaim = new PVTClaim();
+            contentType = e_claim;
+            
+        } else {
+            System.err.println("Unknown attribute value : " + moduleType);
+        }
+    }
+    
+    private void endModuleItem() {
+        
+        if (healthInsurance.equals(contentType)) {
+            curInsurance.setGUID(docUid);
+            
+        } else if (e_claim.equals(contentType)) {
+            //-------------------------------------------------------
+            // ClaimModule の DocInfo に含まれる診療科と担当医
+            //-------------------------------------------------------
+            pvtClaim.setAssignedDoctorId(creatorId);
+            pvtClaim.setAssignedDoctorName(creatorName);
+            pvtClaim.setJmariCode(creatorJmari);
+            pvtClaim.setClaimDeptName(creatorDeptName);
+            pvtClaim.setClaimDeptCode(creatorDeptCode);
+            
 //s.oh^ 2014/08/19 施設患者一括表示機能
-                if(patientModel != null) {
-                    patientModel.setAppMemo(pvtClaim.getClaimAppMemo());
-                }
-//s.oh$
-                
-            } else {
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.WARNING, "Unknown attribute value : {0}", attr);
+            if(patientModel != null) {
+                patientModel.setAppMemo(pvtClaim.getClaimAppMemo());
             }
+//s.oh$
         }
+        contentType = null;
     }
     
     /**
-     * 患者モジュールをパースする。
-     *
-     * @param content 患者要素
+     * docInfo の docId/uid と CreatorInfo を保持する。
      */
-    private void parsePatientInfo(Element docInfo, Element content) {
+    private void endDocInfo(int depth, String text) {
         
-        //-------------------------------------
-        // 患者モジュールの要素をイテレートする
-        //-------------------------------------
-        List children = content.getChildren();
-
-        for (Iterator iterator = children.iterator(); iterator.hasNext();) {
+        if (depth == 5 && at(4, NO_NAMESPACE, docId) && at(5, NO_NAMESPACE, uid)) {
+            docUid = text;
+            return;
+        }
+        
+        if (depth < 6 || !at(4, mmlCi, CreatorInfo) || !at(5, mmlPsi, PersonalizedInfo)) {
+            return;
+        }
+        
+        if (depth == 6 && at(6, mmlCm, Id)) {
+            // 担当医ID
+            creatorId = text;
             
-            Element child = (Element) iterator.next();
-            String qname = child.getQualifiedName();
+        } else if (depth == 8 && at(6, mmlPsi, personName) && at(7, mmlNm, Name) && at(8, mmlNm, fullname)) {
+            // 担当医名
+            creatorName = text;
             
-            if (qname.equals(mmlCm_Id)) {
-                String pid = child.getTextTrim();
-                patientModel.setPatientId(pid);
-                java.util.logging.Logger.getLogger(this.getClass().getName()).fine("patientId = " + pid);
-                
-            } else if (qname.equals(mmlNm_Name)) {
-                List attrs = child.getAttributes();
-                for (Iterator iter = attrs.iterator(); iter.hasNext(); ) {
-                    Attribute attr = (Attribute) iter.next();
-                    if (attr.getName().equals(repCode)) {
-                        curRepCode = attr.getValue();
-                        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "curRepCode = {0}", attr.getValue());
-                    } else if (attr.getName().equals(tableId)) {
-                        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "tableId = {0}", attr.getValue());
-                    }
-                }
-                
-            } else if (qname.equals(mmlNm_family)) {
-                if (curRepCode.equals(P)) {
-                    patientModel.setKanaFamilyName(child.getTextTrim());
-                } else if (curRepCode.equals(I)) {
-                    patientModel.setFamilyName(child.getTextTrim());
-                } else if (curRepCode.equals(A)) {
-                    patientModel.setRomanFamilyName(child.getTextTrim());
-                }
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "family = {0}", child.getTextTrim());
-                
-            } else if (qname.equals(mmlNm_given)) {
-                if (curRepCode.equals(P)) {
-                    patientModel.setKanaGivenName(child.getTextTrim());
-                } else if (curRepCode.equals(I)) {
-                    patientModel.setGivenName(child.getTextTrim());
-                } else if (curRepCode.equals(A)) {
-                    patientModel.setRomanGivenName(child.getTextTrim());
-                }
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "given = {0}", child.getTextTrim());
-                
-            } else if (qname.equals(mmlNm_fullname)) {
-                if (curRepCode.equals(P)) {
-                    patientModel.setKanaName(child.getTextTrim());
-                } else if (curRepCode.equals(I)) {
-                    patientModel.setFullName(child.getTextTrim());
-                } else if (curRepCode.equals(A)) {
-                    patientModel.setRomanName(child.getTextTrim());
-                }
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "fullName = {0}", child.getTextTrim());
-                
-            } else if (qname.equals(mmlPi_birthday)) {
-                patientModel.setBirthday(child.getTextTrim());
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "birthday = {0}", child.getTextTrim());
-                
-            } else if (qname.equals(mmlPi_sex)) {
-                patientModel.setGender(child.getTextTrim());
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "gender = {0}", child.getTextTrim());
-                
-            } else if (qname.equals(mmlAd_Address)) {
-                curAddress = new AddressModel();
-                patientModel.addAddress(curAddress);
-                
-                List attrs = child.getAttributes();
-                for (Iterator iter = attrs.iterator(); iter.hasNext(); ) {
-                    Attribute attr = (Attribute) iter.next();
-                    if (attr.getName().equals(addressClass)) {
-                        curRepCode = attr.getValue();
-                        curAddress.setAddressType(attr.getValue());
-                        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "addressClass = {0}", attr.getValue());
-                    } else if (attr.getName().equals(tableId)) {
-                        curAddress.setAddressTypeCodeSys(attr.getValue());
-                            java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "tableId = {0}", attr.getValue());
-                    }
-                }
-                
-            } else if (qname.equals(mmlAd_full)) {
-                curAddress.setAddress(child.getTextTrim());
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "address = {0}", child.getTextTrim());
-                
-            } else if (qname.equals(mmlAd_zip)) {
-                curAddress.setZipCode(child.getTextTrim());
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "zip = {0}", child.getTextTrim());
-                
-            } else if (qname.equals(mmlPh_Phone)) {
-                curTelephone = new TelephoneModel();
-                patientModel.addTelephone(curTelephone);
-                
-            } else if (qname.equals(mmlPh_area)) {
-                String val = child.getTextTrim();
-                //val = ZenkakuUtils.utf8Replace(val);
-                curTelephone.setArea(val);
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "area = {0}", val);
-                
-            } else if (qname.equals(mmlPh_city)) {
-                String val = child.getTextTrim();
-                //val = ZenkakuUtils.utf8Replace(val);
-                curTelephone.setCity(val);
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "city = {0}", val);
-                
-            } else if (qname.equals(mmlPh_number)) {
-                String val = child.getTextTrim();
-                //val = ZenkakuUtils.utf8Replace(val);
-                curTelephone.setNumber(val);
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "number = {0}", val);
-                
-            } else if (qname.equals(mmlPh_memo)) {
-                // ORCA
-                curTelephone.setMemo(child.getTextTrim());
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "memo = {0}", child.getTextTrim());
-            }
+        } else if (depth == 7 && at(6, mmlFc, Facility) && at(7, mmlCm, Id)) {
+            // 施設情報 JMARI 4.0 から
+            creatorJmari = text;
             
-            parsePatientInfo(docInfo, child);
+        } else if (depth == 7 && at(6, mmlDp, Department)) {
+            // 診療科情報
+            if (at(7, mmlDp, name)) {
+                creatorDeptName = text;
+            } else if (at(7, mmlCm, Id)) {
+                creatorDeptCode = text;
+            }
         }
     }
     
     /**
-     * 健康保険モジュールをパースする。
-     *
-     * @param content 健康保険要素
+     * 患者モジュール 要素の開始 (全ての子孫要素を修飾名で判定する)
      */
-    private void parseHealthInsurance(Element docInfo, Element content) {
+    private void startPatientInfo(XMLStreamReader xr) {
         
-        // HealthInsuranceModule を得る
-        Element hModule = content.getChild(HealthInsuranceModule, mmlHi);
-        if (hModule == null) {
-            java.util.logging.Logger.getLogger(this.getClass().getName()).fine("No HealthInsuranceModule");
-            return;
-        }
+        String qname = stackQName.get(stackQName.size() - 1);
         
-        // InsuranceClass を解析する
-        Element insuranceClassEle = hModule.getChild(insuranceClass, mmlHi);
-        if (insuranceClass != null) {
-            curInsurance.setInsuranceClass(insuranceClassEle.getTextTrim());
-            if (insuranceClassEle.getAttribute(ClassCode, mmlHi) != null) {
-                curInsurance.setInsuranceClassCode(insuranceClassEle.getAttributeValue(ClassCode, mmlHi));
+        if (qname.equals(mmlNm_Name)) {
+            for (int i = 0; i < xr.getAttributeCount(); i++) {
+                String attrName = xr.getAttributeLocalName(i);
+                if (attrName.equals(repCode)) {
+                    curRepCode = xr.getAttributeValue(i);
+                }
             }
-            if (insuranceClassEle.getAttribute(tableId, mmlHi) != null) {
-                curInsurance.setInsuranceClassCodeSys(insuranceClassEle.getAttributeValue(tableId, mmlHi));
+            
+        } else if (qname.equals(mmlAd_Address)) {
+            curAddress = new AddressModel();
+            patientModel.addAddress(curAddress);
+            
+            for (int i = 0; i < xr.getAttributeCount(); i++) {
+                String attrName = xr.getAttributeLocalName(i);
+                if (attrName.equals(addressClass)) {
+                    curRepCode = xr.getAttributeValue(i);
+                    curAddress.setAddressType(xr.getAttributeValue(i));
+                } else if (attrName.equals(tableId)) {
+                    curAddress.setAddressTypeCodeSys(xr.getAttributeValue(i));
+                }
             }
+            
+        } else if (qname.equals(mmlPh_Phone)) {
+            curTelephone = new TelephoneModel();
+            patientModel.addTelephone(curTelephone);
         }
+    }
+    
+    /**
+     * 患者モジュール 要素の終了
+     */
+    private void endPatientInfo(String qname, String text) {
         
-        // insurance Number を得る
-        if (hModule.getChildTextTrim(insuranceNumber, mmlHi) != null) {
-            curInsurance.setInsuranceNumber(hModule.getChildTextTrim(insuranceNumber, mmlHi));
-        }
-        
-        // clientId を得る
-        Element clientIdEle = hModule.getChild(clientId, mmlHi);
-        if (clientIdEle != null) {
-            if (clientIdEle.getChild(group,mmlHi) != null) {
-                curInsurance.setClientGroup(clientIdEle.getChildTextTrim(group,mmlHi));
+        if (qname.equals(mmlCm_Id)) {
+            patientModel.setPatientId(text);
+            
+        } else if (qname.equals(mmlNm_family)) {
+            if (curRepCode.equals(P)) {
+                patientModel.setKanaFamilyName(text);
+            } else if (curRepCode.equals(I)) {
+                patientModel.setFamilyName(text);
+            } else if (curRepCode.equals(A)) {
+                patientModel.setRomanFamilyName(text);
             }
-            if (clientIdEle.getChild(number,mmlHi) != null) {
-                curInsurance.setClientNumber(clientIdEle.getChildTextTrim(number,mmlHi));
+            
+        } else if (qname.equals(mmlNm_given)) {
+            if (curRepCode.equals(P)) {
+                patientModel.setKanaGivenName(text);
+            } else if (curRepCode.equals(I)) {
+                patientModel.setGivenName(text);
+            } else if (curRepCode.equals(A)) {
+                patientModel.setRomanGivenName(text);
             }
+            
+        } else if (qname.equals(mmlNm_fullname)) {
+            if (curRepCode.equals(P)) {
+                patientModel.setKanaName(text);
+            } else if (curRepCode.equals(I)) {
+                patientModel.setFullName(text);
+            } else if (curRepCode.equals(A)) {
+                patientModel.setRomanName(text);
+            }
+            
+        } else if (qname.equals(mmlPi_birthday)) {
+            patientModel.setBirthday(text);
+            
+        } else if (qname.equals(mmlPi_sex)) {
+            patientModel.setGender(text);
+            
+        } else if (qname.equals(mmlAd_full)) {
+            curAddress.setAddress(text);
+            
+        } else if (qname.equals(mmlAd_zip)) {
+            curAddress.setZipCode(text);
+            
+        } else if (qname.equals(mmlPh_area)) {
+            curTelephone.setArea(text);
+            
+        } else if (qname.equals(mmlPh_city)) {
+            curTelephone.setCity(text);
+            
+        } else if (qname.equals(mmlPh_number)) {
+            curTelephone.setNumber(text);
+            
+        } else if (qname.equals(mmlPh_memo)) {
+            // ORCA
+            curTelephone.setMemo(text);
         }
+    }
+    
+    /**
+     * 健康保険モジュール 要素の開始
+     * 深さ 4:HealthInsuranceModule 5:insuranceClass 等 6:publicInsuranceItem 7:providerName 等
+     */
+    private void startHealthInsurance(XMLStreamReader xr, int depth) {
         
-        // familyClass を得る
-        if (hModule.getChild(familyClass, mmlHi) != null) {
-            curInsurance.setFamilyClass(hModule.getChildTextTrim(familyClass, mmlHi));
+        if (depth == 4) {
+            // 最初の HealthInsuranceModule のみ
+            inHModule = !hModuleParsed && at(4, mmlHi, HealthInsuranceModule);
+            return;
         }
         
-        // startDateを得る
-        if (hModule.getChild(startDate, mmlHi) != null) {
-            curInsurance.setStartDate(hModule.getChildTextTrim(startDate, mmlHi));
+        if (!inHModule) {
+            return;
         }
         
-        // expiredDateを得る
-        if (hModule.getChild(expiredDate, mmlHi) != null) {
-            curInsurance.setExpiredDate(hModule.getChildTextTrim(expiredDate, mmlHi));
+        if (depth == 5 && at(5, mmlHi, insuranceClass)) {
+            String code = xr.getAttributeValue(mmlHi, ClassCode);
+            if (code != null) {
+                curInsurance.setInsuranceClassCode(code);
+            }
+            String sys = xr.getAttributeValue(mmlHi, tableId);
+            if (sys != null) {
+                curInsurance.setInsuranceClassCodeSys(sys);
+            }
+            
+        } else if (depth == 6 && at(5, mmlHi, publicInsurance)) {
+            // publicInsuranceItem
+            curPublicItem = new PVTPublicInsuranceItemModel();
+            curInsurance.addPvtPublicInsuranceItem(curPublicItem);
+            String value = xr.getAttributeValue(mmlHi, priority);
+            if (value != null) {
+                curPublicItem.setPriority(value);
+            }
+            
+        } else if (depth == 7 && at(5, mmlHi, publicInsurance) && at(7, mmlHi, paymentRatio)) {
+            String value = xr.getAttributeValue(mmlHi, ratioType);
+            if (value != null) {
+                curPublicItem.setPaymentRatioType(value);
+            }
         }
+    }
+    
+    /**
+     * 健康保険モジュール 要素の終了
+     */
+    private void endHealthInsurance(int depth, String text) {
         
-        // payInRatio を得る
-        if (hModule.getChild(paymentInRatio, mmlHi) != null) {
-            curInsurance.setPayInRatio(hModule.getChildTextTrim(paymentInRatio, mmlHi));
+        if (!inHModule) {
+            return;
         }
         
-        // payOutRatio を得る
-        if (hModule.getChild(paymentOutRatio, mmlHi) != null) {
-            curInsurance.setPayOutRatio(hModule.getChildTextTrim(paymentOutRatio, mmlHi));
+        if (depth == 4) {
+            inHModule = false;
+            hModuleParsed = true;
+            
+            return;
         }
-
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "insuranceClass = {0}", curInsurance.getInsuranceClass());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "insurance ClassCode = {0}", curInsurance.getInsuranceClassCode());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "insurance tableId = {0}", curInsurance.getInsuranceClassCodeSys());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "insuranceNumber = {0}", curInsurance.getInsuranceNumber());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "group = {0}", curInsurance.getClientGroup());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "number = {0}", curInsurance.getClientNumber());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "familyClass = {0}", curInsurance.getFamilyClass());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "startDate = {0}", curInsurance.getStartDate());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "expiredDate = {0}", curInsurance.getExpiredDate());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "paymentInRatio = {0}", curInsurance.getPayInRatio());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "paymentOutRatio = {0}", curInsurance.getPayOutRatio());
         
-        //--------------------------------
-        // publicInsurance をパースする
-        //--------------------------------
-        Element publicInsuranceEle = hModule.getChild(publicInsurance, mmlHi);
-        if (publicInsuranceEle != null) {
+        String local = stackLocal.get(depth);
+        
+        if (depth == 5 && stackUri.get(5).equals(mmlHi)) {
             
-            List children = publicInsuranceEle.getChildren();
+            switch (local) {
+                case insuranceClass:
+                    curInsurance.setInsuranceClass(text);
+                    break;
+                case insuranceNumber:
+                    curInsurance.setInsuranceNumber(text);
+                    break;
+                case familyClass:
+                    curInsurance.setFamilyClass(text);
+                    break;
+                case startDate:
+                    curInsurance.setStartDate(text);
+                    break;
+                case expiredDate:
+                    curInsurance.setExpiredDate(text);
+                    break;
+                case paymentInRatio:
+                    curInsurance.setPayInRatio(text);
+                    break;
+                case paymentOutRatio:
+                    curInsurance.setPayOutRatio(text);
+                    break;
+            }
             
-            for (Iterator iterator = children.iterator(); iterator.hasNext();) {
-                
-                // publicInsuranceItem を得る
-                Element publicInsuranceItem = (Element) iterator.next();
-                
-                curPublicItem = new PVTPublicInsuranceItemModel();
-                curInsurance.addPvtPublicInsuranceItem(curPublicItem);
+        } else if (depth == 6 && at(5, mmlHi, clientId) && stackUri.get(6).equals(mmlHi)) {
+            if (local.equals(group)) {
+                curInsurance.setClientGroup(text);
+            } else if (local.equals(number)) {
+                curInsurance.setClientNumber(text);
+            }
             
-                // priority
-                if (publicInsuranceItem.getAttribute(priority, mmlHi) != null) {
-                    curPublicItem.setPriority(publicInsuranceItem.getAttributeValue(priority, mmlHi));
-                }
-                
-                // providerName
-                if (publicInsuranceItem.getChild(providerName, mmlHi) != null) {
-                    curPublicItem.setProviderName(publicInsuranceItem.getChildTextTrim(providerName, mmlHi));
-                }
-                
-                // provider
-                if (publicInsuranceItem.getChild(provider, mmlHi) != null) {
-                    curPublicItem.setProvider(publicInsuranceItem.getChildTextTrim(provider, mmlHi));
-                }
-                
-                // recipient
-                if (publicInsuranceItem.getChild(recipient, mmlHi) != null) {
-                    curPublicItem.setRecipient(publicInsuranceItem.getChildTextTrim(recipient, mmlHi));
-                }
-                
-                // startDate
-                if (publicInsuranceItem.getChild(startDate, mmlHi) != null) {
-                    curPublicItem.setStartDate(publicInsuranceItem.getChildTextTrim(startDate, mmlHi));
-                }
-                
-                // expiredDate
-                if (publicInsuranceItem.getChild(expiredDate, mmlHi) != null) {
-                    curPublicItem.setExpiredDate(publicInsuranceItem.getChildTextTrim(expiredDate, mmlHi));
-                }
-                
-                // paymentRatio
-                Element paymentRatioEle = publicInsuranceItem.getChild(paymentRatio, mmlHi);
-                if (paymentRatioEle != null) {
-                    curPublicItem.setPaymentRatio(paymentRatioEle.getTextTrim());
-                    if (paymentRatioEle.getAttribute(ratioType, mmlHi) != null) {
-                        curPublicItem.setPaymentRatioType(paymentRatioEle.getAttributeValue(ratioType, mmlHi));
-                    }
-                }
-
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "priority = {0}", curPublicItem.getPriority());
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "providerName = {0}", curPublicItem.getProviderName());
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "provider = {0}", curPublicItem.getProvider());
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "recipient = {0}", curPublicItem.getRecipient());
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "startDate = {0}", curPublicItem.getStartDate());
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "expiredDate = {0}", curPublicItem.getExpiredDate());
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "paymentRatio = {0}", curPublicItem.getPaymentRatio());
-                java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "paymentRatioType = {0}", curPublicItem.getPaymentRatioType());
+        } else if (depth == 7 && at(5, mmlHi, publicInsurance) && stackUri.get(7).equals(mmlHi)) {
+            
+            switch (local) {
+                case providerName:
+                    curPublicItem.setProviderName(text);
+                    break;
+                case provider:
+                    curPublicItem.setProvider(text);
+                    break;
+                case recipient:
+                    curPublicItem.setRecipient(text);
+                    break;
+                case startDate:
+                    curPublicItem.setStartDate(text);
+                    break;
+                case expiredDate:
+                    curPublicItem.setExpiredDate(text);
+                    break;
+                case paymentRatio:
+                    curPublicItem.setPaymentRatio(text);
+                    break;
             }
         }
     }
     
     /**
-     * 受付情報をパースする。
-     *
-     * @param content 受付情報要素
+     * 受付情報 要素の開始
+     * 深さ 4:ClaimModule 5:information
      */
-    private void parseClaim(Element docInfo, Element content) {
+    private void startClaim(XMLStreamReader xr, int depth) {
         
-        //-------------------------------------------------------
-        // ClaimModule の DocInfo に含まれる診療科と担当医を抽出する
-        //-------------------------------------------------------
-        Element creatorInfo = docInfo.getChild(CreatorInfo, mmlCi);
-        Element psiInfo = creatorInfo.getChild(PersonalizedInfo, mmlPsi);
-        
-        // 担当医ID
-        pvtClaim.setAssignedDoctorId(psiInfo.getChildTextTrim(Id, mmlCm));
-        
-        // 担当医名
-        Element personNameEle = psiInfo.getChild(personName, mmlPsi);
-        Element nameEle = personNameEle.getChild(Name, mmlNm);
-        if (nameEle != null) {
-            Element fullName = nameEle.getChild(fullname, mmlNm);
-            if (fullName != null) {
-                pvtClaim.setAssignedDoctorName(fullName.getTextTrim());
-            }
+        if (depth == 5 && at(4, claim, ClaimModule) && at(5, claim, information)) {
+            pvtClaim.setClaimStatus(xr.getAttributeValue(claim, status));
+            pvtClaim.setClaimRegistTime(xr.getAttributeValue(claim, registTime));
+            pvtClaim.setClaimAdmitFlag(xr.getAttributeValue(claim, admitFlag));
+            pvtClaim.setInsuranceUid(xr.getAttributeValue(claim, insuranceUid));
         }
-        
-        // 施設情報 JMARI 4.0 から
-        Element facility = psiInfo.getChild(Facility, mmlFc);
-        pvtClaim.setJmariCode(facility.getChildTextTrim(Id, mmlCm));
-        
-        // 診療科情報
-        Element dept = psiInfo.getChild(Department, mmlDp);
-        pvtClaim.setClaimDeptName(dept.getChildTextTrim(name, mmlDp));
-        pvtClaim.setClaimDeptCode(dept.getChildTextTrim(Id, mmlCm));
-        
-        // ClaimInfoを解析する
-        Element claimModule = content.getChild(ClaimModule, claim);
-        Element claimInfo = claimModule.getChild(information, claim);
-        
-        // status
-        pvtClaim.setClaimStatus(claimInfo.getAttributeValue(status, claim));
-        
-        // registTime
-        pvtClaim.setClaimRegistTime(claimInfo.getAttributeValue(registTime, claim));
-        
-        // admitFlag
-        pvtClaim.setClaimAdmitFlag(claimInfo.getAttributeValue(admitFlag, claim));
-        
-        // insuranceUid
-        pvtClaim.setInsuranceUid(claimInfo.getAttributeValue(insuranceUid, claim));
+    }
+    
+    /**
+     * 受付情報 要素の終了
+     */
+    private void endClaim(int depth, String text) {
         
         // 在宅関連(在宅患者登録)
-        Element claimAppoint = claimInfo.getChild(appoint, claim);
-        if(claimAppoint != null) {
-            pvtClaim.setClaimAppMemo(claimAppoint.getChildTextTrim(memo, claim));
+        if (depth == 7 && at(4, claim, ClaimModule) && at(5, claim, information)
+                && at(6, claim, appoint) && at(7, claim, memo)) {
+            pvtClaim.setClaimAppMemo(text);
         }
-        
-        // DEBUG 出力
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "\u62c5\u5f53\u533bID = {0}", pvtClaim.getAssignedDoctorId());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "\u62c5\u5f53\u533b\u540d = {0}", pvtClaim.getAssignedDoctorName());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "JMARI \u30b3\u30fc\u30c9 = {0}", pvtClaim.getJmariCode());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "\u8a3a\u7642\u79d1\u540d = {0}", pvtClaim.getClaimDeptName());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "\u8a3a\u7642\u79d1\u30b3\u30fc\u30c9 = {0}", pvtClaim.getClaimDeptCode());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "status = {0}", pvtClaim.getClaimStatus());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "registTime = {0}", pvtClaim.getClaimRegistTime());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "admitFlag = {0}", pvtClaim.getClaimAdmitFlag());
-        java.util.logging.Logger.getLogger(this.getClass().getName()).log(java.util.logging.Level.FINE, "insuranceUid = {0}", pvtClaim.getInsuranceUid());
+    }
+    
+    private boolean at(int depth, String uri, String local) {
+        return depth < stackLocal.size() && stackLocal.get(depth).equals(local) && stackUri.get(depth).equals(uri);
     }
     
     protected byte[] getXMLBytes(Object bean) {
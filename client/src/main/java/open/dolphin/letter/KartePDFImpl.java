@@ -42,6 +42,7 @@ import javax.print.attribute.HashPrintRequestAttributeSet;
 import javax.print.attribute.PrintRequestAttributeSet;
 import javax.swing.ImageIcon;
 import open.dolphin.client.ClientContext;
+import open.dolphin.delegater.DocumentDelegater;
 import open.dolphin.impl.lbtest.LaboTestOutputPDF;
 import open.dolphin.infomodel.AttachmentModel;
 import open.dolphin.infomodel.BundleDolphin;
@@ -350,6 +351,12 @@ public class KartePDFImpl {
                     //PDF_MARKER.addKartePDFImage(schema[idx].getJpegByte(), align);
 //s.oh^ 2013/03/27 不具合修正(保存前のシェーマが作成されない)
                     //pdfMarker.addImage(schema[idx].getJpegByte());
+                    // 縮小画像だけの場合は元画像を取得する
+                    try {
+                        new DocumentDelegater().fetchFullImage(model.getSchema(idx));
+                    } catch (Exception e) {
+                        Logger.getLogger(KartePDFImpl.class.getName()).log(Level.WARNING, e.getMessage());
+                    }
                     if(model.getSchema(idx).getJpegByte() != null) {
                         pdfMarker.addImage(model.getSchema(idx).getJpegByte());
                     }else{
@@ -13,6 +13,7 @@ import java.nio.file.Paths;
 import java.util.*;
 import java.util.List;
 import open.dolphin.client.ClientContext;
+import open.dolphin.delegater.DocumentDelegater;
 import open.dolphin.infomodel.*;
 import open.dolphin.project.Project;
 import org.jdom.JDOMException;
@@ -596,8 +597,14 @@ public class KartePDFMaker extends AbstractPDFMaker {
                 // イメージのパーセントを設定
                 int percentage = Math.min(PERCENTAGE_IMAGE_WIDTH * karteTable.getColumnCount(), 100);
                 table.setWidthPercentage(percentage);
-                // SchemaModelからjpeg imageを取得
-                Image image = Image.getInstance(schema.getJpegByte());
+                // SchemaModelからjpeg imageを取得（縮小画像だけの場合は元画像を取得する）
+                try {
+                    new DocumentDelegater().fetchFullImage(schema);
+                } catch (Exception e) {
+                    java.util.logging.Logger.getLogger(KartePDFMaker.class.getName()).warning(e.getMessage());
+                }
+                byte[] jpegByte = schema.getJpegByte()!=null ? schema.getJpegByte() : schema.getThumbnailByte();
+                Image image = Image.getInstance(jpegByte);
                 // セルにimageを設定
                 PdfPCell pcell = new PdfPCell(image, true);
                 pcell.setBorder(Rectangle.NO_BORDER);
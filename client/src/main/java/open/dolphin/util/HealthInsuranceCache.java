@@ -0,0 +1,83 @@
+package open.dolphin.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import open.dolphin.infomodel.HealthInsuranceModel;
+import open.dolphin.infomodel.PVTHealthInsuranceModel;
+
+/**
+ * デコード済 PVTHealthInsuranceModel のキャッシュ
+ * HealthInsuranceModel の PK をキーにし、beanBytes の長さとハッシュを版として持つ。
+ * 同じ患者が何度も検索・受付される場合に XML のデコードを繰り返さないようにする。
+ *
+ * 返すモデルは共有されるため、呼び出し側で書き換えてはならない。
+ */
+public final class HealthInsuranceCache {
+
+    private static final HealthInsuranceCache instance = new HealthInsuranceCache();
+
+    private static final int MAX_ENTRIES = 2000;
+
+    private final Map<Long, Entry> map;
+
+    public static HealthInsuranceCache getInstance() {
+        return instance;
+    }
+
+    private HealthInsuranceCache() {
+        map = new LinkedHashMap<Long, Entry>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * 健康保険をデコードする。キャッシュにあればそれを返す。
+     * @param model HealthInsuranceModel
+     * @return デコードした PVTHealthInsuranceModel（共有されるので書き換えないこと）
+     */
+    public PVTHealthInsuranceModel decode(HealthInsuranceModel model) {
+
+        byte[] bytes = model.getBeanBytes();
+        if (bytes == null) {
+            return null;
+        }
+
+        // 未保存のものはキャッシュしない
+        long id = model.getId();
+        if (id == 0L) {
+            return (PVTHealthInsuranceModel)BeanUtils.xmlDecode(bytes);
+        }
+
+        long version = ((long)bytes.length << 32) | (Arrays.hashCode(bytes) & 0xFFFFFFFFL);
+
+        synchronized (this) {
+            Entry e = map.get(id);
+            if (e != null && e.version == version) {
+                return e.insurance;
+            }
+        }
+
+        PVTHealthInsuranceModel insurance = (PVTHealthInsuranceModel)BeanUtils.xmlDecode(bytes);
+        if (insurance != null) {
+            synchronized (this) {
+                map.put(id, new Entry(version, insurance));
+            }
+        }
+        return insurance;
+    }
+
+    private static final class Entry {
+
+        private final long version;
+        private final PVTHealthInsuranceModel insurance;
+
+        private Entry(long version, PVTHealthInsuranceModel insurance) {
+            this.version = version;
+            this.insurance = insurance;
+        }
+    }
+}
@@ -0,0 +1,667 @@
+package open.dolphin.common;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * ORCA データベースへの JDBC 接続プール
+ *
+ * 接続先（url, user）毎に一つのプールを持ち、サーバー（claim.conn=server）とクライアントの両方から使う。
+ * 同時に貸し出す接続の数に上限があり、上限に達した場合は borrowTimeout まで空きを待つ。
+ * 一定時間使われなかった接続は貸し出す前に生きているか確かめ、idleTimeout を超えたものは閉じる。
+ *
+ * 貸し出す Connection は本物を包んだもので、close() すると接続はプールへ戻る。
+ * prepareStatement(sql) は接続毎に SQL をキーにして PreparedStatement を使い回し、
+ * その close() ではキャッシュへ戻すだけにする（ドライバ側のサーバープリペアも効くようになる）。
+ * 接続を戻す時、閉じ忘れた Statement は閉じ、自動コミットでなければロールバックする。
+ *
+ * 待ち時間、貸し出していた時間、問い合わせに掛かった時間を集計し getStatistics で返す。
+ */
+public final class JdbcConnectionPool {
+
+    // 同時に貸し出す接続の数
+    public static final int DEFAULT_MAX_SIZE = 8;
+
+    // 空きを待つミリ秒
+    public static final long DEFAULT_BORROW_TIMEOUT = 30000L;
+
+    // 使われていない接続を閉じるまでのミリ秒
+    public static final long DEFAULT_IDLE_TIMEOUT = 300000L;
+
+    // これより長く使われていない接続は貸し出す前に確かめる（ミリ秒）
+    public static final long DEFAULT_VALIDATION_INTERVAL = 30000L;
+
+    // 接続毎に使い回す PreparedStatement の数
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+
+    private static final int VALIDATION_TIMEOUT = 5;
+    private static final String VALIDATION_QUERY = "select 1";
+
+    private static final Map<String, JdbcConnectionPool> pools = new ConcurrentHashMap<>();
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final boolean readOnly;
+    private final int maxSize;
+    private final long borrowTimeout;
+    private final long idleTimeout;
+    private final long validationInterval;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+
+    // isValid を実装していない古いドライバでは問い合わせで確かめる
+    private volatile boolean useValidationQuery;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong borrowNanos = new AtomicLong();
+    private final AtomicLong maxBorrowNanos = new AtomicLong();
+    private final AtomicLong queryCount = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+    private final AtomicLong maxQueryNanos = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong invalidCount = new AtomicLong();
+    private final AtomicLong statementHitCount = new AtomicLong();
+    private final AtomicLong statementMissCount = new AtomicLong();
+
+    /**
+     * 接続先のプールを返す。無ければ作る。
+     * 設定は最初に作った時のものが使われる。
+     * @param url JDBC URL
+     * @param user ユーザー
+     * @param password パスワード
+     * @param readOnly 読み取り専用の接続にするかどうか
+     * @param maxSize 同時に貸し出す接続の数
+     * @param borrowTimeout 空きを待つミリ秒
+     * @param statementCacheSize 接続毎に使い回す PreparedStatement の数 0 の場合は使い回さない
+     * @return JdbcConnectionPool
+     */
+    public static JdbcConnectionPool getPool(String url, String user, String password, boolean readOnly,
+            int maxSize, long borrowTimeout, int statementCacheSize) {
+
+        String key = url + "|" + user;
+        JdbcConnectionPool pool = pools.get(key);
+        if (pool == null) {
+            JdbcConnectionPool created = new JdbcConnectionPool(url, user, password, readOnly,
+                    maxSize, borrowTimeout, statementCacheSize);
+            pool = pools.putIfAbsent(key, created);
+            if (pool == null) {
+                pool = created;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * 既定の設定で接続先のプールを返す。
+     * @param url JDBC URL
+     * @param user ユーザー
+     * @param password パスワード
+     * @return JdbcConnectionPool
+     */
+    public static JdbcConnectionPool getPool(String url, String user, String password) {
+        return getPool(url, user, password, false, DEFAULT_MAX_SIZE, DEFAULT_BORROW_TIMEOUT, DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * 全てのプールの集計を返す。
+     * @return 集計の文字列
+     */
+    public static String getAllStatistics() {
+        StringBuilder sb = new StringBuilder();
+        for (JdbcConnectionPool pool : pools.values()) {
+            if (sb.length() > 0) {
+                sb.append("\n");
+            }
+            sb.append(pool.getStatistics());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 全てのプールの使われていない接続を閉じる。
+     */
+    public static void closeAll() {
+        for (JdbcConnectionPool pool : pools.values()) {
+            pool.closeIdle();
+        }
+    }
+
+    private JdbcConnectionPool(String url, String user, String password, boolean readOnly,
+            int maxSize, long borrowTimeout, int statementCacheSize) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.readOnly = readOnly;
+        this.maxSize = Math.max(1, maxSize);
+        this.borrowTimeout = Math.max(0L, borrowTimeout);
+        this.idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        this.validationInterval = DEFAULT_VALIDATION_INTERVAL;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.permits = new Semaphore(this.maxSize, true);
+    }
+
+    /**
+     * 接続を借りる。使い終わったら必ず close() すること。
+     * @return プールの接続
+     * @throws SQLException 接続できない場合、又は borrowTimeout までに空きが出なかった場合
+     */
+    public Connection getConnection() throws SQLException {
+
+        long start = System.nanoTime();
+
+        if (!permits.tryAcquire()) {
+            waitCount.incrementAndGet();
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection: " + url, e);
+            }
+            if (!acquired) {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("Connection pool exhausted: " + url + " (" + maxSize + ")");
+            }
+        }
+        waitNanos.addAndGet(System.nanoTime() - start);
+
+        PooledConnection pc;
+        try {
+            pc = takeIdle();
+            if (pc == null) {
+                pc = open();
+            }
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+
+        borrowCount.incrementAndGet();
+        return pc.lease();
+    }
+
+    public String getStatistics() {
+        long borrows = borrowCount.get();
+        long queries = queryCount.get();
+        int idleSize;
+        synchronized (idle) {
+            idleSize = idle.size();
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("JDBC pool ").append(url).append(" user=").append(user);
+        sb.append(" max=").append(maxSize);
+        sb.append(" active=").append(maxSize - permits.availablePermits());
+        sb.append(" idle=").append(idleSize);
+        sb.append(" created=").append(createdCount.get());
+        sb.append(" destroyed=").append(destroyedCount.get());
+        sb.append(" invalid=").append(invalidCount.get());
+        sb.append(" borrowed=").append(borrows);
+        sb.append(" waited=").append(waitCount.get());
+        sb.append(" timeout=").append(timeoutCount.get());
+        sb.append(" waitAvg=").append(millis(waitNanos.get(), borrows)).append("ms");
+        sb.append(" borrowAvg=").append(millis(borrowNanos.get(), borrows)).append("ms");
+        sb.append(" borrowMax=").append(millis(maxBorrowNanos.get(), 1)).append("ms");
+        sb.append(" queries=").append(queries);
+        sb.append(" queryAvg=").append(millis(queryNanos.get(), queries)).append("ms");
+        sb.append(" queryMax=").append(millis(maxQueryNanos.get(), 1)).append("ms");
+        sb.append(" stmtHit=").append(statementHitCount.get());
+        sb.append(" stmtMiss=").append(statementMissCount.get());
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getStatistics();
+    }
+
+    /**
+     * 使われていない接続を閉じる。貸し出し中の接続は戻された時に再びプールされる。
+     */
+    public void closeIdle() {
+        List<PooledConnection> list;
+        synchronized (idle) {
+            list = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (PooledConnection pc : list) {
+            destroy(pc);
+        }
+    }
+
+    private PooledConnection takeIdle() {
+
+        for (;;) {
+            PooledConnection pc;
+            synchronized (idle) {
+                pc = idle.pollFirst();
+            }
+            if (pc == null) {
+                return null;
+            }
+
+            long idleMillis = (System.nanoTime() - pc.lastUsed) / 1000000L;
+            if (idleMillis > idleTimeout) {
+                destroy(pc);
+                continue;
+            }
+            if (idleMillis > validationInterval && !validate(pc.physical)) {
+                invalidCount.incrementAndGet();
+                destroy(pc);
+                continue;
+            }
+            return pc;
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, user, password);
+        if (readOnly) {
+            physical.setReadOnly(true);
+        }
+        createdCount.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private boolean validate(Connection con) {
+
+        if (!useValidationQuery) {
+            try {
+                return con.isValid(VALIDATION_TIMEOUT);
+            } catch (SQLException | AbstractMethodError e) {
+                // 8.4 系のドライバは isValid を実装していない
+                useValidationQuery = true;
+            }
+        }
+
+        try (Statement st = con.createStatement()) {
+            st.setQueryTimeout(VALIDATION_TIMEOUT);
+            try (ResultSet rs = st.executeQuery(VALIDATION_QUERY)) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pc, long borrowedAt) {
+
+        long held = System.nanoTime() - borrowedAt;
+        borrowNanos.addAndGet(held);
+        updateMax(maxBorrowNanos, held);
+
+        try {
+            boolean reusable = !pc.broken && pc.reset();
+            if (reusable) {
+                pc.lastUsed = System.nanoTime();
+                synchronized (idle) {
+                    idle.offerFirst(pc);
+                }
+            } else {
+                destroy(pc);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void destroy(PooledConnection pc) {
+        pc.closeStatements();
+        try {
+            pc.physical.close();
+        } catch (SQLException e) {
+        }
+        destroyedCount.incrementAndGet();
+    }
+
+    private void recordQuery(long nanos) {
+        queryCount.incrementAndGet();
+        queryNanos.addAndGet(nanos);
+        updateMax(maxQueryNanos, nanos);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long cur = max.get();
+        while (value > cur && !max.compareAndSet(cur, value)) {
+            cur = max.get();
+        }
+    }
+
+    private static String millis(long nanos, long count) {
+        if (count == 0L) {
+            return "0";
+        }
+        return String.format("%.1f", nanos / 1000000.0 / count);
+    }
+
+    // 接続が切れたことを示す SQLState（08xxx）
+    private static boolean isFatal(Throwable t) {
+        if (t instanceof SQLException) {
+            String state = ((SQLException)t).getSQLState();
+            return state != null && state.startsWith("08");
+        }
+        return false;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * プールされる本物の接続と、その PreparedStatement のキャッシュ
+     */
+    private final class PooledConnection {
+
+        private final Connection physical;
+        private final Map<String, CachedStatement> statements;
+
+        private volatile long lastUsed;
+        private volatile boolean broken;
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.lastUsed = System.nanoTime();
+            this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    if (size() > statementCacheSize) {
+                        // 使用中のものは借り手が戻す時に閉じる
+                        CachedStatement cs = eldest.getValue();
+                        cs.evicted = true;
+                        if (!cs.inUse) {
+                            closeQuietly(cs.statement);
+                        }
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private Connection lease() {
+            LeaseHandler handler = new LeaseHandler(this);
+            return (Connection)Proxy.newProxyInstance(JdbcConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, handler);
+        }
+
+        private PreparedStatement prepare(String sql, LeaseHandler lease) throws SQLException {
+
+            if (statementCacheSize > 0) {
+                CachedStatement cs = statements.get(sql);
+                if (cs != null && !cs.inUse) {
+                    statementHitCount.incrementAndGet();
+                    cs.inUse = true;
+                    return lease.wrap(cs.statement, cs, PreparedStatement.class);
+                }
+                if (cs == null) {
+                    statementMissCount.incrementAndGet();
+                    cs = new CachedStatement(physical.prepareStatement(sql));
+                    cs.inUse = true;
+                    statements.put(sql, cs);
+                    return lease.wrap(cs.statement, cs, PreparedStatement.class);
+                }
+            }
+            // 同じ SQL を同時に二つ使う場合はキャッシュしない
+            return lease.wrap(physical.prepareStatement(sql), null, PreparedStatement.class);
+        }
+
+        // プールへ戻せる状態にする
+        private boolean reset() {
+            try {
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                physical.clearWarnings();
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        private void closeStatements() {
+            for (CachedStatement cs : statements.values()) {
+                closeQuietly(cs.statement);
+            }
+            statements.clear();
+        }
+    }
+
+    private static final class CachedStatement {
+
+        private final PreparedStatement statement;
+        private boolean inUse;
+        private boolean evicted;
+
+        private CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+    }
+
+    private static void closeQuietly(Statement st) {
+        try {
+            st.close();
+        } catch (SQLException e) {
+        }
+    }
+
+    /**
+     * 貸し出した Connection
+     * close() でプールへ戻し、以後の呼び出しは閉じた接続として扱う。
+     */
+    private final class LeaseHandler implements InvocationHandler {
+
+        private final PooledConnection pc;
+        private final long borrowedAt;
+        private final List<StatementHandler> open = new ArrayList<>();
+
+        private Connection proxy;
+        private boolean closed;
+
+        private LeaseHandler(PooledConnection pc) {
+            this.pc = pc;
+            this.borrowedAt = System.nanoTime();
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            this.proxy = (Connection)proxy;
+            String name = method.getName();
+
+            switch (name) {
+                case "close":
+                    close();
+                    return null;
+                case "isClosed":
+                    return closed || pc.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + (closed ? "(closed) " : " ") + pc.physical;
+                default:
+                    break;
+            }
+
+            if (closed) {
+                throw new SQLException("Connection is closed");
+            }
+
+            try {
+                if (name.equals("prepareStatement") && args.length == 1) {
+                    return pc.prepare((String)args[0], this);
+                }
+                Object ret = JdbcConnectionPool.invoke(pc.physical, method, args);
+                if (ret instanceof PreparedStatement) {
+                    return wrap((PreparedStatement)ret, null, method.getReturnType());
+                }
+                if (ret instanceof Statement) {
+                    return wrap((Statement)ret, null, Statement.class);
+                }
+                return ret;
+
+            } catch (Throwable t) {
+                if (isFatal(t)) {
+                    pc.broken = true;
+                }
+                throw t;
+            }
+        }
+
+        private <T extends Statement> T wrap(Statement st, CachedStatement cached, Class<?> type) {
+            StatementHandler handler = new StatementHandler(this, st, cached);
+            open.add(handler);
+            @SuppressWarnings("unchecked")
+            T ret = (T)Proxy.newProxyInstance(JdbcConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{type}, handler);
+            return ret;
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // 閉じ忘れた Statement を閉じる（キャッシュのものは戻す）
+            for (Iterator<StatementHandler> iter = open.iterator(); iter.hasNext();) {
+                iter.next().release();
+                iter.remove();
+            }
+            release(pc, borrowedAt);
+        }
+    }
+
+    /**
+     * 貸し出した Statement
+     * 問い合わせ時間を計り、キャッシュの PreparedStatement は close() でキャッシュへ戻す。
+     */
+    private final class StatementHandler implements InvocationHandler {
+
+        private final LeaseHandler lease;
+        private final Statement statement;
+        private final CachedStatement cached;
+
+        private ResultSet lastResult;
+        private boolean closed;
+
+        private StatementHandler(LeaseHandler lease, Statement statement, CachedStatement cached) {
+            this.lease = lease;
+            this.statement = statement;
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            synchronized (lease) {
+
+                String name = method.getName();
+
+                switch (name) {
+                    case "close":
+                        release();
+                        lease.open.remove(this);
+                        return null;
+                    case "isClosed":
+                        return closed;
+                    case "getConnection":
+                        return lease.proxy;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "Pooled" + (closed ? "(closed) " : " ") + statement;
+                    default:
+                        break;
+                }
+
+                if (closed) {
+                    throw new SQLException("Statement is closed");
+                }
+
+                boolean execute = name.startsWith("execute");
+                long start = execute ? System.nanoTime() : 0L;
+                try {
+                    Object ret = JdbcConnectionPool.invoke(statement, method, args);
+                    if (ret instanceof ResultSet) {
+                        lastResult = (ResultSet)ret;
+                    }
+                    return ret;
+
+                } catch (Throwable t) {
+                    if (isFatal(t)) {
+                        lease.pc.broken = true;
+                    }
+                    throw t;
+
+                } finally {
+                    if (execute) {
+                        recordQuery(System.nanoTime() - start);
+                    }
+                }
+            }
+        }
+
+        private void release() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            if (cached == null) {
+                closeQuietly(statement);
+                return;
+            }
+
+            // キャッシュへ戻す 後始末できなければ捨てる
+            try {
+                if (lastResult != null) {
+                    lastResult.close();
+                }
+                ((PreparedStatement)statement).clearParameters();
+                statement.clearWarnings();
+                cached.inUse = false;
+                if (cached.evicted) {
+                    closeQuietly(statement);
+                }
+            } catch (SQLException e) {
+                closeQuietly(statement);
+                lease.pc.statements.values().remove(cached);
+                Logger.getLogger("open.dolphin").fine(e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package open.dolphin.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.codehaus.jackson.map.SerializationConfig;
+
+/**
+ * JSON 変換の ObjectMapper / ObjectWriter を共有する。
+ *
+ * ObjectMapper は設定後に変更しなければスレッドセーフで、生成すると内部のシリアライザ等のキャッシュも
+ * 作り直しになる。そのためリクエスト毎に new ObjectMapper() せず、ここで設定済みのものを使う。
+ * ObjectWriter は不変なので、コンバータの型毎に一度だけ作って使い回す。
+ *
+ * 返す ObjectMapper の configure 等で設定を変更してはならない（全ての利用者に影響する）。
+ * 設定の異なる mapper が必要な場合は個別に new すること。
+ */
+public final class JsonMappers {
+
+    // 送信用 null の Map 値は書かず、空の Bean を許す（JAX-RS Provider の受信にも使うので知らないプロパティは無視する）
+    private static final ObjectMapper SERIALIZE_MAPPER = new ObjectMapper();
+
+    // 受信用 知らないプロパティは無視する
+    private static final ObjectMapper DESERIALIZE_MAPPER = new ObjectMapper();
+
+    private static final ConcurrentHashMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    static {
+        SERIALIZE_MAPPER.configure(SerializationConfig.Feature.WRITE_NULL_MAP_VALUES, false);
+        SERIALIZE_MAPPER.configure(SerializationConfig.Feature.FAIL_ON_EMPTY_BEANS, false);
+        SERIALIZE_MAPPER.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        DESERIALIZE_MAPPER.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    private JsonMappers() {
+    }
+
+    /**
+     * 送信（シリアライズ）用の共有 ObjectMapper を返す。
+     * @return ObjectMapper 設定を変更しないこと
+     */
+    public static ObjectMapper getSerializeMapper() {
+        return SERIALIZE_MAPPER;
+    }
+
+    /**
+     * 受信（デシリアライズ）用の共有 ObjectMapper を返す。
+     * @return ObjectMapper 設定を変更しないこと
+     */
+    public static ObjectMapper getDeserializeMapper() {
+        return DESERIALIZE_MAPPER;
+    }
+
+    /**
+     * type を書く ObjectWriter を返す。
+     * @param type 変換元のクラス（実行時のクラス）
+     * @return ObjectWriter
+     */
+    public static ObjectWriter writer(Class<?> type) {
+        ObjectWriter writer = writers.get(type);
+        if (writer == null) {
+            writer = SERIALIZE_MAPPER.writerWithType(type);
+            ObjectWriter prev = writers.putIfAbsent(type, writer);
+            if (prev != null) {
+                writer = prev;
+            }
+        }
+        return writer;
+    }
+}
@@ -64,6 +64,9 @@ public class ChartEventModelConverter implements IInfoModelConverter {
     public String getFacilityId() {
         return model.getFacilityId();
     }
+    public long getSequence() {
+        return model.getSequence();
+    }
 
     @Override
     public void setModel(IInfoModel model) {
@@ -0,0 +1,38 @@
+package open.dolphin.converter;
+
+import java.util.List;
+import open.dolphin.infomodel.IInfoModel;
+import open.dolphin.infomodel.LabTestRowObject;
+import open.dolphin.infomodel.NLaboTable;
+
+/**
+ */
+public class NLaboTableConverter implements IInfoModelConverter {
+
+    private NLaboTable model;
+
+    public List<Long> getModuleIds() {
+        return model.getModuleIds();
+    }
+
+    public List<String> getSampleDates() {
+        return model.getSampleDates();
+    }
+
+    public List<LabTestRowObject> getRows() {
+        return model.getRows();
+    }
+
+    public String getNextSampleDate() {
+        return model.getNextSampleDate();
+    }
+
+    public Long getNextId() {
+        return model.getNextId();
+    }
+
+    @Override
+    public void setModel(IInfoModel model) {
+        this.model = (NLaboTable)model;
+    }
+}
@@ -0,0 +1,49 @@
+package open.dolphin.converter;
+
+import java.util.ArrayList;
+import java.util.List;
+import open.dolphin.infomodel.IInfoModel;
+import open.dolphin.infomodel.PatientVisitListDelta;
+import open.dolphin.infomodel.PatientVisitModel;
+
+/**
+ */
+public class PatientVisitListDeltaConverter implements IInfoModelConverter {
+    
+    private PatientVisitListDelta model;
+    
+    public List<PatientVisitModelConverter> getList() {
+        
+        List<PatientVisitModel> list = model.getList();
+        if (list==null || list.isEmpty()) {
+            return null;
+        }
+        
+        List<PatientVisitModelConverter> ret = new ArrayList<>(list.size());
+        for (PatientVisitModel m : list) {
+            PatientVisitModelConverter con = new PatientVisitModelConverter();
+            con.setModel(m);
+            ret.add(con);
+        }
+        
+        return ret;
+    }
+    
+    public long getVersion() {
+        return model.getVersion();
+    }
+    
+    public boolean isFull() {
+        return model.isFull();
+    }
+    
+    public List<Long> getRemoved() {
+        List<Long> removed = model.getRemoved();
+        return (removed!=null && !removed.isEmpty()) ? removed : null;
+    }
+    
+    @Override
+    public void setModel(IInfoModel model) {
+        this.model = (PatientVisitListDelta)model;
+    }
+}
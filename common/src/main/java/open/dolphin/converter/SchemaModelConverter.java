@@ -91,6 +91,10 @@ public final class SchemaModelConverter implements IInfoModelConverter {
         return model.getJpegByte();
     }
 
+    public byte[] getThumbnailByte() {
+        return model.getThumbnailByte();
+    }
+
     @Override
     public void setModel(IInfoModel m) {
         this.model = (SchemaModel)m;
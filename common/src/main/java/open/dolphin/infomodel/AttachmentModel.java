@@ -28,6 +28,8 @@ public class AttachmentModel extends KarteEntryBean implements Serializable,java
     @Column(nullable=false)
     private byte[] bytes;   // data
     
+    private String bytesHash;   // BlobStore に置いた場合のハッシュ（bytes は長さ 0）
+    
     @ManyToOne
     @JoinColumn(name="doc_id", nullable=false)
     private DocumentModel document;
@@ -74,13 +76,21 @@ public class AttachmentModel extends KarteEntryBean implements Serializable,java
     }
 
     public byte[] getBytes() {
-        return bytes;
+        return BlobLoader.resolve(bytes, bytesHash);
     }
 
     public void setBytes(byte[] bytes) {
         this.bytes = bytes;
     }
 
+    public String getBytesHash() {
+        return bytesHash;
+    }
+
+    public void setBytesHash(String bytesHash) {
+        this.bytesHash = bytesHash;
+    }
+
     public DocumentModel getDocumentModel() {
         return document;
     }
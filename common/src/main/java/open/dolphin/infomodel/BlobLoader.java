@@ -0,0 +1,50 @@
+package open.dolphin.infomodel;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * データベースの外（BlobStore）に置いたバイナリを読む。
+ *
+ * SchemaModel.jpegByte と AttachmentModel.bytes は、外に置いた場合は長さ 0 の配列とハッシュを保存する。
+ * getter はその場合 Source から読んだものを返す（フィールドは変更しないので Hibernate は更新しない）。
+ * Source はサーバーの起動時に設定する。クライアントでは設定しないので getter はフィールドをそのまま返す。
+ */
+public final class BlobLoader {
+
+    /**
+     * ハッシュからバイナリを読むもの
+     */
+    public interface Source {
+        byte[] load(String hash) throws Exception;
+    }
+
+    private static volatile Source source;
+
+    private BlobLoader() {
+    }
+
+    public static void setSource(Source s) {
+        source = s;
+    }
+
+    /**
+     * 外に置いたものであれば読んで返す。
+     * @param inline フィールドの値
+     * @param hash 外に置いた場合のハッシュ
+     * @return バイナリ 読めない場合は inline
+     */
+    public static byte[] resolve(byte[] inline, String hash) {
+        Source s = source;
+        if (inline == null || inline.length > 0 || hash == null || s == null) {
+            return inline;
+        }
+        try {
+            byte[] ret = s.load(hash);
+            return ret != null ? ret : inline;
+        } catch (Exception e) {
+            Logger.getLogger("open.dolphin").log(Level.WARNING, "can''t load blob {0}: {1}", new Object[]{hash, e.getMessage()});
+        }
+        return inline;
+    }
+}
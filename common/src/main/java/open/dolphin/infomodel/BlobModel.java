@@ -0,0 +1,78 @@
+package open.dolphin.infomodel;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * BlobStore に置いたバイナリの参照数
+ *
+ * 同じ内容（ハッシュ）は一つだけ置き、それを参照する SchemaModel / AttachmentModel の数を数える。
+ * 文書の削除で 0 になったものは released から一定期間後に BlobStore から消す。
+ */
+@Entity
+@Table(name = "d_blob")
+public class BlobModel implements Serializable {
+
+    // SHA-256 (hex)
+    @Id
+    private String hash;
+
+    // バイト数
+    private long contentSize;
+
+    // 参照数
+    private long refCount;
+
+    // 登録日
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date created;
+
+    // 参照数が 0 になった日時
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date released;
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public long getContentSize() {
+        return contentSize;
+    }
+
+    public void setContentSize(long contentSize) {
+        this.contentSize = contentSize;
+    }
+
+    public long getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(long refCount) {
+        this.refCount = refCount;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+    public Date getReleased() {
+        return released;
+    }
+
+    public void setReleased(Date released) {
+        this.released = released;
+    }
+}
@@ -1,9 +1,5 @@
 package open.dolphin.infomodel;
 
-import java.beans.ExceptionListener;
-import java.beans.XMLDecoder;
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -559,22 +555,9 @@ public class ModelUtils implements IInfoModel {
 
     public static Object xmlDecode(byte[] bytes) {
         
-        // target should not be null でヌルポとか何とか…
-        // org.hibernate.collection.PersistentBag でヌルポとか何とか…
-        // なんでやねん
-        ExceptionListener el = new ExceptionListener() {
-
-            public void exceptionThrown(Exception e) {
-            }
-        };
-
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-        
-        d.setExceptionListener(el);
-        
-        return d.readObject();
+        // BeanCodec 形式と従来の XML 形式の両方を読む
+        // XML の場合は ExceptionListener で target should not be null 等を握り潰す
+        return BeanCodec.decode(bytes);
     }
     
     public static String convertListLongToStr(List<Long> list){
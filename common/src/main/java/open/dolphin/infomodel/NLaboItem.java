@@ -8,7 +8,8 @@ import javax.persistence.*;
  * @author Kazushi Minagawa, Digital Globe, Inc.
  */
 @Entity
-@Table(name="d_nlabo_item")
+@Table(name="d_nlabo_item",
+        indexes={@Index(name="idx_nlabo_item_module", columnList="laboModule_id")})
 public class NLaboItem extends InfoModel implements Serializable {
 
     @Id
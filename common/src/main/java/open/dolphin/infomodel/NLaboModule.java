@@ -10,7 +10,8 @@ import javax.persistence.*;
  * @author kazushi Minagawa @digital-globe.co.jp
  */
 @Entity
-@Table(name = "d_nlabo_module")
+@Table(name = "d_nlabo_module",
+        indexes = {@Index(name = "idx_nlabo_module_pid_date", columnList = "patientId,sampleDate,id")})
 public class NLaboModule extends InfoModel implements Serializable {
 
     private static final long serialVersionUID = 1L;
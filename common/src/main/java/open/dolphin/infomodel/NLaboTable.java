@@ -0,0 +1,65 @@
+package open.dolphin.infomodel;
+
+import java.util.List;
+
+/**
+ * ラボデータの検査項目 x 検体採取日の表
+ * 列は表示順に並べた検査モジュール、行は検査項目で、
+ * 各行の values は列と同じ数を持ち、結果の無い列は null になる。
+ * nextSampleDate/nextId は次の頁を取得する時のキーで、次の頁が無ければ null。
+ */
+public class NLaboTable extends InfoModel implements java.io.Serializable {
+
+    // 列の検査モジュール PK
+    private List<Long> moduleIds;
+
+    // 列の検体採取日
+    private List<String> sampleDates;
+
+    // 行
+    private List<LabTestRowObject> rows;
+
+    // 次の頁のキー
+    private String nextSampleDate;
+    private Long nextId;
+
+    public List<Long> getModuleIds() {
+        return moduleIds;
+    }
+
+    public void setModuleIds(List<Long> moduleIds) {
+        this.moduleIds = moduleIds;
+    }
+
+    public List<String> getSampleDates() {
+        return sampleDates;
+    }
+
+    public void setSampleDates(List<String> sampleDates) {
+        this.sampleDates = sampleDates;
+    }
+
+    public List<LabTestRowObject> getRows() {
+        return rows;
+    }
+
+    public void setRows(List<LabTestRowObject> rows) {
+        this.rows = rows;
+    }
+
+    public String getNextSampleDate() {
+        return nextSampleDate;
+    }
+
+    public void setNextSampleDate(String nextSampleDate) {
+        this.nextSampleDate = nextSampleDate;
+    }
+
+    public Long getNextId() {
+        return nextId;
+    }
+
+    public void setNextId(Long nextId) {
+        this.nextId = nextId;
+    }
+}
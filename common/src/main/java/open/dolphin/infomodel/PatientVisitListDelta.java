@@ -0,0 +1,44 @@
+package open.dolphin.infomodel;
+
+import java.util.List;
+
+/**
+ * 受付リストの差分
+ * full が true の場合 list は受付リストの全件、
+ * false の場合は version 以前から追加・変更された受付と削除された受付の PK
+ */
+public class PatientVisitListDelta extends PatientVisitList {
+    
+    // この差分を適用した後の版
+    private long version;
+    
+    // 全件の場合 true
+    private boolean full;
+    
+    // 削除された受付の PK
+    private List<Long> removed;
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public void setFull(boolean full) {
+        this.full = full;
+    }
+
+    public List<Long> getRemoved() {
+        return removed;
+    }
+
+    public void setRemoved(List<Long> removed) {
+        this.removed = removed;
+    }
+}
@@ -23,6 +23,13 @@ public class SchemaModel extends KarteEntryBean
     @Column(nullable=false)
     private byte[] jpegByte;
     
+    // BlobStore に置いた場合のハッシュ（jpegByte は長さ 0）
+    private String jpegHash;
+    
+    // 縮小画像（カルテの表示用） 元画像の取得を遅らせるために使う
+    @Lob
+    private byte[] thumbnailByte;
+    
     // Document
     @ManyToOne
     @JoinColumn(name="doc_id", nullable=false)
@@ -63,13 +70,29 @@ public class SchemaModel extends KarteEntryBean
     }
     
     public byte[] getJpegByte() {
-        return jpegByte;
+        return BlobLoader.resolve(jpegByte, jpegHash);
     }
     
     public void setJpegByte(byte[] jpegByte) {
         this.jpegByte = jpegByte;
     }
     
+    public String getJpegHash() {
+        return jpegHash;
+    }
+    
+    public void setJpegHash(String jpegHash) {
+        this.jpegHash = jpegHash;
+    }
+    
+    public byte[] getThumbnailByte() {
+        return thumbnailByte;
+    }
+    
+    public void setThumbnailByte(byte[] thumbnailByte) {
+        this.thumbnailByte = thumbnailByte;
+    }
+    
     public ImageIcon getIcon() {
         return icon;
     }
@@ -144,6 +167,10 @@ public class SchemaModel extends KarteEntryBean
             ret.setJpegByte(dest);
         }
 
+        if (this.getThumbnailByte()!=null) {
+            ret.setThumbnailByte(this.getThumbnailByte().clone());
+        }
+
         return ret;
     }
 
@@ -168,7 +195,8 @@ public class SchemaModel extends KarteEntryBean
         sb.append("medicalRole=").append(this.getExtRefModel().getMedicalRole()).append("\n");
         sb.append("title=").append(this.getExtRefModel().getTitle()).append("\n");
         sb.append("href=").append(this.getExtRefModel().getHref()).append("\n");
-        sb.append("byte length=").append(this.getJpegByte().length).append("\n");
+        sb.append("byte length=").append(jpegByte!=null ? jpegByte.length : 0).append("\n");
+        sb.append("hash=").append(jpegHash).append("\n");
         return sb.toString();
     }
 }
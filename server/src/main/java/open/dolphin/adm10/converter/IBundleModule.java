@@ -1,7 +1,9 @@
 package open.dolphin.adm10.converter;
 
+import open.dolphin.infomodel.BeanCodec;
 import open.dolphin.infomodel.ClaimBundle;
 import open.dolphin.infomodel.ModuleModel;
+import open.dolphin.mbean.ModuleBeanCache;
 
 /**
  *
@@ -39,7 +41,7 @@ public class IBundleModule extends IAbstractModule {
         this.getModuleInfo().fromModel(m.getModuleInfoBean());
         
         // decord
-        ClaimBundle bundle = (ClaimBundle)IOSHelper.xmlDecode(m.getBeanBytes());
+        ClaimBundle bundle = (ClaimBundle)ModuleBeanCache.getInstance().getModel(m);
         IClaimBundle ib = new IClaimBundle();
         ib.fromModel(bundle);
         this.setModel(ib);
@@ -66,7 +68,7 @@ public class IBundleModule extends IAbstractModule {
         ret.setModuleInfoBean(this.getModuleInfo().toModel());
         
         ClaimBundle bundle = model.toModel();
-        ret.setBeanBytes(IOSHelper.toXMLBytes(bundle));
+        ret.setBeanBytes(BeanCodec.encode(bundle));
         
         return ret;
     }
@@ -1,7 +1,9 @@
 package open.dolphin.adm10.converter;
 
+import open.dolphin.infomodel.BeanCodec;
 import open.dolphin.infomodel.ModuleModel;
 import open.dolphin.infomodel.ProgressCourse;
+import open.dolphin.mbean.ModuleBeanCache;
 
 /**
  *
@@ -48,13 +50,14 @@ public class IProgressCourseModule2 extends IAbstractModule {
         
         // FreeText
         //System.err.println("freeText processing......");
-        byte[] bytes = model.getBeanBytes();
-        ProgressCourse pc = (ProgressCourse)(IOSHelper.xmlDecode(bytes));
-        String text = pc.getFreeText();
+        // キャッシュのモデルは共有されているので書き換えない
+        ProgressCourse cached = (ProgressCourse)ModuleBeanCache.getInstance().getModel(model);
+        String text = cached.getFreeText();
         //System.err.println(text);
         String noHTMLString = text.replaceAll("\\<.*?>","");
         //System.err.println("removed......");
         //System.err.println(noHTMLString);
+        ProgressCourse pc = new ProgressCourse();
         pc.setFreeText(noHTMLString);
         IProgressCourse ipc = new IProgressCourse();
         ipc.fromModel(pc);
@@ -88,7 +91,7 @@ public class IProgressCourseModule2 extends IAbstractModule {
         
         ret.setModuleInfoBean(this.getModuleInfo().toModel());
         
-        ret.setBeanBytes(IOSHelper.toXMLBytes(model.toModel()));
+        ret.setBeanBytes(BeanCodec.encode(model.toModel()));
         
         return ret;
     }
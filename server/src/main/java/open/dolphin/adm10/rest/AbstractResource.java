@@ -1,11 +1,11 @@
 package open.dolphin.adm10.rest;
 
-import java.beans.XMLDecoder;
 import java.io.*;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Iterator;
+import open.dolphin.infomodel.BeanCodec;
 import org.jdom.Document;
 import org.jdom.JDOMException;
 import org.jdom.input.SAXBuilder;
@@ -257,12 +257,8 @@ public class AbstractResource {
     }
 
     protected static Object xmlDecode(byte[] bytes)  {
-
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-
-        return d.readObject();
+        // 従来の XML 形式も読める
+        return BeanCodec.decode(bytes);
     }
 
     protected static String sexValueToDesc(String code) {
@@ -182,7 +182,7 @@ public class JsonTouchResource extends open.dolphin.rest.AbstractResource {
         
         //System.err.println(json);
         
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = getDeserializeMapper();
         ISendPackage pkg = mapper.readValue(json, ISendPackage.class);
         
         long retPk = 0L;
@@ -394,7 +394,7 @@ public class JsonTouchResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
 
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 InteractionCodeList input = mapper.readValue(json, InteractionCodeList.class);
 
                 // 相互作用モデルのリスト
@@ -1,14 +1,12 @@
 package open.dolphin.adm20.converter;
 
-import java.beans.XMLDecoder;
 import java.beans.XMLEncoder;
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import open.dolphin.infomodel.BeanCodec;
 
 /**
  *
@@ -34,12 +32,8 @@ public class IOSHelper {
     }
     
     public static Object xmlDecode(byte[] bytes)  {
-
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-
-        return d.readObject();
+        // 従来の XML 形式も読める
+        return BeanCodec.decode(bytes);
     }
     
     public static Date toDate(String dateStr) {
@@ -59,7 +59,6 @@ import open.dolphin.infomodel.SMSMessage;
 import open.dolphin.infomodel.UserModel;
 import open.dolphin.session.ChartEventServiceBean;
 import open.orca.rest.ORCAConnection;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 
 
@@ -127,7 +126,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 ICarePlanModel conv = mapper.readValue(json, ICarePlanModel.class);
                 long pk = admissionService.addCarePlan(conv.toModel());
                 List<Long> result = new ArrayList(1);
@@ -147,7 +146,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 ICarePlanModel conv = mapper.readValue(json, ICarePlanModel.class);
                 CarePlanModel model = conv.toModel();
                 int cnt = admissionService.updateCarePlan(model);
@@ -168,7 +167,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 ICarePlanModel model = mapper.readValue(json, ICarePlanModel.class);
                 int cnt = admissionService.deleteCarePlan(model.toModel());
                 List<Integer> result = new ArrayList(1);
@@ -246,7 +245,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
         
         //System.err.println(json);
         
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = getDeserializeMapper();
         ISendPackage pkg = mapper.readValue(json, ISendPackage.class);
         
         long retPk = 0L;
@@ -367,8 +366,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IOndobanModel30[] array = mapper.readValue(json, IOndobanModel30[].class);
                 
                 ArrayList<OndobanModel> saveList = new ArrayList(array.length);
@@ -393,8 +391,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IOndobanModel30[] array = mapper.readValue(json, IOndobanModel30[].class);
                 
                 ArrayList<OndobanModel> updateList = new ArrayList(array.length);
@@ -419,8 +416,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IOndobanModel30[] array = mapper.readValue(json, IOndobanModel30[].class);
                 
                 ArrayList<OndobanModel> updateList = new ArrayList(array.length);
@@ -480,8 +476,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 INurseProgressCourse conv = mapper.readValue(json, INurseProgressCourse.class);
                 
                 NurseProgressCourseModel model = conv.toModel();
@@ -504,8 +499,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 INurseProgressCourse conv = mapper.readValue(json, INurseProgressCourse.class);
                 
                 NurseProgressCourseModel model = conv.toModel();
@@ -526,8 +520,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 INurseProgressCourse conv = mapper.readValue(json, INurseProgressCourse.class);
                 
                 NurseProgressCourseModel model = conv.toModel();
@@ -550,7 +543,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream output) throws IOException, WebApplicationException {
                 //System.out.println(json);
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 SMSMessage sms = mapper.readValue(json, SMSMessage.class);
                 
                 PlivoSender plivo = new PlivoSender();
@@ -573,7 +566,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream output) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 Factor2Code spec = mapper.readValue(json, Factor2Code.class);
                 
                 // One time password
@@ -608,7 +601,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream output) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 Factor2Spec spec = mapper.readValue(json, Factor2Spec.class);
                 
                 // Backup key
@@ -659,8 +652,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
     @Produces(MediaType.APPLICATION_JSON)
     public UserModelConverter getUserWithNewFactor2Device(String json) throws IOException {
 
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         Factor2Spec spec = mapper.readValue(json, Factor2Spec.class);
         
         UserModel result = ehtService.getUserWithNewFactor2Device(spec);
@@ -675,8 +667,7 @@ public class AdmissionResource extends open.dolphin.rest.AbstractResource {
     @Produces(MediaType.APPLICATION_JSON)
     public UserModelConverter getUserWithF2Backup(String json) throws IOException {
 
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         Factor2Spec spec = mapper.readValue(json, Factor2Spec.class);
         
         UserModel result = ehtService.getUserWithF2Backup(spec);
@@ -76,7 +76,6 @@ import open.dolphin.adm20.converter.NLaboModuleConverter;
 import open.dolphin.infomodel.PatientModel;
 import open.dolphin.infomodel.PatientVisitModel;
 import open.orca.rest.ORCAConnection;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -241,7 +240,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 IPatientMemoModel model = mapper.readValue(json, IPatientMemoModel.class);
                 Long pk = ehtService.addPatientMemo(model.toModel());
                 List<Long> list = new ArrayList(1);
@@ -261,7 +260,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 IPatientMemoModel model = mapper.readValue(json, IPatientMemoModel.class);
                 int cnt = ehtService.updatePatientMemo(model.toModel());
                 mapper = getSerializeMapper();
@@ -279,7 +278,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 IPatientMemoModel model = mapper.readValue(json, IPatientMemoModel.class);
                 int cnt = ehtService.deletePatientMemo(model.toModel());
                 mapper = getSerializeMapper();
@@ -321,8 +320,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IAllergyModel[] allergies = mapper.readValue(json, IAllergyModel[].class);
                 
                 List<Long> pkList = new ArrayList(allergies.length);
@@ -347,8 +345,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IAllergyModel[] allergies = mapper.readValue(json, IAllergyModel[].class);
                 
                 int cnt = 0;
@@ -374,8 +371,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IAllergyModel[] allergies = mapper.readValue(json, IAllergyModel[].class);
 
                 int cnt = 0;
@@ -429,8 +425,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IRegisteredDiagnosis[] list = mapper.readValue(json, IRegisteredDiagnosis[].class);
                 
                 int cnt = 0;
@@ -456,8 +451,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IRegisteredDiagnosis[] list = mapper.readValue(json, IRegisteredDiagnosis[].class);
                 
                 int cnt = 0;
@@ -483,8 +477,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IRegisteredDiagnosis[] list = mapper.readValue(json, IRegisteredDiagnosis[].class);
                                 
                 int cnt = 0;
@@ -675,8 +668,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 String[] pks = mapper.readValue(json, String[].class);
                 
                 long pk = Long.parseLong(pks[0]);
@@ -777,7 +769,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
 
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 InteractionCodeList input = mapper.readValue(json, InteractionCodeList.class);
                 
 //                if (input.getCodes1()!=null)
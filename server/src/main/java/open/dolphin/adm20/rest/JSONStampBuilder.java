@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import open.dolphin.common.JsonMappers;
 import open.dolphin.infomodel.*;
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.map.JsonMappingException;
@@ -116,7 +117,7 @@ public class JSONStampBuilder {
             TextStampModel tx = (TextStampModel)model;
 //minagawa^               
             StringWriter sw = new StringWriter();
-            ObjectMapper mapper = new ObjectMapper();
+            ObjectMapper mapper = JsonMappers.getSerializeMapper();
             mapper.writeValue(sw, tx);
             String json = sw.toString();
             sw.close();
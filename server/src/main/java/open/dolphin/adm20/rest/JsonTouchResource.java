@@ -158,7 +158,7 @@ public class JsonTouchResource extends open.dolphin.rest.AbstractResource {
         
         //System.err.println(json);
         
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = getDeserializeMapper();
         ISendPackage pkg = mapper.readValue(json, ISendPackage.class);
         
         long retPk = 0L;
@@ -214,7 +214,7 @@ public class JsonTouchResource extends open.dolphin.rest.AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String postSendPackage2(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = getDeserializeMapper();
         ISendPackage2 pkg = mapper.readValue(json, ISendPackage2.class);
         
         long retPk = 0L;
@@ -52,6 +52,7 @@ import open.dolphin.infomodel.PHRLabModule;
 import open.dolphin.infomodel.PatientModel;
 import open.dolphin.infomodel.RegisteredDiagnosisModel;
 import open.dolphin.infomodel.SchemaModel;
+import open.dolphin.mbean.ModuleBeanCache;
 import open.orca.rest.ORCAConnection;
 import org.codehaus.jackson.map.ObjectMapper;
 
@@ -111,7 +112,7 @@ public class PHRResource extends open.dolphin.rest.AbstractResource {
     public StreamingOutput putPHRKey(final String json) {
         
         return (OutputStream output) -> {
-            ObjectMapper mapper = new ObjectMapper();
+            ObjectMapper mapper = getDeserializeMapper();
             PHRKey model = mapper.readValue(json, PHRKey.class);
             // String -> Date 変換 for iOS
             model.stringToDate();
@@ -251,7 +252,7 @@ public class PHRResource extends open.dolphin.rest.AbstractResource {
             count++;
             
             // ClaimBundleをデコード バンドル属性セット
-            ClaimBundle bundle = (ClaimBundle)IOSHelper.xmlDecode(mm.getBeanBytes());
+            ClaimBundle bundle = (ClaimBundle)ModuleBeanCache.getInstance().getModel(mm);
             
             // ClaimItems
             ClaimItem[] items = bundle.getClaimItem();
@@ -456,7 +457,7 @@ public class PHRResource extends open.dolphin.rest.AbstractResource {
                     pcb.setNumber(mm.getModuleInfoBean().getStampNumber());
                     
                     // ClaimBundleをデコード バンドル属性セット
-                    ClaimBundle bundle = (ClaimBundle)IOSHelper.xmlDecode(mm.getBeanBytes());
+                    ClaimBundle bundle = (ClaimBundle)ModuleBeanCache.getInstance().getModel(mm);
                     pcb.setAdmin(bundle.getAdmin());
                     pcb.setAdminCode(bundle.getAdminCode());
                     pcb.setAdminCodeSystem(bundle.getAdminCodeSystem());
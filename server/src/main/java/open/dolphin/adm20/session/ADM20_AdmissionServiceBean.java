@@ -21,6 +21,7 @@ import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import open.dolphin.infomodel.BeanCodec;
 import open.dolphin.infomodel.AttachmentModel;
 import open.dolphin.infomodel.CarePlanModel;
 import open.dolphin.infomodel.DiagnosisSendWrapper;
@@ -280,7 +281,7 @@ public class ADM20_AdmissionServiceBean {
         for (CarePlanModel cm : carePlanList) {
             // CarePlan to ModuleModel
             ModuleModel module = cm.toModleModel();
-            module.setBeanBytes(IOSHelper.toXMLBytes(module.getModel()));
+            module.setBeanBytes(BeanCodec.encode(module.getModel()));
             schedule.addModule(module);
         }
         
@@ -320,7 +321,7 @@ public class ADM20_AdmissionServiceBean {
         ProgressCourse soaProgress = new ProgressCourse();
         soaProgress.setFreeText(sb.toString());
         ModuleModel soaSpecModule = new ModuleModel();
-        soaSpecModule.setBeanBytes(IOSHelper.toXMLBytes(soaProgress));
+        soaSpecModule.setBeanBytes(BeanCodec.encode(soaProgress));
         soaSpecModule.setConfirmed(now);
         soaSpecModule.setStarted(startDate);
         soaSpecModule.setRecorded(now);
@@ -353,7 +354,7 @@ public class ADM20_AdmissionServiceBean {
         ProgressCourse pProgress = new ProgressCourse();
         pProgress.setFreeText(sb.toString());
         ModuleModel pSpecModule = new ModuleModel();
-        pSpecModule.setBeanBytes(IOSHelper.toXMLBytes(pProgress));
+        pSpecModule.setBeanBytes(BeanCodec.encode(pProgress));
         pSpecModule.setConfirmed(startDate);
         pSpecModule.setStarted(now);
         pSpecModule.setRecorded(now);
@@ -0,0 +1,56 @@
+package open.dolphin.mbean;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * データベースの外にバイナリを置く場所
+ *
+ * S3 のオブジェクト操作（PUT / GET / HEAD / DELETE と範囲の GET）に合わせてある。
+ * キーは内容の SHA-256 なので、同じキーのオブジェクトは常に同じ内容である（上書きしても変わらない）。
+ * 実装は Properties を引数にとるコンストラクタを持つこと（custom.properties が渡される）。
+ */
+public interface BlobStore {
+
+    /**
+     * 置く。既にある場合は何もしなくてよい。
+     * @param key キー
+     * @param data 内容
+     * @throws IOException
+     */
+    void put(String key, byte[] data) throws IOException;
+
+    /**
+     * 読む。
+     * @param key キー
+     * @return 内容 無い場合は null
+     * @throws IOException
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * バイト数を返す。
+     * @param key キー
+     * @return バイト数 無い場合は -1
+     * @throws IOException
+     */
+    long size(String key) throws IOException;
+
+    /**
+     * position から count バイトを target へ書く。
+     * @param key キー
+     * @param position 開始位置
+     * @param count バイト数
+     * @param target 書き出し先
+     * @throws IOException
+     */
+    void transferTo(String key, long position, long count, WritableByteChannel target) throws IOException;
+
+    /**
+     * 消す。
+     * @param key キー
+     * @return 消した場合は true
+     * @throws IOException
+     */
+    boolean delete(String key) throws IOException;
+}
@@ -0,0 +1,180 @@
+package open.dolphin.mbean;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import open.dolphin.infomodel.BlobLoader;
+import open.orca.rest.ORCAConnection;
+
+/**
+ * シェーマの画像と添付ファイルをデータベースの外に置く BlobStore を持つ。
+ *
+ * 内容の SHA-256 をキーにするので、同じ画像・ファイル（修正版の文書が複製したもの等）は一つだけ置かれる。
+ * 参照数は d_blob（BlobModel）で数える（BlobServiceBean）。
+ * 起動時に BlobLoader の Source になり、SchemaModel / AttachmentModel の getter が読めるようにする。
+ *
+ * custom.properties
+ *   blob.store         file: ローカルのファイルシステム（FileBlobStore）
+ *                      それ以外: BlobStore の実装クラス名（S3 互換のもの等）
+ *                      無い場合は従来通りデータベースに保存する
+ *   blob.store.dir     FileBlobStore の場所
+ *
+ * 一度外に置いたものを読むため、blob.store は後から外さないこと。
+ */
+public final class BlobStores implements BlobLoader.Source {
+
+    private static final BlobStores instance = new BlobStores();
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final BlobStore store;
+
+    // ロールバックされた保存が置いた（参照する行の無い）もの 次の sweep で消す
+    private final Set<String> orphans = ConcurrentHashMap.newKeySet();
+
+    // 統計
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong putBytes = new AtomicLong();
+    private final AtomicLong dedups = new AtomicLong();
+    private final AtomicLong dedupBytes = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong deletes = new AtomicLong();
+
+    public static BlobStores getInstance() {
+        return instance;
+    }
+
+    private BlobStores() {
+        store = create(ORCAConnection.getInstance().getProperties());
+        if (store != null) {
+            BlobLoader.setSource(this);
+            Logger.getLogger("open.dolphin").log(Level.INFO, "BlobStore: {0}", store.getClass().getName());
+        }
+    }
+
+    private static BlobStore create(Properties config) {
+        String type = config.getProperty("blob.store");
+        if (type == null || type.trim().isEmpty()) {
+            return null;
+        }
+        type = type.trim();
+        try {
+            if ("file".equals(type)) {
+                return new FileBlobStore(config);
+            }
+            return (BlobStore)Class.forName(type).getConstructor(Properties.class).newInstance(config);
+        } catch (Exception e) {
+            // 設定の誤りで保存先が変わらないように、使えない場合は起動時に分かるようにする
+            Logger.getLogger("open.dolphin").log(Level.SEVERE, "can't create BlobStore " + type, e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 使える BlobStore を返す。
+     * @return BlobStore 設定が無い場合は null
+     */
+    public BlobStore getStore() {
+        return store;
+    }
+
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    /**
+     * 内容のハッシュ（キー）を返す。
+     * @param data 内容
+     * @return SHA-256 の hex
+     */
+    public static String hash(byte[] data) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(data);
+            char[] c = new char[d.length * 2];
+            for (int i = 0; i < d.length; i++) {
+                c[i * 2] = HEX[(d[i] >> 4) & 0x0f];
+                c[i * 2 + 1] = HEX[d[i] & 0x0f];
+            }
+            return new String(c);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 置く。既にある場合は書かない。
+     * @param key ハッシュ
+     * @param data 内容
+     * @throws IOException
+     */
+    public void put(String key, byte[] data) throws IOException {
+        if (store.size(key) >= 0L) {
+            dedups.incrementAndGet();
+            dedupBytes.addAndGet(data.length);
+            return;
+        }
+        store.put(key, data);
+        puts.incrementAndGet();
+        putBytes.addAndGet(data.length);
+    }
+
+    /**
+     * 消す。
+     * @param key ハッシュ
+     * @throws IOException
+     */
+    public void delete(String key) throws IOException {
+        if (store.delete(key)) {
+            deletes.incrementAndGet();
+        }
+    }
+
+    /**
+     * ロールバックされた保存が置いたものを記録する。
+     * @param key ハッシュ
+     */
+    public void addOrphan(String key) {
+        orphans.add(key);
+    }
+
+    /**
+     * 記録した参照の無いものを取り出す。
+     * @return ハッシュの一覧
+     */
+    public List<String> takeOrphans() {
+        List<String> list = new ArrayList<>(orphans);
+        orphans.removeAll(list);
+        return list;
+    }
+
+    @Override
+    public byte[] load(String hash) throws Exception {
+        if (store == null) {
+            return null;
+        }
+        loads.incrementAndGet();
+        return store.get(hash);
+    }
+
+    @Override
+    public String toString() {
+        if (store == null) {
+            return "BlobStore: disabled";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("BlobStore: put=").append(puts.get()).append("(").append(putBytes.get()).append("bytes)");
+        sb.append(" dedup=").append(dedups.get()).append("(").append(dedupBytes.get()).append("bytes)");
+        sb.append(" load=").append(loads.get());
+        sb.append(" delete=").append(deletes.get());
+        sb.append(" orphan=").append(orphans.size());
+        return sb.toString();
+    }
+}
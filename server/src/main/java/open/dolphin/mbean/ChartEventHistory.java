@@ -0,0 +1,91 @@
+package open.dolphin.mbean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import open.dolphin.infomodel.ChartEventModel;
+
+/**
+ * 施設毎の ChartEvent 履歴（固定長のリングバッファ）
+ * 通知毎に単調増加する番号を振り、再接続したクライアントが
+ * 最後に受け取った番号以降を取得できるようにする。
+ * 番号はサーバー起動時刻を基点にするため、再起動を跨いでも減少しない。
+ */
+public class ChartEventHistory {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final AtomicReferenceArray<ChartEventModel> ring;
+    private final int capacity;
+
+    // 最初の番号 - 1
+    private final long base;
+
+    // 最後に書き込みを終えた番号
+    private volatile long last;
+
+    public ChartEventHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ChartEventHistory(int capacity) {
+        this.capacity = capacity;
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.base = System.currentTimeMillis() << 16;
+        this.last = base;
+    }
+
+    /**
+     * イベントに番号を振って履歴に追加する。
+     * @param evt ChartEventModel
+     * @return 振った番号
+     */
+    public synchronized long append(ChartEventModel evt) {
+        long seq = last + 1;
+        evt.setSequence(seq);
+        ring.set(index(seq), evt);
+        last = seq;
+        return seq;
+    }
+
+    public long getLastSequence() {
+        return last;
+    }
+
+    /**
+     * cursor より後 to までのイベントを番号順に返す。
+     * @param cursor クライアントが最後に受け取った番号
+     * @param to 取得する最後の番号
+     * @return イベントのリスト 履歴から溢れている（又は他の起動時の番号）の場合は null
+     */
+    public List<ChartEventModel> range(long cursor, long to) {
+
+        long end = Math.min(to, last);
+        if (cursor >= end) {
+            return Collections.emptyList();
+        }
+        if (cursor < base || end - cursor > capacity) {
+            return null;
+        }
+
+        List<ChartEventModel> list = new ArrayList<>((int)(end - cursor));
+        for (long seq = cursor + 1; seq <= end; seq++) {
+            ChartEventModel evt = ring.get(index(seq));
+            if (evt == null || evt.getSequence() != seq) {
+                // 読み出し中に上書きされた
+                return null;
+            }
+            list.add(evt);
+        }
+        return list;
+    }
+
+    public List<ChartEventModel> since(long cursor) {
+        return range(cursor, last);
+    }
+
+    private int index(long seq) {
+        return (int)(seq % capacity);
+    }
+}
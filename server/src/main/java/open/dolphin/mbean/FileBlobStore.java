@@ -0,0 +1,110 @@
+package open.dolphin.mbean;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * ローカルのファイルシステムの BlobStore
+ *
+ * root/ab/cd/abcd... にキー毎のファイルを置く。書き込みは root/tmp に書いて fsync してから移す。
+ * 読み出しは FileChannel.transferTo を使う。
+ *
+ * custom.properties
+ *   blob.store.dir  置く場所 (jboss.home.dir/blobs)
+ */
+public final class FileBlobStore implements BlobStore {
+
+    private final Path root;
+    private final Path tmp;
+
+    public FileBlobStore(Properties config) throws IOException {
+        String dir = config.getProperty("blob.store.dir");
+        if (dir == null || dir.trim().isEmpty()) {
+            dir = System.getProperty("jboss.home.dir") + File.separator + "blobs";
+        }
+        this.root = Paths.get(dir.trim());
+        this.tmp = root.resolve("tmp");
+        Files.createDirectories(tmp);
+    }
+
+    @Override
+    public void put(String key, byte[] data) throws IOException {
+        Path path = path(key);
+        if (Files.exists(path)) {
+            return;
+        }
+        Files.createDirectories(path.getParent());
+        Path t = Files.createTempFile(tmp, key, ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(t, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                while (buf.hasRemaining()) {
+                    ch.write(buf);
+                }
+                ch.force(true);
+            }
+            try {
+                Files.move(t, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(t, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(t);
+        }
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        try {
+            return Files.readAllBytes(path(key));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        Path path = path(key);
+        return Files.exists(path) ? Files.size(path) : -1L;
+    }
+
+    @Override
+    public void transferTo(String key, long position, long count, WritableByteChannel target) throws IOException {
+        try (FileChannel ch = FileChannel.open(path(key), StandardOpenOption.READ)) {
+            long pos = position;
+            long remaining = count;
+            while (remaining > 0L) {
+                long n = ch.transferTo(pos, remaining, target);
+                if (n <= 0L) {
+                    break;
+                }
+                pos += n;
+                remaining -= n;
+            }
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return Files.deleteIfExists(path(key));
+    }
+
+    // キーはハッシュの hex なので、先頭 4 文字で 2 段に分ける
+    private Path path(String key) {
+        if (key == null || key.length() < 4 || !key.matches("[0-9a-f]+")) {
+            throw new IllegalArgumentException("invalid key: " + key);
+        }
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+}
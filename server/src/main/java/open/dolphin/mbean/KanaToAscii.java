@@ -29,6 +29,9 @@ public class KanaToAscii {
 
     List<ConvData> m_DataAry;
 
+    // カナ -> ConvData 同じカナは m_DataAry の先にあるものを使う
+    Map<String, ConvData> m_KanaMap;
+
     public KanaToAscii() {
         m_DataAry = new ArrayList<ConvData>();
         ConvData pData;
@@ -506,10 +509,18 @@ public class KanaToAscii {
         m_DataAry.add(pData);
          pData = new ConvData("z", "ｚ");
         m_DataAry.add(pData);
+
+        m_KanaMap = new HashMap<String, ConvData>(m_DataAry.size() * 2);
+        for (ConvData d : m_DataAry) {
+            if (!m_KanaMap.containsKey(d.m_sKana)) {
+                m_KanaMap.put(d.m_sKana, d);
+            }
+        }
     }
 
     void KanaToAscii_Free() {
         m_DataAry.clear();
+        m_KanaMap.clear();
     }
 
     int GetSize() {
@@ -547,13 +558,10 @@ public class KanaToAscii {
             bTrue = false;
             if (nLen + 1 < strKana.length()) {
                 strSub = strKana.substring((nLen), nLen + 2);
-                for (Iterator i = m_DataAry.iterator(); i.hasNext();) {
-                    dic = (ConvData) i.next();
-                    if (dic.m_sKana.equals(strSub)) {
-                        strCHG += dic.m_sAsc;
-                        bTrue = true;
-                        break;
-                    }
+                dic = m_KanaMap.get(strSub);
+                if (dic != null) {
+                    strCHG += dic.m_sAsc;
+                    bTrue = true;
                 }
                 if (bTrue) {
                     nLen += 1;
@@ -562,13 +570,10 @@ public class KanaToAscii {
 
             }
             strSub = strKana.substring((nLen), nLen + 1);
-            for (Iterator i = m_DataAry.iterator(); i.hasNext();) {
-                dic = (ConvData) i.next();
-                if (dic.m_sKana.equals(strSub)) {
-                    strCHG += dic.m_sAsc;
-                    bTrue = true;
-                    break;
-                }
+            dic = m_KanaMap.get(strSub);
+            if (dic != null) {
+                strCHG += dic.m_sAsc;
+                bTrue = true;
             }
             if (!bTrue) {
                 //return -1;
@@ -0,0 +1,198 @@
+package open.dolphin.mbean;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import open.dolphin.infomodel.BeanCodec;
+import open.dolphin.infomodel.IInfoModel;
+import open.dolphin.infomodel.ModuleModel;
+import open.orca.rest.ORCAConnection;
+
+/**
+ * デコード済 ModuleModel.beanBytes のキャッシュ
+ * モジュールの PK をキーにし、beanBytes の長さとハッシュを版として持つ。
+ * 件数と推定サイズの上限を超えると最も古く参照されたものから捨てる。
+ * 値は SoftReference で保持するため、メモリが逼迫すれば GC が回収する。
+ *
+ * 返すモデルは複数のスレッドで共有されるため、呼び出し側で書き換えてはならない。
+ */
+public final class ModuleBeanCache {
+
+    private static final ModuleBeanCache instance = new ModuleBeanCache();
+
+    private static final int DEFAULT_MAX_ENTRIES = 5000;
+    private static final long DEFAULT_MAX_WEIGHT_MB = 64L;
+
+    // BeanCodec 形式は deflate されているのでデコード後の大きさを多めに見積もる
+    private static final int ENCODED_WEIGHT_FACTOR = 6;
+
+    private final int maxEntries;
+    private final long maxWeight;
+
+    private final LinkedHashMap<Long, Entry> map;
+    private long weight;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public static ModuleBeanCache getInstance() {
+        return instance;
+    }
+
+    private ModuleBeanCache() {
+
+        int entries = DEFAULT_MAX_ENTRIES;
+        long mb = DEFAULT_MAX_WEIGHT_MB;
+
+        // custom.properties で上限を変更できる
+        Properties config = ORCAConnection.getInstance().getProperties();
+        if (config != null) {
+            try {
+                entries = Integer.parseInt(config.getProperty("module.cache.entries", String.valueOf(entries)).trim());
+                mb = Long.parseLong(config.getProperty("module.cache.memory", String.valueOf(mb)).trim());
+            } catch (NumberFormatException e) {
+            }
+        }
+
+        this.maxEntries = entries;
+        this.maxWeight = mb * 1024L * 1024L;
+        this.map = new LinkedHashMap<>(256, 0.75f, true);
+    }
+
+    /**
+     * モジュールのモデルを返す。キャッシュに無ければデコードして登録する。
+     * @param module ModuleModel
+     * @return デコードしたモデル（共有されるので書き換えないこと）
+     */
+    public IInfoModel getModel(ModuleModel module) {
+
+        byte[] bytes = module.getBeanBytes();
+        if (bytes == null) {
+            return null;
+        }
+
+        // 未保存のモジュールはキャッシュしない
+        long id = module.getId();
+        if (id == 0L || maxEntries <= 0) {
+            return (IInfoModel)BeanCodec.decode(bytes);
+        }
+
+        long version = version(bytes);
+
+        synchronized (this) {
+            Entry e = map.get(id);
+            if (e != null && e.version == version) {
+                IInfoModel model = e.ref.get();
+                if (model != null) {
+                    hitCount.incrementAndGet();
+                    return model;
+                }
+            }
+        }
+
+        // デコードはロックの外で行う
+        missCount.incrementAndGet();
+        IInfoModel model = (IInfoModel)BeanCodec.decode(bytes);
+        if (model == null) {
+            return null;
+        }
+
+        int w = BeanCodec.isEncoded(bytes) ? bytes.length * ENCODED_WEIGHT_FACTOR : bytes.length;
+        Entry entry = new Entry(version, w, model);
+
+        synchronized (this) {
+            Entry old = map.put(id, entry);
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += w;
+            evict();
+        }
+
+        return model;
+    }
+
+    /**
+     * モジュールのキャッシュを破棄する。
+     * @param id モジュールの PK
+     */
+    public synchronized void invalidate(long id) {
+        Entry old = map.remove(id);
+        if (old != null) {
+            weight -= old.weight;
+        }
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        weight = 0L;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public synchronized int getSize() {
+        return map.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        long hit = getHitCount();
+        long miss = getMissCount();
+        long total = hit + miss;
+        StringBuilder sb = new StringBuilder();
+        sb.append("ModuleBeanCache size=").append(getSize());
+        sb.append(" weight=").append(getWeight() / 1024L).append("KB");
+        sb.append(" hit=").append(hit);
+        sb.append(" miss=").append(miss);
+        sb.append(" hitRatio=").append(total > 0 ? (hit * 100 / total) : 0).append("%");
+        sb.append(" evicted=").append(getEvictionCount());
+        return sb.toString();
+    }
+
+    // 上限を超えた分を古く参照された順に捨てる
+    private void evict() {
+        Iterator<Map.Entry<Long, Entry>> iter = map.entrySet().iterator();
+        while (iter.hasNext() && (map.size() > maxEntries || weight > maxWeight)) {
+            Entry e = iter.next().getValue();
+            iter.remove();
+            weight -= e.weight;
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private static long version(byte[] bytes) {
+        return ((long)bytes.length << 32) | (Arrays.hashCode(bytes) & 0xFFFFFFFFL);
+    }
+
+    private static final class Entry {
+
+        private final long version;
+        private final int weight;
+        private final SoftReference<IInfoModel> ref;
+
+        private Entry(long version, int weight, IInfoModel model) {
+            this.version = version;
+            this.weight = weight;
+            this.ref = new SoftReference<>(model);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package open.dolphin.mbean;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import open.dolphin.session.BlobServiceBean;
+import open.dolphin.session.ModuleCodecMigrator;
+import open.orca.rest.ORCAConnection;
+
+/**
+ * 夜間に少しずつ行うデータの変換と BlobStore の掃除
+ *
+ * ServletStartup のタイマー（日付の切り替え等）を止めないよう別の Singleton にし、
+ * 書き込みロックを取らない。変換毎に進捗（最後に処理した PK）を持ち、同じ変換が重ならないようにする。
+ * 一回の実行は RUN_MILLIS で切り上げ、残りは次の実行で続ける。
+ */
+@Singleton
+@Lock(LockType.READ)
+public class NightlyMigration {
+
+    // 一回の実行時間 タイマーの間隔（5分）より十分短くする
+    private static final long RUN_MILLIS = 60 * 1000L;
+
+    @Inject
+    private ModuleCodecMigrator moduleCodecMigrator;
+
+    // モジュール変換の進捗（最後に処理した PK） -1 は完了
+    private volatile long moduleMigrationCursor;
+    private final AtomicBoolean moduleMigrationRunning = new AtomicBoolean();
+
+    @Inject
+    private BlobServiceBean blobServiceBean;
+
+    // BlobStore への移動の進捗（最後に処理した PK） -1 は完了
+    private volatile long schemaBlobCursor;
+    private volatile long attachmentBlobCursor;
+    private final AtomicBoolean blobMigrationRunning = new AtomicBoolean();
+
+    /**
+     * 夜間に従来の XML 形式のモジュールを BeanCodec 形式へ変換する。
+     * custom.properties に module.codec.migrate=true がある場合のみ実行する。
+     */
+    @Schedule(hour="1-4", minute="*/5", persistent=false)
+    public void migrateModuleCodec() {
+
+        if (moduleMigrationCursor < 0) {
+            return;
+        }
+
+        Properties config = ORCAConnection.getInstance().getProperties();
+        if (!"true".equals(config.getProperty("module.codec.migrate"))) {
+            return;
+        }
+
+        if (!moduleMigrationRunning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int batchSize = intValue(config, "module.codec.migrate.batch", 500);
+            long end = System.currentTimeMillis() + RUN_MILLIS;
+            while (System.currentTimeMillis() < end) {
+                long last = moduleCodecMigrator.migrate(moduleMigrationCursor, batchSize);
+                if (last < 0) {
+                    Logger.getLogger("open.dolphin").info("Module codec migration finished.");
+                    moduleMigrationCursor = -1L;
+                    break;
+                }
+                moduleMigrationCursor = last;
+            }
+        } finally {
+            moduleMigrationRunning.set(false);
+        }
+    }
+
+    /**
+     * 夜間にデータベースにあるシェーマと添付ファイルを BlobStore へ移す。
+     * custom.properties に blob.store と blob.store.migrate=true がある場合のみ実行する。
+     */
+    @Schedule(hour="1-4", minute="2/5", persistent=false)
+    public void migrateBlobs() {
+
+        if ((schemaBlobCursor < 0 && attachmentBlobCursor < 0) || !BlobStores.getInstance().isEnabled()) {
+            return;
+        }
+
+        Properties config = ORCAConnection.getInstance().getProperties();
+        if (!"true".equals(config.getProperty("blob.store.migrate"))) {
+            return;
+        }
+
+        if (!blobMigrationRunning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int batchSize = intValue(config, "blob.store.migrate.batch", 100);
+            long end = System.currentTimeMillis() + RUN_MILLIS;
+            while (System.currentTimeMillis() < end && schemaBlobCursor >= 0) {
+                long last = blobServiceBean.migrateSchemas(schemaBlobCursor, batchSize);
+                if (last < 0) {
+                    Logger.getLogger("open.dolphin").info("Schema blob migration finished.");
+                }
+                schemaBlobCursor = last;
+            }
+            while (System.currentTimeMillis() < end && attachmentBlobCursor >= 0) {
+                long last = blobServiceBean.migrateAttachments(attachmentBlobCursor, batchSize);
+                if (last < 0) {
+                    Logger.getLogger("open.dolphin").info("Attachment blob migration finished.");
+                }
+                attachmentBlobCursor = last;
+            }
+        } finally {
+            blobMigrationRunning.set(false);
+        }
+    }
+
+    /**
+     * 参照が無くなってから blob.store.sweep.days 日 (7) 経ったものを BlobStore から消す。
+     */
+    @Schedule(hour="5", minute="30", persistent=false)
+    public void sweepBlobs() {
+
+        if (!BlobStores.getInstance().isEnabled()) {
+            return;
+        }
+
+        int days = intValue(ORCAConnection.getInstance().getProperties(), "blob.store.sweep.days", 7);
+
+        GregorianCalendar gc = new GregorianCalendar();
+        gc.add(Calendar.DAY_OF_MONTH, -days);
+        int cnt = blobServiceBean.sweep(gc.getTime());
+        Logger.getLogger("open.dolphin").log(Level.INFO, "Blob sweep: {0} deleted", cnt);
+    }
+
+    private static int intValue(Properties config, String key, int def) {
+        String value = config.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+            }
+        }
+        return def;
+    }
+}
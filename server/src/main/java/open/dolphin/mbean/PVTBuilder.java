@@ -4,6 +4,7 @@ import java.beans.XMLEncoder;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -11,16 +12,14 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import open.dolphin.infomodel.*;
-import org.jdom.Attribute;
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.Namespace;
-import org.jdom.input.SAXBuilder;
 
 /**
  * PVTBuilder
@@ -29,18 +28,20 @@ import org.jdom.input.SAXBuilder;
  */
 public final class PVTBuilder {
 
-    private static final Namespace mmlCm = Namespace.getNamespace("mmlCm","http://www.medxml.net/MML/SharedComponent/Common/1.0");
-    private static final Namespace mmlNm = Namespace.getNamespace("mmlNm","http://www.medxml.net/MML/SharedComponent/Name/1.0");
-    private static final Namespace mmlFc = Namespace.getNamespace("mmlFc","http://www.medxml.net/MML/SharedComponent/Facility/1.0");
-    private static final Namespace mmlDp = Namespace.getNamespace("mmlDp","http://www.medxml.net/MML/SharedComponent/Department/1.0");
-    private static final Namespace mmlAd = Namespace.getNamespace("mmlAd","http://www.medxml.net/MML/SharedComponent/Address/1.0");
-    private static final Namespace mmlPh = Namespace.getNamespace("mmlPh","http://www.medxml.net/MML/SharedComponent/Phone/1.0");
-    private static final Namespace mmlPsi = Namespace.getNamespace("mmlPsi","http://www.medxml.net/MML/SharedComponent/PersonalizedInfo/1.0");
-    private static final Namespace mmlCi = Namespace.getNamespace("mmlCi","http://www.medxml.net/MML/SharedComponent/CreatorInfo/1.0");
-    private static final Namespace mmlPi = Namespace.getNamespace("mmlPi","http://www.medxml.net/MML/ContentModule/PatientInfo/1.0");
-    private static final Namespace mmlHi = Namespace.getNamespace("mmlHi","http://www.medxml.net/MML/ContentModule/HealthInsurance/1.1");
-    private static final Namespace mmlSc = Namespace.getNamespace("mmlSc","http://www.medxml.net/MML/SharedComponent/Security/1.0");
-    private static final Namespace claim = Namespace.getNamespace("claim","http://www.medxml.net/claim/claimModule/2.1");
+    private static final String mmlCm = "http://www.medxml.net/MML/SharedComponent/Common/1.0";
+    private static final String mmlNm = "http://www.medxml.net/MML/SharedComponent/Name/1.0";
+    private static final String mmlFc = "http://www.medxml.net/MML/SharedComponent/Facility/1.0";
+    private static final String mmlDp = "http://www.medxml.net/MML/SharedComponent/Department/1.0";
+    private static final String mmlAd = "http://www.medxml.net/MML/SharedComponent/Address/1.0";
+    private static final String mmlPh = "http://www.medxml.net/MML/SharedComponent/Phone/1.0";
+    private static final String mmlPsi = "http://www.medxml.net/MML/SharedComponent/PersonalizedInfo/1.0";
+    private static final String mmlCi = "http://www.medxml.net/MML/SharedComponent/CreatorInfo/1.0";
+    private static final String mmlPi = "http://www.medxml.net/MML/ContentModule/PatientInfo/1.0";
+    private static final String mmlHi = "http://www.medxml.net/MML/ContentModule/HealthInsurance/1.1";
+    private static final String mmlSc = "http://www.medxml.net/MML/SharedComponent/Security/1.0";
+    private static final String claim = "http://www.medxml.net/claim/claimModule/2.1";
+    
+    private static final String NO_NAMESPACE = "";
     
     private static final String MmlBody = "MmlBody";
     private static final String MmlModuleItem = "MmlModuleItem";
@@ -114,6 +115,15 @@ public final class PVTBuilder {
     private static final char FULL_SPACE = '　';
     private static final char HALF_SPACE = ' ';
     
+    // 生成済の XMLInputFactory はスレッドセーフに使える
+    private static final XMLInputFactory XML_INPUT_FACTORY;
+    static {
+        XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+    
     private PatientModel patientModel;
     
     private AddressModel curAddress;
@@ -129,6 +139,24 @@ public final class PVTBuilder {
     private PVTClaim pvtClaim;
     
     private String curRepCode;
+    
+    // 走査中の要素のスタック（名前空間 URI、ローカル名、修飾名、直下のテキスト）
+    private final List<String> stackUri = new ArrayList<>();
+    private final List<String> stackLocal = new ArrayList<>();
+    private final List<String> stackQName = new ArrayList<>();
+    private final List<StringBuilder> stackText = new ArrayList<>();
+    
+    // 走査中の MmlModuleItem
+    private String moduleType;
+    private String contentType;
+    private String docUid;
+    private String creatorId;
+    private String creatorName;
+    private String creatorJmari;
+    private String creatorDeptName;
+    private String creatorDeptCode;
+    private boolean inHModule;
+    private boolean hModuleParsed;
 
     private boolean DEBUG;
     
@@ -137,20 +165,31 @@ public final class PVTBuilder {
     
     /**
      * CLAIM モジュールをパースする。
+     * JDOM のツリーを作らず StAX で一度だけ走査し、モデルへ直接設定する。
      *
      * @param reader CLAIM モジュールへの Reader
      */
     public void parse(BufferedReader reader) {
         
+        XMLStreamReader xr = null;
         try {
-            SAXBuilder docBuilder = new SAXBuilder();
-            Document doc = docBuilder.build(reader);
-            Element root = doc.getRootElement();
-            parseBody(root.getChild(MmlBody));
-            reader.close();
+            xr = XML_INPUT_FACTORY.createXMLStreamReader(reader);
+            parseDocument(xr);
             
         } catch (Exception e) {
             e.printStackTrace(System.err);
+            
+        } finally {
+            if (xr != null) {
+                try {
+                    xr.close();
+                } catch (XMLStreamException e) {
+                }
+            }
+            try {
+                reader.close();
+            } catch (IOException e) {
+            }
         }
     }
     
@@ -284,466 +323,518 @@ public final class PVTBuilder {
     }
     
     /**
-     * MmlBody 要素をパースする。
+     * 文書全体を走査する。
+     * 要素のスタックと直下のテキストを保持し、開始タグで属性を、終了タグでテキストを処理する。
+     * 
+     * 深さ 0:Mml 1:MmlBody 2:MmlModuleItem 3:docInfo/content
      *
-     * @param current 要素
+     * @param xr XMLStreamReader
      */
-    public void parseBody(Element body) {
+    private void parseDocument(XMLStreamReader xr) throws XMLStreamException {
         
-        // MmlModuleItem のリストを得る
-        List children = body.getChildren(MmlModuleItem);
-        
-        //----------------------------
-        // それをイテレートする
-        //----------------------------
-        for (Iterator iterator = children.iterator(); iterator.hasNext();) {
-            
-            Element moduleItem = (Element)iterator.next();
+        while (xr.hasNext()) {
             
-            //---------------------------------------------------
-            // ModuleItem = docInfo + content なので夫々の要素を得る
-            //---------------------------------------------------
-            Element docInfoEle = moduleItem.getChild(docInfo);
-            Element contentEle = moduleItem.getChild(content);
-            
-            // docInfo の contentModuleType を調べる
-            String attr = docInfoEle.getAttributeValue(contentModuleType);
-            
-            //------------------------------
-            // contentModuleTypeで分岐する
-            //------------------------------
-            if (attr.equals(patientInfo)) {
-                //-----------------------
-                // 患者モジュールをパースする
-                //-----------------------
-                if (DEBUG) {
-                    System.err.println("patientInfo　をパース中");
-                }
-                patientModel = new PatientModel();
-                parsePatientInfo(docInfoEle, contentEle);
+            switch (xr.next()) {
                 
-            } else if (attr.equals(healthInsurance)) {
-                //------------------------------
-                // 健康保険モジュールをパースする
-                // GUIDをここで取得する
-                //------------------------------
-                String uuid = docInfoEle.getChild(docId).getChildTextTrim(uid);
-                if (DEBUG) {
-                    System.err.println("healthInsurance　をパース中");
-                    System.err.println("HealthInsurance UUID = " + uuid);
-                }
-
-                if (pvtInsurnaces == null) {
-                    pvtInsurnaces = new ArrayList<PVTHealthInsuranceModel>();
-                }
-                curInsurance = new PVTHealthInsuranceModel();
-                curInsurance.setGUID(uuid);
-                pvtInsurnaces.add(curInsurance);
-                parseHealthInsurance(docInfoEle, contentEle);
-                
-            } else if (attr.equals(e_claim)) {
-                //------------------------------
-                // 受付情報をパースする
-                //------------------------------
-                if (DEBUG) {
-                    System.err.println("claim　をパース中");
-                }
-                pvtClaim = new PVTClaim();
-                parseClaim(docInfoEle, contentEle);
-//s.oh^ 2014/08/19 施設患者一括表示機能
-                if(patientModel != null) {
-                    patientModel.setAppMemo(pvtClaim.getClaimAppMemo());
-                }
-//s.oh$
-                
-            } else {
-                System.err.println("Unknown attribute value : " + attr);
+                case XMLStreamConstants.START_ELEMENT:
+                    String uri = xr.getNamespaceURI();
+                    String prefix = xr.getPrefix();
+                    String local = xr.getLocalName();
+                    stackUri.add(uri != null ? uri : NO_NAMESPACE);
+                    stackLocal.add(local);
+                    stackQName.add(prefix != null && !prefix.isEmpty() ? prefix + ":" + local : local);
+                    stackText.add(null);
+                    startElement(xr, stackLocal.size() - 1);
+                    break;
+                    
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    int top = stackText.size() - 1;
+                    if (top >= 0) {
+                        StringBuilder sb = stackText.get(top);
+                        if (sb == null) {
+                            sb = new StringBuilder();
+                            stackText.set(top, sb);
+                        }
+                        sb.append(xr.getTextCharacters(), xr.getTextStart(), xr.getTextLength());
+                    }
+                    break;
+                    
+                case XMLStreamConstants.END_ELEMENT:
+                    int depth = stackLocal.size() - 1;
+                    StringBuilder sb = stackText.get(depth);
+                    endElement(depth, sb != null ? sb.toString().trim() : "");
+                    stackUri.remove(depth);
+                    stackLocal.remove(depth);
+                    stackQName.remove(depth);
+                    stackText.remove(depth);
+                    break;
+                    
+                default:
+                    break;
             }
         }
     }
     
-    /**
-     * 患者モジュールをパースする。
-     *
-     * @param content 患者要素
-     */
-    private void parsePatientInfo(Element docInfo, Element content) {
+    private void startElement(XMLStreamReader xr, int depth) {
         
-        //-------------------------------------
-        // 患者モジュールの要素をイテレートする
-        //-------------------------------------
-        List children = content.getChildren();
-
-        for (Iterator iterator = children.iterator(); iterator.hasNext();) {
-            
-            Element child = (Element) iterator.next();
-            String qname = child.getQualifiedName();
-            
-            if (qname.equals(mmlCm_Id)) {
-                String pid = child.getTextTrim();
-                patientModel.setPatientId(pid);
-                if (DEBUG) {
-                    System.err.println("patientId = " + pid);
-                }
-                
-            } else if (qname.equals(mmlNm_Name)) {
-                List attrs = child.getAttributes();
-                for (Iterator iter = attrs.iterator(); iter.hasNext(); ) {
-                    Attribute attr = (Attribute) iter.next();
-                    if (attr.getName().equals(repCode)) {
-                        curRepCode = attr.getValue();
-                        if (DEBUG) {
-                            System.err.println("curRepCode = " + attr.getValue());
-                        }
-                    } else if (attr.getName().equals(tableId)) {
-                        if (DEBUG) {
-                            System.err.println("tableId = " + attr.getValue());
-                        }
-                    }
-                }
-                
-            } else if (qname.equals(mmlNm_family)) {
-                if (curRepCode.equals(P)) {
-                    patientModel.setKanaFamilyName(child.getTextTrim());
-                } else if (curRepCode.equals(I)) {
-                    patientModel.setFamilyName(child.getTextTrim());
-                } else if (curRepCode.equals(A)) {
-                    patientModel.setRomanFamilyName(child.getTextTrim());
-                }
-                if (DEBUG) {
-                    System.err.println("family = " + child.getTextTrim());
-                }
-                
-            } else if (qname.equals(mmlNm_given)) {
-                if (curRepCode.equals(P)) {
-                    patientModel.setKanaGivenName(child.getTextTrim());
-                } else if (curRepCode.equals(I)) {
-                    patientModel.setGivenName(child.getTextTrim());
-                } else if (curRepCode.equals(A)) {
-                    patientModel.setRomanGivenName(child.getTextTrim());
-                }
-                if (DEBUG) {
-                    System.err.println("given = " + child.getTextTrim());
-                }
-                
-            } else if (qname.equals(mmlNm_fullname)) {
-                if (curRepCode.equals(P)) {
-                    patientModel.setKanaName(child.getTextTrim());
-                } else if (curRepCode.equals(I)) {
-                    patientModel.setFullName(child.getTextTrim());
-                } else if (curRepCode.equals(A)) {
-                    patientModel.setRomanName(child.getTextTrim());
-                }
-                if (DEBUG) {
-                    System.err.println("fullName = " + child.getTextTrim());
-                }
-                
-            } else if (qname.equals(mmlPi_birthday)) {
-                patientModel.setBirthday(child.getTextTrim());
-                if (DEBUG) {
-                    System.err.println("birthday = " + child.getTextTrim());
-                }
-                
-            } else if (qname.equals(mmlPi_sex)) {
-                patientModel.setGender(child.getTextTrim());
-                if (DEBUG) {
-                    System.err.println("gender = " + child.getTextTrim());
-                }
-                
-            } else if (qname.equals(mmlAd_Address)) {
-                curAddress = new AddressModel();
-                patientModel.addAddress(curAddress);
-                
-                List attrs = child.getAttributes();
-                for (Iterator iter = attrs.iterator(); iter.hasNext(); ) {
-                    Attribute attr = (Attribute) iter.next();
-                    if (attr.getName().equals(addressClass)) {
-                        curRepCode = attr.getValue();
-                        curAddress.setAddressType(attr.getValue());
-                        if (DEBUG) {
-                            System.err.println("addressClass = " + attr.getValue());
-                        }
-                    } else if (attr.getName().equals(tableId)) {
-                        curAddress.setAddressTypeCodeSys(attr.getValue());
-                        if (DEBUG) {
-                            System.err.println("tableId = " + attr.getValue());
-                        }
-                    }
-                }
-                
-            } else if (qname.equals(mmlAd_full)) {
-                curAddress.setAddress(child.getTextTrim());
-                if (DEBUG) {
-                    System.err.println("address = " + child.getTextTrim());
-                }
-                
-            } else if (qname.equals(mmlAd_zip)) {
-                curAddress.setZipCode(child.getTextTrim());
-                if (DEBUG) {
-                    System.err.println("zip = " + child.getTextTrim());
-                }
-                
-            } else if (qname.equals(mmlPh_Phone)) {
-                curTelephone = new TelephoneModel();
-                patientModel.addTelephone(curTelephone);
-                
-            } else if (qname.equals(mmlPh_area)) {
-                String val = child.getTextTrim();
-                //val = ZenkakuUtils.utf8Replace(val);
-                curTelephone.setArea(val);
-                if (DEBUG) {
-                    System.err.println("area = " + val);
-                }
-                
-            } else if (qname.equals(mmlPh_city)) {
-                String val = child.getTextTrim();
-                //val = ZenkakuUtils.utf8Replace(val);
-                curTelephone.setCity(val);
-                if (DEBUG) {
-                    System.err.println("city = " + val);
-                }
-                
-            } else if (qname.equals(mmlPh_number)) {
-                String val = child.getTextTrim();
-                //val = ZenkakuUtils.utf8Replace(val);
-                curTelephone.setNumber(val);
-                if (DEBUG) {
-                    System.err.println("number = " + val);
-                }
-                
-            } else if (qname.equals(mmlPh_memo)) {
-                // ORCA
-                curTelephone.setMemo(child.getTextTrim());
-                if (DEBUG) {
-                    System.err.println("memo = " + child.getTextTrim());
-                }
+        if (depth == 2) {
+            if (at(1, NO_NAMESPACE, MmlBody) && at(2, NO_NAMESPACE, MmlModuleItem)) {
+                // MmlModuleItem = docInfo + content
+                moduleType = null;
+                contentType = null;
+                docUid = null;
+                creatorId = null;
+                creatorName = null;
+                creatorJmari = null;
+                creatorDeptName = null;
+                creatorDeptCode = null;
             }
-            
-            parsePatientInfo(docInfo, child);
+            return;
         }
-    }
-    
-    /**
-     * 健康保険モジュールをパースする。
-     *
-     * @param content 健康保険要素
-     */
-    private void parseHealthInsurance(Element docInfo, Element content) {
         
-        // HealthInsuranceModule を得る
-        Element hModule = content.getChild(HealthInsuranceModule, mmlHi);
-        if (hModule == null) {
-            System.err.println("No HealthInsuranceModule");
+        if (depth < 3 || !at(2, NO_NAMESPACE, MmlModuleItem) || !at(1, NO_NAMESPACE, MmlBody)) {
             return;
         }
         
-        // InsuranceClass を解析する
-        Element insuranceClassEle = hModule.getChild(insuranceClass, mmlHi);
-        if (insuranceClass != null) {
-            curInsurance.setInsuranceClass(insuranceClassEle.getTextTrim());
-            if (insuranceClassEle.getAttribute(ClassCode, mmlHi) != null) {
-                curInsurance.setInsuranceClassCode(insuranceClassEle.getAttributeValue(ClassCode, mmlHi));
-            }
-            if (insuranceClassEle.getAttribute(tableId, mmlHi) != null) {
-                curInsurance.setInsuranceClassCodeSys(insuranceClassEle.getAttributeValue(tableId, mmlHi));
+        if (depth == 3) {
+            if (at(3, NO_NAMESPACE, docInfo)) {
+                // docInfo の contentModuleType を調べる
+                moduleType = xr.getAttributeValue(null, contentModuleType);
+                
+            } else if (at(3, NO_NAMESPACE, content)) {
+                startContent();
             }
+            return;
         }
         
-        // insurance Number を得る
-        if (hModule.getChildTextTrim(insuranceNumber, mmlHi) != null) {
-            curInsurance.setInsuranceNumber(hModule.getChildTextTrim(insuranceNumber, mmlHi));
+        if (contentType == null || !at(3, NO_NAMESPACE, content)) {
+            return;
         }
         
-        // clientId を得る
-        Element clientIdEle = hModule.getChild(clientId, mmlHi);
-        if (clientIdEle != null) {
-            if (clientIdEle.getChild(group,mmlHi) != null) {
-                curInsurance.setClientGroup(clientIdEle.getChildTextTrim(group,mmlHi));
-            }
-            if (clientIdEle.getChild(number,mmlHi) != null) {
-                curInsurance.setClientNumber(clientIdEle.getChildTextTrim(number,mmlHi));
-            }
+        switch (contentType) {
+            case patientInfo:
+                startPatientInfo(xr);
+                break;
+            case healthInsurance:
+                startHealthInsurance(xr, depth);
+                break;
+            case e_claim:
+                startClaim(xr, depth);
+                break;
         }
+    }
+    
+    private void endElement(int depth, String text) {
         
-        // familyClass を得る
-        if (hModule.getChild(familyClass, mmlHi) != null) {
-            curInsurance.setFamilyClass(hModule.getChildTextTrim(familyClass, mmlHi));
+        if (depth < 2 || !at(1, NO_NAMESPACE, MmlBody) || !at(2, NO_NAMESPACE, MmlModuleItem)) {
+            return;
         }
         
-        // startDateを得る
-        if (hModule.getChild(startDate, mmlHi) != null) {
-            curInsurance.setStartDate(hModule.getChildTextTrim(startDate, mmlHi));
+        if (depth == 2) {
+            endModuleItem();
+            return;
+        }
+        
+        if (at(3, NO_NAMESPACE, docInfo)) {
+            endDocInfo(depth, text);
+            
+        } else if (depth > 3 && contentType != null && at(3, NO_NAMESPACE, content)) {
+            switch (contentType) {
+                case patientInfo:
+                    endPatientInfo(stackQName.get(depth), text);
+                    break;
+                case healthInsurance:
+                    endHealthInsurance(depth, text);
+                    break;
+                case e_claim:
+                    endClaim(depth, text);
+                    break;
+            }
         }
+    }
+    
+    /**
+     * content の開始 contentModuleTypeで分岐する
+     */
+    private void startContent() {
         
-        // expiredDateを得る
-        if (hModule.getChild(expiredDate, mmlHi) != null) {
-            curInsurance.setExpiredDate(hModule.getChildTextTrim(expiredDate, mmlHi));
+        if (patientInfo.equals(moduleType)) {
+            //-----------------------
+            // 患者モジュールをパースする
+            //-----------------------
+            if (DEBUG) {
+                System.err.println("patientInfo　をパース中");
+            }
+            patientModel = new PatientModel();
+            contentType = patientInfo;
+            
+        } else if (healthInsurance.equals(moduleType)) {
+            //------------------------------
+            // 健康保険モジュールをパースする
+            // GUID は MmlModuleItem の終わりで設定する
+            //------------------------------
+            if (DEBUG) {
+                System.err.println("healthInsurance　をパース中");
+            }
+            if (pvtInsurnaces == null) {
+                pvtInsurnaces = new ArrayList<>();
+            }
+            curInsurance = new PVTHealthInsuranceModel();
+            pvtInsurnaces.add(curInsurance);
+            inHModule = false;
+            hModuleParsed = false;
+            contentType = healthInsurance;
+            
+        } else if (e_claim.equals(moduleType)) {
+            //------------------------------
+            // 受付情報をパースする
+            //------------------------------
+            if (DEBUG) {
+                System.err.println("claim　をパース中");
+            }
+            pvtClaim = new PVTClaim();
+            contentType = e_claim;
+            
+        } else {
+            System.err.println("Unknown attribute value : " + moduleType);
         }
+    }
+    
+    private void endModuleItem() {
         
-        // payInRatio を得る
-        if (hModule.getChild(paymentInRatio, mmlHi) != null) {
-            curInsurance.setPayInRatio(hModule.getChildTextTrim(paymentInRatio, mmlHi));
+        if (healthInsurance.equals(contentType)) {
+            if (DEBUG) {
+                System.err.println("HealthInsurance UUID = " + docUid);
+            }
+            curInsurance.setGUID(docUid);
+            
+        } else if (e_claim.equals(contentType)) {
+            //-------------------------------------------------------
+            // ClaimModule の DocInfo に含まれる診療科と担当医
+            //-------------------------------------------------------
+            pvtClaim.setAssignedDoctorId(creatorId);
+            pvtClaim.setAssignedDoctorName(creatorName);
+            pvtClaim.setJmariCode(creatorJmari);
+            pvtClaim.setClaimDeptName(creatorDeptName);
+            pvtClaim.setClaimDeptCode(creatorDeptCode);
+            
+            if (DEBUG) {
+                System.err.println("担当医ID = " + pvtClaim.getAssignedDoctorId());
+                System.err.println("担当医名 = " + pvtClaim.getAssignedDoctorName());
+                System.err.println("JMARI コード = " + pvtClaim.getJmariCode());
+                System.err.println("診療科名 = " + pvtClaim.getClaimDeptName());
+                System.err.println("診療科コード = " + pvtClaim.getClaimDeptCode());
+                System.err.println("status = " + pvtClaim.getClaimStatus());
+                System.err.println("registTime = " + pvtClaim.getClaimRegistTime());
+                System.err.println("admitFlag = " + pvtClaim.getClaimAdmitFlag());
+                System.err.println("insuranceUid = " + pvtClaim.getInsuranceUid());
+            }
+//s.oh^ 2014/08/19 施設患者一括表示機能
+            if(patientModel != null) {
+                patientModel.setAppMemo(pvtClaim.getClaimAppMemo());
+            }
+//s.oh$
         }
+        contentType = null;
+    }
+    
+    /**
+     * docInfo の docId/uid と CreatorInfo を保持する。
+     */
+    private void endDocInfo(int depth, String text) {
         
-        // payOutRatio を得る
-        if (hModule.getChild(paymentOutRatio, mmlHi) != null) {
-            curInsurance.setPayOutRatio(hModule.getChildTextTrim(paymentOutRatio, mmlHi));
+        if (depth == 5 && at(4, NO_NAMESPACE, docId) && at(5, NO_NAMESPACE, uid)) {
+            docUid = text;
+            return;
         }
-
-        if (DEBUG) {
-            System.err.println("insuranceClass = " + curInsurance.getInsuranceClass());
-            System.err.println("insurance ClassCode = " + curInsurance.getInsuranceClassCode());
-            System.err.println("insurance tableId = " + curInsurance.getInsuranceClassCodeSys());
-            System.err.println("insuranceNumber = " + curInsurance.getInsuranceNumber());
-            System.err.println("group = " + curInsurance.getClientGroup());
-            System.err.println("number = " + curInsurance.getClientNumber());
-            System.err.println("familyClass = " + curInsurance.getFamilyClass());
-            System.err.println("startDate = " + curInsurance.getStartDate());
-            System.err.println("expiredDate = " + curInsurance.getExpiredDate());
-            System.err.println("paymentInRatio = " + curInsurance.getPayInRatio());
-            System.err.println("paymentOutRatio = " + curInsurance.getPayOutRatio());
+        
+        if (depth < 6 || !at(4, mmlCi, CreatorInfo) || !at(5, mmlPsi, PersonalizedInfo)) {
+            return;
         }
         
-        //--------------------------------
-        // publicInsurance をパースする
-        //--------------------------------
-        Element publicInsuranceEle = hModule.getChild(publicInsurance, mmlHi);
-        if (publicInsuranceEle != null) {
+        if (depth == 6 && at(6, mmlCm, Id)) {
+            // 担当医ID
+            creatorId = text;
             
-            List children = publicInsuranceEle.getChildren();
+        } else if (depth == 8 && at(6, mmlPsi, personName) && at(7, mmlNm, Name) && at(8, mmlNm, fullname)) {
+            // 担当医名
+            creatorName = text;
             
-            for (Iterator iterator = children.iterator(); iterator.hasNext();) {
-                
-                // publicInsuranceItem を得る
-                Element publicInsuranceItem = (Element) iterator.next();
-                
-                curPublicItem = new PVTPublicInsuranceItemModel();
-                curInsurance.addPvtPublicInsuranceItem(curPublicItem);
+        } else if (depth == 7 && at(6, mmlFc, Facility) && at(7, mmlCm, Id)) {
+            // 施設情報 JMARI 4.0 から
+            creatorJmari = text;
             
-                // priority
-                if (publicInsuranceItem.getAttribute(priority, mmlHi) != null) {
-                    curPublicItem.setPriority(publicInsuranceItem.getAttributeValue(priority, mmlHi));
-                }
-                
-                // providerName
-                if (publicInsuranceItem.getChild(providerName, mmlHi) != null) {
-                    curPublicItem.setProviderName(publicInsuranceItem.getChildTextTrim(providerName, mmlHi));
-                }
-                
-                // provider
-                if (publicInsuranceItem.getChild(provider, mmlHi) != null) {
-                    curPublicItem.setProvider(publicInsuranceItem.getChildTextTrim(provider, mmlHi));
-                }
-                
-                // recipient
-                if (publicInsuranceItem.getChild(recipient, mmlHi) != null) {
-                    curPublicItem.setRecipient(publicInsuranceItem.getChildTextTrim(recipient, mmlHi));
-                }
-                
-                // startDate
-                if (publicInsuranceItem.getChild(startDate, mmlHi) != null) {
-                    curPublicItem.setStartDate(publicInsuranceItem.getChildTextTrim(startDate, mmlHi));
-                }
-                
-                // expiredDate
-                if (publicInsuranceItem.getChild(expiredDate, mmlHi) != null) {
-                    curPublicItem.setExpiredDate(publicInsuranceItem.getChildTextTrim(expiredDate, mmlHi));
-                }
-                
-                // paymentRatio
-                Element paymentRatioEle = publicInsuranceItem.getChild(paymentRatio, mmlHi);
-                if (paymentRatioEle != null) {
-                    curPublicItem.setPaymentRatio(paymentRatioEle.getTextTrim());
-                    if (paymentRatioEle.getAttribute(ratioType, mmlHi) != null) {
-                        curPublicItem.setPaymentRatioType(paymentRatioEle.getAttributeValue(ratioType, mmlHi));
+        } else if (depth == 7 && at(6, mmlDp, Department)) {
+            // 診療科情報
+            if (at(7, mmlDp, name)) {
+                creatorDeptName = text;
+            } else if (at(7, mmlCm, Id)) {
+                creatorDeptCode = text;
+            }
+        }
+    }
+    
+    /**
+     * 患者モジュール 要素の開始 (全ての子孫要素を修飾名で判定する)
+     */
+    private void startPatientInfo(XMLStreamReader xr) {
+        
+        String qname = stackQName.get(stackQName.size() - 1);
+        
+        if (qname.equals(mmlNm_Name)) {
+            for (int i = 0; i < xr.getAttributeCount(); i++) {
+                String attrName = xr.getAttributeLocalName(i);
+                if (attrName.equals(repCode)) {
+                    curRepCode = xr.getAttributeValue(i);
+                    if (DEBUG) {
+                        System.err.println("curRepCode = " + curRepCode);
                     }
                 }
-
-                if (DEBUG) {
-                    System.err.println("priority = " + curPublicItem.getPriority());
-                    System.err.println("providerName = " + curPublicItem.getProviderName());
-                    System.err.println("provider = " + curPublicItem.getProvider());
-                    System.err.println("recipient = " + curPublicItem.getRecipient());
-                    System.err.println("startDate = " + curPublicItem.getStartDate());
-                    System.err.println("expiredDate = " + curPublicItem.getExpiredDate());
-                    System.err.println("paymentRatio = " + curPublicItem.getPaymentRatio());
-                    System.err.println("paymentRatioType = " + curPublicItem.getPaymentRatioType());
+            }
+            
+        } else if (qname.equals(mmlAd_Address)) {
+            curAddress = new AddressModel();
+            patientModel.addAddress(curAddress);
+            
+            for (int i = 0; i < xr.getAttributeCount(); i++) {
+                String attrName = xr.getAttributeLocalName(i);
+                if (attrName.equals(addressClass)) {
+                    curRepCode = xr.getAttributeValue(i);
+                    curAddress.setAddressType(xr.getAttributeValue(i));
+                } else if (attrName.equals(tableId)) {
+                    curAddress.setAddressTypeCodeSys(xr.getAttributeValue(i));
                 }
             }
+            
+        } else if (qname.equals(mmlPh_Phone)) {
+            curTelephone = new TelephoneModel();
+            patientModel.addTelephone(curTelephone);
         }
     }
     
     /**
-     * 受付情報をパースする。
-     *
-     * @param content 受付情報要素
+     * 患者モジュール 要素の終了
      */
-    private void parseClaim(Element docInfo, Element content) {
-        
-        //-------------------------------------------------------
-        // ClaimModule の DocInfo に含まれる診療科と担当医を抽出する
-        //-------------------------------------------------------
-        Element creatorInfo = docInfo.getChild(CreatorInfo, mmlCi);
-        Element psiInfo = creatorInfo.getChild(PersonalizedInfo, mmlPsi);
-        
-        // 担当医ID
-        pvtClaim.setAssignedDoctorId(psiInfo.getChildTextTrim(Id, mmlCm));
+    private void endPatientInfo(String qname, String text) {
         
-        // 担当医名
-        Element personNameEle = psiInfo.getChild(personName, mmlPsi);
-        Element nameEle = personNameEle.getChild(Name, mmlNm);
-        if (nameEle != null) {
-            Element fullName = nameEle.getChild(fullname, mmlNm);
-            if (fullName != null) {
-                pvtClaim.setAssignedDoctorName(fullName.getTextTrim());
+        if (qname.equals(mmlCm_Id)) {
+            patientModel.setPatientId(text);
+            if (DEBUG) {
+                System.err.println("patientId = " + text);
+            }
+            
+        } else if (qname.equals(mmlNm_family)) {
+            if (curRepCode.equals(P)) {
+                patientModel.setKanaFamilyName(text);
+            } else if (curRepCode.equals(I)) {
+                patientModel.setFamilyName(text);
+            } else if (curRepCode.equals(A)) {
+                patientModel.setRomanFamilyName(text);
+            }
+            
+        } else if (qname.equals(mmlNm_given)) {
+            if (curRepCode.equals(P)) {
+                patientModel.setKanaGivenName(text);
+            } else if (curRepCode.equals(I)) {
+                patientModel.setGivenName(text);
+            } else if (curRepCode.equals(A)) {
+                patientModel.setRomanGivenName(text);
+            }
+            
+        } else if (qname.equals(mmlNm_fullname)) {
+            if (curRepCode.equals(P)) {
+                patientModel.setKanaName(text);
+            } else if (curRepCode.equals(I)) {
+                patientModel.setFullName(text);
+            } else if (curRepCode.equals(A)) {
+                patientModel.setRomanName(text);
             }
+            
+        } else if (qname.equals(mmlPi_birthday)) {
+            patientModel.setBirthday(text);
+            
+        } else if (qname.equals(mmlPi_sex)) {
+            patientModel.setGender(text);
+            
+        } else if (qname.equals(mmlAd_full)) {
+            curAddress.setAddress(text);
+            
+        } else if (qname.equals(mmlAd_zip)) {
+            curAddress.setZipCode(text);
+            
+        } else if (qname.equals(mmlPh_area)) {
+            curTelephone.setArea(text);
+            
+        } else if (qname.equals(mmlPh_city)) {
+            curTelephone.setCity(text);
+            
+        } else if (qname.equals(mmlPh_number)) {
+            curTelephone.setNumber(text);
+            
+        } else if (qname.equals(mmlPh_memo)) {
+            // ORCA
+            curTelephone.setMemo(text);
         }
+    }
+    
+    /**
+     * 健康保険モジュール 要素の開始
+     * 深さ 4:HealthInsuranceModule 5:insuranceClass 等 6:publicInsuranceItem 7:providerName 等
+     */
+    private void startHealthInsurance(XMLStreamReader xr, int depth) {
         
-        // 施設情報 JMARI 4.0 から
-        Element facility = psiInfo.getChild(Facility, mmlFc);
-        pvtClaim.setJmariCode(facility.getChildTextTrim(Id, mmlCm));
+        if (depth == 4) {
+            // 最初の HealthInsuranceModule のみ
+            inHModule = !hModuleParsed && at(4, mmlHi, HealthInsuranceModule);
+            return;
+        }
         
-        // 診療科情報
-        Element dept = psiInfo.getChild(Department, mmlDp);
-        pvtClaim.setClaimDeptName(dept.getChildTextTrim(name, mmlDp));
-        pvtClaim.setClaimDeptCode(dept.getChildTextTrim(Id, mmlCm));
+        if (!inHModule) {
+            return;
+        }
         
-        // ClaimInfoを解析する
-        Element claimModule = content.getChild(ClaimModule, claim);
-        Element claimInfo = claimModule.getChild(information, claim);
+        if (depth == 5 && at(5, mmlHi, insuranceClass)) {
+            String code = xr.getAttributeValue(mmlHi, ClassCode);
+            if (code != null) {
+                curInsurance.setInsuranceClassCode(code);
+            }
+            String sys = xr.getAttributeValue(mmlHi, tableId);
+            if (sys != null) {
+                curInsurance.setInsuranceClassCodeSys(sys);
+            }
+            
+        } else if (depth == 6 && at(5, mmlHi, publicInsurance)) {
+            // publicInsuranceItem
+            curPublicItem = new PVTPublicInsuranceItemModel();
+            curInsurance.addPvtPublicInsuranceItem(curPublicItem);
+            String value = xr.getAttributeValue(mmlHi, priority);
+            if (value != null) {
+                curPublicItem.setPriority(value);
+            }
+            
+        } else if (depth == 7 && at(5, mmlHi, publicInsurance) && at(7, mmlHi, paymentRatio)) {
+            String value = xr.getAttributeValue(mmlHi, ratioType);
+            if (value != null) {
+                curPublicItem.setPaymentRatioType(value);
+            }
+        }
+    }
+    
+    /**
+     * 健康保険モジュール 要素の終了
+     */
+    private void endHealthInsurance(int depth, String text) {
         
-        // status
-        pvtClaim.setClaimStatus(claimInfo.getAttributeValue(status, claim));
+        if (!inHModule) {
+            return;
+        }
         
-        // registTime
-        pvtClaim.setClaimRegistTime(claimInfo.getAttributeValue(registTime, claim));
+        if (depth == 4) {
+            inHModule = false;
+            hModuleParsed = true;
+            
+            if (DEBUG) {
+                System.err.println("insuranceClass = " + curInsurance.getInsuranceClass());
+                System.err.println("insuranceNumber = " + curInsurance.getInsuranceNumber());
+                System.err.println("group = " + curInsurance.getClientGroup());
+                System.err.println("number = " + curInsurance.getClientNumber());
+                System.err.println("familyClass = " + curInsurance.getFamilyClass());
+            }
+            return;
+        }
         
-        // admitFlag
-        pvtClaim.setClaimAdmitFlag(claimInfo.getAttributeValue(admitFlag, claim));
+        String local = stackLocal.get(depth);
         
-        // insuranceUid
-        pvtClaim.setInsuranceUid(claimInfo.getAttributeValue(insuranceUid, claim));
+        if (depth == 5 && stackUri.get(5).equals(mmlHi)) {
+            
+            switch (local) {
+                case insuranceClass:
+                    curInsurance.setInsuranceClass(text);
+                    break;
+                case insuranceNumber:
+                    curInsurance.setInsuranceNumber(text);
+                    break;
+                case familyClass:
+                    curInsurance.setFamilyClass(text);
+                    break;
+                case startDate:
+                    curInsurance.setStartDate(text);
+                    break;
+                case expiredDate:
+                    curInsurance.setExpiredDate(text);
+                    break;
+                case paymentInRatio:
+                    curInsurance.setPayInRatio(text);
+                    break;
+                case paymentOutRatio:
+                    curInsurance.setPayOutRatio(text);
+                    break;
+            }
+            
+        } else if (depth == 6 && at(5, mmlHi, clientId) && stackUri.get(6).equals(mmlHi)) {
+            if (local.equals(group)) {
+                curInsurance.setClientGroup(text);
+            } else if (local.equals(number)) {
+                curInsurance.setClientNumber(text);
+            }
+            
+        } else if (depth == 7 && at(5, mmlHi, publicInsurance) && stackUri.get(7).equals(mmlHi)) {
+            
+            switch (local) {
+                case providerName:
+                    curPublicItem.setProviderName(text);
+                    break;
+                case provider:
+                    curPublicItem.setProvider(text);
+                    break;
+                case recipient:
+                    curPublicItem.setRecipient(text);
+                    break;
+                case startDate:
+                    curPublicItem.setStartDate(text);
+                    break;
+                case expiredDate:
+                    curPublicItem.setExpiredDate(text);
+                    break;
+                case paymentRatio:
+                    curPublicItem.setPaymentRatio(text);
+                    break;
+            }
+        }
+    }
+    
+    /**
+     * 受付情報 要素の開始
+     * 深さ 4:ClaimModule 5:information
+     */
+    private void startClaim(XMLStreamReader xr, int depth) {
         
-        // 在宅関連(在宅患者登録)
-        Element claimAppoint = claimInfo.getChild(appoint, claim);
-        if(claimAppoint != null) {
-            pvtClaim.setClaimAppMemo(claimAppoint.getChildTextTrim(memo, claim));
+        if (depth == 5 && at(4, claim, ClaimModule) && at(5, claim, information)) {
+            pvtClaim.setClaimStatus(xr.getAttributeValue(claim, status));
+            pvtClaim.setClaimRegistTime(xr.getAttributeValue(claim, registTime));
+            pvtClaim.setClaimAdmitFlag(xr.getAttributeValue(claim, admitFlag));
+            pvtClaim.setInsuranceUid(xr.getAttributeValue(claim, insuranceUid));
         }
+    }
+    
+    /**
+     * 受付情報 要素の終了
+     */
+    private void endClaim(int depth, String text) {
         
-        // DEBUG 出力
-        if (DEBUG) {
-            System.err.println("担当医ID = " + pvtClaim.getAssignedDoctorId());
-            System.err.println("担当医名 = " + pvtClaim.getAssignedDoctorName());
-            System.err.println("JMARI コード = " + pvtClaim.getJmariCode());
-            System.err.println("診療科名 = " + pvtClaim.getClaimDeptName());
-            System.err.println("診療科コード = " + pvtClaim.getClaimDeptCode());
-            System.err.println("status = " + pvtClaim.getClaimStatus());
-            System.err.println("registTime = " + pvtClaim.getClaimRegistTime());
-            System.err.println("admitFlag = " + pvtClaim.getClaimAdmitFlag());
-            System.err.println("insuranceUid = " + pvtClaim.getInsuranceUid());
+        // 在宅関連(在宅患者登録)
+        if (depth == 7 && at(4, claim, ClaimModule) && at(5, claim, information)
+                && at(6, claim, appoint) && at(7, claim, memo)) {
+            pvtClaim.setClaimAppMemo(text);
         }
     }
     
+    private boolean at(int depth, String uri, String local) {
+        return depth < stackLocal.size() && stackLocal.get(depth).equals(local) && stackUri.get(depth).equals(uri);
+    }
+    
     protected byte[] getXMLBytes(Object bean) {
         ByteArrayOutputStream bo = new ByteArrayOutputStream();
         XMLEncoder e = new XMLEncoder(new BufferedOutputStream(bo));
@@ -0,0 +1,579 @@
+package open.dolphin.mbean;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import open.dolphin.infomodel.PatientModel;
+import open.dolphin.msg.ZenkakuUtils;
+import open.orca.rest.ORCAConnection;
+
+/**
+ * 施設毎の患者検索索引
+ * 氏名・カナ・ローマ字・患者ID・電話番号・郵便番号・メモを正規化して保持し、
+ * 各項目の 2-gram から候補を絞ってから前方一致・部分一致を確かめる。
+ * 結果は 完全一致 > 前方一致 > 部分一致 の順に並べ、同順位はカナ、患者ID の順にする。
+ *
+ * 索引は施設毎に最初の検索時に作る（build）。作成中に登録・更新された患者は
+ * 作成後に反映する。患者の登録・更新時には putAfterCommit で索引を更新すること
+ * （ロールバックされた登録・更新は索引に入らない）。
+ *
+ * 正規化
+ *   文字   NFKC、空白除去、英字は大文字、ひらがなはカタカナ
+ *   番号   全角数字を半角にし、数字以外を除く
+ *   ローマ字 カナを KanaToAscii で変換したもの
+ *
+ * custom.properties
+ *   patient.search.index  索引を使うかどうか (true)
+ */
+public final class PatientSearchIndex {
+
+    // 項目
+    public static final int NAME = 0;
+    public static final int KANA = 1;
+    public static final int ROMAN = 2;
+    public static final int PATIENT_ID = 3;
+    public static final int PHONE = 4;
+    public static final int MOBILE = 5;
+    public static final int ZIP = 6;
+    public static final int MEMO = 7;
+    private static final int FIELD_COUNT = 8;
+
+    // 一致の仕方
+    public static final int PREFIX = 0;
+    public static final int CONTAINS = 1;
+
+    // 順位
+    private static final int RANK_EXACT = 0;
+    private static final int RANK_PREFIX = 1;
+    private static final int RANK_CONTAINS = 2;
+
+    private static final PatientSearchIndex instance = new PatientSearchIndex();
+
+    private final boolean enabled;
+
+    private final Map<String, FacilityIndex> facilities = new ConcurrentHashMap<>();
+
+    // 変換表は読むだけなので共有できる
+    private final KanaToAscii kanaToAscii = new KanaToAscii();
+
+    public static PatientSearchIndex getInstance() {
+        return instance;
+    }
+
+    private PatientSearchIndex() {
+        Properties config = ORCAConnection.getInstance().getProperties();
+        enabled = config == null || !"false".equals(config.getProperty("patient.search.index"));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 索引が使えるかどうかを返す。
+     * @param fid 施設ID
+     * @return 作成済なら true
+     */
+    public boolean isReady(String fid) {
+        FacilityIndex fi = facilities.get(fid);
+        return fi != null && fi.isReady();
+    }
+
+    /**
+     * 索引の作成を始める。
+     * @param fid 施設ID
+     * @return 呼び出し側が build する必要がある場合 true 既に作成済又は作成中なら false
+     */
+    public boolean begin(String fid) {
+        return facilities.putIfAbsent(fid, new FacilityIndex()) == null;
+    }
+
+    /**
+     * 索引を作る。begin が true を返した場合に呼ぶ。
+     * @param fid 施設ID
+     * @param rows id, patientId, fullName, kanaName, telephone, mobilePhone, zipCode, appMemo の配列
+     */
+    public void build(String fid, List<Object[]> rows) {
+        FacilityIndex fi = facilities.get(fid);
+        if (fi == null) {
+            return;
+        }
+        List<Doc> docs = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            docs.add(toDoc((Long)row[0], (String)row[1], (String)row[2], (String)row[3],
+                    (String)row[4], (String)row[5], (String)row[6], (String)row[7]));
+        }
+        fi.build(docs);
+    }
+
+    /**
+     * 索引の作成に失敗した場合に呼ぶ。次の検索で作り直す。
+     * @param fid 施設ID
+     */
+    public void abort(String fid) {
+        facilities.remove(fid);
+    }
+
+    /**
+     * 患者の登録・更新を索引へ反映する。索引がまだ無い施設の場合は何もしない。
+     * @param fid 施設ID
+     * @param pm 登録・更新した患者
+     */
+    public void put(String fid, PatientModel pm) {
+        if (fid == null || pm == null || pm.getId() == 0L) {
+            return;
+        }
+        FacilityIndex fi = facilities.get(fid);
+        if (fi == null) {
+            return;
+        }
+        String zip = pm.getSimpleAddressModel() != null ? pm.getSimpleAddressModel().getZipCode() : null;
+        fi.put(toDoc(pm.getId(), pm.getPatientId(), pm.getFullName(), pm.getKanaName(),
+                pm.getTelephone(), pm.getMobilePhone(), zip, pm.getAppMemo()));
+    }
+
+    /**
+     * 患者の登録・更新を、トランザクションがコミットされた後に索引へ反映する。
+     * @param txRegistry 登録・更新を行っているトランザクションの TransactionSynchronizationRegistry
+     * @param fid 施設ID
+     * @param pm 登録・更新する患者
+     */
+    public void putAfterCommit(TransactionSynchronizationRegistry txRegistry, final String fid, final PatientModel pm) {
+        if (!enabled || fid == null || pm == null) {
+            return;
+        }
+        txRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    put(fid, pm);
+                }
+            }
+        });
+    }
+
+    /**
+     * 索引を捨てる。次の検索で作り直す。
+     */
+    public void clear() {
+        facilities.clear();
+    }
+
+    /**
+     * stages を順に試し、最初に見つかった段階の結果を返す。
+     * @param fid 施設ID
+     * @param query 検索文字列
+     * @param stages 段階毎の {一致の仕方, 項目, 項目...}
+     * @param first 結果の何件目から返すか
+     * @param max 最大件数 0 以下は全件
+     * @return 患者の PK を順位順に 索引が使えない場合は null
+     */
+    public List<Long> search(String fid, String query, int[][] stages, int first, int max) {
+
+        FacilityIndex fi = facilities.get(fid);
+        if (fi == null || !fi.isReady()) {
+            return null;
+        }
+
+        for (int[] stage : stages) {
+            int match = stage[0];
+            int[] fields = Arrays.copyOfRange(stage, 1, stage.length);
+            List<Doc> hits = fi.search(match, fields, query, this);
+            if (!hits.isEmpty()) {
+                int from = Math.max(0, Math.min(first, hits.size()));
+                int to = max > 0 ? Math.min(hits.size(), from + max) : hits.size();
+                List<Long> ret = new ArrayList<>(to - from);
+                for (Doc d : hits.subList(from, to)) {
+                    ret.add(d.pk);
+                }
+                return ret;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("PatientSearchIndex");
+        for (Map.Entry<String, FacilityIndex> e : facilities.entrySet()) {
+            sb.append(" ").append(e.getKey()).append("=").append(e.getValue().count());
+        }
+        return sb.toString();
+    }
+
+    private Doc toDoc(long pk, String pid, String name, String kana, String tel, String mobile, String zip, String memo) {
+        String[] v = new String[FIELD_COUNT];
+        v[NAME] = text(name);
+        v[KANA] = text(kana);
+        v[ROMAN] = roman(v[KANA]);
+        v[PATIENT_ID] = text(pid);
+        v[PHONE] = digits(tel);
+        v[MOBILE] = digits(mobile);
+        v[ZIP] = digits(zip);
+        v[MEMO] = text(memo);
+        return new Doc(pk, v);
+    }
+
+    /**
+     * 検索文字列を項目に合わせて正規化する。
+     */
+    private String normalize(int field, String query) {
+        switch (field) {
+            case PHONE:
+            case MOBILE:
+            case ZIP:
+                return digits(query);
+            default:
+                return text(query);
+        }
+    }
+
+    // NFKC、空白除去、大文字、ひらがな -> カタカナ
+    static String text(String s) {
+        if (s == null || s.isEmpty()) {
+            return null;
+        }
+        String n = Normalizer.normalize(s, Normalizer.Form.NFKC);
+        StringBuilder sb = new StringBuilder(n.length());
+        for (int i = 0; i < n.length(); i++) {
+            char c = n.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (c >= 'ぁ' && c <= 'ゖ') {
+                c = (char)(c + ('ァ' - 'ぁ'));
+            } else if (c >= 'a' && c <= 'z') {
+                c = (char)(c - ('a' - 'A'));
+            }
+            sb.append(c);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    // 数字だけを残す
+    static String digits(String s) {
+        if (s == null || s.isEmpty()) {
+            return null;
+        }
+        String n = ZenkakuUtils.toHalfNumber(s);
+        StringBuilder sb = new StringBuilder(n.length());
+        for (int i = 0; i < n.length(); i++) {
+            char c = n.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sb.append(c);
+            }
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    // 正規化済のカナをローマ字にする 変換できない文字を含む場合は null
+    private String roman(String kana) {
+        if (kana == null) {
+            return null;
+        }
+        String r = kanaToAscii.CHGKanatoASCII(kana, "");
+        if (r == null || r.isEmpty() || r.indexOf('?') >= 0) {
+            return null;
+        }
+        return r.replace(" ", "");
+    }
+
+    // 2 文字を一つの int にする
+    private static int bigram(String s, int i) {
+        return (s.charAt(i) << 16) | s.charAt(i + 1);
+    }
+
+    /**
+     * 索引の一件
+     */
+    private static final class Doc {
+
+        private final long pk;
+        private final String[] values;
+
+        private Doc(long pk, String[] values) {
+            this.pk = pk;
+            this.values = values;
+        }
+
+        private String sortKey(int field) {
+            String v = values[field];
+            return v != null ? v : "";
+        }
+    }
+
+    /**
+     * 一件の順位付き結果
+     */
+    private static final class Hit {
+
+        private final Doc doc;
+        private int rank;
+
+        private Hit(Doc doc, int rank) {
+            this.doc = doc;
+            this.rank = rank;
+        }
+    }
+
+    private static final Comparator<Hit> HIT_ORDER = new Comparator<Hit>() {
+        @Override
+        public int compare(Hit a, Hit b) {
+            if (a.rank != b.rank) {
+                return a.rank < b.rank ? -1 : 1;
+            }
+            int c = a.doc.sortKey(KANA).compareTo(b.doc.sortKey(KANA));
+            if (c != 0) {
+                return c;
+            }
+            return a.doc.sortKey(PATIENT_ID).compareTo(b.doc.sortKey(PATIENT_ID));
+        }
+    };
+
+    /**
+     * 伸長する int の配列
+     */
+    private static final class IntList {
+
+        private int[] data = new int[4];
+        private int size;
+
+        private void add(int v) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = v;
+        }
+
+        private int last() {
+            return size > 0 ? data[size - 1] : -1;
+        }
+    }
+
+    /**
+     * 一施設の索引
+     * 患者は追記のみのスロットに置き、更新時は新しいスロットを使って古いスロットを空にする。
+     * 空のスロットが半分を超えたら詰め直す。
+     */
+    private static final class FacilityIndex {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        // 作成前に put されたもの
+        private List<Doc> pending = new ArrayList<>();
+        private boolean ready;
+
+        private Doc[] slots = new Doc[0];
+        private int size;
+        private int dead;
+        private final Map<Long, Integer> slotByPk = new HashMap<>();
+
+        // 項目毎の 2-gram -> スロット番号（昇順）
+        private final List<Map<Integer, IntList>> postings = new ArrayList<>(FIELD_COUNT);
+
+        private FacilityIndex() {
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                postings.add(new HashMap<Integer, IntList>());
+            }
+        }
+
+        private boolean isReady() {
+            lock.readLock().lock();
+            try {
+                return ready;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private int count() {
+            lock.readLock().lock();
+            try {
+                return slotByPk.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void build(List<Doc> docs) {
+            lock.writeLock().lock();
+            try {
+                slots = new Doc[Math.max(16, docs.size() + docs.size() / 4)];
+                for (Doc d : docs) {
+                    add(d);
+                }
+                // 作成中に登録・更新されたものを反映する
+                for (Doc d : pending) {
+                    add(d);
+                }
+                pending = null;
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void put(Doc doc) {
+            lock.writeLock().lock();
+            try {
+                if (!ready) {
+                    pending.add(doc);
+                    return;
+                }
+                add(doc);
+                if (dead > 1024 && dead > size / 2) {
+                    compact();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void add(Doc doc) {
+            Integer old = slotByPk.get(doc.pk);
+            if (old != null) {
+                slots[old] = null;
+                dead++;
+            }
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, Math.max(16, size * 2));
+            }
+            int slot = size++;
+            slots[slot] = doc;
+            slotByPk.put(doc.pk, slot);
+
+            for (int f = 0; f < FIELD_COUNT; f++) {
+                String v = doc.values[f];
+                if (v == null) {
+                    continue;
+                }
+                Map<Integer, IntList> map = postings.get(f);
+                for (int i = 0; i + 1 < v.length(); i++) {
+                    int key = bigram(v, i);
+                    IntList list = map.get(key);
+                    if (list == null) {
+                        list = new IntList();
+                        map.put(key, list);
+                    }
+                    if (list.last() != slot) {
+                        list.add(slot);
+                    }
+                }
+            }
+        }
+
+        // 空のスロットを除いて作り直す
+        private void compact() {
+            Doc[] live = new Doc[size - dead];
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (slots[i] != null) {
+                    live[n++] = slots[i];
+                }
+            }
+            slots = new Doc[Math.max(16, n + n / 4)];
+            size = 0;
+            dead = 0;
+            slotByPk.clear();
+            for (Map<Integer, IntList> map : postings) {
+                map.clear();
+            }
+            for (int i = 0; i < n; i++) {
+                add(live[i]);
+            }
+        }
+
+        private List<Doc> search(int match, int[] fields, String query, PatientSearchIndex owner) {
+
+            Map<Long, Hit> hits = new HashMap<>();
+
+            lock.readLock().lock();
+            try {
+                for (int f : fields) {
+                    String q = owner.normalize(f, query);
+                    if (q == null) {
+                        continue;
+                    }
+                    if (q.length() < 2) {
+                        // 1 文字は全件を確かめる
+                        for (int i = 0; i < size; i++) {
+                            check(slots[i], f, match, q, hits);
+                        }
+                        continue;
+                    }
+                    // 最も短い posting だけを確かめれば良い
+                    IntList shortest = null;
+                    Map<Integer, IntList> map = postings.get(f);
+                    for (int i = 0; i + 1 < q.length(); i++) {
+                        IntList list = map.get(bigram(q, i));
+                        if (list == null) {
+                            shortest = null;
+                            break;
+                        }
+                        if (shortest == null || list.size < shortest.size) {
+                            shortest = list;
+                        }
+                    }
+                    if (shortest == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < shortest.size; i++) {
+                        check(slots[shortest.data[i]], f, match, q, hits);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            List<Hit> list = new ArrayList<>(hits.values());
+            Collections.sort(list, HIT_ORDER);
+            List<Doc> ret = new ArrayList<>(list.size());
+            for (Hit h : list) {
+                ret.add(h.doc);
+            }
+            return ret;
+        }
+
+        private static void check(Doc doc, int field, int match, String q, Map<Long, Hit> hits) {
+            if (doc == null) {
+                return;
+            }
+            String v = doc.values[field];
+            if (v == null) {
+                return;
+            }
+            int rank;
+            if (v.equals(q)) {
+                rank = RANK_EXACT;
+            } else if (v.startsWith(q)) {
+                rank = RANK_PREFIX;
+            } else if (match == CONTAINS && v.contains(q)) {
+                rank = RANK_CONTAINS;
+            } else {
+                return;
+            }
+            Hit h = hits.get(doc.pk);
+            if (h == null) {
+                hits.put(doc.pk, new Hit(doc, rank));
+            } else if (rank < h.rank) {
+                h.rank = rank;
+            }
+        }
+    }
+}
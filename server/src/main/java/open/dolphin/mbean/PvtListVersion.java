@@ -0,0 +1,104 @@
+package open.dolphin.mbean;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 施設毎の受付リスト（pvtList）の版
+ * 受付の追加・変更・削除毎に単調増加する版を振り、
+ * クライアントが最後に受け取った版以降に変わった受付だけを返せるようにする。
+ * 版はサーバー起動時刻を基点にするため、再起動を跨いでも減少しない。
+ * 日付の切り替え等でリストを作り直した場合は reset し、それ以前の版は全件取得とする。
+ *
+ * pvtList を書き換えた後に changed/removed を呼ぶこと。
+ * 版を読んだ後にリストを読めば、その版までの変更はリストに反映されている。
+ */
+public class PvtListVersion {
+
+    // 最後に振った版
+    private long last;
+
+    // これより前の版からは差分を作れない
+    private long resetVersion;
+
+    // pvtPk と最後に変更された版
+    private final Map<Long, Long> changedMap = new HashMap<>();
+
+    // 削除された pvtPk と削除された版
+    private final Map<Long, Long> removedMap = new HashMap<>();
+
+    public PvtListVersion() {
+        this.last = System.currentTimeMillis() << 16;
+        this.resetVersion = last;
+    }
+
+    public synchronized long getVersion() {
+        return last;
+    }
+
+    /**
+     * 受付が追加又は変更されたことを記録する。
+     * @param pvtPk 受付の PK
+     * @return 振った版
+     */
+    public synchronized long changed(long pvtPk) {
+        long v = ++last;
+        removedMap.remove(pvtPk);
+        changedMap.put(pvtPk, v);
+        return v;
+    }
+
+    /**
+     * 受付が削除されたことを記録する。
+     * @param pvtPk 受付の PK
+     * @return 振った版
+     */
+    public synchronized long removed(long pvtPk) {
+        long v = ++last;
+        changedMap.remove(pvtPk);
+        removedMap.put(pvtPk, v);
+        return v;
+    }
+
+    /**
+     * リストを作り直したことを記録する。これより前の版からは全件取得になる。
+     * @return 振った版
+     */
+    public synchronized long reset() {
+        long v = ++last;
+        changedMap.clear();
+        removedMap.clear();
+        resetVersion = v;
+        return v;
+    }
+
+    /**
+     * version より後に変わった受付を集める。
+     * @param version クライアントが最後に受け取った版
+     * @param changed 追加・変更された pvtPk を入れる
+     * @param removed 削除された pvtPk を入れる
+     * @return 現在の版 差分を作れない（全件取得が必要な）場合は -1
+     */
+    public synchronized long collect(long version, Collection<Long> changed, Collection<Long> removed) {
+
+        if (version < resetVersion || version > last) {
+            return -1L;
+        }
+        if (version == last) {
+            return last;
+        }
+
+        collect(changedMap, version, changed);
+        collect(removedMap, version, removed);
+        return last;
+    }
+
+    private static void collect(Map<Long, Long> map, long version, Collection<Long> to) {
+        for (Map.Entry<Long, Long> e : map.entrySet()) {
+            if (e.getValue() > version) {
+                to.add(e.getKey());
+            }
+        }
+    }
+}
@@ -5,10 +5,16 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.text.DateFormat;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -17,7 +23,6 @@ import javax.ejb.Singleton;
 import javax.ejb.Startup;
 import javax.enterprise.concurrent.ManagedThreadFactory;
 import javax.inject.Inject;
-import javax.jms.*;
 import open.dolphin.infomodel.HealthInsuranceModel;
 import open.dolphin.infomodel.PatientVisitModel;
 import open.dolphin.session.PVTServiceBean;
@@ -31,6 +36,10 @@ import open.orca.rest.ORCAConnection;
  *   1) MBean 化廃止
  *   2) Server threadにManagedThreadFactoryを使用
  *   3) custom.properits の読み込みを ORCAConnection 一箇所
+ * 
+ *   接続毎にスレッドを生成せず、上限付きのワーカープールで処理する。
+ *   プールと待ち行列が一杯の場合は接続を閉じ、送信側に再送させる。
+ *   一定時間（pvt.listen.timeout 秒）受信の無い接続は閉じ、ワーカーを空ける。
  */
 @Singleton
 @Startup
@@ -40,6 +49,11 @@ public class PvtService implements Runnable {
     private static final int ACK = 0x06;
     private static final int NAK = 0x15;
     private static final String UTF8 = "UTF-8";
+    
+    private static final int DEFAULT_WORKERS = 16;
+    private static final int DEFAULT_QUEUE = 32;
+    private static final int DEFAULT_TIMEOUT = 60;
+    private static final int READ_BUFFER_SIZE = 16384;
 //minagawa^     
     @Resource(lookup="java:jboss/ee/concurrency/factory/default")
     private ManagedThreadFactory threadFactory;
@@ -51,9 +65,17 @@ public class PvtService implements Runnable {
     private ServerSocket listenSocket;
     private String encoding = UTF8;
     private Thread serverThread;
+    private ThreadPoolExecutor workers;
+    private int readTimeout;
     private String FACILITY_ID;
     private boolean DEBUG;
     
+    // 受信・登録・失敗・拒否の件数
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong parsedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    
     @PostConstruct
     public void register() {
         
@@ -101,9 +123,17 @@ public class PvtService implements Runnable {
         InetAddress addr = InetAddress.getByName(bindIP);
         InetSocketAddress socketAddress = new InetSocketAddress(addr, port);
         
+        // ワーカー数と待ち行列の長さ
+        int poolSize = intValue(config, "pvt.listen.workers", DEFAULT_WORKERS);
+        int queueSize = intValue(config, "pvt.listen.queue", DEFAULT_QUEUE);
+        readTimeout = intValue(config, "pvt.listen.timeout", DEFAULT_TIMEOUT) * 1000;
+        workers = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), threadFactory);
+        workers.allowCoreThreadTimeOut(true);
+        
         listenSocket = new ServerSocket();
         listenSocket.bind(socketAddress);
-        log("PVT Server is binded " + socketAddress + " with encoding: " + encoding);
+        log("PVT Server is binded " + socketAddress + " with encoding: " + encoding + " workers: " + poolSize + " queue: " + queueSize + " timeout: " + readTimeout / 1000 + "s");
         
 //minagawa^ Use ManagedThreadFactory
         serverThread = threadFactory.newThread(this);
@@ -112,6 +142,23 @@ public class PvtService implements Runnable {
         log("server thread started"); 
     }
 
+    // 値が無い・正しくない場合は既定値
+    private int intValue(Properties config, String key, int def) {
+        String value = config.getProperty(key);
+        if (value == null) {
+            return def;
+        }
+        try {
+            int n = Integer.parseInt(value.trim());
+            if (n > 0) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+        }
+        warn(key + ": " + value + ", use default " + def);
+        return def;
+    }
+
     @PreDestroy
     public void stopService() {
         log("PreDestroy did call");
@@ -129,6 +176,42 @@ public class PvtService implements Runnable {
                 e.printStackTrace(System.err);
             }
         }
+        
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+        
+        log(getStatistics());
+    }
+    
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+    
+    public long getParsedCount() {
+        return parsedCount.get();
+    }
+    
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+    
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+    
+    public String getStatistics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("PVT received=").append(getReceivedCount());
+        sb.append(" parsed=").append(getParsedCount());
+        sb.append(" failed=").append(getFailedCount());
+        sb.append(" rejected=").append(getRejectedCount());
+        if (workers != null) {
+            sb.append(" active=").append(workers.getActiveCount());
+            sb.append(" queued=").append(workers.getQueue().size());
+        }
+        return sb.toString();
     }
     
     private void log(String msg) {
@@ -154,9 +237,14 @@ public class PvtService implements Runnable {
             try {
                 Socket clientSocket = listenSocket.accept();
                 PvtService.Connection con = new PvtService.Connection(clientSocket);
-                Thread t = new Thread(con);
-                t.setPriority(Thread.NORM_PRIORITY);
-                t.start();
+                try {
+                    workers.execute(con);
+                } catch (RejectedExecutionException e) {
+                    // 処理しきれない 閉じて送信側に再送させる
+                    rejectedCount.incrementAndGet();
+                    warn("PVT connection rejected: " + clientSocket.getInetAddress().getHostAddress());
+                    clientSocket.close();
+                }
             } catch (IOException e) {
                 if (thisThread!=serverThread) {
                 } else {
@@ -185,21 +273,19 @@ public class PvtService implements Runnable {
         @Override
         public void run() {
 
-            BufferedInputStream reader;
+            InputStream reader;
             BufferedOutputStream writer = null;
-            javax.jms.Connection conn = null;
             
             try {
                 printInfo();
                 
-                reader = new BufferedInputStream(new DataInputStream(this.client.getInputStream()));
-                writer = new BufferedOutputStream(new DataOutputStream(this.client.getOutputStream()));
+                this.client.setSoTimeout(readTimeout);
+                reader = this.client.getInputStream();
+                writer = new BufferedOutputStream(this.client.getOutputStream());
                 
-                ByteArrayOutputStream bo = new ByteArrayOutputStream();
-                BufferedOutputStream buf = new BufferedOutputStream(bo);
-                String recieved;
-
-                byte[] buffer = new byte[16384];
+                // EOT までを一電文として溜める
+                ByteArrayOutputStream bo = new ByteArrayOutputStream(READ_BUFFER_SIZE);
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
                 int readLen;
 
                 while (true) {
@@ -211,39 +297,19 @@ public class PvtService implements Runnable {
                         break;
                     }
 
-                    if (buffer[readLen-1] == EOT) {
-                        buf.write(buffer, 0, readLen-1);
-                        buf.flush();
-                        recieved = bo.toString(encoding);
-                        int len = recieved.length();
-                        bo.close();
-                        buf.close();
-                        
-                        //---------------------------------------------
-                        StringBuilder sb = new StringBuilder();
-                        sb.append("length of claim instance = ");
-                        sb.append(len);
-                        sb.append(" bytes");
-                        log(sb.toString());
-                        debug(recieved);
-                        
-//                        //---------------------------------------------
-//                        // send queue
-//                        //---------------------------------------------
-//                        conn = connectionFactory.createConnection();
-//                        Session session = conn.createSession(false, QueueSession.AUTO_ACKNOWLEDGE);
-//                        ObjectMessage msg = session.createObjectMessage(recieved);
-//                        MessageProducer producer = session.createProducer(queue);
-//                        producer.send(msg);
-                        
-                        log(recieved);
-                        int result = parseAndSend(recieved);
-                        
-                        // Reply ACK
-                        writeRetCode(writer, ACK);
-
-                    } else {
-                        buf.write(buffer, 0, readLen);
+                    // 一回の read に電文の区切りが幾つあっても、途中にあっても処理する
+                    int start = 0;
+                    for (int i = 0; i < readLen; i++) {
+                        if (buffer[i] == EOT) {
+                            bo.write(buffer, start, i - start);
+                            start = i + 1;
+                            int retCode = received(bo.toByteArray());
+                            bo.reset();
+                            writeRetCode(writer, retCode);
+                        }
+                    }
+                    if (start < readLen) {
+                        bo.write(buffer, start, readLen - start);
                     }
                 }
 
@@ -252,20 +318,16 @@ public class PvtService implements Runnable {
                 client.close();
                 client = null;
                 
+            } catch (SocketTimeoutException e) {
+                // 受信が途絶えた（切断が伝わらない）接続 閉じてワーカーを空ける
+                warn("PVT connection timed out: " + client.getInetAddress().getHostAddress());
+                
             } catch (Exception e) {
                 writeRetCode(writer, NAK);
                 e.printStackTrace(System.err);
                 warn(e.getMessage());
                 
             } finally {
-                if(conn != null) {
-                    try {
-                        conn.close();
-                    } catch (JMSException e) {
-                        e.printStackTrace(System.err);
-                        warn(e.getMessage());
-                    }
-                }
                 if (client != null) {
                     try {
                         client.close();
@@ -278,6 +340,33 @@ public class PvtService implements Runnable {
             }
         }
         
+        // 一電文を登録し返すコードを決める 失敗しても接続は維持する
+        private int received(byte[] bytes) {
+            
+            receivedCount.incrementAndGet();
+            
+            StringBuilder sb = new StringBuilder();
+            sb.append("length of claim instance = ");
+            sb.append(bytes.length);
+            sb.append(" bytes");
+            log(sb.toString());
+            
+            try {
+                if (DEBUG) {
+                    debug(new String(bytes, encoding));
+                }
+                parseAndSend(bytes);
+                parsedCount.incrementAndGet();
+                return ACK;
+                
+            } catch (Exception e) {
+                failedCount.incrementAndGet();
+                e.printStackTrace(System.err);
+                warn(e.getMessage());
+                return NAK;
+            }
+        }
+        
         private void writeRetCode(BufferedOutputStream writer, int retCode) {
             if (writer!=null) {
                 try {
@@ -291,10 +380,10 @@ public class PvtService implements Runnable {
             }
         }
         
-        private int parseAndSend(String pvtXml) throws Exception {
+        private int parseAndSend(byte[] pvtXml) throws Exception {
         
             // Parse
-            BufferedReader r = new BufferedReader(new StringReader(pvtXml));
+            BufferedReader r = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(pvtXml), encoding));
             PVTBuilder builder = new PVTBuilder();
             builder.parse(r);
             PatientVisitModel model = builder.getProduct();
@@ -4,11 +4,15 @@ import java.util.ArrayList;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import javax.inject.Singleton;
 import javax.servlet.AsyncContext;
 import open.dolphin.infomodel.PatientVisitModel;
+import open.dolphin.rest.ChartEventSession;
 
 /**
  * サーブレットの諸情報を保持するクラス
@@ -21,30 +25,108 @@ public class ServletContextHolder {
     private GregorianCalendar today;
     private GregorianCalendar tomorrow;
 
-    // AsyncContextのリスト
-    private final List<AsyncContext> acList = new ArrayList<>();
+    // facilityIdとAsyncContextのキューのマップ
+    // 購読と通知が互いにブロックしないようロックフリーのキューで施設毎に保持する
+    private final ConcurrentMap<String, Queue<AsyncContext>> acMap 
+            = new ConcurrentHashMap<>();
+    
+    // facilityIdとChartEventストリーム購読者のマップ
+    private final ConcurrentMap<String, Queue<ChartEventSession>> streamMap 
+            = new ConcurrentHashMap<>();
+    
+    // facilityIdとChartEvent履歴のマップ
+    private final ConcurrentMap<String, ChartEventHistory> historyMap 
+            = new ConcurrentHashMap<>();
     
     // facilityIdとpvtListのマップ
-    private final Map<String, List<PatientVisitModel>> pvtListMap 
+    private final ConcurrentMap<String, List<PatientVisitModel>> pvtListMap 
+            = new ConcurrentHashMap<>();
+    
+    // facilityIdとpvtListの版のマップ
+    private final ConcurrentMap<String, PvtListVersion> pvtVersionMap 
             = new ConcurrentHashMap<>();
     
     // サーバーのUUID
     private String serverUUID;
 
-    public List<AsyncContext> getAsyncContextList() {
-        return acList;
+    /**
+     * 施設の購読中AsyncContextを返す。
+     * @param fid 施設ID
+     * @return AsyncContextのキュー
+     */
+    public Queue<AsyncContext> getAsyncContexts(String fid) {
+        Queue<AsyncContext> acQueue = acMap.get(fid);
+        if (acQueue == null) {
+            acQueue = new ConcurrentLinkedQueue<>();
+            Queue<AsyncContext> exist = acMap.putIfAbsent(fid, acQueue);
+            if (exist != null) {
+                acQueue = exist;
+            }
+        }
+        return acQueue;
     }
 
-    public void addAsyncContext(AsyncContext ac) {
-        synchronized (acList) {
-            acList.add(ac);
-        }
+    public void addAsyncContext(String fid, AsyncContext ac) {
+        getAsyncContexts(fid).add(ac);
     }
 
-    public void removeAsyncContext(AsyncContext ac) {
-        synchronized (acList) {
-            acList.remove(ac);
+    /**
+     * AsyncContextを購読キューから外す。
+     * @param fid 施設ID
+     * @param ac AsyncContext
+     * @return 外した場合 true、既に通知等で外されていた場合 false
+     */
+    public boolean removeAsyncContext(String fid, AsyncContext ac) {
+        Queue<AsyncContext> acQueue = acMap.get(fid);
+        return acQueue != null && acQueue.remove(ac);
+    }
+    
+    public int getSubscriberCount(String fid) {
+        Queue<AsyncContext> acQueue = acMap.get(fid);
+        return acQueue != null ? acQueue.size() : 0;
+    }
+    
+    public Queue<ChartEventSession> getChartEventSessions(String fid) {
+        Queue<ChartEventSession> queue = streamMap.get(fid);
+        if (queue == null) {
+            queue = new ConcurrentLinkedQueue<>();
+            Queue<ChartEventSession> exist = streamMap.putIfAbsent(fid, queue);
+            if (exist != null) {
+                queue = exist;
+            }
         }
+        return queue;
+    }
+    
+    public List<ChartEventSession> getAllChartEventSessions() {
+        List<ChartEventSession> list = new ArrayList<>();
+        for (Queue<ChartEventSession> queue : streamMap.values()) {
+            list.addAll(queue);
+        }
+        return list;
+    }
+    
+    public void addChartEventSession(String fid, ChartEventSession session) {
+        getChartEventSessions(fid).add(session);
+    }
+    
+    public void removeChartEventSession(String fid, ChartEventSession session) {
+        Queue<ChartEventSession> queue = streamMap.get(fid);
+        if (queue != null) {
+            queue.remove(session);
+        }
+    }
+    
+    public ChartEventHistory getChartEventHistory(String fid) {
+        ChartEventHistory history = historyMap.get(fid);
+        if (history == null) {
+            history = new ChartEventHistory();
+            ChartEventHistory exist = historyMap.putIfAbsent(fid, history);
+            if (exist != null) {
+                history = exist;
+            }
+        }
+        return history;
     }
     
     public String getServerUUID() {
@@ -63,11 +145,26 @@ public class ServletContextHolder {
         List<PatientVisitModel> pvtList = pvtListMap.get(fid);
         if (pvtList == null) {
             pvtList = new CopyOnWriteArrayList<>();
-            pvtListMap.put(fid, pvtList);
+            List<PatientVisitModel> exist = pvtListMap.putIfAbsent(fid, pvtList);
+            if (exist != null) {
+                pvtList = exist;
+            }
         }
         return pvtList;
     }
 
+    public PvtListVersion getPvtListVersion(String fid) {
+        PvtListVersion version = pvtVersionMap.get(fid);
+        if (version == null) {
+            version = new PvtListVersion();
+            PvtListVersion exist = pvtVersionMap.putIfAbsent(fid, version);
+            if (exist != null) {
+                version = exist;
+            }
+        }
+        return version;
+    }
+
     // 今日と明日を設定する
     public void setToday() {
         today= new GregorianCalendar();
@@ -7,14 +7,19 @@ import java.util.Timer;
 import java.util.logging.Logger;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
 import javax.ejb.Schedule;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
 import javax.ejb.Timeout;
 import javax.inject.Inject;
+import open.dolphin.msg.ClaimTransport;
+import open.dolphin.rest.GzipFilter;
 import open.dolphin.session.ChartEventServiceBean;
 import open.dolphin.session.SystemServiceBean;
 import open.orca.rest.ORCAConnection;
+import open.orca.rest.OrcaMasterCache;
 //import open.dolphin.updater.Updater;
 
 /**
@@ -42,18 +47,51 @@ private static final Logger logger = Logger.getLogger(ServletStartup.class.getSi
     public void init() {
 //        updater.start();
         eventServiceBean.start();
+        // SchemaModel / AttachmentModel が BlobStore から読めるようにする
+        Logger.getLogger("open.dolphin").info(BlobStores.getInstance().toString());
     }
 
     @PreDestroy
     public void stop() {
+        ClaimTransport.getInstance().shutdown();
     }
 
     // 日付が変わったらpvtListをクリアしクライアントに伝える
     @Schedule(hour="0", minute="0", persistent=false)
     public void dayChange() {
         Logger.getLogger("open.dolphin").info("Renew pvtlist.");
+        Logger.getLogger("open.dolphin").info(ModuleBeanCache.getInstance().toString());
+        Logger.getLogger("open.dolphin").info(ClaimTransport.getInstance().getStatistics());
+        Logger.getLogger("open.dolphin").info(GzipFilter.getStatistics());
+        Logger.getLogger("open.dolphin").info(BlobStores.getInstance().toString());
+        String pool = ORCAConnection.getInstance().getPoolStatistics();
+        if (pool != null) {
+            Logger.getLogger("open.dolphin").info(pool);
+        }
+        // ORCA のマスターはマスター更新で変わるので読み直す
+        Logger.getLogger("open.dolphin").info(OrcaMasterCache.getInstance().toString());
+        if (OrcaMasterCache.getInstance().isLoaded()) {
+            OrcaMasterCache.getInstance().refresh();
+        }
         eventServiceBean.renewPvtList();
+        // 患者検索索引は次の検索で作り直す
+        Logger.getLogger("open.dolphin").info(PatientSearchIndex.getInstance().toString());
+        PatientSearchIndex.getInstance().clear();
     }
+    
+    // 読み込みに失敗した ORCA のマスターキャッシュを間隔をおいて読み直す
+    @Schedule(hour="*", minute="*/5", persistent=false)
+    public void retryOrcaMasterCache() {
+        OrcaMasterCache.getInstance().retry();
+    }
+    
+    // 通知の無い間も ChartEvent ストリームに送り、途中で切れた接続を検出させる
+    @Schedule(hour="*", minute="*", second="*/30", persistent=false)
+    @Lock(LockType.READ)
+    public void chartEventHeartbeat() {
+        eventServiceBean.heartbeat();
+    }
+    
     @Timeout
     public void timeout(Timer timer) {
         logger.warning("ServletStartup: timeout occurred");
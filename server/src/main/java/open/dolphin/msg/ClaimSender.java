@@ -1,14 +1,11 @@
 package open.dolphin.msg;
 
-import java.beans.XMLDecoder;
 import java.io.*;
-import java.net.Socket;
 import java.util.Collection;
 import java.util.Date;
 import java.util.logging.Logger;
 import open.dolphin.infomodel.*;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
 
 /**
  * Claim 送信クラス。
@@ -20,11 +17,6 @@ import org.apache.velocity.app.Velocity;
  */
 public class ClaimSender {
     
-    private static final int EOT = 0x04;
-    private static final int ACK = 0x06;
-    private static final int NAK = 0x15;
-    private static final String ACK_STR = "ACK: ";
-    private static final String NAK_STR = "NAK: ";
     private static final String OBJECT_NAME = "claimHelper";
     private static final String TEMPLATE_NAME = "claimHelper.vm";
     private static final String TEMPLATE_ENC = "SHIFT_JIS";
@@ -177,12 +169,8 @@ public class ClaimSender {
         //--------------------------------------------------------
         VelocityContext context = VelocityHelper.getContext();
         context.put(OBJECT_NAME, helper);
-        StringWriter sw = new StringWriter();
-        BufferedWriter bw = new BufferedWriter(sw);
-        Velocity.mergeTemplate(TEMPLATE_NAME, TEMPLATE_ENC, context, bw);
-        bw.flush();
-        bw.close();
-        String claimMessage = sw.toString();
+        // 電文はログと送信待ち行列の両方で使うため文字列に展開する
+        String claimMessage = VelocityHelper.render(TEMPLATE_NAME, TEMPLATE_ENC, context);
 //minagawa^ CLAIM Log INFOで          
         log(claimMessage);
 //        if (DEBUG) {
@@ -191,36 +179,9 @@ public class ClaimSender {
 //minagawa$        
         //--------------------------------------------------------
         
-        // ORCAへ接続する
-        Socket socket = new Socket(host, port);
-        OutputStream out = socket.getOutputStream();
-        DataOutputStream dout = new DataOutputStream(out);
-        BufferedOutputStream writer = new BufferedOutputStream(dout);
-
-        InputStream in = socket.getInputStream();
-        DataInputStream din = new DataInputStream(in);
-        BufferedInputStream reader = new BufferedInputStream(din);
-
-        // Writes UTF8 data
-        writer.write(claimMessage.getBytes(enc));
-        writer.write(EOT);
-        writer.flush();
-        
-        // Reads result
-        int c = reader.read();
-        if (c == ACK) {
-            sb = new StringBuilder();
-            sb.append(ACK_STR).append(baseInfo);
-            log(sb.toString());
-        } else if (c == NAK) {
-            sb = new StringBuilder();
-            sb.append(NAK_STR).append(baseInfo);
-            log(sb.toString());
-        }
-
-        writer.close();
-        reader.close();
-        socket.close();
+        // 送信先毎の待ち行列に入れ、保存処理をブロックせずに送る
+        // ACK/NAK は ClaimTransport がログに出力する
+        ClaimTransport.getInstance().send(host, port, enc, claimMessage, baseInfo);
     }
     
     private void log(String msg) {
@@ -238,11 +199,7 @@ public class ClaimSender {
 //minagawa$    
     
     private Object xmlDecode(byte[] bytes)  {
-
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-
-        return d.readObject();
+        // 従来の XML 形式も読める
+        return BeanCodec.decode(bytes);
     }
 }
@@ -0,0 +1,434 @@
+package open.dolphin.msg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import open.orca.rest.ORCAConnection;
+
+/**
+ * ORCA への CLAIM 送信
+ *
+ * 送信先（host:port）毎に一本の送信スレッドと上限付きの待ち行列を持ち、
+ * 受け付けた順に一件ずつ送る。同じ送信先への電文の順序は保たれる。
+ * ORCA は一電文毎に接続する前提なので、既定では一件毎に接続を閉じる。
+ * 使い回す設定の場合は一定時間使われなければ閉じる。
+ * 接続・送信で失敗した場合は間隔を倍にしながら再送する。
+ * 送り終えた後に応答が得られない（タイムアウト・切断）場合は ORCA が受け付けている可能性があるので、
+ * 二重に登録しないよう再送せず、内容をログに残す。
+ * NAK は電文の内容の問題なので再送しない。
+ *
+ * custom.properties
+ *   claim.queue.size      待ち行列の長さ (1000)
+ *   claim.queue.timeout   待ち行列が一杯の場合に待つ秒数 (10)
+ *   claim.retry           再送回数 (3)
+ *   claim.retry.interval  最初の再送までのミリ秒 (1000)
+ *   claim.read.timeout    ACK/NAK を待つ秒数 (30)
+ *   claim.keepalive       接続を使い回すかどうか (false)
+ *   claim.keepalive.idle  使い回す接続を閉じるまでの秒数 (30)
+ *   claim.shutdown.wait   停止時に待ち行列を送り切るまで待つ秒数 (10)
+ */
+public final class ClaimTransport {
+
+    private static final ClaimTransport instance = new ClaimTransport();
+
+    private static final int EOT = 0x04;
+    private static final int ACK = 0x06;
+    private static final int NAK = 0x15;
+    private static final String ACK_STR = "ACK: ";
+    private static final String NAK_STR = "NAK: ";
+
+    private static final long MAX_RETRY_INTERVAL = 30000L;
+
+    private final int queueSize;
+    private final long queueTimeout;
+    private final int retry;
+    private final long retryInterval;
+    private final int readTimeout;
+    private final boolean keepAlive;
+    private final long idleTimeout;
+    private final long shutdownWait;
+
+    private final ThreadFactory threadFactory;
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong ackCount = new AtomicLong();
+    private final AtomicLong nakCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong unknownCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private volatile boolean shutdown;
+
+    public static ClaimTransport getInstance() {
+        return instance;
+    }
+
+    private ClaimTransport() {
+
+        Properties config = ORCAConnection.getInstance().getProperties();
+
+        queueSize = intValue(config, "claim.queue.size", 1000);
+        queueTimeout = intValue(config, "claim.queue.timeout", 10);
+        retry = intValue(config, "claim.retry", 3);
+        retryInterval = intValue(config, "claim.retry.interval", 1000);
+        readTimeout = intValue(config, "claim.read.timeout", 30) * 1000;
+        keepAlive = "true".equals(config.getProperty("claim.keepalive"));
+        idleTimeout = intValue(config, "claim.keepalive.idle", 30) * 1000L;
+        shutdownWait = intValue(config, "claim.shutdown.wait", 10) * 1000L;
+
+        threadFactory = lookupThreadFactory();
+    }
+
+    /**
+     * 電文を送信待ち行列に入れる。送信は送信先毎のスレッドが行う。
+     * @param host ORCA host
+     * @param port ORCA port
+     * @param enc 電文のエンコーディング
+     * @param message CLAIM 電文
+     * @param baseInfo ログに出力する送信内容
+     * @throws IOException 待ち行列が一杯で受け付けられない場合
+     */
+    public void send(String host, int port, String enc, String message, String baseInfo) throws IOException {
+
+        if (shutdown) {
+            throw new IOException("Claim transport is shut down");
+        }
+
+        byte[] bytes = message.getBytes(enc);
+
+        String key = host + ":" + port;
+        Channel channel = channels.get(key);
+        if (channel == null) {
+            Channel created = new Channel(host, port);
+            channel = channels.putIfAbsent(key, created);
+            if (channel == null) {
+                channel = created;
+                channel.start();
+            }
+        }
+
+        channel.pending.incrementAndGet();
+        try {
+            if (!channel.queue.offer(new Message(bytes, baseInfo), queueTimeout, TimeUnit.SECONDS)) {
+                channel.pending.decrementAndGet();
+                rejectedCount.incrementAndGet();
+                throw new IOException("Claim queue is full: " + key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            channel.pending.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            throw new IOException("Interrupted while queueing claim message", e);
+        }
+        queuedCount.incrementAndGet();
+    }
+
+    /**
+     * 送信スレッドを止める。
+     * 新しい電文は受け付けず、待ち行列に残っている電文は claim.shutdown.wait 秒まで送り続ける。
+     * それでも送れなかった電文は内容（baseInfo）をログに残す。
+     */
+    public void shutdown() {
+        shutdown = true;
+        long deadline = System.currentTimeMillis() + shutdownWait;
+        for (Channel channel : channels.values()) {
+            channel.awaitIdle(deadline);
+        }
+        for (Channel channel : channels.values()) {
+            channel.stop();
+            channel.discard();
+        }
+        channels.clear();
+        log(getStatistics());
+    }
+
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    public long getAckCount() {
+        return ackCount.get();
+    }
+
+    public long getNakCount() {
+        return nakCount.get();
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getUnknownCount() {
+        return unknownCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public String getStatistics() {
+        int pending = 0;
+        for (Channel channel : channels.values()) {
+            pending += channel.queue.size();
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("CLAIM queued=").append(getQueuedCount());
+        sb.append(" ack=").append(getAckCount());
+        sb.append(" nak=").append(getNakCount());
+        sb.append(" retried=").append(getRetryCount());
+        sb.append(" failed=").append(getFailedCount());
+        sb.append(" unknown=").append(getUnknownCount());
+        sb.append(" rejected=").append(getRejectedCount());
+        sb.append(" pending=").append(pending);
+        return sb.toString();
+    }
+
+    private static int intValue(Properties config, String key, int def) {
+        String value = config.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+            }
+        }
+        return def;
+    }
+
+    // コンテナ管理のスレッドを使う 取得できなければ通常のスレッド
+    private static ThreadFactory lookupThreadFactory() {
+        try {
+            return (ThreadFactory)new InitialContext().lookup("java:jboss/ee/concurrency/factory/default");
+        } catch (NamingException | ClassCastException e) {
+            return Executors.defaultThreadFactory();
+        }
+    }
+
+    private void log(String msg) {
+        Logger.getLogger("dolphin.claim").info(msg);
+    }
+
+    private void warning(String msg) {
+        Logger.getLogger("dolphin.claim").warning(msg);
+    }
+
+    private static final class Message {
+
+        private final byte[] bytes;
+        private final String baseInfo;
+
+        private Message(byte[] bytes, String baseInfo) {
+            this.bytes = bytes;
+            this.baseInfo = baseInfo;
+        }
+    }
+
+    /**
+     * 送信先毎の待ち行列と接続
+     */
+    private final class Channel implements Runnable {
+
+        private final String host;
+        private final int port;
+        private final BlockingQueue<Message> queue;
+
+        // 受け付けてまだ送り終えていない電文の数（送信中のものを含む）
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile Message current;
+
+        private Thread thread;
+        private volatile boolean running;
+
+        private Socket socket;
+        private OutputStream writer;
+        private InputStream reader;
+
+        private Channel(String host, int port) {
+            this.host = host;
+            this.port = port;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        private void start() {
+            running = true;
+            thread = threadFactory.newThread(this);
+            thread.setName("claim-" + host + ":" + port);
+            thread.start();
+        }
+
+        private void stop() {
+            running = false;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        // 待ち行列が空になり送信中の電文も無くなるまで、deadline まで待つ
+        private void awaitIdle(long deadline) {
+            try {
+                while (pending.get() > 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(100L);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // 送れずに残った電文をログに残す
+        private void discard() {
+            List<Message> rest = new ArrayList<>();
+            Message msg = current;
+            if (msg != null) {
+                rest.add(msg);
+            }
+            queue.drainTo(rest);
+            for (Message m : rest) {
+                failedCount.incrementAndGet();
+                Logger.getLogger("dolphin.claim").log(Level.SEVERE, "CLAIM not sent (shutdown): {0}", m.baseInfo);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    Message msg = queue.poll(idleTimeout, TimeUnit.MILLISECONDS);
+                    if (msg == null) {
+                        // 暇な間は接続を閉じておく
+                        close();
+                        continue;
+                    }
+                    // 送信中に止められた場合は current を残し discard でログに出す
+                    current = msg;
+                    deliver(msg);
+                    current = null;
+                    pending.decrementAndGet();
+                    if (!keepAlive) {
+                        close();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        private void deliver(Message msg) throws InterruptedException {
+
+            long interval = retryInterval;
+
+            for (int attempt = 0; ; attempt++) {
+
+                try {
+                    write(msg.bytes);
+                } catch (IOException e) {
+                    close();
+                    warning("CLAIM send error: " + e.getMessage() + " " + msg.baseInfo);
+
+                    if (attempt >= retry || !running) {
+                        failedCount.incrementAndGet();
+                        Logger.getLogger("dolphin.claim").log(Level.SEVERE, "CLAIM send failed: {0}", msg.baseInfo);
+                        return;
+                    }
+
+                    retryCount.incrementAndGet();
+                    Thread.sleep(interval);
+                    interval = Math.min(interval * 2, MAX_RETRY_INTERVAL);
+                    continue;
+                }
+
+                // ここからは送り終えているので再送しない
+                int c;
+                try {
+                    c = reader.read();
+                } catch (SocketTimeoutException e) {
+                    close();
+                    unknown("response timeout", msg);
+                    return;
+                } catch (IOException e) {
+                    close();
+                    unknown(e.getMessage(), msg);
+                    return;
+                }
+
+                if (c == ACK) {
+                    ackCount.incrementAndGet();
+                    log(ACK_STR + msg.baseInfo);
+                    return;
+                }
+                if (c == NAK) {
+                    nakCount.incrementAndGet();
+                    log(NAK_STR + msg.baseInfo);
+                    return;
+                }
+                close();
+                unknown(c == -1 ? "connection closed" : "unexpected response " + c, msg);
+                return;
+            }
+        }
+
+        // ORCA が受け付けたかどうか分からない電文
+        private void unknown(String reason, Message msg) {
+            unknownCount.incrementAndGet();
+            Logger.getLogger("dolphin.claim").log(Level.SEVERE, "CLAIM delivery unknown ({0}): {1}",
+                    new Object[]{reason, msg.baseInfo});
+        }
+
+        // 接続して電文 + EOT を送る
+        private void write(byte[] bytes) throws IOException {
+
+            if (socket == null) {
+                socket = new Socket();
+                socket.connect(new InetSocketAddress(host, port), readTimeout);
+                socket.setSoTimeout(readTimeout);
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                writer = new BufferedOutputStream(socket.getOutputStream());
+                reader = new BufferedInputStream(socket.getInputStream());
+            }
+
+            writer.write(bytes);
+            writer.write(EOT);
+            writer.flush();
+        }
+
+        private void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                }
+            }
+            socket = null;
+            writer = null;
+            reader = null;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package open.dolphin.msg;
 
 import java.io.*;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -10,7 +9,6 @@ import java.util.Properties;
 import java.util.logging.Logger;
 import open.dolphin.infomodel.*;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
 
 /**
  * Claim 送信クラス。
@@ -22,11 +20,6 @@ import org.apache.velocity.app.Velocity;
  */
 public class DiagnosisSender {
     
-    private static final int EOT = 0x04;
-    private static final int ACK = 0x06;
-    private static final int NAK = 0x15;
-    private static final String ACK_STR = "ACK: ";
-    private static final String NAK_STR = "NAK: ";
     private static final String OBJECT_NAME = "diseaseHelper";
 //s.oh^ 2014/03/13 傷病名削除診療科対応
     private static final String TEMPLATE_NAME = "diseaseHelper.vm";
@@ -235,12 +228,8 @@ public class DiagnosisSender {
         //--------------------------------------------------------
         VelocityContext context = VelocityHelper.getContext();
         context.put(OBJECT_NAME, dhl);
-        StringWriter sw = new StringWriter();
-        BufferedWriter bw = new BufferedWriter(sw);
-        Velocity.mergeTemplate(TEMPLATE_NAME, TEMPLATE_ENC, context, bw);
-        bw.flush();
-        bw.close();
-        String claimMessage = sw.toString();
+        // 電文はログと送信待ち行列の両方で使うため文字列に展開する
+        String claimMessage = VelocityHelper.render(TEMPLATE_NAME, TEMPLATE_ENC, context);
 //minagawa^ CLAIM Log    
         log(claimMessage);
 //        if (DEBUG) {
@@ -249,36 +238,9 @@ public class DiagnosisSender {
 //minagawa$        
         //--------------------------------------------------------
         
-        // ORCAへ接続する
-        Socket socket = new Socket(host, port);
-        OutputStream out = socket.getOutputStream();
-        DataOutputStream dout = new DataOutputStream(out);
-        BufferedOutputStream writer = new BufferedOutputStream(dout);
-
-        InputStream in = socket.getInputStream();
-        DataInputStream din = new DataInputStream(in);
-        BufferedInputStream reader = new BufferedInputStream(din);
-
-        // Writes UTF8 data
-        writer.write(claimMessage.getBytes(enc));
-        writer.write(EOT);
-        writer.flush();
-
-        // Reads result
-        int c = reader.read();
-        if (c == ACK) {
-            sb = new StringBuilder();
-            sb.append(ACK_STR).append(baseInfo);
-            log(sb.toString());
-        } else if (c == NAK) {
-            sb = new StringBuilder();
-            sb.append(NAK_STR).append(baseInfo);
-            log(sb.toString());
-        }
-
-        writer.close();
-        reader.close();
-        socket.close();
+        // 送信先毎の待ち行列に入れ、保存処理をブロックせずに送る
+        // ACK/NAK は ClaimTransport がログに出力する
+        ClaimTransport.getInstance().send(host, port, enc, claimMessage, baseInfo);
     }
     
 //s.oh^ 2014/11/11 傷病名送信順番の変更
@@ -1,17 +1,12 @@
 package open.dolphin.msg;
 
-import java.beans.XMLDecoder;
-import java.io.BufferedInputStream;
-import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
-import java.io.StringWriter;
 import java.util.List;
 import java.util.logging.Logger;
 import open.dolphin.infomodel.DocumentModel;
 import open.dolphin.infomodel.IInfoModel;
 import open.dolphin.infomodel.ModuleModel;
+import open.dolphin.mbean.ModuleBeanCache;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
 
 /**
  *
@@ -41,7 +36,7 @@ public class MMLSender {
         // decode
         List<ModuleModel> modules = dm.getModules();
         for (ModuleModel mm : modules) {
-            mm.setModel((IInfoModel)this.xmlDecode(mm.getBeanBytes()));
+            mm.setModel(ModuleBeanCache.getInstance().getModel(mm));
         }
 
         MMLHelper helper = new MMLHelper();
@@ -50,12 +45,7 @@ public class MMLSender {
 
         VelocityContext context = new VelocityContext();
         context.put(OBJECT_NAME, helper);
-        StringWriter sw = new StringWriter();
-        BufferedWriter bw = new BufferedWriter(sw);
-        Velocity.mergeTemplate(TEMPLATE_NAME, TEMPLATE_ENC, context, bw);
-        bw.flush();
-        bw.close();
-        String mml = sw.toString();
+        String mml = VelocityHelper.render(TEMPLATE_NAME, TEMPLATE_ENC, context);
         if (DEBUG) {
             log(mml);
         }
@@ -68,13 +58,4 @@ public class MMLSender {
     private void warning(String msg) {
         Logger.getLogger("open.dolphin").warning(msg);
     }
-    
-    private Object xmlDecode(byte[] bytes)  {
-
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-
-        return d.readObject();
-    }
 }
@@ -20,7 +20,6 @@ import javax.mail.internet.InternetAddress;
 import open.dolphin.infomodel.ActivityModel;
 import open.dolphin.session.AccountSummary;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
 import org.apache.velocity.exception.MethodInvocationException;
 import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
@@ -90,10 +89,10 @@ public class OidSender {
                 // ライセンスのタイプでテンプレートを選択する
                 switch (account.getMemberType()) {
                     case ASP_TESTER:
-                        Velocity.mergeTemplate(TESTER_TEMPLATE, TEMPLATE_ENC, context, bw);
+                        VelocityHelper.merge(TESTER_TEMPLATE, TEMPLATE_ENC, context, bw);
                         break;
                     case ASP_MEMBER:
-                        Velocity.mergeTemplate(MEMBER_TEMPLATE, TEMPLATE_ENC, context, bw);
+                        VelocityHelper.merge(MEMBER_TEMPLATE, TEMPLATE_ENC, context, bw);
                         break;
                 }
                 
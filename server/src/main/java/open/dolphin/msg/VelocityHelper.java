@@ -1,19 +1,41 @@
 package open.dolphin.msg;
 
 import java.io.File;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
+import open.orca.rest.ORCAConnection;
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.Velocity;
 
 /**
+ * Velocity の初期化とテンプレートの登録簿
+ * テンプレートは最初に使われた時に一度だけ解析し、以後は解析済の Template を使い回す。
+ *
+ * custom.properties
+ *   velocity.template.check  テンプレートの更新を確認する間隔（秒）
+ *                            0 の場合は確認せず、解析済のテンプレートを使い続ける (0)
  *
  * @author kazushi
  */
 public class VelocityHelper {
-    
+
+    // 使い回す出力バッファの上限（文字数） これを超えたバッファは捨てる
+    private static final int MAX_RETAINED_BUFFER = 256 * 1024;
+
+    private static final Map<String, Template> templates = new ConcurrentHashMap<>();
+
+    // 値は JDK のクラスだけにし、再配備時にスレッドがこのクラスを掴み続けないようにする
+    private static final ThreadLocal<StringWriter> buffers = new ThreadLocal<>();
+
+    private static int checkInterval;
+
     static {
-        
+
         try {
             // Velocity を初期化する
             Properties p = new Properties();
@@ -23,14 +45,87 @@ public class VelocityHelper {
             String resDir = sb.toString();
             // Resource(template) load directory
             p.setProperty("file.resource.loader.path", resDir);
+
+            // 解析済のテンプレートを Velocity 側でも保持する
+            Properties config = ORCAConnection.getInstance().getProperties();
+            if (config != null) {
+                try {
+                    checkInterval = Integer.parseInt(config.getProperty("velocity.template.check", "0").trim());
+                } catch (NumberFormatException e) {
+                }
+            }
+            p.setProperty("file.resource.loader.cache", "true");
+            p.setProperty("file.resource.loader.modificationCheckInterval", String.valueOf(checkInterval));
+
             Velocity.init(p);
-            
+
         } catch (Exception e) {
             Logger.getLogger("open.dolphin").warning(e.getMessage());
         }
     }
-    
+
     public static VelocityContext getContext() {
         return new VelocityContext();
     }
+
+    /**
+     * 解析済のテンプレートを返す。
+     * @param name テンプレート名
+     * @param encoding テンプレートのエンコーディング
+     * @return Template
+     */
+    public static Template getTemplate(String name, String encoding) {
+
+        // 更新を確認する場合は Velocity のキャッシュに任せる
+        if (checkInterval > 0) {
+            return Velocity.getTemplate(name, encoding);
+        }
+
+        String key = name + "/" + encoding;
+        Template template = templates.get(key);
+        if (template == null) {
+            template = Velocity.getTemplate(name, encoding);
+            templates.put(key, template);
+        }
+        return template;
+    }
+
+    /**
+     * テンプレートを writer へ直接出力する。
+     * @param name テンプレート名
+     * @param encoding テンプレートのエンコーディング
+     * @param context VelocityContext
+     * @param writer 出力先
+     */
+    public static void merge(String name, String encoding, VelocityContext context, Writer writer) {
+        getTemplate(name, encoding).merge(context, writer);
+    }
+
+    /**
+     * テンプレートを文字列に展開する。
+     * 出力バッファはスレッド毎に使い回す。
+     * @param name テンプレート名
+     * @param encoding テンプレートのエンコーディング
+     * @param context VelocityContext
+     * @return 展開した文字列
+     */
+    public static String render(String name, String encoding, VelocityContext context) {
+
+        StringWriter sw = buffers.get();
+        if (sw == null) {
+            sw = new StringWriter(8192);
+            buffers.set(sw);
+        }
+        try {
+            merge(name, encoding, context, sw);
+            return sw.toString();
+
+        } finally {
+            if (sw.getBuffer().capacity() > MAX_RETAINED_BUFFER) {
+                buffers.remove();
+            } else {
+                sw.getBuffer().setLength(0);
+            }
+        }
+    }
 }
@@ -3,10 +3,9 @@
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.logging.Logger;
+import open.dolphin.common.JsonMappers;
 import open.dolphin.infomodel.IInfoModel;
 import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.map.SerializationConfig;
-import org.codehaus.jackson.map.annotate.JsonSerialize;
 
 /**
  *
@@ -44,11 +43,12 @@ public class AbstractResource {
     }
 
     // 2013/06/24    
+    // 共有の mapper を返す（設定を変更しないこと）
     protected static ObjectMapper getSerializeMapper() {
-        ObjectMapper mapper = new ObjectMapper();
-        //mapper.getSerializationConfig().setSerializationInclusion(JsonSerialize.Inclusion.NON_NULL);
-        mapper.configure(SerializationConfig.Feature.WRITE_NULL_MAP_VALUES, false);
-        mapper.configure(SerializationConfig.Feature.FAIL_ON_EMPTY_BEANS, false);
-        return mapper;
+        return JsonMappers.getSerializeMapper();
+    }
+    
+    protected static ObjectMapper getDeserializeMapper() {
+        return JsonMappers.getDeserializeMapper();
     }
 }
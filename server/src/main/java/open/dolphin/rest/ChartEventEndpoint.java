@@ -0,0 +1,120 @@
+package open.dolphin.rest;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.logging.Logger;
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.websocket.CloseReason;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnMessage;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+import open.dolphin.mbean.ChartEventHistory;
+import open.dolphin.mbean.ServletContextHolder;
+import open.dolphin.mbean.UserCache;
+import open.dolphin.session.UserServiceBean;
+
+/**
+ * ChartEvent のストリーミング配信（WebSocket）
+ * /chartEvent/subscribe のロングポーリングと並行して使用できる。
+ * 
+ * 接続後、最初のメッセージで購読を要求する。
+ * {"userName":..., "password":..., "clientUUID":..., "cursor":最後に受け取った番号}
+ * 以後、同一施設の ChartEventModel が番号順に送られる。
+ * 通知の無い間は ChartEventSession.HEARTBEAT が定期的に送られる。
+ */
+@ServerEndpoint("/ws/chartEvent")
+public class ChartEventEndpoint {
+    
+    private static final String USER_NAME = "userName";
+    private static final String PASSWORD = "password";
+    private static final String CURSOR = "cursor";
+    private static final String SUBSCRIBER = "subscriber";
+    
+    @Inject
+    private ServletContextHolder contextHolder;
+    
+    @Inject
+    private UserServiceBean userService;
+    
+    @Inject
+    private UserCache userCache;
+    
+    @OnMessage
+    public void onMessage(String message, Session session) throws IOException {
+        
+        if (session.getUserProperties().get(SUBSCRIBER) != null) {
+            // 購読後のメッセージ（keep-alive）は無視する
+            return;
+        }
+        
+        JsonObject request;
+        try (JsonReader reader = Json.createReader(new StringReader(message))) {
+            request = reader.readObject();
+        } catch (RuntimeException e) {
+            session.close(new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, "Bad subscribe request"));
+            return;
+        }
+        
+        String userName = request.getString(USER_NAME, null);
+        String password = request.getString(PASSWORD, null);
+        String clientUUID = request.getString(ChartEventResource.CLIENT_UUID, null);
+        long cursor = request.getJsonNumber(CURSOR)!=null ? request.getJsonNumber(CURSOR).longValue() : 0L;
+        
+        if (userName == null || password == null || clientUUID == null || !authenticate(userName, password)) {
+            Logger.getLogger("open.dolphin").warning("Unauthorized user: " + userName + ": /ws/chartEvent");
+            session.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "Unauthorized"));
+            return;
+        }
+        
+        String fid = AbstractResource.getRemoteFacility(userName);
+        ChartEventHistory history = contextHolder.getChartEventHistory(fid);
+        ChartEventSession subscriber = new ChartEventSession(session, fid, clientUUID, 
+                contextHolder.getServerUUID(), history, cursor);
+        
+        session.setMaxIdleTimeout(0L);
+        session.getUserProperties().put(ChartEventResource.FID, fid);
+        session.getUserProperties().put(SUBSCRIBER, subscriber);
+        
+        // 登録から再送完了までの間に届いた通知は再送の後に番号順で送られる
+        synchronized (subscriber) {
+            contextHolder.addChartEventSession(fid, subscriber);
+            subscriber.catchUp();
+        }
+        
+        Logger.getLogger("open.dolphin").info(fid + ":" + clientUUID + " did subscribe chart event stream from " + cursor);
+    }
+    
+    @OnClose
+    public void onClose(Session session) {
+        remove(session);
+    }
+    
+    @OnError
+    public void onError(Session session, Throwable t) {
+        remove(session);
+    }
+    
+    private void remove(Session session) {
+        String fid = (String)session.getUserProperties().get(ChartEventResource.FID);
+        ChartEventSession subscriber = (ChartEventSession)session.getUserProperties().get(SUBSCRIBER);
+        if (fid != null && subscriber != null) {
+            contextHolder.removeChartEventSession(fid, subscriber);
+        }
+    }
+    
+    private boolean authenticate(String userName, String password) {
+        if (password.equals(userCache.getMap().get(userName))) {
+            return true;
+        }
+        boolean ok = userService.authenticate(userName, password);
+        if (ok) {
+            userCache.getMap().put(userName, password);
+        }
+        return ok;
+    }
+}
@@ -13,7 +13,6 @@ import open.dolphin.converter.ChartEventModelConverter;
 import open.dolphin.infomodel.ChartEventModel;
 import open.dolphin.mbean.ServletContextHolder;
 import open.dolphin.session.ChartEventServiceBean;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -48,7 +47,7 @@ public class ChartEventResource extends AbstractResource {
     @Path("/subscribe")
     public void subscribe() {
 
-        String fid = getRemoteFacility(servletReq.getRemoteUser());
+        final String fid = getRemoteFacility(servletReq.getRemoteUser());
         String clientUUID = servletReq.getHeader(CLIENT_UUID);
 //minagawa^        
         if (debug) {
@@ -65,11 +64,13 @@ public class ChartEventResource extends AbstractResource {
         // requestにfid, clientUUIDを記録しておく
         ac.getRequest().setAttribute(FID, fid);
         ac.getRequest().setAttribute(CLIENT_UUID, clientUUID);
-        contextHolder.addAsyncContext(ac);
+        contextHolder.addAsyncContext(fid, ac);
         
 //minagawa^
-        int subscribers = contextHolder.getAsyncContextList().size();
-        debug("subscribers count = " + subscribers);
+        if (debug) {
+            int subscribers = contextHolder.getSubscriberCount(fid);
+            debug("subscribers count = " + subscribers);
+        }
 //minagawa$        
         
         ac.addListener(new AsyncListener() {
@@ -77,7 +78,7 @@ public class ChartEventResource extends AbstractResource {
             private void remove() {
                 // JBOSS終了時にぬるぽ？
                 try {
-                    contextHolder.removeAsyncContext(ac);
+                    contextHolder.removeAsyncContext(fid, ac);
                 } catch (NullPointerException ex) {
                 }
             }
@@ -118,9 +119,7 @@ public class ChartEventResource extends AbstractResource {
 //        int cnt = eventServiceBean.processChartEvent(msg);
 //        return String.valueOf(cnt);
         debug("putChartEvent did call");
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         ChartEventModel msg = mapper.readValue(json, ChartEventModel.class);
         int cnt = eventServiceBean.processChartEvent(msg);
         return String.valueOf(cnt);
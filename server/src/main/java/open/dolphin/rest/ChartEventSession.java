@@ -0,0 +1,199 @@
+package open.dolphin.rest;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import open.dolphin.converter.ChartEventModelConverter;
+import open.dolphin.infomodel.ChartEventModel;
+import open.dolphin.mbean.ChartEventHistory;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * ChartEvent ストリーム（WebSocket）の購読者
+ * 送信済みの番号を保持し、番号順に欠番なく送信する。
+ * 欠番が履歴から溢れている場合は PVT_RENEW を送り、クライアントに受付リストの再取得を促す。
+ *
+ * 送信は非同期で、購読者毎の待ち行列から一件ずつ順に送るので、遅いクライアントが他の購読者への通知を止めない。
+ * 送信に失敗・SEND_TIMEOUT を超えた場合や待ち行列が MAX_PENDING を超えた場合は切断する。
+ * クライアントは最後に受け取った番号から接続し直し、欠けた分は catchUp で送られる。
+ * 通知が無い間も HEARTBEAT を定期的に送り、途中で切れた（相手に切断が伝わらない）接続を双方で検出できるようにする。
+ */
+public class ChartEventSession {
+    
+    private static final ObjectMapper MAPPER = AbstractResource.getSerializeMapper();
+    
+    private static final long SEND_TIMEOUT = 10000L;
+    private static final int MAX_PENDING = 1000;
+    
+    /** 通知の無い間に送る電文 クライアントは読み捨てる */
+    public static final String HEARTBEAT = "ping";
+    
+    private final Session session;
+    private final String facilityId;
+    private final String clientUUID;
+    private final String serverUUID;
+    private final ChartEventHistory history;
+    
+    // 送信済み（又は送信不要と判断した）最後の番号
+    private long lastSent;
+    
+    // 送信中のものの後に送る電文
+    private final ArrayDeque<String> pending = new ArrayDeque<>();
+    private boolean sending;
+    
+    private final SendHandler handler = new SendHandler() {
+        @Override
+        public void onResult(SendResult result) {
+            sent(result);
+        }
+    };
+    
+    public ChartEventSession(Session session, String facilityId, String clientUUID, 
+            String serverUUID, ChartEventHistory history, long cursor) {
+        this.session = session;
+        this.facilityId = facilityId;
+        this.clientUUID = clientUUID;
+        this.serverUUID = serverUUID;
+        this.history = history;
+        // cursor=0 は初回接続 現在位置から開始する
+        this.lastSent = cursor!=0L ? cursor : history.getLastSequence();
+        session.getAsyncRemote().setSendTimeout(SEND_TIMEOUT);
+    }
+    
+    public Session getSession() {
+        return session;
+    }
+    
+    /**
+     * 接続時、cursor 以降に発生したイベントを送信する。
+     */
+    public synchronized void catchUp() {
+        long to = history.getLastSequence();
+        if (to == lastSent) {
+            return;
+        }
+        List<ChartEventModel> list = (to > lastSent) ? history.range(lastSent, to) : null;
+        if (list == null) {
+            sendRenew(to);
+            return;
+        }
+        for (ChartEventModel evt : list) {
+            send(evt);
+        }
+    }
+    
+    /**
+     * イベントを送信する。前回送信との間に欠番があれば履歴から補う。
+     * @param evt 番号付きの ChartEventModel
+     */
+    public synchronized void deliver(ChartEventModel evt) {
+        
+        long seq = evt.getSequence();
+        if (seq <= lastSent) {
+            // 既に送信済み
+            return;
+        }
+        
+        if (seq > lastSent + 1) {
+            List<ChartEventModel> missing = history.range(lastSent, seq - 1);
+            if (missing == null) {
+                sendRenew(seq - 1);
+            } else {
+                for (ChartEventModel m : missing) {
+                    send(m);
+                }
+            }
+        }
+        send(evt);
+    }
+    
+    /**
+     * 送信中でなければ HEARTBEAT を送る。送信中の場合はそれが同じ役目を果たす。
+     */
+    public synchronized void heartbeat() {
+        if (sending || !session.isOpen()) {
+            return;
+        }
+        sending = true;
+        sendAsync(HEARTBEAT);
+    }
+    
+    private void sendRenew(long seq) {
+        ChartEventModel renew = new ChartEventModel(serverUUID);
+        renew.setFacilityId(facilityId);
+        renew.setEventType(ChartEventModel.PVT_RENEW);
+        renew.setSequence(seq);
+        send(renew);
+    }
+    
+    private void send(ChartEventModel evt) {
+        
+        lastSent = evt.getSequence();
+        
+        // 発行者自身へは送らない
+        if (clientUUID.equals(evt.getIssuerUUID()) || !session.isOpen()) {
+            return;
+        }
+        
+        String text;
+        try {
+            ChartEventModelConverter conv = new ChartEventModelConverter();
+            conv.setModel(evt);
+            text = MAPPER.writeValueAsString(conv);
+        } catch (IOException | RuntimeException e) {
+            Logger.getLogger("open.dolphin").warning("ChartEvent stream send error: " + e.getMessage());
+            return;
+        }
+        
+        if (!sending) {
+            sending = true;
+            sendAsync(text);
+        } else if (pending.size() < MAX_PENDING) {
+            pending.add(text);
+        } else {
+            abort("ChartEvent stream send queue is full");
+        }
+    }
+    
+    private void sendAsync(String text) {
+        try {
+            session.getAsyncRemote().sendText(text, handler);
+        } catch (RuntimeException e) {
+            abort("ChartEvent stream send error: " + e.getMessage());
+        }
+    }
+    
+    // 前の送信が終わったら次を送る
+    private synchronized void sent(SendResult result) {
+        if (!sending) {
+            return;
+        }
+        if (!result.isOK()) {
+            Throwable t = result.getException();
+            abort("ChartEvent stream send error: " + (t != null ? t.getMessage() : ""));
+            return;
+        }
+        String next = pending.poll();
+        if (next == null) {
+            sending = false;
+        } else {
+            sendAsync(next);
+        }
+    }
+    
+    // 送れなかった場合は切断し、クライアントの再接続（catchUp）に任せる
+    private void abort(String msg) {
+        Logger.getLogger("open.dolphin").warning(msg);
+        pending.clear();
+        sending = false;
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Send failed"));
+        } catch (IOException | RuntimeException e) {
+        }
+    }
+}
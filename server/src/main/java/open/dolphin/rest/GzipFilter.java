@@ -0,0 +1,710 @@
+package open.dolphin.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import open.orca.rest.ORCAConnection;
+
+/**
+ * REST の応答を gzip で圧縮し、gzip で送られた要求を展開する Filter
+ *
+ * Accept-Encoding に gzip があり、応答が threshold バイトを超えた場合に圧縮する。
+ * threshold までは応答をバッファし、超えなければそのまま送る。
+ * 画像・zip 等の圧縮済みの型と、リソースが Content-Encoding を設定した応答は圧縮しない。
+ * 圧縮し得る応答には、圧縮しなかった場合も Vary: Accept-Encoding を付ける。
+ * 要求の Content-Encoding が gzip の場合は展開してからリソースに渡す。展開後の大きさは rest.gzip.request.max で制限する。
+ *
+ * エンドポイント（メソッド + パスの固定部分）毎に圧縮前後のバイト数と圧縮に使った CPU 時間を集計する。
+ *
+ * 設定（custom.properties）
+ *   rest.gzip            false で圧縮しない (true)
+ *   rest.gzip.threshold  圧縮する応答の最小バイト数 (1024)
+ *   rest.gzip.request.max  展開した要求の最大 MB (64)
+ */
+public class GzipFilter implements Filter {
+
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String VARY = "Vary";
+    private static final String GZIP = "gzip";
+
+    private static final int DEFAULT_THRESHOLD = 1024;
+    private static final int DEFAULT_REQUEST_MAX = 64;
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    // 圧縮済み（圧縮しても小さくならない）の型
+    private static final String[] COMPRESSED_TYPES = {
+        "image/", "video/", "audio/",
+        "application/zip", "application/gzip", "application/x-gzip", "application/x-compress",
+        "application/octet-stream", "application/pdf"
+    };
+
+    // エンドポイント毎の集計
+    private static final ConcurrentHashMap<String, Stat> stats = new ConcurrentHashMap<>();
+
+    private static final ThreadMXBean THREAD_MX = ManagementFactory.getThreadMXBean();
+
+    private boolean enabled;
+    private int threshold;
+    private long requestMax;
+
+    /**
+     * エンドポイント毎の圧縮の集計を返す。
+     * @return 集計の文字列 一行に一つのエンドポイント
+     */
+    public static String getStatistics() {
+        List<String> keys = new ArrayList<>(stats.keySet());
+        Collections.sort(keys);
+        StringBuilder sb = new StringBuilder();
+        sb.append("GzipFilter");
+        for (String key : keys) {
+            sb.append("\n").append(key).append(" ").append(stats.get(key));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        Properties config = ORCAConnection.getInstance().getProperties();
+        enabled = !"false".equalsIgnoreCase(config.getProperty("rest.gzip", "true").trim());
+        threshold = DEFAULT_THRESHOLD;
+        String value = config.getProperty("rest.gzip.threshold");
+        if (value != null) {
+            try {
+                threshold = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                Logger.getLogger("open.dolphin").warning("rest.gzip.threshold: " + value);
+            }
+        }
+        int max = DEFAULT_REQUEST_MAX;
+        value = config.getProperty("rest.gzip.request.max");
+        if (value != null) {
+            try {
+                max = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                Logger.getLogger("open.dolphin").warning("rest.gzip.request.max: " + value);
+            }
+        }
+        requestMax = max * 1024L * 1024L;
+        Logger.getLogger("open.dolphin").info("GzipFilter enabled=" + enabled + " threshold=" + threshold + " requestMax=" + max + "MB");
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+
+        HttpServletRequest req = (HttpServletRequest)request;
+        HttpServletResponse res = (HttpServletResponse)response;
+        String endpoint = endpoint(req);
+
+        // gzip で送られた要求を展開する
+        if (isGzip(req.getHeader(CONTENT_ENCODING))) {
+            stat(endpoint).gzipRequests.incrementAndGet();
+            req = new GzipRequest(req, requestMax);
+        }
+
+        if (!enabled) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        GzipResponse wrapper = new GzipResponse(res, acceptsGzip(req.getHeader(ACCEPT_ENCODING)), endpoint);
+        chain.doFilter(req, wrapper);
+
+        if (req.isAsyncStarted()) {
+            // 非同期（ChartEvent の購読）は応答が後で書かれるので、ここでは閉じない
+            wrapper.release();
+        } else {
+            wrapper.finish();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    // GET /karte/documents/1,2,3 -> GET /karte/documents
+    private static String endpoint(HttpServletRequest req) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(req.getMethod()).append(" ");
+        String path = req.getPathInfo();
+        if (path == null) {
+            return sb.toString();
+        }
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (!isName(segment)) {
+                break;
+            }
+            sb.append("/").append(segment);
+        }
+        return sb.toString();
+    }
+
+    // 英字だけのものをパスの固定部分とする（検索語や ID は含めない）
+    private static boolean isName(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && c != '-' && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Stat stat(String endpoint) {
+        Stat s = stats.get(endpoint);
+        if (s == null) {
+            Stat created = new Stat();
+            s = stats.putIfAbsent(endpoint, created);
+            if (s == null) {
+                s = created;
+            }
+        }
+        return s;
+    }
+
+    private static boolean isGzip(String encoding) {
+        return encoding != null && encoding.trim().toLowerCase().contains(GZIP);
+    }
+
+    // gzip;q=0 は受け付けないものとする
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            String coding = parts[0].trim();
+            if (!GZIP.equalsIgnoreCase(coding) && !"*".equals(coding)) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String p = parts[i].trim();
+                if (p.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(p.substring(2).trim()) > 0.0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        for (String t : COMPRESSED_TYPES) {
+            if (type.startsWith(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long cpuTime() {
+        return THREAD_MX.isCurrentThreadCpuTimeSupported() ? THREAD_MX.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * threshold までバッファし、圧縮するかどうかを決めてから書き出す応答
+     */
+    private final class GzipResponse extends HttpServletResponseWrapper {
+
+        private final boolean acceptGzip;
+        private final String endpoint;
+
+        private GzipOutput output;
+        private PrintWriter writer;
+
+        // リソースが設定した Content-Length （圧縮しない場合に送る）
+        private long contentLength = -1L;
+        private boolean encoded;
+
+        private GzipResponse(HttpServletResponse response, boolean acceptGzip, String endpoint) {
+            super(response);
+            this.acceptGzip = acceptGzip;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called");
+            }
+            if (output == null) {
+                output = new GzipOutput(this);
+            }
+            return output;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (output != null) {
+                    throw new IllegalStateException("getOutputStream() has already been called");
+                }
+                output = new GzipOutput(this);
+                writer = new PrintWriter(new OutputStreamWriter(output, getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            setContentLengthLong(len);
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            if (output != null && output.decided) {
+                if (!output.compressing) {
+                    super.setContentLengthLong(len);
+                }
+                return;
+            }
+            contentLength = len;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(value != null ? Long.parseLong(value.trim()) : -1L);
+                return;
+            }
+            if (CONTENT_ENCODING.equalsIgnoreCase(name)) {
+                encoded = true;
+            }
+            super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(value != null ? Long.parseLong(value.trim()) : -1L);
+                return;
+            }
+            if (CONTENT_ENCODING.equalsIgnoreCase(name)) {
+                encoded = true;
+            }
+            super.addHeader(name, value);
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(value);
+                return;
+            }
+            super.setIntHeader(name, value);
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (output != null) {
+                output.flush();
+                if (!output.decided) {
+                    // 未確定の間はヘッダーを送らない
+                    return;
+                }
+            }
+            super.flushBuffer();
+        }
+
+        @Override
+        public void resetBuffer() {
+            if (output != null && !output.decided) {
+                output.buffer.reset();
+            }
+            super.resetBuffer();
+        }
+
+        @Override
+        public void reset() {
+            if (output != null && !output.decided) {
+                output.buffer.reset();
+            }
+            contentLength = -1L;
+            encoded = false;
+            super.reset();
+        }
+
+        private void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (output != null) {
+                output.finish();
+            } else if (contentLength >= 0L) {
+                super.setContentLengthLong(contentLength);
+            }
+        }
+
+        private void release() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (output != null && !output.decided) {
+                output.decide(false);
+            }
+        }
+
+        // 大きさと Accept-Encoding によっては圧縮する応答
+        private boolean mayCompress() {
+            return !encoded && !isCommitted() && isCompressible(getContentType());
+        }
+
+        private boolean shouldCompress() {
+            return acceptGzip && mayCompress();
+        }
+    }
+
+    /**
+     * 圧縮するかどうかが決まるまでバッファする出力
+     */
+    private final class GzipOutput extends ServletOutputStream {
+
+        private final GzipResponse response;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(threshold, 256));
+
+        private OutputStream target;
+        private GZIPOutputStream gzip;
+        private CountingOutputStream counter;
+        private boolean decided;
+        private boolean compressing;
+        private boolean closed;
+        private long rawBytes;
+        private long cpu;
+
+        private GzipOutput(GzipResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (!decided) {
+                if (buffer.size() + len <= threshold) {
+                    buffer.write(b, off, len);
+                    return;
+                }
+                decide(true);
+            }
+            writeTarget(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // threshold に達するまではバッファしたままにする
+            if (decided && !closed) {
+                if (compressing) {
+                    long start = cpuTime();
+                    gzip.flush();
+                    cpu += cpuTime() - start;
+                } else {
+                    target.flush();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // 閉じるのは Filter が finish で行う
+            flush();
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            throw new UnsupportedOperationException("Non-blocking write is not supported");
+        }
+
+        private void decide(boolean large) throws IOException {
+            decided = true;
+            compressing = large && response.shouldCompress();
+            if (response.mayCompress()) {
+                // 圧縮しなかった応答もキャッシュが Accept-Encoding で区別できるようにする
+                ((HttpServletResponse)response.getResponse()).addHeader(VARY, ACCEPT_ENCODING);
+            }
+            ServletOutputStream raw = response.getResponse().getOutputStream();
+            if (compressing) {
+                ((HttpServletResponse)response.getResponse()).setHeader(CONTENT_ENCODING, GZIP);
+                counter = new CountingOutputStream(raw);
+                gzip = new GZIPOutputStream(counter, GZIP_BUFFER_SIZE, true);
+                target = gzip;
+            } else {
+                if (response.contentLength >= 0L) {
+                    response.getResponse().setContentLengthLong(response.contentLength);
+                }
+                target = raw;
+            }
+            if (buffer.size() > 0) {
+                byte[] bytes = buffer.toByteArray();
+                buffer.reset();
+                writeTarget(bytes, 0, bytes.length);
+            }
+        }
+
+        private void writeTarget(byte[] b, int off, int len) throws IOException {
+            if (compressing) {
+                long start = cpuTime();
+                gzip.write(b, off, len);
+                cpu += cpuTime() - start;
+                rawBytes += len;
+            } else {
+                target.write(b, off, len);
+            }
+        }
+
+        private void finish() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (!decided) {
+                decide(false);
+            }
+            closed = true;
+            Stat s = stat(response.endpoint);
+            if (compressing) {
+                long start = cpuTime();
+                gzip.finish();
+                cpu += cpuTime() - start;
+                s.record(rawBytes, counter.count, cpu);
+            } else {
+                s.skipped.incrementAndGet();
+            }
+            target.flush();
+        }
+    }
+
+    /**
+     * 送ったバイト数を数える
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * gzip の要求を展開して渡す
+     */
+    private static final class GzipRequest extends HttpServletRequestWrapper {
+
+        private final long max;
+        private ServletInputStream input;
+
+        private GzipRequest(HttpServletRequest request, long max) {
+            super(request);
+            this.max = max;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (input == null) {
+                final InputStream in = new GZIPInputStream(super.getInputStream(), GZIP_BUFFER_SIZE);
+                input = new ServletInputStream() {
+
+                    private boolean finished;
+                    private long total;
+
+                    @Override
+                    public int read() throws IOException {
+                        int b = in.read();
+                        finished = b < 0;
+                        count(finished ? 0 : 1);
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int n = in.read(b, off, len);
+                        finished = n < 0;
+                        count(Math.max(n, 0));
+                        return n;
+                    }
+
+                    // 小さな gzip が巨大に展開される要求を拒む
+                    private void count(int n) throws IOException {
+                        total += n;
+                        if (total > max) {
+                            throw new IOException("Decompressed request body exceeds " + max + " bytes");
+                        }
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        in.close();
+                    }
+
+                    @Override
+                    public boolean isFinished() {
+                        return finished;
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    @Override
+                    public void setReadListener(ReadListener readListener) {
+                        throw new UnsupportedOperationException("Non-blocking read is not supported");
+                    }
+                };
+            }
+            return input;
+        }
+
+        // 展開後の長さは分からない
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1L;
+        }
+
+        // 展開済みなので JAX-RS 側で再度展開させない
+        @Override
+        public String getHeader(String name) {
+            if (CONTENT_ENCODING.equalsIgnoreCase(name) || CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                return null;
+            }
+            return super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            if (CONTENT_ENCODING.equalsIgnoreCase(name) || CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                return Collections.emptyEnumeration();
+            }
+            return super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            List<String> names = new ArrayList<>();
+            for (Enumeration<String> e = super.getHeaderNames(); e.hasMoreElements();) {
+                String name = e.nextElement();
+                if (!CONTENT_ENCODING.equalsIgnoreCase(name) && !CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                    names.add(name);
+                }
+            }
+            return Collections.enumeration(names);
+        }
+    }
+
+    /**
+     * エンドポイント毎の集計
+     */
+    private static final class Stat {
+
+        private final AtomicLong compressed = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong gzipRequests = new AtomicLong();
+        private final AtomicLong rawBytes = new AtomicLong();
+        private final AtomicLong gzipBytes = new AtomicLong();
+        private final AtomicLong cpuNanos = new AtomicLong();
+
+        private void record(long raw, long gz, long cpu) {
+            compressed.incrementAndGet();
+            rawBytes.addAndGet(raw);
+            gzipBytes.addAndGet(gz);
+            cpuNanos.addAndGet(cpu);
+        }
+
+        @Override
+        public String toString() {
+            long n = compressed.get();
+            long raw = rawBytes.get();
+            StringBuilder sb = new StringBuilder();
+            sb.append("gzip=").append(n);
+            sb.append(" plain=").append(skipped.get());
+            if (n > 0L && raw > 0L) {
+                sb.append(" raw=").append(raw / 1024L).append("KB");
+                sb.append(" gz=").append(gzipBytes.get() / 1024L).append("KB");
+                sb.append(" ratio=").append(gzipBytes.get() * 100L / raw).append("%");
+                sb.append(" cpu=").append(cpuNanos.get() / 1000000L).append("ms");
+                sb.append(" cpu/req=").append(cpuNanos.get() / n / 1000L).append("us");
+            }
+            if (gzipRequests.get() > 0L) {
+                sb.append(" gzipRequests=").append(gzipRequests.get());
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package open.dolphin.rest;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Provider;
+import open.dolphin.common.JsonMappers;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Jackson Provider（コンバータを返す @Produces(JSON) のリソース）に共有の ObjectMapper を渡す。
+ * web.xml の resteasy.providers で登録する。
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class JsonMapperProvider implements ContextResolver<ObjectMapper> {
+
+    @Override
+    public ObjectMapper getContext(Class<?> type) {
+        return JsonMappers.getSerializeMapper();
+    }
+}
@@ -1,21 +1,33 @@
 package open.dolphin.rest;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.logging.Logger;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import open.dolphin.common.JsonMappers;
 import open.dolphin.converter.*;
 import open.dolphin.infomodel.*;
+import open.dolphin.mbean.BlobStore;
+import open.dolphin.mbean.BlobStores;
 import open.dolphin.session.KarteServiceBean;
 import open.dolphin.session.PVTServiceBean;
-import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
 
 /**
  * REST Web Service
@@ -24,6 +36,9 @@ import org.codehaus.jackson.map.ObjectMapper;
  */
 @Path("/karte")
 public class KarteResource extends AbstractResource {
+    
+    // getDocuments で一度に取得して書き出す文書の数
+    private static final int DOCUMENT_FETCH_SIZE = 20;
 
     @Inject
     private KarteServiceBean karteServiceBean;
@@ -38,7 +53,7 @@ public class KarteResource extends AbstractResource {
     @GET
     @Path("/pid/{param}")
     @Produces(MediaType.APPLICATION_JSON)
-    public KarteBeanConverter getKarteByPid(@Context HttpServletRequest servletReq, @PathParam("param") String param) {
+    public StreamingOutput getKarteByPid(@Context HttpServletRequest servletReq, @PathParam("param") String param) {
 
         debug(param);
         String[] params = param.split(CAMMA);
@@ -48,10 +63,16 @@ public class KarteResource extends AbstractResource {
         String fid = getRemoteFacility(servletReq.getRemoteUser());
         KarteBean bean = karteServiceBean.getKarte(fid, pid, fromDate);
         
-        KarteBeanConverter conv = new KarteBeanConverter();
+        final KarteBeanConverter conv = new KarteBeanConverter();
         conv.setModel(bean);
         
-        return conv;
+        // 文書履歴等を変換しながら直接書き出す
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream os) throws IOException, WebApplicationException {
+                JsonMappers.writer(KarteBeanConverter.class).writeValue(os, conv);
+            }
+        };
     }
 
     @GET
@@ -99,36 +120,64 @@ public class KarteResource extends AbstractResource {
     @GET
     @Path("/documents/{param}")
     @Produces(MediaType.APPLICATION_JSON)
-    public DocumentListConverter getDocuments(@PathParam("param") String param) {
+    public StreamingOutput getDocuments(@PathParam("param") String param, @QueryParam("thumbnail") final boolean thumbnail) {
 
         debug(param);
         String[] params = param.split(CAMMA);
-        List<Long> list = new ArrayList<>(params.length);
+        final List<Long> list = new ArrayList<>(params.length);
         for (String s : params) {
             list.add(Long.parseLong(s));
         }
 
-        List<DocumentModel> result = karteServiceBean.getDocuments(list);
-        
+        // DOCUMENT_FETCH_SIZE 件ずつ取得し、KarteServiceBean が返す順に書き出す
+        // 全文書を一度にメモリに載せず、最初の文書から直ぐにクライアントへ送る
+        // 出力は DocumentListConverter と同じ {"list":[...]}（文書が無い場合は {"list":null}）
+        // thumbnail=true の場合シェーマは縮小画像（thumbnailByte）だけを送る 元画像は /image/jpeg/{id}
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream os) throws IOException, WebApplicationException {
+                
+                ObjectWriter writer = JsonMappers.writer(DocumentModelConverter.class);
+                JsonGenerator g = getSerializeMapper().getJsonFactory().createJsonGenerator(os, JsonEncoding.UTF8);
+                g.writeStartObject();
+                g.writeFieldName("list");
+                boolean started = false;
+                
+                for (int from = 0; from < list.size(); from += DOCUMENT_FETCH_SIZE) {
+                    
+                    List<Long> ids = list.subList(from, Math.min(from + DOCUMENT_FETCH_SIZE, list.size()));
+                    List<DocumentModel> result = karteServiceBean.getDocuments(new ArrayList<>(ids), thumbnail);
+                    
+                    for (DocumentModel model : result) {
 //s.oh^ 2014/08/20 添付ファイルの別読
-        for(DocumentModel model : result) {
-            List<AttachmentModel> attachments = model.getAttachment();
-            if(attachments != null) {
-                for(AttachmentModel attachment : attachments) {
-                    attachment.setBytes(null);
+                        List<AttachmentModel> attachments = model.getAttachment();
+                        if(attachments != null) {
+                            for(AttachmentModel attachment : attachments) {
+                                attachment.setBytes(null);
+                            }
+                        }
+//s.oh$
+                        if (!started) {
+                            g.writeStartArray();
+                            started = true;
+                        }
+                        DocumentModelConverter conv = new DocumentModelConverter();
+                        conv.setModel(model);
+                        writer.writeValue(g, conv);
+                    }
+                    g.flush();
                 }
+                
+                if (started) {
+                    g.writeEndArray();
+                } else {
+                    g.writeNull();
+                }
+                g.writeEndObject();
+                g.flush();
             }
-        }
-//s.oh$
-
-        DocumentList wrapper = new DocumentList();
-        wrapper.setList(result);
-        
-        DocumentListConverter conv = new DocumentListConverter();
-        conv.setModel(wrapper);
-
-        return conv;
-    } 
+        };
+    }
     
     @POST
     @Path("/document")
@@ -139,9 +188,7 @@ public class KarteResource extends AbstractResource {
         System.err.println(json);
         
         // Karte 保存 ddl.putKarte()
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         DocumentModel document = mapper.readValue(json, DocumentModel.class);
 
         // 関係を構築する
@@ -183,9 +230,7 @@ public class KarteResource extends AbstractResource {
         long pvtPK = Long.parseLong(params[0]);
         int state = Integer.parseInt(params[1]);
 
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         DocumentModel document = mapper.readValue(json, DocumentModel.class);
         
         // 関係を構築する
@@ -299,7 +344,7 @@ public class KarteResource extends AbstractResource {
     @GET
     @Path("/iamges/{param}")
     @Produces(MediaType.APPLICATION_XML)
-    public String getImages(@PathParam("param") String param) {
+    public String getImages(@PathParam("param") String param, @QueryParam("thumbnail") boolean thumbnail) {
 
         debug(param);
         String[] params = param.split(CAMMA);
@@ -315,7 +360,7 @@ public class KarteResource extends AbstractResource {
             toList.add(parseDate(params[index++]));
         }
 
-        List<List> result = karteServiceBean.getImages(karteId, fromList, toList);
+        List<List> result = karteServiceBean.getImages(karteId, fromList, toList, thumbnail);
 
         PlistConverter con = new PlistConverter();
         String xml = con.convert(result);
@@ -340,6 +385,125 @@ public class KarteResource extends AbstractResource {
         return conv;
     }
 
+    /**
+     * シェーマの元画像（JPEG）を返す。Range: bytes=... の要求には部分を返す。
+     * @param servletReq
+     * @param id SchemaModel の pk
+     * @param range Range ヘッダー
+     * @return 200 全体 / 206 部分 / 404 無い / 416 範囲外
+     */
+    @GET
+    @Path("/image/jpeg/{id}")
+    @Produces("image/jpeg")
+    public Response getSchemaJpeg(@Context HttpServletRequest servletReq, @PathParam("id") String id, @HeaderParam("Range") String range) throws IOException {
+
+        debug(id);
+        String fid = getRemoteFacility(servletReq.getRemoteUser());
+        long pk = Long.parseLong(id);
+
+        // BlobStore にあるものはファイルから直接書き出す（FileChannel.transferTo）
+        final String hash = karteServiceBean.getSchemaJpegHash(fid, pk);
+        final BlobStore store = BlobStores.getInstance().getStore();
+        long length = -1L;
+        if (hash != null && store != null) {
+            length = store.size(hash);
+        }
+        byte[] jpeg = null;
+        if (length < 0L) {
+            jpeg = karteServiceBean.getSchemaJpegByte(fid, pk);
+            if (jpeg == null || jpeg.length == 0) {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            length = jpeg.length;
+        }
+
+        // 保存した画像は変更されない（修正は新しい SchemaModel になる）
+        EntityTag tag = new EntityTag(hash != null ? hash : id + "-" + length);
+        CacheControl cc = new CacheControl();
+        cc.setPrivate(true);
+        cc.setMaxAge(86400);
+
+        long[] r = parseRange(range, length);
+        if (r != null && r.length == 0) {
+            return Response.status(416)
+                    .header("Accept-Ranges", "bytes")
+                    .header("Content-Range", "bytes */" + length)
+                    .build();
+        }
+        final long start = r != null ? r[0] : 0L;
+        final long end = r != null ? r[1] : length - 1;
+
+        Object entity;
+        if (jpeg != null) {
+            entity = r != null ? Arrays.copyOfRange(jpeg, (int)start, (int)end + 1) : jpeg;
+        } else {
+            entity = new StreamingOutput() {
+                @Override
+                public void write(OutputStream os) throws IOException, WebApplicationException {
+                    store.transferTo(hash, start, end - start + 1, Channels.newChannel(os));
+                }
+            };
+        }
+
+        Response.ResponseBuilder builder = r != null ? Response.status(206) : Response.ok();
+        if (r != null) {
+            builder.header("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        }
+        return builder.entity(entity)
+                .type("image/jpeg")
+                .header("Content-Length", end - start + 1)
+                .header("Accept-Ranges", "bytes")
+                .tag(tag)
+                .cacheControl(cc)
+                .build();
+    }
+
+    // Range: bytes=s-e | bytes=s- | bytes=-n
+    // null: 範囲指定なし（複数範囲と解釈できないものを含む 全体を返す） 長さ 0: 範囲外 それ以外: {start, end}
+    private long[] parseRange(String range, long length) {
+        if (range == null || !range.startsWith("bytes=")) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (spec.indexOf(',') >= 0 || dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // 末尾の n バイト
+                long n = Long.parseLong(last);
+                if (n <= 0L) {
+                    return new long[0];
+                }
+                start = Math.max(0L, length - n);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                // 範囲外の開始位置は 416（末尾で切り詰める前に調べる）
+                if (start >= length) {
+                    return new long[0];
+                }
+                long requested = last.isEmpty() ? length - 1 : Long.parseLong(last);
+                if (requested < start) {
+                    // 書式の誤りは無視して全体を返す
+                    return null;
+                }
+                end = Math.min(requested, length - 1);
+            }
+            if (start >= length) {
+                return new long[0];
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     //-------------------------------------------------------
 
     @GET
@@ -372,9 +536,7 @@ public class KarteResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String postPutSendDiagnosis(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         DiagnosisSendWrapper wrapper = mapper.readValue(json, DiagnosisSendWrapper.class);
 
         List<Long> result = karteServiceBean.postPutSendDiagnosis(wrapper);
@@ -399,9 +561,7 @@ public class KarteResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String postDiagnosis(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         RegisteredDiagnosisList list = mapper.readValue(json, RegisteredDiagnosisList.class);
 
         List<Long> result = karteServiceBean.addDiagnosis(list.getList());
@@ -423,9 +583,7 @@ public class KarteResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String putDiagnosis(String json) throws IOException {
 
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         RegisteredDiagnosisList list = mapper.readValue(json, RegisteredDiagnosisList.class);
 
         int result = karteServiceBean.updateDiagnosis(list.getList());
@@ -484,9 +642,7 @@ public class KarteResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String postObservations(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         ObservationList list = mapper.readValue(json, ObservationList.class);
 
         List<Long> result = karteServiceBean.addObservations(list.getList());
@@ -508,9 +664,7 @@ public class KarteResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String putObservations(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         ObservationList list = mapper.readValue(json, ObservationList.class);
         
         int result = karteServiceBean.updateObservations(list.getList());
@@ -545,9 +699,7 @@ public class KarteResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String putPatientMemo(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         PatientMemoModel memo = mapper.readValue(json, PatientMemoModel.class);
 
         int result = karteServiceBean.updatePatientMemo(memo);
@@ -583,8 +735,7 @@ public class KarteResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String putPatientFreeDocument(@Context HttpServletRequest servletReq, String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         PatientFreeDocumentModel model = mapper.readValue(json, PatientFreeDocumentModel.class);
         
         String fpid = getFidPid(servletReq.getRemoteUser(), model.getFacilityPatId());
@@ -644,9 +795,7 @@ public class KarteResource extends AbstractResource {
     public String sendDocument(String json) throws Exception {
         
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            // 2013/06/24
-            mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+            ObjectMapper mapper = getDeserializeMapper();
             DocumentModel model = mapper.readValue(json, DocumentModel.class);
             debug(model.getDocInfoModel().getPVTHealthInsuranceModel().toString());
 
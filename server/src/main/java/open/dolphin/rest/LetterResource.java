@@ -13,7 +13,6 @@ import open.dolphin.converter.LetterModuleListConverter;
 import open.dolphin.infomodel.LetterModule;
 import open.dolphin.infomodel.LetterModuleList;
 import open.dolphin.session.LetterServiceBean;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -37,9 +36,7 @@ public class LetterResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String putLetter(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         LetterModule model = mapper.readValue(json, LetterModule.class);
         
         Logger.getLogger("open.dolphin").log(Level.INFO, "LinkID : {0}, PatID : {1}", new Object[]{String.valueOf(model.getLinkId()), model.getPatientId()});
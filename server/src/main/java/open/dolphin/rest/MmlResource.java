@@ -1,12 +1,22 @@
 package open.dolphin.rest;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
 import javax.inject.Inject;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import open.dolphin.common.JsonMappers;
 import open.dolphin.converter.*;
 import open.dolphin.infomodel.*;
 import open.dolphin.touch.converter.IPatientModel;
@@ -79,22 +89,13 @@ public class MmlResource extends AbstractResource {
     @GET
     @Path("/patient/list/{param}")
     @Produces(MediaType.TEXT_PLAIN)
-    public String getPatientList(@PathParam("param") String param) {
+    public StreamingOutput getPatientList(@PathParam("param") String param) {
         
         String fid = param;
         
         List<Long> list = mmlServiceBean.getFacilityPatientList(fid);
         
-        StringBuilder sb = new StringBuilder();
-        for (Long l : list) {
-            sb.append(String.valueOf(l));
-            sb.append(",");
-        }
-        
-        int len = sb.length();
-        sb.setLength(len-1);
-        String ret = sb.toString();
-        return ret;
+        return streamIds(list);
     }
     
     @GET
@@ -115,22 +116,13 @@ public class MmlResource extends AbstractResource {
     @GET
     @Path("/disease/list/{param}")
     @Produces(MediaType.TEXT_PLAIN)
-    public String getDiseaseList(@PathParam("param") String param) {
+    public StreamingOutput getDiseaseList(@PathParam("param") String param) {
         
         String fid = param;
         
         List<Long> list = mmlServiceBean.getFacilityDiseaseList(fid);
         
-        StringBuilder sb = new StringBuilder();
-        for (Long l : list) {
-            sb.append(String.valueOf(l));
-            sb.append(",");
-        }
-        
-        int len = sb.length();
-        sb.setLength(len-1);
-        String ret = sb.toString();
-        return ret;
+        return streamIds(list);
     }
     
     @GET
@@ -151,22 +143,13 @@ public class MmlResource extends AbstractResource {
     @GET
     @Path("/memo/list/{param}")
     @Produces(MediaType.TEXT_PLAIN)
-    public String getMemoList(@PathParam("param") String param) {
+    public StreamingOutput getMemoList(@PathParam("param") String param) {
         
         String fid = param;
         
         List<Long> list = mmlServiceBean.getFacilityMemoList(fid);
         
-        StringBuilder sb = new StringBuilder();
-        for (Long l : list) {
-            sb.append(String.valueOf(l));
-            sb.append(",");
-        }
-        
-        int len = sb.length();
-        sb.setLength(len-1);
-        String ret = sb.toString();
-        return ret;
+        return streamIds(list);
     }
     
     @GET
@@ -187,22 +170,13 @@ public class MmlResource extends AbstractResource {
     @GET
     @Path("/observation/list/{param}")
     @Produces(MediaType.TEXT_PLAIN)
-    public String getObservationList(@PathParam("param") String param) {
+    public StreamingOutput getObservationList(@PathParam("param") String param) {
         
         String fid = param;
         
         List<Long> list = mmlServiceBean.getFacilityObservationList(fid);
         
-        StringBuilder sb = new StringBuilder();
-        for (Long l : list) {
-            sb.append(String.valueOf(l));
-            sb.append(",");
-        }
-        
-        int len = sb.length();
-        sb.setLength(len-1);
-        String ret = sb.toString();
-        return ret;
+        return streamIds(list);
     }
     
     @GET
@@ -223,13 +197,13 @@ public class MmlResource extends AbstractResource {
     @GET
     @Path("/karte/list/{param}")
     @Produces(MediaType.TEXT_PLAIN)
-    public String getKarteList(@PathParam("param") String param) {
+    public StreamingOutput getKarteList(@PathParam("param") String param) {
         
         String fid = param;
         
         final List<Long> list = mmlServiceBean.getFacilityKarteList(fid);
         if (list.isEmpty()) {
-            return "0";
+            return streamIds(Collections.singletonList(0L));
         }
         final int cnt = list.size();
         
@@ -254,28 +228,26 @@ public class MmlResource extends AbstractResource {
 //        
 //        return String.valueOf(cnt);
         
-        StringBuilder sb = new StringBuilder();
-        for (Long l : list) {
-            sb.append(String.valueOf(l));
-            sb.append(",");
-        }
-        
-        int len = sb.length();
-        sb.setLength(len-1);
-        String ret = sb.toString();
-        return ret;
+        return streamIds(list);
     }
     
     @GET
     @Path("/karte/json/{param}")
     @Produces(MediaType.APPLICATION_JSON)
-    public DocumentModelConverter dumpKarteAsJSON(@PathParam("param") String param) {
+    public StreamingOutput dumpKarteAsJSON(@PathParam("param") String param) {
         
         long pk = Long.parseLong(param);
         DocumentModel pm = mmlServiceBean.getKarteByPK(pk);
-        DocumentModelConverter conv = new DocumentModelConverter();
+        final DocumentModelConverter conv = new DocumentModelConverter();
         conv.setModel(pm);
-        return conv;
+        
+        // モジュールを変換しながら書き出す
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream os) throws IOException, WebApplicationException {
+                JsonMappers.writer(DocumentModelConverter.class).writeValue(os, conv);
+            }
+        };
     }
     
     //--------------------------------------------------------------------------
@@ -284,22 +256,13 @@ public class MmlResource extends AbstractResource {
     @GET
     @Path("/letter/list/{param}")
     @Produces(MediaType.TEXT_PLAIN)
-    public String getLetterList(@PathParam("param") String param) {
+    public StreamingOutput getLetterList(@PathParam("param") String param) {
         
         String fid = param;
         
         List<Long> list = mmlServiceBean.getFacilityLetterList(fid);
         
-        StringBuilder sb = new StringBuilder();
-        for (Long l : list) {
-            sb.append(String.valueOf(l));
-            sb.append(",");
-        }
-        
-        int len = sb.length();
-        sb.setLength(len-1);
-        String ret = sb.toString();
-        return ret;
+        return streamIds(list);
     }
     
     @GET
@@ -320,22 +283,13 @@ public class MmlResource extends AbstractResource {
     @GET
     @Path("/labtest/list/{param}")
     @Produces(MediaType.TEXT_PLAIN)
-    public String getLabtestList(@PathParam("param") String param) {
+    public StreamingOutput getLabtestList(@PathParam("param") String param) {
         
         String fid = param;
         
         List<Long> list = mmlServiceBean.getFacilityLabtestList(fid);
         
-        StringBuilder sb = new StringBuilder();
-        for (Long l : list) {
-            sb.append(String.valueOf(l));
-            sb.append(",");
-        }
-        
-        int len = sb.length();
-        sb.setLength(len-1);
-        String ret = sb.toString();
-        return ret;
+        return streamIds(list);
     }
     
     @GET
@@ -349,4 +303,23 @@ public class MmlResource extends AbstractResource {
         conv.setModel(pm);
         return conv;
     }
+    
+    // pk のリストを "1,2,3" の形で書き出す
+    private StreamingOutput streamIds(final List<Long> list) {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream os) throws IOException, WebApplicationException {
+                Writer w = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+                boolean first = true;
+                for (Long l : list) {
+                    if (!first) {
+                        w.write(",");
+                    }
+                    w.write(String.valueOf(l));
+                    first = false;
+                }
+                w.flush();
+            }
+        };
+    }
 }
@@ -11,11 +11,12 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import open.dolphin.converter.NLaboItemListConverter;
 import open.dolphin.converter.NLaboModuleListConverter;
+import open.dolphin.converter.NLaboTableConverter;
+import open.dolphin.converter.PatientListConverter;
 import open.dolphin.converter.PatientLiteListConverter;
 import open.dolphin.converter.PatientModelConverter;
 import open.dolphin.infomodel.*;
 import open.dolphin.session.NLabServiceBean;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -71,6 +72,35 @@ public class NLabResource extends AbstractResource {
     }
 //s.oh$
 
+    /**
+     * ラボデータを検査項目 x 検体採取日の表で返す。
+     * param: pid,firstResult,maxResult,newestLeft[,sampleDate,id]
+     * sampleDate,id は前の頁の NLaboTable.nextSampleDate/nextId で、指定した場合は firstResult を使わない。
+     */
+    @GET
+    @Path("/table/{param}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public NLaboTableConverter getLaboTable(@Context HttpServletRequest servletReq, @PathParam("param") String param) {
+
+        debug(param);
+        String[] params = param.split(CAMMA);
+        String pid = params[0];
+        int firstResult = Integer.parseInt(params[1]);
+        int maxResult = Integer.parseInt(params[2]);
+        boolean newestLeft = Boolean.parseBoolean(params[3]);
+        String sampleDate = params.length > 5 ? params[4] : null;
+        long id = params.length > 5 ? Long.parseLong(params[5]) : 0L;
+
+        String fidPid = getFidPid(servletReq.getRemoteUser(), pid);
+
+        NLaboTable result = nLabServiceBean.getLaboTable(fidPid, sampleDate, id, firstResult, maxResult, newestLeft);
+
+        NLaboTableConverter conv = new NLaboTableConverter();
+        conv.setModel(result);
+
+        return conv;
+    }
+
     @GET
     @Path("/item/{param}")
     @Produces(MediaType.APPLICATION_JSON)
@@ -125,9 +155,7 @@ public class NLabResource extends AbstractResource {
 
         String fid = getRemoteFacility(servletReq.getRemoteUser());
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         NLaboModule module = mapper.readValue(json, NLaboModule.class);
        
         List<NLaboItem> items = module.getItems();
@@ -146,6 +174,42 @@ public class NLabResource extends AbstractResource {
         return conv;
     }
 
+    /**
+     * 検査結果をまとめて登録する。
+     * @param json NLaboModuleList
+     * @return 登録したモジュールの患者 患者が登録されていないモジュールの患者は含まれない
+     */
+    @POST
+    @Path("/module/list")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public PatientListConverter postNLaboTests(@Context HttpServletRequest servletReq, String json) throws IOException {
+
+        String fid = getRemoteFacility(servletReq.getRemoteUser());
+        
+        ObjectMapper mapper = getDeserializeMapper();
+        NLaboModuleList modules = mapper.readValue(json, NLaboModuleList.class);
+        
+        List<NLaboModule> list = modules.getList() != null ? modules.getList() : new ArrayList<NLaboModule>();
+        for (NLaboModule module : list) {
+            List<NLaboItem> items = module.getItems();
+            // 関係を構築する
+            if (items!=null && items.size()>0) {
+                for (NLaboItem item : items) {
+                    item.setLaboModule(module);
+                }
+            }
+        }
+        
+        PatientList result = new PatientList();
+        result.setList(nLabServiceBean.create(fid, list));
+        
+        PatientListConverter conv = new PatientListConverter();
+        conv.setModel(result);
+
+        return conv;
+    }
+
     // ラボデータの削除 2013/06/24    
     @DELETE
     @Path("/module/{param}")
@@ -13,7 +13,6 @@ import open.dolphin.infomodel.HealthInsuranceModel;
 import open.dolphin.infomodel.PatientVisitList;
 import open.dolphin.infomodel.PatientVisitModel;
 import open.dolphin.session.PVTServiceBean;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -73,9 +72,7 @@ public class PVTResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String postPvt(@Context HttpServletRequest servletReq, String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         PatientVisitModel model = mapper.readValue(json, PatientVisitModel.class);
 
         // 関係構築
@@ -9,12 +9,13 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import open.dolphin.converter.PatientVisitListConverter;
+import open.dolphin.converter.PatientVisitListDeltaConverter;
 import open.dolphin.infomodel.HealthInsuranceModel;
 import open.dolphin.infomodel.PatientVisitList;
+import open.dolphin.infomodel.PatientVisitListDelta;
 import open.dolphin.infomodel.PatientVisitModel;
 import open.dolphin.session.ChartEventServiceBean;
 import open.dolphin.session.PVTServiceBean;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -64,9 +65,7 @@ public class PVTResource2 extends AbstractResource {
 //        debug(cntStr);
 //
 //        return cntStr;   
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         PatientVisitModel model = mapper.readValue(json, PatientVisitModel.class);
 
         // 関係構築
@@ -123,6 +122,33 @@ public class PVTResource2 extends AbstractResource {
         return conv;
     }
 
+    /**
+     * 受付リストの差分を返す。
+     * @param versionStr クライアントが最後に受け取った版 初回は 0
+     * @return 差分 差分を作れない場合は全件
+     */
+    @GET
+    @Path("/pvtList/delta/{version}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public PatientVisitListDeltaConverter getPvtListDelta(@PathParam("version") String versionStr) {
+        
+        String fid = getRemoteFacility(servletReq.getRemoteUser());
+        long version;
+        try {
+            version = Long.parseLong(versionStr);
+        } catch (NumberFormatException e) {
+            // 版が読めない場合は全件を返す
+            version = -1L;
+        }
+        
+        PatientVisitListDelta delta = eventServiceBean.getPvtListDelta(fid, version);
+        
+        PatientVisitListDeltaConverter conv = new PatientVisitListDeltaConverter();
+        conv.setModel(delta);
+        
+        return conv;
+    }
+
     @Override
     protected void debug(String msg) {
         if (debug || DEBUG) {
@@ -13,7 +13,6 @@ import open.dolphin.infomodel.PatientList;
 import open.dolphin.infomodel.PatientModel;
 import static open.dolphin.rest.AbstractResource.getRemoteFacility;
 import open.dolphin.session.PatientServiceBean;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -34,12 +33,13 @@ public class PatientResource extends AbstractResource {
     @GET
     @Path("/name/{param}")
     @Produces(MediaType.APPLICATION_JSON)
-    public PatientListConverter getPatientsByName(@Context HttpServletRequest servletReq, @PathParam("param") String param) {
+    public PatientListConverter getPatientsByName(@Context HttpServletRequest servletReq, @PathParam("param") String param,
+            @QueryParam("first") @DefaultValue("0") int first, @QueryParam("max") @DefaultValue("0") int max) {
 
         String fid = getRemoteFacility(servletReq.getRemoteUser());
         String name = param;
 
-        List<PatientModel> result = patientServiceBean.getPatientsByName(fid, name);
+        List<PatientModel> result = patientServiceBean.getPatientsByName(fid, name, first, max);
         PatientList list = new PatientList();
         list.setList(result);
         
@@ -52,12 +52,13 @@ public class PatientResource extends AbstractResource {
     @GET
     @Path("/kana/{param}")
     @Produces(MediaType.APPLICATION_JSON)
-    public PatientListConverter getPatientsByKana(@Context HttpServletRequest servletReq, @PathParam("param") String param) {
+    public PatientListConverter getPatientsByKana(@Context HttpServletRequest servletReq, @PathParam("param") String param,
+            @QueryParam("first") @DefaultValue("0") int first, @QueryParam("max") @DefaultValue("0") int max) {
 
         String fid = getRemoteFacility(servletReq.getRemoteUser());
         String kana = param;
 
-        List<PatientModel> result = patientServiceBean.getPatientsByKana(fid, kana);
+        List<PatientModel> result = patientServiceBean.getPatientsByKana(fid, kana, first, max);
         PatientList list = new PatientList();
         list.setList(result);
         
@@ -70,14 +71,15 @@ public class PatientResource extends AbstractResource {
     @GET
     @Path("/digit/{param}")
     @Produces(MediaType.APPLICATION_JSON)
-    public PatientListConverter getPatientsByDigit(@Context HttpServletRequest servletReq, @PathParam("param") String param) {
+    public PatientListConverter getPatientsByDigit(@Context HttpServletRequest servletReq, @PathParam("param") String param,
+            @QueryParam("first") @DefaultValue("0") int first, @QueryParam("max") @DefaultValue("0") int max) {
 
         String fid = getRemoteFacility(servletReq.getRemoteUser());
         String digit = param;
         debug(fid);
         debug(digit);
 
-        List<PatientModel> result = patientServiceBean.getPatientsByDigit(fid, digit);
+        List<PatientModel> result = patientServiceBean.getPatientsByDigit(fid, digit, first, max);
         PatientList list = new PatientList();
         list.setList(result);
         
@@ -146,9 +148,7 @@ public class PatientResource extends AbstractResource {
 
         String fid = getRemoteFacility(servletReq.getRemoteUser());
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         PatientModel patient = mapper.readValue(json, PatientModel.class);
         
         patient.setFacilityId(fid);
@@ -167,9 +167,7 @@ public class PatientResource extends AbstractResource {
 
         String fid = getRemoteFacility(servletReq.getRemoteUser());
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         PatientModel patient = mapper.readValue(json, PatientModel.class);
 
         patient.setFacilityId(fid);
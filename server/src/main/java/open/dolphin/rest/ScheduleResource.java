@@ -20,7 +20,6 @@ import open.dolphin.infomodel.PatientVisitList;
 import open.dolphin.infomodel.PatientVisitModel;
 import open.dolphin.infomodel.PostSchedule;
 import open.dolphin.session.ScheduleServiceBean;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -70,9 +69,7 @@ public class ScheduleResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String postScheduleAndSendClaim(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         PostSchedule schedule = mapper.readValue(json, PostSchedule.class);
         long pvtPK = schedule.getPvtPK();
         long phPK = schedule.getPhPK();
@@ -15,7 +15,6 @@ import open.dolphin.converter.StampModelConverter;
 import open.dolphin.converter.StampTreeHolderConverter;
 import open.dolphin.infomodel.*;
 import open.dolphin.session.StampServiceBean;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -56,9 +55,7 @@ public class StampResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String putTree(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         StampTreeModel model = mapper.readValue(json, StampTreeModel.class);
 
         long pk = stampServiceBean.putTree(model);
@@ -74,9 +71,7 @@ public class StampResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String syncTree(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         StampTreeModel model = mapper.readValue(json, StampTreeModel.class);
 
         String pkAndVersion = stampServiceBean.syncTree(model);
@@ -91,9 +86,7 @@ public class StampResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public void forceSyncTree(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         StampTreeModel model = mapper.readValue(json, StampTreeModel.class);
 
         stampServiceBean.forceSyncTree(model);
@@ -122,9 +115,7 @@ public class StampResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String putPublishedTree(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         StampTreeHolder h = mapper.readValue(json, StampTreeHolder.class);
 
         String version = stampServiceBean.updatePublishedTree(h);
@@ -138,9 +129,7 @@ public class StampResource extends AbstractResource {
     @Consumes(MediaType.APPLICATION_JSON)
     public String cancelPublishedTree(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         StampTreeModel model = mapper.readValue(json, StampTreeModel.class);
         
         String version = stampServiceBean.cancelPublishedTree(model);
@@ -171,9 +160,7 @@ public class StampResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String subscribeTrees(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         SubscribedTreeList list = mapper.readValue(json, SubscribedTreeList.class);
         
         List<Long> result = stampServiceBean.subscribeTrees(list.getList());
@@ -243,9 +230,7 @@ public class StampResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String putStamp(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         StampModel model = mapper.readValue(json, StampModel.class);
 
         String ret = stampServiceBean.putStamp(model);
@@ -260,9 +245,7 @@ public class StampResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String putStamps(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         StampList list = mapper.readValue(json, StampList.class);
 
         List<String> ret = stampServiceBean.putStamp(list.getList());
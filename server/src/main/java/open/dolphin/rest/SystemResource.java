@@ -21,7 +21,6 @@ import open.dolphin.infomodel.RoleModel;
 import open.dolphin.infomodel.UserModel;
 import open.dolphin.session.AccountSummary;
 import open.dolphin.session.SystemServiceBean;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -50,9 +49,7 @@ public class SystemResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String addFacilityAdmin(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         UserModel user = mapper.readValue(json, UserModel.class);
 
         // 関係を構築する
@@ -115,8 +112,7 @@ public class SystemResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String checkLicense(String uid) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
 
         Properties config = new Properties();
         StringBuilder sb = new StringBuilder();
@@ -15,7 +15,6 @@ import open.dolphin.infomodel.RoleModel;
 import open.dolphin.infomodel.UserList;
 import open.dolphin.infomodel.UserModel;
 import open.dolphin.session.UserServiceBean;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -96,9 +95,7 @@ public class UserResource extends AbstractResource {
         String fid = getRemoteFacility(servletReq.getRemoteUser());
         debug(fid);
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         UserModel model = mapper.readValue(json, UserModel.class);
 
         model.getFacilityModel().setFacilityId(fid);
@@ -121,9 +118,7 @@ public class UserResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String putUser(@Context HttpServletRequest servletReq, String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         UserModel model = mapper.readValue(json, UserModel.class);
         
 //s.oh^ 脆弱性対応
@@ -180,9 +175,7 @@ public class UserResource extends AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String putFacility(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        // 2013/06/24
-        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        ObjectMapper mapper = getDeserializeMapper();
         UserModel model = mapper.readValue(json, UserModel.class);
 
         int result = userServiceBean.updateFacility(model);
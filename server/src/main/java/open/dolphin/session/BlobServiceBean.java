@@ -0,0 +1,282 @@
+package open.dolphin.session;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Resource;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TemporalType;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import open.dolphin.infomodel.AttachmentModel;
+import open.dolphin.infomodel.BlobModel;
+import open.dolphin.infomodel.DocumentModel;
+import open.dolphin.infomodel.SchemaModel;
+import open.dolphin.mbean.BlobStores;
+
+/**
+ * シェーマの画像と添付ファイルを BlobStore に置き、参照数（BlobModel）を管理する。
+ *
+ * 保存時（store）に内容のハッシュを取り、jpegByte / bytes を長さ 0 にしてハッシュを記録する。
+ * 参照数は削除されていない SchemaModel / AttachmentModel の数で、文書の削除（release）で減らす。
+ * 0 になったものは sweep で BlobStore から消す。
+ * 参照数の行を作る（無ければ insert ... on conflict do nothing）・ロックしてからファイルを置くので、
+ * 同じ画像の保存が重なっても行は一つになり、sweep と保存が重なっても参照されているものは消えない。
+ * 行を新しく作った保存がロールバックされた場合、置いたファイルは sweep で消す。
+ */
+@Named
+@Stateless
+public class BlobServiceBean {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final String QUERY_SCHEMA_AFTER_ID
+            = "select i.id, i.jpegByte from SchemaModel i where i.id>:id and i.jpegHash is null and i.status<>'D' order by i.id";
+    private static final String QUERY_ATTACHMENT_AFTER_ID
+            = "select a.id, a.bytes from AttachmentModel a where a.id>:id and a.bytesHash is null and a.status<>'D' order by a.id";
+    private static final String UPDATE_SCHEMA_HASH
+            = "update SchemaModel i set i.jpegByte=:bytes, i.jpegHash=:hash where i.id=:id";
+    private static final String UPDATE_ATTACHMENT_HASH
+            = "update AttachmentModel a set a.bytes=:bytes, a.bytesHash=:hash where a.id=:id";
+    private static final String QUERY_RELEASED
+            = "select b.hash from BlobModel b where b.refCount=0 and b.released<:before";
+    private static final String DELETE_RELEASED
+            = "delete from BlobModel b where b.hash=:hash and b.refCount=0 and b.released<:before";
+    private static final String INSERT_BLOB
+            = "insert into d_blob (hash, contentSize, refCount, created) values (:hash, :size, 0, :created) on conflict do nothing";
+    private static final String DELETE_BLOB
+            = "delete from BlobModel b where b.hash=:hash";
+
+    private static final String ID = "id";
+    private static final String HASH = "hash";
+    private static final String BYTES = "bytes";
+    private static final String BEFORE = "before";
+    private static final String SIZE = "size";
+    private static final String CREATED = "created";
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Resource
+    private TransactionSynchronizationRegistry txRegistry;
+
+    /**
+     * 保存する文書のシェーマと添付ファイルを BlobStore に置く。em.persist の前に呼ぶ。
+     * BlobStore を使わない設定の場合は何もしない。
+     * @param document 保存する文書
+     */
+    public void store(DocumentModel document) {
+
+        if (!BlobStores.getInstance().isEnabled()) {
+            return;
+        }
+
+        List<SchemaModel> images = document.getSchema();
+        if (images != null) {
+            for (SchemaModel schema : images) {
+                // ハッシュはここで計算したものだけを使う（クライアントの値は信用しない）
+                schema.setJpegHash(null);
+                byte[] bytes = schema.getJpegByte();
+                if (bytes != null && bytes.length > 0) {
+                    schema.setJpegHash(acquire(bytes));
+                    schema.setJpegByte(EMPTY);
+                }
+            }
+        }
+
+        List<AttachmentModel> attachments = document.getAttachment();
+        if (attachments != null) {
+            for (AttachmentModel attachment : attachments) {
+                attachment.setBytesHash(null);
+                byte[] bytes = attachment.getBytes();
+                if (bytes != null && bytes.length > 0) {
+                    attachment.setBytesHash(acquire(bytes));
+                    attachment.setBytes(EMPTY);
+                }
+            }
+        }
+    }
+
+    /**
+     * 参照を一つ減らす。文書の削除時に呼ぶ。
+     * @param hash ハッシュ null の場合は何もしない
+     */
+    public void release(String hash) {
+        if (hash == null) {
+            return;
+        }
+        BlobModel blob = em.find(BlobModel.class, hash, LockModeType.PESSIMISTIC_WRITE);
+        if (blob == null || blob.getRefCount() <= 0L) {
+            return;
+        }
+        blob.setRefCount(blob.getRefCount() - 1L);
+        if (blob.getRefCount() == 0L) {
+            blob.setReleased(new Date());
+        }
+    }
+
+    // 参照を一つ増やしてから内容を置く
+    private String acquire(byte[] bytes) {
+        final String hash = BlobStores.hash(bytes);
+
+        // 同じ画像の保存が重なっても、後の方は先の方のコミットを待って何もしない
+        boolean inserted = insertRow(hash, bytes.length);
+        BlobModel blob = em.find(BlobModel.class, hash, LockModeType.PESSIMISTIC_WRITE);
+        blob.setRefCount(blob.getRefCount() + 1L);
+        blob.setReleased(null);
+
+        if (inserted) {
+            // ロールバックされたら、置いたファイルを参照する行は残らないので sweep で消す
+            txRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != Status.STATUS_COMMITTED) {
+                        BlobStores.getInstance().addOrphan(hash);
+                    }
+                }
+            });
+        }
+
+        try {
+            BlobStores.getInstance().put(hash, bytes);
+        } catch (IOException e) {
+            // 保存（トランザクション）を失敗させる
+            throw new IllegalStateException("can't store blob " + hash, e);
+        }
+        return hash;
+    }
+
+    // 参照数 0 の行を作る 既にあれば何もしない
+    private boolean insertRow(String hash, long size) {
+        return em.createNativeQuery(INSERT_BLOB)
+                .setParameter(HASH, hash)
+                .setParameter(SIZE, size)
+                .setParameter(CREATED, new Date(), TemporalType.TIMESTAMP)
+                .executeUpdate() > 0;
+    }
+
+    /**
+     * lastId より後のシェーマを batchSize 件 BlobStore へ移す。
+     * @param lastId 前回処理した最後の PK
+     * @param batchSize 一回に処理する件数
+     * @return 今回処理した最後の PK 対象が無い場合は -1
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public long migrateSchemas(long lastId, int batchSize) {
+        return migrate(QUERY_SCHEMA_AFTER_ID, UPDATE_SCHEMA_HASH, "Schema", lastId, batchSize);
+    }
+
+    /**
+     * lastId より後の添付ファイルを batchSize 件 BlobStore へ移す。
+     * @param lastId 前回処理した最後の PK
+     * @param batchSize 一回に処理する件数
+     * @return 今回処理した最後の PK 対象が無い場合は -1
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public long migrateAttachments(long lastId, int batchSize) {
+        return migrate(QUERY_ATTACHMENT_AFTER_ID, UPDATE_ATTACHMENT_HASH, "Attachment", lastId, batchSize);
+    }
+
+    private long migrate(String query, String update, String name, long lastId, int batchSize) {
+
+        if (!BlobStores.getInstance().isEnabled()) {
+            return -1L;
+        }
+
+        List<Object[]> rows = (List<Object[]>)em.createQuery(query)
+                .setParameter(ID, lastId)
+                .setMaxResults(batchSize)
+                .getResultList();
+
+        if (rows.isEmpty()) {
+            return -1L;
+        }
+
+        long id = lastId;
+        int moved = 0;
+        for (Object[] row : rows) {
+            id = (Long)row[0];
+            byte[] bytes = (byte[])row[1];
+            if (bytes == null || bytes.length == 0) {
+                continue;
+            }
+            String hash = acquire(bytes);
+            em.createQuery(update)
+                    .setParameter(BYTES, EMPTY)
+                    .setParameter(HASH, hash)
+                    .setParameter(ID, id)
+                    .executeUpdate();
+            moved++;
+        }
+
+        Logger.getLogger("open.dolphin").log(Level.INFO, "{0} blob migration: {1}/{2} moved, last id={3}",
+                new Object[]{name, moved, rows.size(), id});
+        return id;
+    }
+
+    /**
+     * before より前に参照が無くなったものと、ロールバックされた保存が置いたものを BlobStore から消す。
+     * @param before この日時より前に参照数が 0 になったもの
+     * @return 消した数
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int sweep(Date before) {
+
+        if (!BlobStores.getInstance().isEnabled()) {
+            return 0;
+        }
+
+        List<String> hashes = (List<String>)em.createQuery(QUERY_RELEASED)
+                .setParameter(BEFORE, before)
+                .getResultList();
+
+        int cnt = 0;
+        for (String hash : hashes) {
+            // 行を消せた（その間に参照されなかった）ものだけファイルを消す
+            int deleted = em.createQuery(DELETE_RELEASED)
+                    .setParameter(HASH, hash)
+                    .setParameter(BEFORE, before)
+                    .executeUpdate();
+            if (deleted == 0) {
+                continue;
+            }
+            if (delete(hash)) {
+                cnt++;
+            }
+        }
+
+        // 行の無いファイル 行を作れた（保存中・保存済のものが無い）場合だけ消す
+        for (String hash : BlobStores.getInstance().takeOrphans()) {
+            if (!insertRow(hash, 0L)) {
+                continue;
+            }
+            if (delete(hash)) {
+                cnt++;
+            }
+            em.createQuery(DELETE_BLOB).setParameter(HASH, hash).executeUpdate();
+        }
+        return cnt;
+    }
+
+    private boolean delete(String hash) {
+        try {
+            BlobStores.getInstance().delete(hash);
+            return true;
+        } catch (IOException e) {
+            Logger.getLogger("open.dolphin").log(Level.WARNING, "can''t delete blob {0}: {1}", new Object[]{hash, e.getMessage()});
+            return false;
+        }
+    }
+}
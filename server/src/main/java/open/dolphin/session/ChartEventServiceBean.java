@@ -9,15 +9,20 @@ import java.io.UnsupportedEncodingException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.logging.Level;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.Stateless;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.servlet.AsyncContext;
 import open.dolphin.infomodel.*;
+import open.dolphin.mbean.PvtListVersion;
 import open.dolphin.mbean.ServletContextHolder;
 import open.dolphin.rest.ChartEventResource;
+import open.dolphin.rest.ChartEventSession;
 
 /**
  * ChartEventServiceBean
@@ -34,10 +39,13 @@ public class ChartEventServiceBean {
     @PersistenceContext
     private EntityManager em;
     
+    @Resource(lookup="java:jboss/ee/concurrency/executor/default")
+    private ManagedExecutorService executor;
+    
     private boolean DEBUG = false;
     
 
-    public void notifyEvent(ChartEventModel evt) {
+    public void notifyEvent(final ChartEventModel evt) {
         
         String fid = evt.getFacilityId();
         if (fid == null) {
@@ -45,33 +53,78 @@ public class ChartEventServiceBean {
             return;
         }
 
-        List<AsyncContext> acList = contextHolder.getAsyncContextList();
-        synchronized (acList) {
-            for (Iterator<AsyncContext> itr = acList.iterator(); itr.hasNext();) {
-                
-                AsyncContext ac = itr.next();
-                String acFid = (String) ac.getRequest().getAttribute(ChartEventResource.FID);
-                String acUUID = (String) ac.getRequest().getAttribute(ChartEventResource.CLIENT_UUID);
-                String issuerUUID = evt.getIssuerUUID();
-                
-                // 同一施設かつChartEventModelの発行者でないクライアントに通知する
-                if (fid.equals(acFid) && !acUUID.equals(issuerUUID)) {
-                    itr.remove();
-                    try {
-                        ac.getRequest().setAttribute(ChartEventResource.KEY_NAME, evt);
-                        ac.dispatch(ChartEventResource.DISPATCH_URL);
+        // 受付リストの版を進める（差分取得用）
+        updatePvtListVersion(fid, evt);
+
+        // 施設毎の通知番号を振り履歴に残す（ストリーム再接続時の再送用）
+        contextHolder.getChartEventHistory(fid).append(evt);
+
+        // 同一施設の購読者のみを対象にする
+        final Queue<AsyncContext> acQueue = contextHolder.getAsyncContexts(fid);
+        final Queue<ChartEventSession> streams = contextHolder.getChartEventSessions(fid);
+        if (acQueue.isEmpty() && streams.isEmpty()) {
+            return;
+        }
+        
+        // リクエストスレッドをブロックしないよう通知は別スレッドで行う
+        Runnable r = new Runnable() {
+            @Override
+            public void run() {
+                dispatchEvent(acQueue, evt);
+                for (ChartEventSession stream : streams) {
+                    stream.deliver(evt);
+                }
+            }
+        };
+        try {
+            executor.execute(r);
+        } catch (RejectedExecutionException ex) {
+            warn("Dispatch executor rejected, notify on caller thread.");
+            r.run();
+        }
+    }
+    
+    /**
+     * ChartEvent ストリームの全購読者に HEARTBEAT を送る。
+     */
+    public void heartbeat() {
+        for (ChartEventSession stream : contextHolder.getAllChartEventSessions()) {
+            stream.heartbeat();
+        }
+    }
+    
+    private void dispatchEvent(Queue<AsyncContext> acQueue, ChartEventModel evt) {
+        
+        String issuerUUID = evt.getIssuerUUID();
+        
+        for (AsyncContext ac : acQueue) {
+            
+            String acFid = (String) ac.getRequest().getAttribute(ChartEventResource.FID);
+            String acUUID = (String) ac.getRequest().getAttribute(ChartEventResource.CLIENT_UUID);
+
+            // ChartEventModelの発行者でないクライアントに通知する
+            if (acUUID.equals(issuerUUID)) {
+                continue;
+            }
+            
+            // キューから外せた場合のみ通知する（同時に走る通知との二重dispatchを防ぐ）
+            if (!acQueue.remove(ac)) {
+                continue;
+            }
+            
+            try {
+                ac.getRequest().setAttribute(ChartEventResource.KEY_NAME, evt);
+                ac.dispatch(ChartEventResource.DISPATCH_URL);
 //minagawa^                        
-                        if (true) {
-                            StringBuilder sb = new StringBuilder();
-                            sb.append(acFid).append(":").append(acUUID);
-                            sb.append(" did notified by ").append(issuerUUID);
-                            debug(sb.toString());
-                        }
-//minagawa$                        
-                    } catch (Exception ex) {
-                        warn("Exception in ac.dispatch.");
-                    }
+                if (DEBUG) {
+                    StringBuilder sb = new StringBuilder();
+                    sb.append(acFid).append(":").append(acUUID);
+                    sb.append(" did notified by ").append(issuerUUID);
+                    debug(sb.toString());
                 }
+//minagawa$                        
+            } catch (Exception ex) {
+                warn("Exception in ac.dispatch.");
             }
         }
     }
@@ -84,6 +137,87 @@ public class ChartEventServiceBean {
         return contextHolder.getPvtList(fid);
     }
     
+    /**
+     * 受付リストの version 以降の差分を返す。
+     * 差分を作れない場合（初回・サーバー再起動・日付の切り替え等）は全件を返す。
+     * @param fid 施設ID
+     * @param version クライアントが最後に受け取った版
+     * @return 差分
+     */
+    public PatientVisitListDelta getPvtListDelta(String fid, long version) {
+        
+        PvtListVersion pvtVersion = contextHolder.getPvtListVersion(fid);
+        List<PatientVisitModel> pvtList = getPvtList(fid);
+        
+        PatientVisitListDelta delta = new PatientVisitListDelta();
+        
+        // 版を先に読む リストにはその版までの変更が反映されている
+        Set<Long> changed = new HashSet<>();
+        List<Long> removed = new ArrayList<>();
+        long current = pvtVersion.collect(version, changed, removed);
+        
+        if (current < 0L) {
+            delta.setVersion(pvtVersion.getVersion());
+            delta.setFull(true);
+            delta.setList(new ArrayList<>(pvtList));
+            return delta;
+        }
+        
+        List<PatientVisitModel> list = new ArrayList<>(changed.size());
+        if (!changed.isEmpty()) {
+            for (PatientVisitModel pvt : pvtList) {
+                if (changed.remove(pvt.getId())) {
+                    list.add(pvt);
+                }
+            }
+            // 変更後にリストから外れたもの
+            removed.addAll(changed);
+        }
+        delta.setVersion(current);
+        delta.setList(list);
+        delta.setRemoved(removed);
+        return delta;
+    }
+    
+    // 通知されたイベントで書き換えられた受付の版を進める
+    private void updatePvtListVersion(String fid, ChartEventModel evt) {
+        
+        PvtListVersion pvtVersion = contextHolder.getPvtListVersion(fid);
+        
+        switch (evt.getEventType()) {
+            case ChartEventModel.PVT_ADD:
+            case ChartEventModel.PVT_MERGE:
+            case ChartEventModel.PVT_MEMO:
+                pvtVersion.changed(evt.getPvtPk());
+                break;
+            case ChartEventModel.PVT_DELETE:
+                pvtVersion.removed(evt.getPvtPk());
+                break;
+            case ChartEventModel.PVT_RENEW:
+                pvtVersion.reset();
+                break;
+            case ChartEventModel.PVT_STATE:
+                // 同じ患者の受付は BIT_OPEN も変わる
+                for (PatientVisitModel pvt : getPvtList(fid)) {
+                    if (pvt.getId() == evt.getPvtPk() || pvt.getPatientModel().getId() == evt.getPtPk()) {
+                        pvtVersion.changed(pvt.getId());
+                    }
+                }
+                break;
+            case ChartEventModel.PM_MERGE:
+                PatientModel pm = evt.getPatientModel();
+                if (pm == null) {
+                    break;
+                }
+                for (PatientVisitModel pvt : getPvtList(fid)) {
+                    if (pvt.getPatientModel().getId() == pm.getId()) {
+                        pvtVersion.changed(pvt.getId());
+                    }
+                }
+                break;
+        }
+    }
+    
     /**
      * ChartEventModelを処理する
      */
@@ -7,11 +7,13 @@ import java.io.InputStreamReader;
 import java.util.*;
 import java.util.logging.Logger;
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import open.dolphin.infomodel.*;
+import open.dolphin.mbean.ModuleBeanCache;
 import open.dolphin.msg.ClaimSender;
 import open.dolphin.msg.DiagnosisSender;
 
@@ -29,18 +31,23 @@ public class KarteServiceBean {
     private static final String FROM_DATE = "fromDate";
     private static final String TO_DATE = "toDate";
     private static final String ID = "id";
+    private static final String IDS = "ids";
     private static final String ENTITY = "entity";
     private static final String FID = "fid";
     private static final String PID = "pid";
 
     private static final String QUERY_KARTE = "from KarteBean k where k.patient.id=:patientPk";
-    private static final String QUERY_ALLERGY = "from ObservationModel o where o.karte.id=:karteId and o.observation='Allergy'";
-    private static final String QUERY_BODY_HEIGHT = "from ObservationModel o where o.karte.id=:karteId and o.observation='PhysicalExam' and o.phenomenon='bodyHeight'";
-    private static final String QUERY_BODY_WEIGHT = "from ObservationModel o where o.karte.id=:karteId and o.observation='PhysicalExam' and o.phenomenon='bodyWeight'";
     // Cancel status=64 を where へ追加
-    private static final String QUERY_PATIENT_VISIT = "from PatientVisitModel p where p.patient.id=:patientPk and p.pvtDate >= :fromDate and p.status!=64";
+    private static final String QUERY_PATIENT_VISIT_DATE = "select p.pvtDate from PatientVisitModel p where p.patient.id=:patientPk and p.pvtDate >= :fromDate and p.status!=64";
     private static final String QUERY_DOC_INFO = "from DocumentModel d where d.karte.id=:karteId and d.started >= :fromDate and (d.status='F' or d.status='T')";
     private static final String QUERY_PATIENT_MEMO = "from PatientMemoModel p where p.karte.id=:karteId";
+    
+    // カルテオープン用 アレルギー・身長・体重を一回で取得する
+    private static final String OBSERVATION_ALLERGY = "Allergy";
+    private static final String PHENOMENON_BODY_HEIGHT = "bodyHeight";
+    private static final String PHENOMENON_BODY_WEIGHT = "bodyWeight";
+    private static final String QUERY_KARTE_OBSERVATIONS = "from ObservationModel o where o.karte.id=:karteId and (o.observation='Allergy' or (o.observation='PhysicalExam' and (o.phenomenon='bodyHeight' or o.phenomenon='bodyWeight')))";
+    private static final String QUERY_KARTE_BY_FID_PID = "select k from KarteBean k join fetch k.patient p where p.facilityId=:fid and p.patientId=:pid";
 
     private static final String QUERY_DOCUMENT_INCLUDE_MODIFIED = "from DocumentModel d where d.karte.id=:karteId and d.started >= :fromDate and d.status !='D'";
     private static final String QUERY_DOCUMENT = "from DocumentModel d where d.karte.id=:karteId and d.started >= :fromDate and (d.status='F' or d.status='T')";
@@ -54,6 +61,15 @@ public class KarteServiceBean {
     private static final String QUERY_SCHEMA_BY_DOC_ID = "from SchemaModel i where i.document.id=:id order by i.id";
     private static final String QUERY_ATTACHMENT_BY_DOC_ID = "from AttachmentModel a where a.document.id=:id order by a.id";
 //s.oh$
+    // 複数文書の一括取得
+    private static final String QUERY_DOCUMENT_BY_IDS = "from DocumentModel d where d.id in (:ids)";
+    private static final String QUERY_MODULE_BY_DOC_IDS = "from ModuleModel m where m.document.id in (:ids) order by m.id";
+    private static final String QUERY_SCHEMA_BY_DOC_IDS = "from SchemaModel i where i.document.id in (:ids) order by i.id";
+    private static final String QUERY_ATTACHMENT_BY_DOC_IDS = "from AttachmentModel a where a.document.id in (:ids) order by a.id";
+    // シェーマの縮小画像と元画像
+    private static final String UPDATE_SCHEMA_THUMBNAIL = "update SchemaModel i set i.thumbnailByte=:thumbnail where i.id=:id";
+    private static final String QUERY_SCHEMA_JPEG_BY_ID = "select i.jpegByte, i.jpegHash from SchemaModel i where i.id=:id and i.karte.patient.facilityId=:fid";
+    private static final String QUERY_SCHEMA_HASH_BY_ID = "select i.jpegHash from SchemaModel i where i.id=:id and i.karte.patient.facilityId=:fid";
 //s.oh^ 2014/08/20 添付ファイルの別読
     private static final String QUERY_ATTACHMENT_BY_ID = "from AttachmentModel a where a.id=:id";
 //s.oh$
@@ -79,7 +95,6 @@ public class KarteServiceBean {
 
     private static final String QUERY_APPO_BY_KARTE_ID_PERIOD = "from AppointmentModel a where a.karte.id = :karteId and a.date between :fromDate and :toDate";
 
-    private static final String QUERY_PATIENT_BY_FID_PID = "from PatientModel p where p.facilityId=:fid and p.patientId=:pid";
     
 //masuda^
     private static final String QUERY_LASTDOC_DATE 
@@ -94,6 +109,9 @@ public class KarteServiceBean {
     @PersistenceContext
     private EntityManager em;
     
+    @Inject
+    private BlobServiceBean blobServiceBean;
+    
 //s.oh^ 2014/02/21 Claim送信方法の変更
     //@Resource(mappedName = "java:/JmsXA")
     //private ConnectionFactory connectionFactory;
@@ -105,137 +123,15 @@ public class KarteServiceBean {
     public KarteBean getKarte(String fid, String pid, Date fromDate) {
         
         try {
-            
             // 患者レコードは FacilityId と patientId で複合キーになっている
-            PatientModel patient
-                = (PatientModel)em.createQuery(QUERY_PATIENT_BY_FID_PID)
-                .setParameter(FID, fid)
-                .setParameter(PID, pid)
-                .getSingleResult();
-
-            long patientPK = patient.getId();
-            
-            // 最初に患者のカルテを取得する
-            List<KarteBean> kartes = em.createQuery(QUERY_KARTE)
-                                  .setParameter(PATIENT_PK, patientPK)
+            // 患者とカルテを一度に取得する
+            List<KarteBean> kartes = em.createQuery(QUERY_KARTE_BY_FID_PID)
+                                  .setParameter(FID, fid)
+                                  .setParameter(PID, pid)
                                   .getResultList();
             KarteBean karte = kartes.get(0);
-
-            // カルテの PK を得る
-            long karteId = karte.getId();
-
-            // アレルギーデータを取得する
-            List<ObservationModel> list1 =
-                    (List<ObservationModel>)em.createQuery(QUERY_ALLERGY)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!list1.isEmpty()) {
-                List<AllergyModel> allergies = new ArrayList<>(list1.size());
-                for (ObservationModel observation : list1) {
-                    AllergyModel allergy = new AllergyModel();
-                    allergy.setObservationId(observation.getId());
-                    allergy.setFactor(observation.getPhenomenon());
-                    allergy.setSeverity(observation.getCategoryValue());
-                    allergy.setIdentifiedDate(observation.confirmDateAsString());
-                    allergy.setMemo(observation.getMemo());
-                    allergies.add(allergy);
-                }
-                karte.setAllergies(allergies);
-            }
-
-            // 身長データを取得する
-            List<ObservationModel> list2 =
-                    (List<ObservationModel>)em.createQuery(QUERY_BODY_HEIGHT)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!list2.isEmpty()) {
-                List<PhysicalModel> physicals = new ArrayList<>(list2.size());
-                for (ObservationModel observation : list2) {
-                    PhysicalModel physical = new PhysicalModel();
-                    physical.setHeightId(observation.getId());
-                    physical.setHeight(observation.getValue());
-                    physical.setIdentifiedDate(observation.confirmDateAsString());
-                    physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
-                    physicals.add(physical);
-                }
-                karte.setHeights(physicals);
-            }
-
-            // 体重データを取得する
-            List<ObservationModel> list3 =
-                    (List<ObservationModel>)em.createQuery(QUERY_BODY_WEIGHT)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!list3.isEmpty()) {
-                List<PhysicalModel> physicals = new ArrayList<>(list3.size());
-                for (ObservationModel observation : list3) {
-                    PhysicalModel physical = new PhysicalModel();
-                    physical.setWeightId(observation.getId());
-                    physical.setWeight(observation.getValue());
-                    physical.setIdentifiedDate(observation.confirmDateAsString());
-                    physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
-                    physicals.add(physical);
-                }
-                karte.setWeights(physicals);
-            }
-
-            // 直近の来院日エントリーを取得しカルテに設定する
-            List<PatientVisitModel> latestVisits =
-                    (List<PatientVisitModel>)em.createQuery(QUERY_PATIENT_VISIT)
-                                               .setParameter(PATIENT_PK, patientPK)
-                                               .setParameter(FROM_DATE, ModelUtils.getDateAsString(fromDate))
-                                               .getResultList();
-
-            if (!latestVisits.isEmpty()) {
-                List<String> visits = new ArrayList<>(latestVisits.size());
-                for (PatientVisitModel bean : latestVisits) {
-                    // 2012-07-23
-                    // cancelしている場合は返さない
-                    // 来院日のみを使用する
-                    visits.add(bean.getPvtDate());
-                }
-                karte.setPatientVisits(visits);
-            }
-
-            // 文書履歴エントリーを取得しカルテに設定する
-            List<DocumentModel> documents =
-                    (List<DocumentModel>)em.createQuery(QUERY_DOC_INFO)
-                                           .setParameter(KARTE_ID, karteId)
-                                           .setParameter(FROM_DATE, fromDate)
-                                           .getResultList();
-
-            if (!documents.isEmpty()) {
-                List<DocInfoModel> c = new ArrayList<>(documents.size());
-                for (DocumentModel docBean : documents) {
-                    docBean.toDetuch();
-                    c.add(docBean.getDocInfoModel());
-                }
-                karte.setDocInfoList(c);
-            }
-
-            // 患者Memoを取得する
-            List<PatientMemoModel> memo =
-                    (List<PatientMemoModel>)em.createQuery(QUERY_PATIENT_MEMO)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!memo.isEmpty()) {
-                karte.setMemoList(memo);
-            }
             
-//masuda^
-            // 最終文書日
-            try {
-                Date lastDocDate = (Date)
-                        em.createQuery(QUERY_LASTDOC_DATE)
-                        .setParameter(KARTE_ID, karteId)
-                        .getSingleResult();
-                karte.setLastDocDate(lastDocDate);
-            } catch (NoResultException e) {
-            }
-//masuda$            
-
-            return karte;
-        
+            return fetchKarteEntries(karte, karte.getPatientModel().getId(), fromDate);
             
         } catch (Exception e) {
             
@@ -258,124 +154,140 @@ public class KarteServiceBean {
                                   .setParameter(PATIENT_PK, patientPK)
                                   .getResultList();
             KarteBean karte = kartes.get(0);
+            
+            return fetchKarteEntries(karte, patientPK, fromDate);
 
-            // カルテの PK を得る
-            long karteId = karte.getId();
-
-            // アレルギーデータを取得する
-            List<ObservationModel> list1 =
-                    (List<ObservationModel>)em.createQuery(QUERY_ALLERGY)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!list1.isEmpty()) {
-                List<AllergyModel> allergies = new ArrayList<>(list1.size());
-                for (ObservationModel observation : list1) {
-                    AllergyModel allergy = new AllergyModel();
-                    allergy.setObservationId(observation.getId());
-                    allergy.setFactor(observation.getPhenomenon());
-                    allergy.setSeverity(observation.getCategoryValue());
-                    allergy.setIdentifiedDate(observation.confirmDateAsString());
-                    allergy.setMemo(observation.getMemo());
-                    allergies.add(allergy);
-                }
-                karte.setAllergies(allergies);
-            }
+        } catch (NoResultException e) {
+            // 患者登録の際にカルテも生成してある
+        }
 
-            // 身長データを取得する
-            List<ObservationModel> list2 =
-                    (List<ObservationModel>)em.createQuery(QUERY_BODY_HEIGHT)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!list2.isEmpty()) {
-                List<PhysicalModel> physicals = new ArrayList<>(list2.size());
-                for (ObservationModel observation : list2) {
-                    PhysicalModel physical = new PhysicalModel();
-                    physical.setHeightId(observation.getId());
-                    physical.setHeight(observation.getValue());
-                    physical.setIdentifiedDate(observation.confirmDateAsString());
-                    physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
-                    physicals.add(physical);
-                }
-                karte.setHeights(physicals);
+        return null;
+    }
+    
+    /**
+     * カルテオープン時に必要なエントリー（アレルギー、身長、体重、来院日、文書履歴、メモ、最終文書日）を
+     * KarteBean に設定する。
+     * 観察データは一回の問い合わせで取得し種別毎に振り分ける。
+     * 最終文書日は文書履歴がある場合その中の最大確定日で代用し、問い合わせを省略する。
+     * @param karte 対象のカルテ
+     * @param patientPK 患者の PK
+     * @param fromDate 各種エントリの検索開始日
+     * @return エントリーを設定した KarteBean
+     */
+    private KarteBean fetchKarteEntries(KarteBean karte, long patientPK, Date fromDate) {
+        
+        // カルテの PK を得る
+        long karteId = karte.getId();
+
+        // アレルギー・身長・体重データを一度に取得する
+        List<ObservationModel> observations =
+                (List<ObservationModel>)em.createQuery(QUERY_KARTE_OBSERVATIONS)
+                                          .setParameter(KARTE_ID, karteId)
+                                          .getResultList();
+        
+        List<AllergyModel> allergies = new ArrayList<>();
+        List<PhysicalModel> heights = new ArrayList<>();
+        List<PhysicalModel> weights = new ArrayList<>();
+        
+        for (ObservationModel observation : observations) {
+            
+            if (OBSERVATION_ALLERGY.equals(observation.getObservation())) {
+                AllergyModel allergy = new AllergyModel();
+                allergy.setObservationId(observation.getId());
+                allergy.setFactor(observation.getPhenomenon());
+                allergy.setSeverity(observation.getCategoryValue());
+                allergy.setIdentifiedDate(observation.confirmDateAsString());
+                allergy.setMemo(observation.getMemo());
+                allergies.add(allergy);
+                
+            } else if (PHENOMENON_BODY_HEIGHT.equals(observation.getPhenomenon())) {
+                PhysicalModel physical = new PhysicalModel();
+                physical.setHeightId(observation.getId());
+                physical.setHeight(observation.getValue());
+                physical.setIdentifiedDate(observation.confirmDateAsString());
+                physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
+                heights.add(physical);
+                
+            } else if (PHENOMENON_BODY_WEIGHT.equals(observation.getPhenomenon())) {
+                PhysicalModel physical = new PhysicalModel();
+                physical.setWeightId(observation.getId());
+                physical.setWeight(observation.getValue());
+                physical.setIdentifiedDate(observation.confirmDateAsString());
+                physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
+                weights.add(physical);
             }
+        }
+        
+        if (!allergies.isEmpty()) {
+            karte.setAllergies(allergies);
+        }
+        if (!heights.isEmpty()) {
+            karte.setHeights(heights);
+        }
+        if (!weights.isEmpty()) {
+            karte.setWeights(weights);
+        }
 
-            // 体重データを取得する
-            List<ObservationModel> list3 =
-                    (List<ObservationModel>)em.createQuery(QUERY_BODY_WEIGHT)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!list3.isEmpty()) {
-                List<PhysicalModel> physicals = new ArrayList<>(list3.size());
-                for (ObservationModel observation : list3) {
-                    PhysicalModel physical = new PhysicalModel();
-                    physical.setWeightId(observation.getId());
-                    physical.setWeight(observation.getValue());
-                    physical.setIdentifiedDate(observation.confirmDateAsString());
-                    physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
-                    physicals.add(physical);
-                }
-                karte.setWeights(physicals);
-            }
+        // 直近の来院日エントリーを取得しカルテに設定する
+        List<String> visits =
+                (List<String>)em.createQuery(QUERY_PATIENT_VISIT_DATE)
+                                .setParameter(PATIENT_PK, patientPK)
+                                .setParameter(FROM_DATE, ModelUtils.getDateAsString(fromDate))
+                                .getResultList();
 
-            // 直近の来院日エントリーを取得しカルテに設定する
-            List<PatientVisitModel> latestVisits =
-                    (List<PatientVisitModel>)em.createQuery(QUERY_PATIENT_VISIT)
-                                               .setParameter(PATIENT_PK, patientPK)
-                                               .setParameter(FROM_DATE, ModelUtils.getDateAsString(fromDate))
-                                               .getResultList();
-
-            if (!latestVisits.isEmpty()) {
-                List<String> visits = new ArrayList<>(latestVisits.size());
-                for (PatientVisitModel bean : latestVisits) {
-                    // 来院日のみを使用する
-                    visits.add(bean.getPvtDate());
-                }
-                karte.setPatientVisits(visits);
-            }
+        if (!visits.isEmpty()) {
+            // 2012-07-23
+            // cancelしている場合は返さない
+            // 来院日のみを使用する
+            karte.setPatientVisits(visits);
+        }
 
-            // 文書履歴エントリーを取得しカルテに設定する
-            List<DocumentModel> documents =
-                    (List<DocumentModel>)em.createQuery(QUERY_DOC_INFO)
-                                           .setParameter(KARTE_ID, karteId)
-                                           .setParameter(FROM_DATE, fromDate)
-                                           .getResultList();
-
-            if (!documents.isEmpty()) {
-                List<DocInfoModel> c = new ArrayList<>(documents.size());
-                for (DocumentModel docBean : documents) {
-                    docBean.toDetuch();
-                    c.add(docBean.getDocInfoModel());
+        // 文書履歴エントリーを取得しカルテに設定する
+        List<DocumentModel> documents =
+                (List<DocumentModel>)em.createQuery(QUERY_DOC_INFO)
+                                       .setParameter(KARTE_ID, karteId)
+                                       .setParameter(FROM_DATE, fromDate)
+                                       .getResultList();
+
+        Date lastDocDate = null;
+        if (!documents.isEmpty()) {
+            List<DocInfoModel> c = new ArrayList<>(documents.size());
+            for (DocumentModel docBean : documents) {
+                docBean.toDetuch();
+                c.add(docBean.getDocInfoModel());
+                Date started = docBean.getStarted();
+                if (started != null && (lastDocDate == null || started.after(lastDocDate))) {
+                    lastDocDate = started;
                 }
-                karte.setDocInfoList(c);
             }
+            karte.setDocInfoList(c);
+        }
 
-            // 患者Memoを取得する
-            List<PatientMemoModel> memo =
-                    (List<PatientMemoModel>)em.createQuery(QUERY_PATIENT_MEMO)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!memo.isEmpty()) {
-                karte.setMemoList(memo);
-            }
+        // 患者Memoを取得する
+        List<PatientMemoModel> memo =
+                (List<PatientMemoModel>)em.createQuery(QUERY_PATIENT_MEMO)
+                                          .setParameter(KARTE_ID, karteId)
+                                          .getResultList();
+        if (!memo.isEmpty()) {
+            karte.setMemoList(memo);
+        }
             
 //masuda^
-            // 最終文書日
+        // 最終文書日
+        // fromDate 以降の文書が無い場合のみ問い合わせる
+        if (lastDocDate == null) {
             try {
-                Date lastDocDate = (Date)
+                lastDocDate = (Date)
                         em.createQuery(QUERY_LASTDOC_DATE)
                         .setParameter(KARTE_ID, karteId)
                         .getSingleResult();
-                karte.setLastDocDate(lastDocDate);
             } catch (NoResultException e) {
             }
-//masuda$
-            return karte;
-
-        } catch (NoResultException e) {
-            // 患者登録の際にカルテも生成してある
         }
-
-        return null;
+        karte.setLastDocDate(lastDocDate);
+//masuda$
+        
+        return karte;
     }
 
     /**
@@ -417,34 +329,66 @@ public class KarteServiceBean {
      * @return DocumentModelのコレクション
      */
     public List<DocumentModel> getDocuments(List<Long> ids) {
+        return getDocuments(ids, false);
+    }
 
-        List<DocumentModel> ret = new ArrayList<>(3);
+    /**
+     * 文書(DocumentModel Object)を取得する。
+     * @param ids DocumentModel の pkコレクション
+     * @param thumbnail true の場合シェーマは縮小画像だけにする（jpegByte は getSchemaJpegByte で取得する）
+     * @return DocumentModelのコレクション
+     */
+    public List<DocumentModel> getDocuments(List<Long> ids, boolean thumbnail) {
 
-        // ループする
-        for (Long id : ids) {
+        List<DocumentModel> ret = new ArrayList<>(ids.size());
+        
+        if (ids.isEmpty()) {
+            return ret;
+        }
 
-            // DocuentBean を取得する
-            DocumentModel document = (DocumentModel) em.find(DocumentModel.class, id);
+        // DocumentModel を一括して取得し pk で引けるようにする
+        List<DocumentModel> documents = em.createQuery(QUERY_DOCUMENT_BY_IDS)
+        .setParameter(IDS, ids)
+        .getResultList();
+        
+        Map<Long, DocumentModel> docMap = new HashMap<>(documents.size());
+        for (DocumentModel document : documents) {
+            document.setModules(new ArrayList<ModuleModel>());
+            document.setSchema(new ArrayList<SchemaModel>());
+            document.setAttachment(new ArrayList<AttachmentModel>());
+            docMap.put(document.getId(), document);
+        }
 
-            // ModuleBean を取得する
-            List modules = em.createQuery(QUERY_MODULE_BY_DOC_ID)
-            .setParameter(ID, id)
-            .getResultList();
-            document.setModules(modules);
+        // ModuleModel を一括して取得し文書毎に振り分ける（id 順）
+        List<ModuleModel> modules = em.createQuery(QUERY_MODULE_BY_DOC_IDS)
+        .setParameter(IDS, ids)
+        .getResultList();
+        for (ModuleModel module : modules) {
+            docMap.get(module.getDocumentModel().getId()).getModules().add(module);
+        }
 
-            // SchemaModel を取得する
-            List images = em.createQuery(QUERY_SCHEMA_BY_DOC_ID)
-            .setParameter(ID, id)
-            .getResultList();
-            document.setSchema(images);
+        // SchemaModel を一括して取得し文書毎に振り分ける（id 順）
+        List<SchemaModel> images = em.createQuery(QUERY_SCHEMA_BY_DOC_IDS)
+        .setParameter(IDS, ids)
+        .getResultList();
+        for (SchemaModel schema : images) {
+            docMap.get(schema.getDocumentModel().getId()).getSchema().add(schema);
+        }
             
-            // AttachmentModel を取得する
-            List attachments = em.createQuery(QUERY_ATTACHMENT_BY_DOC_ID)
-            .setParameter(ID, id)
-            .getResultList();
-            document.setAttachment(attachments);
+        // AttachmentModel を一括して取得し文書毎に振り分ける（id 順）
+        List<AttachmentModel> attachments = em.createQuery(QUERY_ATTACHMENT_BY_DOC_IDS)
+        .setParameter(IDS, ids)
+        .getResultList();
+        for (AttachmentModel attachment : attachments) {
+            docMap.get(attachment.getDocumentModel().getId()).getAttachment().add(attachment);
+        }
 
-            ret.add(document);
+        // 要求された順に並べる
+        for (Long id : ids) {
+            DocumentModel document = docMap.get(id);
+            if (document != null) {
+                ret.add(document);
+            }
         }
         
 //s.oh^ 不具合修正
@@ -454,10 +398,97 @@ public class KarteServiceBean {
             doc.toDetuch();
         }
 //s.oh$
+        
+        if (thumbnail) {
+            toThumbnail(documents, images);
+        }
 
         return ret;
     }
     
+    /**
+     * シェーマの元画像を返す。
+     * @param fid 施設ID
+     * @param id SchemaModel の pk
+     * @return JPEG 無い場合は null
+     */
+    public byte[] getSchemaJpegByte(String fid, long id) {
+        List<Object[]> list = em.createQuery(QUERY_SCHEMA_JPEG_BY_ID)
+        .setParameter(ID, id)
+        .setParameter(FID, fid)
+        .getResultList();
+        if (list.isEmpty()) {
+            return null;
+        }
+        // BlobStore に置いたものはそこから読む
+        return BlobLoader.resolve((byte[])list.get(0)[0], (String)list.get(0)[1]);
+    }
+    
+    /**
+     * BlobStore に置いたシェーマのハッシュを返す。
+     * @param fid 施設ID
+     * @param id SchemaModel の pk
+     * @return ハッシュ データベースにある場合は null
+     */
+    public String getSchemaJpegHash(String fid, long id) {
+        List<String> list = em.createQuery(QUERY_SCHEMA_HASH_BY_ID)
+        .setParameter(ID, id)
+        .setParameter(FID, fid)
+        .getResultList();
+        return !list.isEmpty() ? list.get(0) : null;
+    }
+    
+    // シェーマの jpegByte を外して縮小画像だけにする
+    // 縮小画像の無いもの（以前に保存されたもの）はここで作って保存する
+    private void toThumbnail(List<DocumentModel> documents, List<SchemaModel> images) {
+        
+        if (images.isEmpty()) {
+            return;
+        }
+        
+        // 一括更新で縮小画像だけを保存する（エンティティを変更すると jpegByte も書き直される）
+        Map<Long, byte[]> created = new HashMap<>();
+        for (SchemaModel schema : images) {
+            if (schema.getThumbnailByte() == null) {
+                byte[] thumb = SchemaThumbnail.create(schema.getJpegByte());
+                if (thumb != null) {
+                    em.createQuery(UPDATE_SCHEMA_THUMBNAIL)
+                    .setParameter("thumbnail", thumb)
+                    .setParameter(ID, schema.getId())
+                    .executeUpdate();
+                    created.put(schema.getId(), thumb);
+                }
+            }
+        }
+        
+        // 切り離してから変更する 文書も切り離す（flush 時に schema へ persist がカスケードしない様に）
+        for (DocumentModel document : documents) {
+            em.detach(document);
+        }
+        for (SchemaModel schema : images) {
+            em.detach(schema);
+            byte[] thumb = created.get(schema.getId());
+            if (thumb != null) {
+                schema.setThumbnailByte(thumb);
+            }
+            // 縮小画像を作れなかったものは元画像を送る
+            if (schema.getThumbnailByte() != null) {
+                schema.setJpegByte(null);
+            }
+        }
+    }
+    
+    // 保存する文書のシェーマに縮小画像を付ける（クライアントが送ったものは使わない）
+    private void createThumbnails(DocumentModel document) {
+        List<SchemaModel> images = document.getSchema();
+        if (images == null) {
+            return;
+        }
+        for (SchemaModel schema : images) {
+            schema.setThumbnailByte(SchemaThumbnail.create(schema.getJpegByte()));
+        }
+    }
+    
     /**
      * ドキュメント DocumentModel オブジェクトを保存する。
      * @param document 追加するDocumentModel オブジェクト
@@ -465,6 +496,12 @@ public class KarteServiceBean {
      */
     public long addDocument(DocumentModel document) {
 
+        // シェーマの縮小画像
+        createThumbnails(document);
+        
+        // シェーマと添付ファイルは BlobStore に置く（設定がある場合）
+        blobServiceBean.store(document);
+        
         // 永続化する
         em.persist(document);
 
@@ -491,6 +528,7 @@ public class KarteServiceBean {
                 ModuleModel model = (ModuleModel)iter.next();
                 model.setEnded(ended);
                 model.setStatus(IInfoModel.STATUS_MODIFIED);
+                ModuleBeanCache.getInstance().invalidate(model.getId());
             }
 
             // Schema
@@ -526,6 +564,12 @@ public class KarteServiceBean {
 
     public long addDocumentAndUpdatePVTState(DocumentModel document, long pvtPK, int state) {
 
+        // シェーマの縮小画像
+        createThumbnails(document);
+        
+        // シェーマと添付ファイルは BlobStore に置く（設定がある場合）
+        blobServiceBean.store(document);
+        
         // 永続化する
         em.persist(document);
 
@@ -552,6 +596,7 @@ public class KarteServiceBean {
                 ModuleModel model = (ModuleModel)iter.next();
                 model.setEnded(ended);
                 model.setStatus(IInfoModel.STATUS_MODIFIED);
+                ModuleBeanCache.getInstance().invalidate(model.getId());
             }
 
             // Schema
@@ -667,7 +712,7 @@ public class KarteServiceBean {
             int port = Integer.parseInt(config.getProperty("claim.send.port"));
             String enc = config.getProperty("claim.send.encoding");
             String facilityId = config.getProperty("dolphin.facilityId");
-            Logger.getLogger("open.dolphin").info("Document message has received. Sending ORCA will start(Not Que).");
+            Logger.getLogger("open.dolphin").info("Document message has received. Queueing for ORCA.");
             ClaimSender sender = new ClaimSender(host, port, enc);
             try {
                 sender.send(document);
@@ -731,6 +776,7 @@ public class KarteServiceBean {
                     ModuleModel model = (ModuleModel) iter.next();
                     model.setStatus(IInfoModel.STATUS_DELETE);
                     model.setEnded(ended);
+                    ModuleBeanCache.getInstance().invalidate(model.getId());
                 }
 
                 //------------------------------
@@ -740,6 +786,9 @@ public class KarteServiceBean {
                 .setParameter(ID, id).getResultList();
                 for (Iterator iter = deleteImages.iterator(); iter.hasNext(); ) {
                     SchemaModel model = (SchemaModel) iter.next();
+                    if (!IInfoModel.STATUS_DELETE.equals(model.getStatus())) {
+                        blobServiceBean.release(model.getJpegHash());
+                    }
                     model.setStatus(IInfoModel.STATUS_DELETE);
                     model.setEnded(ended);
                 }
@@ -751,6 +800,9 @@ public class KarteServiceBean {
                 .setParameter(ID, id).getResultList();
                 for (Iterator iter = deleteAttachments.iterator(); iter.hasNext(); ) {
                     AttachmentModel model = (AttachmentModel)iter.next();
+                    if (!IInfoModel.STATUS_DELETE.equals(model.getStatus())) {
+                        blobServiceBean.release(model.getBytesHash());
+                    }
                     model.setStatus(IInfoModel.STATUS_DELETE);
                     model.setEnded(ended);
                 }
@@ -817,6 +869,18 @@ public class KarteServiceBean {
      * @return SchemaModelエントリの配列
      */
     public List<List> getImages(long karteId, List fromDate, List toDate) {
+        return getImages(karteId, fromDate, toDate, false);
+    }
+
+    /**
+     * SchemaModelエントリを取得する。
+     * @param karteId カルテID
+     * @param fromDate
+     * @param toDate
+     * @param thumbnail true の場合縮小画像だけにする（jpegByte は getSchemaJpegByte で取得する）
+     * @return SchemaModelエントリの配列
+     */
+    public List<List> getImages(long karteId, List fromDate, List toDate, boolean thumbnail) {
 
         // 抽出期間は別けられている
         int len = fromDate.size();
@@ -833,6 +897,10 @@ public class KarteServiceBean {
                     .getResultList();
 
             ret.add(modules);
+            
+            if (thumbnail) {
+                toThumbnail(Collections.<DocumentModel>emptyList(), (List<SchemaModel>)modules);
+            }
         }
 
         return ret;
@@ -1,6 +1,5 @@
 package open.dolphin.session;
 
-import java.beans.XMLDecoder;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
@@ -12,13 +11,14 @@ import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import open.dolphin.common.JsonMappers;
 import open.dolphin.infomodel.*;
+import open.dolphin.mbean.ModuleBeanCache;
 import open.dolphin.touch.converter.IPatientModel;
 import open.dolphin.msg.MMLHelper;
 import open.dolphin.msg.PatientHelper;
 import open.dolphin.msg.VelocityHelper;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
 import org.apache.velocity.exception.MethodInvocationException;
 import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
@@ -124,32 +124,12 @@ public class MmlServiceBean {
             // Create MML instance
             VelocityContext context = VelocityHelper.getContext();
             context.put(PATIENT_HELPER_OBJECT, helper);
-            StringWriter sw = new StringWriter();
-            try (BufferedWriter bw = new BufferedWriter(sw)) {
-                Velocity.mergeTemplate(PATIENT_HELPER_TEMPLATE, PATIENT_HELPER_ENCODING, context, bw);
-                bw.flush();
-            }
-            String mml = sw.toString();
-            if (false) {
-                log(mml);
-            }
-
-            // Byte data
-            byte[] data = mml.getBytes("UTF-8");
-            ByteBuffer buf = ByteBuffer.allocate(data.length);
-            buf.clear();
-            buf.put(data);
-            buf.flip();
 
             // MML File
             File f = getPatientMmlFile(pm.getPatientId());
-            FileOutputStream fout = new FileOutputStream(f);
-
-            try ( // Channel
-                    FileChannel outChanel = fout.getChannel()) {
-                while(buf.hasRemaining()) {
-                    outChanel.write(buf);
-                }
+            // 文字列を経由せずファイルへ直接出力する
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), "UTF-8"))) {
+                VelocityHelper.merge(PATIENT_HELPER_TEMPLATE, PATIENT_HELPER_ENCODING, context, w);
             }
 
         } catch (IOException | ResourceNotFoundException | ParseErrorException | MethodInvocationException e) {
@@ -242,32 +222,12 @@ public class MmlServiceBean {
                 // Create MML instance
                 VelocityContext context = VelocityHelper.getContext();
                 context.put(PATIENT_HELPER_OBJECT, helper);
-                StringWriter sw = new StringWriter();
-                try (BufferedWriter bw = new BufferedWriter(sw)) {
-                    Velocity.mergeTemplate(PATIENT_HELPER_TEMPLATE, PATIENT_HELPER_ENCODING, context, bw);
-                    bw.flush();
-                }
-                String mml = sw.toString();
-                if (false) {
-                    log(mml);
-                }
-                
-                // Byte data
-                byte[] data = mml.getBytes("UTF-8");
-                ByteBuffer buf = ByteBuffer.allocate(data.length);
-                buf.clear();
-                buf.put(data);
-                buf.flip();
-                
+
                 // MML File
                 File f = getPatientMmlFile(pm.getPatientId());
-                FileOutputStream fout = new FileOutputStream(f);
-                
-                try ( // Channel
-                        FileChannel outChanel = fout.getChannel()) {
-                    while(buf.hasRemaining()) {
-                        outChanel.write(buf);
-                    }
+                // 文字列を経由せずファイルへ直接出力する
+                try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), "UTF-8"))) {
+                    VelocityHelper.merge(PATIENT_HELPER_TEMPLATE, PATIENT_HELPER_ENCODING, context, w);
                 }
                 
             } catch (IOException | ResourceNotFoundException | ParseErrorException | MethodInvocationException e) {
@@ -320,7 +280,7 @@ public class MmlServiceBean {
             // decode
             for (Iterator iter = modules.iterator();iter.hasNext();) {
                 ModuleModel mm = (ModuleModel)iter.next();
-                mm.setModel((IInfoModel)this.xmlDecode(mm.getBeanBytes()));
+                mm.setModel(ModuleBeanCache.getInstance().getModel(mm));
             }
 
             dm.setModules(modules);
@@ -357,31 +317,11 @@ public class MmlServiceBean {
             // Create MML instance
             VelocityContext context = VelocityHelper.getContext();
             context.put(MML_HELPER_OBJECT, helper);
-            StringWriter sw = new StringWriter();
-            try (BufferedWriter bw = new BufferedWriter(sw)) {
-                Velocity.mergeTemplate(MML_HELPER_TEMPLATE, MML_HELPER_ENCODING, context, bw);
-                bw.flush();
-            }
-            String mml = sw.toString();
-            if (false) {
-                log(mml);
-            }
-
-            // Byte data
-            byte[] data = mml.getBytes("UTF-8");
-            ByteBuffer buf = ByteBuffer.allocate(data.length);
-            buf.clear();
-            buf.put(data);
-            buf.flip();
 
             File f = getKarteMmlFile(dm.getKarteBean().getPatientModel().getPatientId(),dm.getDocInfoModel().getDocId());
-            FileOutputStream fout = new FileOutputStream(f);
-
-            try ( // Channel
-                    FileChannel outChanel = fout.getChannel()) {
-                while(buf.hasRemaining()) {
-                    outChanel.write(buf);
-                }
+            // 文字列を経由せずファイルへ直接出力する
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), "UTF-8"))) {
+                VelocityHelper.merge(MML_HELPER_TEMPLATE, MML_HELPER_ENCODING, context, w);
             }
 
             // Scheam file
@@ -460,7 +400,7 @@ public class MmlServiceBean {
                 // decode
                 for (Iterator iter = modules.iterator();iter.hasNext();) {
                     ModuleModel mm = (ModuleModel)iter.next();
-                    mm.setModel((IInfoModel)this.xmlDecode(mm.getBeanBytes()));
+                    mm.setModel(ModuleBeanCache.getInstance().getModel(mm));
                 }
                 
                 dm.setModules(modules);
@@ -497,31 +437,11 @@ public class MmlServiceBean {
                 // Create MML instance
                 VelocityContext context = VelocityHelper.getContext();
                 context.put(MML_HELPER_OBJECT, helper);
-                StringWriter sw = new StringWriter();
-                try (BufferedWriter bw = new BufferedWriter(sw)) {
-                    Velocity.mergeTemplate(MML_HELPER_TEMPLATE, MML_HELPER_ENCODING, context, bw);
-                    bw.flush();
-                }
-                String mml = sw.toString();
-                if (false) {
-                    log(mml);
-                }
-                
-                // Byte data
-                byte[] data = mml.getBytes("UTF-8");
-                ByteBuffer buf = ByteBuffer.allocate(data.length);
-                buf.clear();
-                buf.put(data);
-                buf.flip();
-                
+
                 File f = getKarteMmlFile(dm.getKarteBean().getPatientModel().getPatientId(),dm.getDocInfoModel().getDocId());
-                FileOutputStream fout = new FileOutputStream(f);
-                
-                try ( // Channel
-                        FileChannel outChanel = fout.getChannel()) {
-                    while(buf.hasRemaining()) {
-                        outChanel.write(buf);
-                    }
+                // 文字列を経由せずファイルへ直接出力する
+                try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), "UTF-8"))) {
+                    VelocityHelper.merge(MML_HELPER_TEMPLATE, MML_HELPER_ENCODING, context, w);
                 }
                 
                 // Scheam file
@@ -603,12 +523,8 @@ public class MmlServiceBean {
     }
     
     private Object xmlDecode(byte[] bytes)  {
-
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-
-        return d.readObject();
+        // 従来の XML 形式も読める
+        return BeanCodec.decode(bytes);
     }
     
     private void log(String msg) {
@@ -646,7 +562,7 @@ public class MmlServiceBean {
             conv.setModel(pm);
 
             // JSON
-            ObjectMapper mapper = new ObjectMapper();
+            ObjectMapper mapper = JsonMappers.getSerializeMapper();
             String json = mapper.writeValueAsString(conv);
             
             byte[] data = json.getBytes("UTF-8");
@@ -0,0 +1,112 @@
+package open.dolphin.session;
+
+import java.beans.ExceptionListener;
+import java.beans.XMLDecoder;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import open.dolphin.infomodel.BeanCodec;
+import open.dolphin.mbean.ModuleBeanCache;
+
+/**
+ * 従来の XMLEncoder 形式で保存されている ModuleModel.beanBytes を
+ * BeanCodec 形式へ少しずつ書き換える。
+ * 一回の呼び出しで batchSize 件を一つのトランザクションで処理する。
+ */
+@Named
+@Stateless
+public class ModuleCodecMigrator {
+
+    private static final String QUERY_MODULE_BYTES_AFTER_ID
+            = "select m.id, m.beanBytes from ModuleModel m where m.id>:id order by m.id";
+    private static final String UPDATE_MODULE_BYTES
+            = "update ModuleModel m set m.beanBytes=:bytes where m.id=:id";
+
+    private static final String ID = "id";
+    private static final String BYTES = "bytes";
+
+    @PersistenceContext
+    private EntityManager em;
+
+    /**
+     * lastId より後のモジュールを batchSize 件変換する。
+     * @param lastId 前回処理した最後のモジュール PK
+     * @param batchSize 一回に処理する件数
+     * @return 今回処理した最後のモジュール PK 対象が無い場合は -1
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public long migrate(long lastId, int batchSize) {
+
+        List<Object[]> rows = (List<Object[]>)em.createQuery(QUERY_MODULE_BYTES_AFTER_ID)
+                .setParameter(ID, lastId)
+                .setMaxResults(batchSize)
+                .getResultList();
+
+        if (rows.isEmpty()) {
+            return -1L;
+        }
+
+        long id = lastId;
+        int converted = 0;
+        for (Object[] row : rows) {
+            id = (Long)row[0];
+            byte[] bytes = (byte[])row[1];
+            if (bytes == null || BeanCodec.isEncoded(bytes)) {
+                continue;
+            }
+            try {
+                Object bean = strictXmlDecode(bytes);
+                if (bean == null) {
+                    Logger.getLogger("open.dolphin").log(Level.WARNING, "Module codec migration skipped (xml error): id={0}", id);
+                    continue;
+                }
+                byte[] encoded = BeanCodec.encode(bean);
+                // 変換できない型を含む場合 encode は XML を返すのでそのまま残す
+                if (encoded == null || !BeanCodec.isEncoded(encoded)) {
+                    continue;
+                }
+                // 読み戻した Bean が元と同じ XML になるものだけ書き換える
+                if (!Arrays.equals(BeanCodec.xmlEncode(bean), BeanCodec.xmlEncode(BeanCodec.decode(encoded)))) {
+                    Logger.getLogger("open.dolphin").log(Level.WARNING, "Module codec migration skipped (round trip): id={0}", id);
+                    continue;
+                }
+                em.createQuery(UPDATE_MODULE_BYTES)
+                        .setParameter(BYTES, encoded)
+                        .setParameter(ID, id)
+                        .executeUpdate();
+                ModuleBeanCache.getInstance().invalidate(id);
+                converted++;
+            } catch (Exception e) {
+                Logger.getLogger("open.dolphin").log(Level.WARNING, "Module codec migration skipped: id={0}", id);
+            }
+        }
+
+        Logger.getLogger("open.dolphin").log(Level.INFO, "Module codec migration: {0}/{1} converted, last id={2}",
+                new Object[]{converted, rows.size(), id});
+        return id;
+    }
+
+    // BeanCodec.xmlDecode と違い、XMLDecoder のエラーがあれば null を返す
+    private Object strictXmlDecode(byte[] bytes) {
+        final boolean[] failed = new boolean[1];
+        try (XMLDecoder d = new XMLDecoder(new BufferedInputStream(new ByteArrayInputStream(bytes)))) {
+            d.setExceptionListener(new ExceptionListener() {
+                @Override
+                public void exceptionThrown(Exception e) {
+                    failed[0] = true;
+                }
+            });
+            Object bean = d.readObject();
+            return failed[0] ? null : bean;
+        }
+    }
+}
@@ -2,12 +2,15 @@ package open.dolphin.session;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
-import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import open.dolphin.infomodel.*;
 
@@ -22,23 +25,39 @@ public class NLabServiceBean {
     private static final String QUERY_MODULE_BY_MODULE_KEY = "from NLaboModule m where m.moduleKey=:moduleKey";
     private static final String QUERY_MODULE_BY_PID_SAMPLEDATE_LABCODE = "from NLaboModule m where m.patientId=:fidPid and m.sampleDate=:sampleDate and m.laboCenterCode=:laboCode";
     private static final String QUERY_MODULE_BY_FIDPID = "from NLaboModule l where l.patientId=:fidPid order by l.sampleDate desc";
-    private static final String QUERY_ITEM_BY_MID = "from NLaboItem l where l.laboModule.id=:mid order by groupCode,parentCode,itemCode";
-    private static final String QUERY_ITEM_BY_MID_ORDERBY_SORTKEY = "from NLaboItem l where l.laboModule.id=:mid order by l.sortKey";
+    private static final String QUERY_MODULE_BY_FIDPID_ORDERBY_KEY = "from NLaboModule l where l.patientId=:fidPid order by l.sampleDate desc,l.id desc";
+    private static final String QUERY_MODULE_BY_FIDPID_BEFORE_KEY = "from NLaboModule l where l.patientId=:fidPid and (l.sampleDate<:sampleDate or (l.sampleDate=:sampleDate and l.id<:id)) order by l.sampleDate desc,l.id desc";
+    private static final String QUERY_ITEM_BY_MIDS = "from NLaboItem l where l.laboModule.id in (:mids) order by l.laboModule.id,groupCode,parentCode,itemCode";
+    private static final String QUERY_ITEM_BY_MIDS_ORDERBY_SORTKEY = "from NLaboItem l where l.laboModule.id in (:mids) order by l.laboModule.id,l.sortKey";
     private static final String QUERY_ITEM_BY_FIDPID_ITEMCODE = "from NLaboItem l where l.patientId=:fidPid and l.itemCode=:itemCode order by l.sampleDate desc";
     private static final String QUERY_INSURANCE_BY_PATIENT_PK = "from HealthInsuranceModel h where h.patient.id=:pk";
+    private static final String QUERY_INSURANCE_BY_PATIENT_PKS = "from HealthInsuranceModel h where h.patient.id in (:pks) order by h.id";
+    private static final String QUERY_PATIENT_BY_FID_PIDS = "from PatientModel p where p.facilityId=:fid and p.patientId in (:pids)";
+    private static final String QUERY_MODULE_BY_MODULE_KEYS = "from NLaboModule m where m.moduleKey in (:moduleKeys)";
+    private static final String QUERY_MODULE_BY_PIDS_SAMPLEDATES = "from NLaboModule m where m.patientId in (:fidPids) and m.sampleDate in (:sampleDates)";
 //s.oh^ 2013/09/18 ラボデータの高速化
     private static final String QUERY_MODULECOUNT_BY_FIDPID = "select count(*) from NLaboModule l where l.patientId=:fidPid";
 //s.oh$
 
     private static final String PK = "pk";
+    private static final String PKS = "pks";
+    private static final String FID = "fid";
+    private static final String PIDS = "pids";
+    private static final String FIDPIDS = "fidPids";
+    private static final String SAMPLEDATES = "sampleDates";
+    private static final String MODULEKEYS = "moduleKeys";
     private static final String FIDPID = "fidPid";
     private static final String SAMPLEDATE = "sampleDate";
     private static final String LABOCODE = "laboCode";
     private static final String MODULEKEY = "moduleKey";
-    private static final String MID = "mid";
+    private static final String MIDS = "mids";
+    private static final String ID = "id";
     private static final String ITEM_CODE = "itemCode";
     private static final String WOLF = "WOLF";
 
+    // IN 句に並べる最大数
+    private static final int IN_CHUNK_SIZE = 500;
+
     @PersistenceContext
     private EntityManager em;
 
@@ -47,18 +66,16 @@ public class NLabServiceBean {
 
         List<PatientLiteModel> ret = new ArrayList<PatientLiteModel>(idList.size());
 
+        // 患者を IN_CHUNK_SIZE 人ずつまとめて取得する
+        Map<String, PatientModel> patients = findPatients(fid, idList);
+
         for (String pid : idList) {
 
-            try {
-                PatientModel patient = (PatientModel) em
-                    .createQuery("from PatientModel p where p.facilityId=:fid and p.patientId=:pid")
-                    .setParameter("fid", fid)
-                    .setParameter("pid", pid)
-                    .getSingleResult();
-                
+            PatientModel patient = patients.get(pid);
+            if (patient != null) {
                 ret.add(patient.patientAsLiteModel());
-                
-            } catch (NoResultException e) {
+
+            } else {
                 PatientLiteModel dummy = new PatientLiteModel();
                 dummy.setFullName("未登録");
                 dummy.setKanaName("未登録");
@@ -94,36 +111,16 @@ public class NLabServiceBean {
         }
         //--------------------------------------------------------
 
-        String fidPid = fid+":"+pid;
-        module.setPatientId(fidPid);
-
-        // item の patientId を変更する
-        Collection<NLaboItem> items = module.getItems();
-        for (NLaboItem item : items) {
-            item.setPatientId(fidPid);
-        }
+        prepare(fid, module);
 
         //--------------------------------------------------------
         // patientId & 検体採取日 & ラボコード で key
         // これが一致しているモジュールは再報告として削除してから登録する。
         //--------------------------------------------------------
+        String fidPid = module.getPatientId();
         String sampleDate = module.getSampleDate();
         String laboCode = module.getLaboCenterCode();
         String moduleKey = module.getModuleKey();
-        if (moduleKey!=null) {
-            StringBuilder sb = new StringBuilder();
-            sb.append(pid).append(".").append(sampleDate).append(".").append(laboCode);
-            String test = sb.toString();
-            if (test.equals(moduleKey)) {
-                sb = new StringBuilder();
-                sb.append(fid);
-                sb.append(":");
-                sb.append(moduleKey);
-                moduleKey = sb.toString();
-                module.setModuleKey(moduleKey);
-                //System.err.println("corrected moduke key=" + module.getModuleKey());
-            } 
-        }
 
         NLaboModule exist;
 
@@ -158,6 +155,202 @@ public class NLabServiceBean {
         return patient;
     }
 
+    /**
+     * 検査結果をまとめて登録する。
+     * 患者、健康保険、再報告の判定に使う既存モジュールを一括して取得し、
+     * 一件ずつ create した場合と同じ規則で置き換え・登録する。
+     * 患者が登録されていないモジュールは登録しない。
+     * @param fid       施設ID
+     * @param modules   登録する検査モジュール
+     * @return          登録したモジュールの患者（重複なし）
+     */
+    public List<PatientModel> create(String fid, List<NLaboModule> modules) {
+
+        // 患者
+        List<String> pids = new ArrayList<>(modules.size());
+        for (NLaboModule module : modules) {
+            pids.add(module.getPatientId());
+        }
+        Map<String, PatientModel> patients = findPatients(fid, pids);
+
+        // 健康保険
+        List<Long> pks = new ArrayList<>(patients.size());
+        Map<Long, List<HealthInsuranceModel>> insMap = new HashMap<>(patients.size() * 2);
+        for (PatientModel patient : patients.values()) {
+            pks.add(patient.getId());
+            insMap.put(patient.getId(), new ArrayList<HealthInsuranceModel>());
+        }
+        for (int i = 0; i < pks.size(); i += IN_CHUNK_SIZE) {
+            List<HealthInsuranceModel> list = (List<HealthInsuranceModel>)em.createQuery(QUERY_INSURANCE_BY_PATIENT_PKS)
+                    .setParameter(PKS, pks.subList(i, Math.min(i + IN_CHUNK_SIZE, pks.size())))
+                    .getResultList();
+            for (HealthInsuranceModel h : list) {
+                insMap.get(h.getPatient().getId()).add(h);
+            }
+        }
+        for (PatientModel patient : patients.values()) {
+            patient.setHealthInsurances(insMap.get(patient.getId()));
+        }
+
+        // 登録するモジュール
+        List<NLaboModule> targets = new ArrayList<>(modules.size());
+        for (NLaboModule module : modules) {
+            if (patients.containsKey(module.getPatientId())) {
+                prepare(fid, module);
+                targets.add(module);
+            }
+        }
+
+        // 再報告の判定に使う既存モジュール
+        Map<String, List<NLaboModule>> exists = findExistingModules(targets);
+
+        List<PatientModel> ret = new ArrayList<>();
+        for (NLaboModule module : targets) {
+
+            // 一件だけ一致した場合に置き換える（create と同じ）
+            String key = module.getModuleKey() != null ? moduleKey(module) : sampleKey(module);
+            List<NLaboModule> list = key != null ? exists.get(key) : null;
+            if (list != null && list.size() == 1) {
+                NLaboModule exist = list.get(0);
+                em.remove(exist);
+                unregister(exists, exist);
+            }
+
+            em.persist(module);
+            // 同じバッチの後のモジュールからも見えるようにする
+            register(exists, module);
+
+            String pid = module.getPatientId().substring(fid.length() + 1);
+            PatientModel patient = patients.get(pid);
+            if (!ret.contains(patient)) {
+                ret.add(patient);
+            }
+        }
+
+        return ret;
+    }
+
+    // 患者IDを施設ID:患者ID にし、moduleKey を施設付きに直す
+    private void prepare(String fid, NLaboModule module) {
+
+        String pid = module.getPatientId();
+        String fidPid = fid+":"+pid;
+        module.setPatientId(fidPid);
+
+        // item の patientId を変更する
+        Collection<NLaboItem> items = module.getItems();
+        if (items != null) {
+            for (NLaboItem item : items) {
+                item.setPatientId(fidPid);
+            }
+        }
+
+        String moduleKey = module.getModuleKey();
+        if (moduleKey!=null) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(pid).append(".").append(module.getSampleDate()).append(".").append(module.getLaboCenterCode());
+            String test = sb.toString();
+            if (test.equals(moduleKey)) {
+                sb = new StringBuilder();
+                sb.append(fid);
+                sb.append(":");
+                sb.append(moduleKey);
+                module.setModuleKey(sb.toString());
+            } 
+        }
+    }
+
+    // 施設の患者を患者ID をキーにして取得する
+    private Map<String, PatientModel> findPatients(String fid, List<String> idList) {
+        List<String> pids = new ArrayList<>(new LinkedHashSet<>(idList));
+        Map<String, PatientModel> ret = new HashMap<>(pids.size() * 2);
+        for (int i = 0; i < pids.size(); i += IN_CHUNK_SIZE) {
+            List<PatientModel> list = (List<PatientModel>)em.createQuery(QUERY_PATIENT_BY_FID_PIDS)
+                    .setParameter(FID, fid)
+                    .setParameter(PIDS, pids.subList(i, Math.min(i + IN_CHUNK_SIZE, pids.size())))
+                    .getResultList();
+            for (PatientModel patient : list) {
+                ret.put(patient.getPatientId(), patient);
+            }
+        }
+        return ret;
+    }
+
+    // moduleKey による再報告の判定キー
+    private static String moduleKey(NLaboModule module) {
+        return module.getModuleKey() != null ? "K:" + module.getModuleKey() : null;
+    }
+
+    // 患者・検体採取日・ラボコードによる再報告の判定キー 比較できない値があれば null
+    private static String sampleKey(NLaboModule module) {
+        if (module.getSampleDate() == null || module.getLaboCenterCode() == null) {
+            return null;
+        }
+        return "P:" + module.getPatientId() + "." + module.getSampleDate() + "." + module.getLaboCenterCode();
+    }
+
+    private static void register(Map<String, List<NLaboModule>> map, NLaboModule module) {
+        for (String key : new String[]{moduleKey(module), sampleKey(module)}) {
+            if (key == null) {
+                continue;
+            }
+            List<NLaboModule> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                map.put(key, list);
+            }
+            if (!list.contains(module)) {
+                list.add(module);
+            }
+        }
+    }
+
+    private static void unregister(Map<String, List<NLaboModule>> map, NLaboModule module) {
+        for (String key : new String[]{moduleKey(module), sampleKey(module)}) {
+            List<NLaboModule> list = key != null ? map.get(key) : null;
+            if (list != null) {
+                list.remove(module);
+            }
+        }
+    }
+
+    // 登録するモジュールと moduleKey 又は 患者・検体採取日 が一致する既存モジュールを集める
+    private Map<String, List<NLaboModule>> findExistingModules(List<NLaboModule> modules) {
+
+        List<String> moduleKeys = new ArrayList<>();
+        List<String> fidPids = new ArrayList<>();
+        List<String> sampleDates = new ArrayList<>();
+        for (NLaboModule module : modules) {
+            if (module.getModuleKey() != null) {
+                moduleKeys.add(module.getModuleKey());
+            } else if (sampleKey(module) != null) {
+                fidPids.add(module.getPatientId());
+                sampleDates.add(module.getSampleDate());
+            }
+        }
+
+        Map<String, List<NLaboModule>> ret = new HashMap<>();
+        for (int i = 0; i < moduleKeys.size(); i += IN_CHUNK_SIZE) {
+            List<NLaboModule> list = (List<NLaboModule>)em.createQuery(QUERY_MODULE_BY_MODULE_KEYS)
+                    .setParameter(MODULEKEYS, moduleKeys.subList(i, Math.min(i + IN_CHUNK_SIZE, moduleKeys.size())))
+                    .getResultList();
+            for (NLaboModule m : list) {
+                register(ret, m);
+            }
+        }
+        for (int i = 0; i < fidPids.size(); i += IN_CHUNK_SIZE) {
+            int to = Math.min(i + IN_CHUNK_SIZE, fidPids.size());
+            // 組み合わせが一致しないものも含まれるが、キーが違うので使われない
+            List<NLaboModule> list = (List<NLaboModule>)em.createQuery(QUERY_MODULE_BY_PIDS_SAMPLEDATES)
+                    .setParameter(FIDPIDS, fidPids.subList(i, to))
+                    .setParameter(SAMPLEDATES, sampleDates.subList(i, to))
+                    .getResultList();
+            for (NLaboModule m : list) {
+                register(ret, m);
+            }
+        }
+        return ret;
+    }
 
     /**
      * ラボモジュールを検索する。
@@ -181,25 +374,168 @@ public class NLabServiceBean {
                           .setMaxResults(maxResult)
                           .getResultList();
 
-        for (NLaboModule m : ret) {
+        setItems(ret);
+        return ret;
+    }
 
-            if (m.getReportFormat()!=null && m.getReportFormat().equals(WOLF)) {
-                List<NLaboItem> items = (List<NLaboItem>)
-                                em.createQuery(QUERY_ITEM_BY_MID_ORDERBY_SORTKEY)
-                                  .setParameter(MID, m.getId())
-                                  .getResultList();
-                m.setItems(items);
+    /**
+     * ラボデータを検査項目 x 検体採取日の表にして返す。
+     * sampleDate を指定した場合はそのキーより後の頁を、無い場合は firstResult 番目からの頁を取得する。
+     * @param fidPid        施設ID:患者ID
+     * @param sampleDate    前の頁の最後の検体採取日 無い場合は null
+     * @param id            前の頁の最後のモジュール PK
+     * @param firstResult   sampleDate が null の場合の最初の番号
+     * @param maxResult     列数
+     * @param newestLeft    新しい検体を左の列にする場合 true
+     * @return              NLaboTable
+     */
+    public NLaboTable getLaboTable(String fidPid, String sampleDate, long id, int firstResult, int maxResult, boolean newestLeft) {
 
-            } else {
-                List<NLaboItem> items = (List<NLaboItem>)
-                                em.createQuery(QUERY_ITEM_BY_MID)
-                                  .setParameter(MID, m.getId())
-                                  .getResultList();
-                m.setItems(items);
+        // 次の頁があるかを知るため一件多く取得する
+        List<NLaboModule> modules = findModules(fidPid, sampleDate, id, firstResult, maxResult + 1);
+
+        NLaboTable table = new NLaboTable();
+        if (modules.size() > maxResult) {
+            modules = new ArrayList<>(modules.subList(0, maxResult));
+            NLaboModule last = modules.get(maxResult - 1);
+            table.setNextSampleDate(last.getSampleDate());
+            table.setNextId(last.getId());
+        }
+        setItems(modules);
+
+        // 取得は降順
+        if (!newestLeft) {
+            Collections.reverse(modules);
+        }
+
+        int cols = modules.size();
+        List<Long> moduleIds = new ArrayList<>(cols);
+        List<String> sampleDates = new ArrayList<>(cols);
+        List<LabTestRowObject> rows = new ArrayList<>();
+        Map<String, LabTestRowObject> rowMap = new HashMap<>();
+
+        for (int col = 0; col < cols; col++) {
+
+            NLaboModule module = modules.get(col);
+            moduleIds.add(module.getId());
+            sampleDates.add(module.getSampleDate());
+
+            for (NLaboItem item : selectItems(module.getItems())) {
+
+                LabTestRowObject row = rowMap.get(item.getItemCode());
+                if (row == null) {
+                    // 最初に現れた列の項目で行を作る
+                    row = new LabTestRowObject();
+                    row.setLabCode(item.getLaboCode());
+                    row.setGroupCode(item.getGroupCode());
+                    row.setParentCode(item.getParentCode());
+                    row.setItemCode(item.getItemCode());
+                    row.setItemName(item.getItemName());
+                    row.setUnit(item.getUnit());
+                    row.setNormalValue(item.getNormalValue());
+                    row.setValues(new ArrayList<>(Collections.nCopies(cols, (LabTestValueObject)null)));
+                    rowMap.put(item.getItemCode(), row);
+                    rows.add(row);
+                }
+
+                LabTestValueObject value = new LabTestValueObject();
+                value.setSampleDate(module.getSampleDate());
+                value.setValue(item.getValue());
+                value.setOut(item.getAbnormalFlg());
+                value.setComment1(item.getComment1());
+                value.setComment2(item.getComment2());
+                row.getValues().set(col, value);
+            }
+        }
+
+        Collections.sort(rows);
+
+        table.setModuleIds(moduleIds);
+        table.setSampleDates(sampleDates);
+        table.setRows(rows);
+        return table;
+    }
+
+    // 検体採取日・PK の降順にモジュールを取得する sampleDate があればそのキーより後、無ければ firstResult 番目から
+    private List<NLaboModule> findModules(String fidPid, String sampleDate, long id, int firstResult, int maxResult) {
+        if (sampleDate == null) {
+            return (List<NLaboModule>)em.createQuery(QUERY_MODULE_BY_FIDPID_ORDERBY_KEY)
+                    .setParameter(FIDPID, fidPid)
+                    .setFirstResult(firstResult)
+                    .setMaxResults(maxResult)
+                    .getResultList();
+        }
+        return (List<NLaboModule>)em.createQuery(QUERY_MODULE_BY_FIDPID_BEFORE_KEY)
+                .setParameter(FIDPID, fidPid)
+                .setParameter(SAMPLEDATE, sampleDate)
+                .setParameter(ID, id)
+                .setMaxResults(maxResult)
+                .getResultList();
+    }
+
+    /**
+     * 同じ検査項目が複数ある場合は後のものを採る。ただし報告状態が E のものは置き換えない。
+     */
+    private List<NLaboItem> selectItems(List<NLaboItem> items) {
+        List<NLaboItem> ret = new ArrayList<>();
+        if (items == null) {
+            return ret;
+        }
+        Map<String, Integer> index = new HashMap<>();
+        for (NLaboItem item : items) {
+            Integer k = index.get(item.getItemCode());
+            if (k == null) {
+                index.put(item.getItemCode(), ret.size());
+                ret.add(item);
+            } else if (!"E".equals(ret.get(k).getReportStatus())) {
+                ret.set(k, item);
             }
         }
         return ret;
     }
+
+    /**
+     * モジュールの検査項目を一括して取得し設定する。
+     * WOLF 形式は sortKey 順、それ以外はグループ・親・項目コード順に並べる。
+     */
+    private void setItems(List<NLaboModule> modules) {
+
+        if (modules.isEmpty()) {
+            return;
+        }
+
+        List<Long> wolf = new ArrayList<>();
+        List<Long> others = new ArrayList<>();
+        Map<Long, List<NLaboItem>> map = new HashMap<>(modules.size() * 2);
+        for (NLaboModule m : modules) {
+            if (m.getReportFormat()!=null && m.getReportFormat().equals(WOLF)) {
+                wolf.add(m.getId());
+            } else {
+                others.add(m.getId());
+            }
+            map.put(m.getId(), new ArrayList<NLaboItem>());
+        }
+
+        if (!wolf.isEmpty()) {
+            collectItems(QUERY_ITEM_BY_MIDS_ORDERBY_SORTKEY, wolf, map);
+        }
+        if (!others.isEmpty()) {
+            collectItems(QUERY_ITEM_BY_MIDS, others, map);
+        }
+
+        for (NLaboModule m : modules) {
+            m.setItems(map.get(m.getId()));
+        }
+    }
+
+    private void collectItems(String query, List<Long> mids, Map<Long, List<NLaboItem>> map) {
+        List<NLaboItem> items = (List<NLaboItem>)em.createQuery(query)
+                .setParameter(MIDS, mids)
+                .getResultList();
+        for (NLaboItem item : items) {
+            map.get(item.getLaboModule().getId()).add(item);
+        }
+    }
     
 //s.oh^ 2013/09/18 ラボデータの高速化
     public Long getLaboTestCount(String fidPid) {
@@ -7,19 +7,25 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
 import open.dolphin.infomodel.*;
 import open.dolphin.mbean.KanaToAscii;
+import open.dolphin.mbean.PatientSearchIndex;
 import open.dolphin.mbean.ServletContextHolder;
 
 /**
@@ -35,8 +41,9 @@ public class PVTServiceBean {
     private static final String QUERY_PVT_BY_FID_DATE           = "from PatientVisitModel p where p.facilityId=:fid and p.pvtDate like :date order by p.pvtDate";
     private static final String QUERY_PVT_BY_FID_DID_DATE       = "from PatientVisitModel p where p.facilityId=:fid and p.pvtDate like :date and (doctorId=:did or doctorId=:unassigned) order by p.pvtDate";
     private static final String QUERY_INSURANCE_BY_PATIENT_ID   = "from HealthInsuranceModel h where h.patient.id=:id";
-    private static final String QUERY_KARTE_BY_PATIENT_ID       = "from KarteBean k where k.patient.id=:id";
+    private static final String QUERY_INSURANCE_BY_PATIENT_IDS  = "from HealthInsuranceModel h where h.patient.id in (:ids) order by h.id";
     private static final String QUERY_APPO_BY_KARTE_ID_DATE     = "from AppointmentModel a where a.karte.id=:id and a.date=:date";
+    private static final String QUERY_APPO_NAME_BY_PATIENT_IDS_DATE = "select a.karte.patient.id, a.name from AppointmentModel a where a.karte.patient.id in (:ids) and a.date=:date order by a.id";
     private static final String QUERY_PVT_BY_PK                 = "from PatientVisitModel p where p.id=:id";
 //masuda^    
     private static final String QUERY_KARTE_ID_BY_PATIENT_ID    = "select k.id from KarteBean k where k.patient.id = :id";
@@ -46,6 +53,7 @@ public class PVTServiceBean {
     private static final String DID = "did";
     private static final String UNASSIGNED = "unassigned";
     private static final String ID = "id";
+    private static final String IDS = "ids";
     private static final String DATE = "date";
     private static final String PERCENT = "%";
     private static final int BIT_SAVE_CLAIM     = 1;
@@ -55,6 +63,9 @@ public class PVTServiceBean {
     @PersistenceContext
     private EntityManager em;
     
+    @Resource
+    private TransactionSynchronizationRegistry txRegistry;
+    
     @Inject
     private ChartEventServiceBean eventServiceBean;
     
@@ -156,6 +167,7 @@ public class PVTServiceBean {
 
             // PatientModelを新しい情報に更新する
             em.merge(exist);
+            PatientSearchIndex.getInstance().putAfterCommit(txRegistry, fid, exist);
             // PatientVisit との関係を設定する
             pvt.setPatientModel(exist);
 
@@ -164,6 +176,7 @@ public class PVTServiceBean {
             // 新規患者であれば登録する
             // 患者属性は cascade=PERSIST で自動的に保存される
             em.persist(patient);
+            PatientSearchIndex.getInstance().putAfterCommit(txRegistry, fid, patient);
 
             // この患者のカルテを生成する
             KarteBean karte = new KarteBean();
@@ -563,38 +576,8 @@ public class PVTServiceBean {
 
         boolean searchAppo = (appoDateFrom != null && appoDateTo != null);
 
-        // 来院情報と患者は ManyToOne の関係である
-        for (int i = 0; i < len; i++) {
-            //for (int i = firstResult; i < len; i++) {
-            
-            PatientVisitModel pvt = result.get(i);
-            PatientModel patient = pvt.getPatientModel();
-
-            // 患者の健康保険を取得する
-            List<HealthInsuranceModel> insurances = (List<HealthInsuranceModel>)em.createQuery(QUERY_INSURANCE_BY_PATIENT_ID)
-            .setParameter(ID, patient.getId()).getResultList();
-            patient.setHealthInsurances(insurances);
-
-            // 予約を検索する
-            if (searchAppo) {
-                KarteBean karte = (KarteBean)em.createQuery(QUERY_KARTE_BY_PATIENT_ID)
-                .setParameter(ID, patient.getId())
-                .getSingleResult();
-                // カルテの PK を得る
-                long karteId = karte.getId();
-
-                List c = em.createQuery(QUERY_APPO_BY_KARTE_ID_DATE)
-                .setParameter(ID, karteId)
-                .setParameter(DATE, theDate)
-                .getResultList();
-                //System.err.println("appo size = " + c.size());
-                if (c != null && c.size() > 0) {
-                    // 当日の予約で最初のもの
-                    AppointmentModel appo = (AppointmentModel) c.get(0);
-                    pvt.setAppointment(appo.getName());
-                }
-            }
-        }
+        // 健康保険と当日の予約を一括して取得する
+        fetchInsurancesAndAppointments(result, theDate, searchAppo);
 
         return result;
     }
@@ -627,42 +610,62 @@ public class PVTServiceBean {
 
         boolean searchAppo = (appoDateFrom != null && appoDateTo != null);
 
-        // 来院情報と患者は ManyToOne の関係である
-        for (int i = 0; i < len; i++) {
-            //for (int i = firstResult; i < len; i++) {
-
-            PatientVisitModel pvt = result.get(i);
-            PatientModel patient = pvt.getPatientModel();
+        // 健康保険と当日の予約を一括して取得する
+        fetchInsurancesAndAppointments(result, theDate, searchAppo);
 
-            // 患者の健康保険を取得する
-            List<HealthInsuranceModel> insurances = (List<HealthInsuranceModel>)em.createQuery(QUERY_INSURANCE_BY_PATIENT_ID)
-            .setParameter(ID, patient.getId()).getResultList();
-            patient.setHealthInsurances(insurances);
+        return result;
+    }
+    
 
-            // 予約を検索する
-            if (searchAppo) {
-                KarteBean karte = (KarteBean)em.createQuery(QUERY_KARTE_BY_PATIENT_ID)
-                .setParameter(ID, patient.getId())
-                .getSingleResult();
-                // カルテの PK を得る
-                long karteId = karte.getId();
+    /**
+     * 来院情報の患者へ健康保険と当日の予約を設定する。
+     * 患者毎に問い合わせず、一覧の患者分をまとめて取得する。
+     * @param result 来院情報のリスト
+     * @param theDate 来院日
+     * @param searchAppo 予約を検索する場合 true
+     */
+    private void fetchInsurancesAndAppointments(List<PatientVisitModel> result, Date theDate, boolean searchAppo) {
 
-                List c = em.createQuery(QUERY_APPO_BY_KARTE_ID_DATE)
-                .setParameter(ID, karteId)
-                .setParameter(DATE, theDate)
-                .getResultList();
-                //System.err.println("appo size = " + c.size());
-                if (c != null && c.size() > 0) {
-                    // 当日の予約で最初のもの
-                    AppointmentModel appo = (AppointmentModel) c.get(0);
-                    pvt.setAppointment(appo.getName());
-                }
+        // 来院情報と患者は ManyToOne の関係である 同じ患者が複数回来院している場合がある
+        Map<Long, PatientModel> patients = new HashMap<>(result.size());
+        for (PatientVisitModel pvt : result) {
+            PatientModel patient = pvt.getPatientModel();
+            if (!patients.containsKey(patient.getId())) {
+                patient.setHealthInsurances(new ArrayList<HealthInsuranceModel>());
+                patients.put(patient.getId(), patient);
             }
         }
+        List<Long> ids = new ArrayList<>(patients.keySet());
 
-        return result;
+        // 患者の健康保険を取得する
+        List<HealthInsuranceModel> insurances = (List<HealthInsuranceModel>)em.createQuery(QUERY_INSURANCE_BY_PATIENT_IDS)
+        .setParameter(IDS, ids).getResultList();
+        for (HealthInsuranceModel insurance : insurances) {
+            patients.get(insurance.getPatient().getId()).getHealthInsurances().add(insurance);
+        }
+
+        // 予約を検索する
+        if (!searchAppo) {
+            return;
+        }
+        List<Object[]> appos = (List<Object[]>)em.createQuery(QUERY_APPO_NAME_BY_PATIENT_IDS_DATE)
+        .setParameter(IDS, ids)
+        .setParameter(DATE, theDate)
+        .getResultList();
+        Map<Long, String> appoNames = new HashMap<>(appos.size());
+        for (Object[] appo : appos) {
+            // 当日の予約で最初のもの
+            if (!appoNames.containsKey((Long)appo[0])) {
+                appoNames.put((Long)appo[0], (String)appo[1]);
+            }
+        }
+        for (PatientVisitModel pvt : result) {
+            String name = appoNames.get(pvt.getPatientModel().getId());
+            if (name != null) {
+                pvt.setAppointment(name);
+            }
+        }
     }
-    
       
     /**
      * 受付情報を削除する。
@@ -691,6 +694,8 @@ public class PVTServiceBean {
             }
             if (toRemove != null) {
                 pvtList.remove(toRemove);
+                // 差分取得用に削除を記録する
+                contextHolder.getPvtListVersion(fid).removed(id);
                 return 1;
             }
         } catch (Exception e) {
@@ -4,12 +4,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
-import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
 import open.dolphin.infomodel.ChartEventModel;
 import open.dolphin.infomodel.DocumentModel;
 import open.dolphin.infomodel.HealthInsuranceModel;
@@ -17,6 +21,7 @@ import open.dolphin.infomodel.KarteBean;
 import open.dolphin.infomodel.PatientModel;
 import open.dolphin.infomodel.PatientVisitModel;
 import open.dolphin.infomodel.RegisteredDiagnosisModel;
+import open.dolphin.mbean.PatientSearchIndex;
 
 /**
  *
@@ -34,11 +39,20 @@ public class PatientServiceBean {
     private static final String QUERY_PATIENT_BY_TELEPHONE = "from PatientModel p where p.facilityId = :fid and (p.telephone like :number or p.mobilePhone like :number)";
     private static final String QUERY_PATIENT_BY_ZIPCODE = "from PatientModel p where p.facilityId = :fid and p.address.zipCode like :zipCode";
     private static final String QUERY_INSURANCE_BY_PATIENT_PK = "from HealthInsuranceModel h where h.patient.id=:pk";
+    private static final String QUERY_INSURANCE_BY_PATIENT_PKS = "from HealthInsuranceModel h where h.patient.id in (:pks) order by h.id";
+    private static final String QUERY_PATIENT_BY_PKS = "from PatientModel p where p.id in (:pks)";
+    private static final String QUERY_PATIENT_INDEX_ROWS
+            = "select p.id, p.patientId, p.fullName, p.kanaName, p.telephone, p.mobilePhone, p.address.zipCode, p.appMemo "
+            + "from PatientModel p where p.facilityId=:fid";
+    private static final String QUERY_LAST_PVTDATE_BY_PATIENT_PKS
+            = "select p.patient.id, max(p.pvtDate) from PatientVisitModel p "
+            + "where p.facilityId=:fid and p.patient.id in (:pks) and p.status!=:status group by p.patient.id";
 //s.oh^ 2014/08/19 施設患者一括表示機能
     private static final String QUERY_PATIENT_BY_APPMEMO = "from PatientModel p where p.facilityId = :fid and p.appMemo like :appMemo";
 //s.oh$
 
     private static final String PK = "pk";
+    private static final String PKS = "pks";
     private static final String FID = "fid";
     private static final String PID = "pid";
     private static final String NAME = "name";
@@ -46,13 +60,39 @@ public class PatientServiceBean {
     private static final String ZIPCODE = "zipCode";
     private static final String DATE = "date";
     private static final String PERCENT = "%";
+    
+    // IN 句に渡す PK の最大数
+    private static final int IN_CHUNK_SIZE = 500;
 //s.oh^ 2014/08/19 施設患者一括表示機能
     private static final String APPMEMO = "appMemo";
 //s.oh$
 
+    // 索引検索の段階 {一致の仕方, 項目...} 従来の検索の順序に合わせる
+    private static final int[][] NAME_STAGES = {
+        {PatientSearchIndex.PREFIX, PatientSearchIndex.NAME},
+        {PatientSearchIndex.CONTAINS, PatientSearchIndex.NAME},
+        {PatientSearchIndex.PREFIX, PatientSearchIndex.MEMO},
+        {PatientSearchIndex.CONTAINS, PatientSearchIndex.MEMO}
+    };
+    private static final int[][] KANA_STAGES = {
+        {PatientSearchIndex.PREFIX, PatientSearchIndex.KANA},
+        {PatientSearchIndex.CONTAINS, PatientSearchIndex.KANA},
+        {PatientSearchIndex.PREFIX, PatientSearchIndex.MEMO},
+        {PatientSearchIndex.CONTAINS, PatientSearchIndex.MEMO}
+    };
+    private static final int[][] DIGIT_STAGES = {
+        {PatientSearchIndex.PREFIX, PatientSearchIndex.PATIENT_ID},
+        {PatientSearchIndex.PREFIX, PatientSearchIndex.PHONE, PatientSearchIndex.MOBILE},
+        {PatientSearchIndex.PREFIX, PatientSearchIndex.ZIP},
+        {PatientSearchIndex.PREFIX, PatientSearchIndex.ROMAN}
+    };
+
     @PersistenceContext
     private EntityManager em;
     
+    @Resource
+    private TransactionSynchronizationRegistry txRegistry;
+    
 //masuda^
     @Inject
     private ChartEventServiceBean eventServiceBean;
@@ -60,8 +100,25 @@ public class PatientServiceBean {
 
     
     public List<PatientModel> getPatientsByName(String fid, String name) {
+        return getPatientsByName(fid, name, 0, 0);
+    }
+
+    /**
+     * 氏名で検索する。見つからなければメモで検索する。
+     * @param fid 施設ID
+     * @param name 氏名
+     * @param first 結果の何件目から返すか
+     * @param max 最大件数 0 は全件
+     * @return 患者のリスト
+     */
+    public List<PatientModel> getPatientsByName(String fid, String name, int first, int max) {
+
+        List<PatientModel> ret = searchByIndex(fid, name, NAME_STAGES, first, max);
+        if (ret != null) {
+            return ret;
+        }
 
-        List<PatientModel> ret = em.createQuery(QUERY_PATIENT_BY_NAME)
+        ret = em.createQuery(QUERY_PATIENT_BY_NAME)
                 .setParameter(FID, fid)
                 .setParameter(NAME, name + PERCENT)
                 .getResultList();
@@ -100,13 +157,30 @@ public class PatientServiceBean {
         }
 //masuda$
 
-        return ret;
+        return page(ret, first, max);
     }
 
     
     public List<PatientModel> getPatientsByKana(String fid, String name) {
+        return getPatientsByKana(fid, name, 0, 0);
+    }
+
+    /**
+     * カナで検索する。見つからなければメモで検索する。
+     * @param fid 施設ID
+     * @param name カナ
+     * @param first 結果の何件目から返すか
+     * @param max 最大件数 0 は全件
+     * @return 患者のリスト
+     */
+    public List<PatientModel> getPatientsByKana(String fid, String name, int first, int max) {
 
-        List<PatientModel> ret = em.createQuery(QUERY_PATIENT_BY_KANA)
+        List<PatientModel> ret = searchByIndex(fid, name, KANA_STAGES, first, max);
+        if (ret != null) {
+            return ret;
+        }
+
+        ret = em.createQuery(QUERY_PATIENT_BY_KANA)
             .setParameter(FID, fid)
             .setParameter(NAME, name + PERCENT)
             .getResultList();
@@ -144,13 +218,31 @@ public class PatientServiceBean {
         }
 //masuda$
         
-        return ret;
+        return page(ret, first, max);
     }
 
     
     public List<PatientModel> getPatientsByDigit(String fid, String digit) {
+        return getPatientsByDigit(fid, digit, 0, 0);
+    }
 
-        List<PatientModel> ret = em.createQuery(QUERY_PATIENT_BY_FID_PID)
+    /**
+     * 患者ID、電話番号、郵便番号の順に前方一致で検索する。
+     * 索引を使う場合はローマ字（カナの変換）でも検索する。
+     * @param fid 施設ID
+     * @param digit 検索文字列
+     * @param first 結果の何件目から返すか
+     * @param max 最大件数 0 は全件
+     * @return 患者のリスト
+     */
+    public List<PatientModel> getPatientsByDigit(String fid, String digit, int first, int max) {
+
+        List<PatientModel> ret = searchByIndex(fid, digit, DIGIT_STAGES, first, max);
+        if (ret != null) {
+            return ret;
+        }
+
+        ret = em.createQuery(QUERY_PATIENT_BY_FID_PID)
             .setParameter(FID, fid)
             .setParameter(PID, digit+PERCENT)
             .getResultList();
@@ -180,7 +272,7 @@ public class PatientServiceBean {
         }
 //masuda$
 
-        return ret;
+        return page(ret, first, max);
     }
     
     public List<PatientModel> getPatientsByPvtDate(String fid, String pvtDate) {
@@ -195,18 +287,15 @@ public class PatientServiceBean {
 
         for (PatientVisitModel pvt : list) {
             PatientModel patient = pvt.getPatientModel();
-            List<HealthInsuranceModel> insurances
-                        = (List<HealthInsuranceModel>)em.createQuery(QUERY_INSURANCE_BY_PATIENT_PK)
-                        .setParameter(PK, patient.getId()).getResultList();
-                patient.setHealthInsurances(insurances);
             ret.add(patient);
-            
-            // 患者の健康保険を取得する
-            setHealthInsurances(patient);
 //masuda^   最終受診日設定
            patient.setPvtDate(pvt.getPvtDate());
 //masuda$        
         }
+        
+        // 患者の健康保険を取得する
+        setHealthInsurances(ret);
+        
         return ret;
     }
 
@@ -291,6 +380,7 @@ public class PatientServiceBean {
     public long addPatient(PatientModel patient) {
         em.persist(patient);
         long pk = patient.getId();
+        PatientSearchIndex.getInstance().putAfterCommit(txRegistry, patient.getFacilityId(), patient);
         return pk;
     }
 
@@ -302,6 +392,7 @@ public class PatientServiceBean {
     
     public int update(PatientModel patient) {
         em.merge(patient);
+        PatientSearchIndex.getInstance().putAfterCommit(txRegistry, patient.getFacilityId(), patient);
  //masuda^   患者情報が更新されたらPvtListも更新する必要あり
         updatePvtList(patient);
 //masuda$       
@@ -333,25 +424,101 @@ public class PatientServiceBean {
         }
     }
     
+    // 最終受診日を IN_CHUNK_SIZE 人ずつまとめて取得し設定する
     private void setPvtDate(String fid, List<PatientModel> list) {
-        
-        final String sql =
-                "from PatientVisitModel p where p.facilityId = :fid and p.patient.id = :patientPk "
-                + "and p.status != :status order by p.pvtDate desc";
-        
+
+        List<Long> pks = new ArrayList<>(list.size());
         for (PatientModel patient : list) {
+            pks.add(patient.getId());
+        }
+
+        Map<Long, String> map = new HashMap<>(list.size() * 2);
+        for (int i = 0; i < pks.size(); i += IN_CHUNK_SIZE) {
+            List<Object[]> rows = (List<Object[]>)
+                    em.createQuery(QUERY_LAST_PVTDATE_BY_PATIENT_PKS)
+                    .setParameter(FID, fid)
+                    .setParameter(PKS, pks.subList(i, Math.min(i + IN_CHUNK_SIZE, pks.size())))
+                    .setParameter("status", -1)
+                    .getResultList();
+            for (Object[] row : rows) {
+                map.put((Long)row[0], (String)row[1]);
+            }
+        }
+
+        for (PatientModel patient : list) {
+            String pvtDate = map.get(patient.getId());
+            if (pvtDate != null) {
+                patient.setPvtDate(pvtDate);
+            }
+        }
+    }
+
+    /**
+     * 患者検索索引で検索する。
+     * 索引が未作成ならここで作る。他のスレッドが作成中の場合は使わない。
+     * @return 検索結果 索引が使えない場合は null
+     */
+    private List<PatientModel> searchByIndex(String fid, String query, int[][] stages, int first, int max) {
+
+        PatientSearchIndex index = PatientSearchIndex.getInstance();
+        if (!index.isEnabled() || query == null) {
+            return null;
+        }
+
+        if (!index.isReady(fid) && index.begin(fid)) {
             try {
-                PatientVisitModel pvt = (PatientVisitModel) 
-                        em.createQuery(sql)
-                        .setParameter("fid", fid)
-                        .setParameter("patientPk", patient.getId())
-                        .setParameter("status", -1)
-                        .setMaxResults(1)
-                        .getSingleResult();
-                patient.setPvtDate(pvt.getPvtDate());
-            } catch (NoResultException e) {
+                long t = System.currentTimeMillis();
+                List<Object[]> rows = (List<Object[]>)em.createQuery(QUERY_PATIENT_INDEX_ROWS)
+                        .setParameter(FID, fid)
+                        .getResultList();
+                index.build(fid, rows);
+                Logger.getLogger("open.dolphin").log(Level.INFO, "Patient search index built: {0} patients, {1} ms",
+                        new Object[]{rows.size(), System.currentTimeMillis() - t});
+            } catch (RuntimeException e) {
+                index.abort(fid);
+                Logger.getLogger("open.dolphin").log(Level.WARNING, "Patient search index build failed: {0}", e.getMessage());
+                return null;
             }
         }
+
+        List<Long> pks = index.search(fid, query, stages, first, max);
+        if (pks == null) {
+            return null;
+        }
+
+        // 索引の順位順に並べる
+        Map<Long, PatientModel> map = new HashMap<>(pks.size() * 2);
+        for (int i = 0; i < pks.size(); i += IN_CHUNK_SIZE) {
+            List<PatientModel> chunk = (List<PatientModel>)
+                    em.createQuery(QUERY_PATIENT_BY_PKS)
+                    .setParameter(PKS, pks.subList(i, Math.min(i + IN_CHUNK_SIZE, pks.size())))
+                    .getResultList();
+            for (PatientModel pm : chunk) {
+                map.put(pm.getId(), pm);
+            }
+        }
+        List<PatientModel> ret = new ArrayList<>(pks.size());
+        for (Long pk : pks) {
+            PatientModel pm = map.get(pk);
+            if (pm != null) {
+                ret.add(pm);
+            }
+        }
+
+        setHealthInsurances(ret);
+        if (!ret.isEmpty()) {
+            setPvtDate(fid, ret);
+        }
+        return ret;
+    }
+
+    private static List<PatientModel> page(List<PatientModel> list, int first, int max) {
+        if (first <= 0 && max <= 0) {
+            return list;
+        }
+        int from = Math.min(Math.max(first, 0), list.size());
+        int to = max > 0 ? Math.min(list.size(), from + max) : list.size();
+        return new ArrayList<>(list.subList(from, to));
     }
     
     public List<PatientModel> getPatientList(String fid, List<String> idList) {
@@ -371,10 +538,37 @@ public class PatientServiceBean {
         return list;
     }
 
+    /**
+     * 患者の健康保険を一括して取得し設定する。
+     * 患者毎に問い合わせず、IN_CHUNK_SIZE 人ずつまとめて取得する。
+     * @param list 患者のリスト
+     */
     protected void setHealthInsurances(Collection<PatientModel> list) {
-        if (list != null && !list.isEmpty()) {
-            for (PatientModel pm : list) {
-                setHealthInsurances(pm);
+        
+        if (list == null || list.isEmpty()) {
+            return;
+        }
+        
+        // 同じ患者が複数回含まれる場合がある（受付日検索）
+        Map<Long, List<HealthInsuranceModel>> map = new HashMap<>(list.size());
+        for (PatientModel pm : list) {
+            List<HealthInsuranceModel> ins = map.get(pm.getId());
+            if (ins == null) {
+                ins = new ArrayList<>(2);
+                map.put(pm.getId(), ins);
+            }
+            pm.setHealthInsurances(ins);
+        }
+        
+        List<Long> pks = new ArrayList<>(map.keySet());
+        for (int from = 0; from < pks.size(); from += IN_CHUNK_SIZE) {
+            List<Long> chunk = pks.subList(from, Math.min(from + IN_CHUNK_SIZE, pks.size()));
+            List<HealthInsuranceModel> insurances =
+                    em.createQuery(QUERY_INSURANCE_BY_PATIENT_PKS)
+                    .setParameter(PKS, chunk)
+                    .getResultList();
+            for (HealthInsuranceModel hm : insurances) {
+                map.get(hm.getPatient().getId()).add(hm);
             }
         }
     }
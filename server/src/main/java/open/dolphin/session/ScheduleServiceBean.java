@@ -19,6 +19,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Resource;
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
@@ -29,6 +30,7 @@ import javax.jms.ObjectMessage;
 import javax.jms.Session;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import open.dolphin.infomodel.BeanCodec;
 import open.dolphin.infomodel.AttachmentModel;
 import open.dolphin.infomodel.DocumentModel;
 import open.dolphin.infomodel.HealthInsuranceModel;
@@ -88,6 +90,9 @@ public class ScheduleServiceBean {
     @PersistenceContext
     private EntityManager em;
     
+    @Inject
+    private BlobServiceBean blobServiceBean;
+    
 //s.oh^ 2014/02/21 Claim送信方法の変更
     //@Resource(mappedName = "java:/JmsXA")
     //private ConnectionFactory connectionFactory;
@@ -228,7 +233,7 @@ public class ScheduleServiceBean {
                     ProgressCourse soaProgress = new ProgressCourse();
                     soaProgress.setFreeText(sb.toString());
                     ModuleModel soaSpecModule = new ModuleModel();
-                    soaSpecModule.setBeanBytes(IOSHelper.toXMLBytes(soaProgress));
+                    soaSpecModule.setBeanBytes(BeanCodec.encode(soaProgress));
                     soaSpecModule.setConfirmed(latest.getConfirmed());
                     soaSpecModule.setStarted(latest.getStarted());
                     soaSpecModule.setRecorded(latest.getRecorded());
@@ -261,7 +266,7 @@ public class ScheduleServiceBean {
                     ProgressCourse pProgress = new ProgressCourse();
                     pProgress.setFreeText(sb.toString());
                     ModuleModel pSpecModule = new ModuleModel();
-                    pSpecModule.setBeanBytes(IOSHelper.toXMLBytes(pProgress));
+                    pSpecModule.setBeanBytes(BeanCodec.encode(pProgress));
                     pSpecModule.setConfirmed(latest.getConfirmed());
                     pSpecModule.setStarted(latest.getStarted());
                     pSpecModule.setRecorded(latest.getRecorded());
@@ -505,6 +510,9 @@ public class ScheduleServiceBean {
                 .setParameter("id", id).getResultList();
                 for (Iterator iter = deleteImages.iterator(); iter.hasNext(); ) {
                     SchemaModel model = (SchemaModel) iter.next();
+                    if (!IInfoModel.STATUS_DELETE.equals(model.getStatus())) {
+                        blobServiceBean.release(model.getJpegHash());
+                    }
                     model.setStatus(IInfoModel.STATUS_DELETE);
                     model.setEnded(ended);
                 }
@@ -516,6 +524,9 @@ public class ScheduleServiceBean {
                 .setParameter("id", id).getResultList();
                 for (Iterator iter = deleteAttachments.iterator(); iter.hasNext(); ) {
                     AttachmentModel model = (AttachmentModel)iter.next();
+                    if (!IInfoModel.STATUS_DELETE.equals(model.getStatus())) {
+                        blobServiceBean.release(model.getBytesHash());
+                    }
                     model.setStatus(IInfoModel.STATUS_DELETE);
                     model.setEnded(ended);
                 }
@@ -0,0 +1,114 @@
+package open.dolphin.session;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.logging.Logger;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * シェーマ（SchemaModel の jpegByte）の縮小画像を作る。
+ *
+ * カルテの表示（SchemaHolder）は画像を MAX_SIZE に縮めて表示するので、文書の取得時は
+ * 縮小画像だけを送り、元画像は拡大・編集・印刷する時に取得する。
+ */
+public final class SchemaThumbnail {
+
+    // SchemaHolder の表示サイズ
+    public static final int MAX_SIZE = 192;
+
+    private static final float QUALITY = 0.85f;
+
+    private SchemaThumbnail() {
+    }
+
+    /**
+     * JPEG の縮小画像を作る。
+     * @param jpegByte 元画像
+     * @return 縮小画像の JPEG 元画像が MAX_SIZE 以下の場合は元画像、読めない場合は null
+     */
+    public static byte[] create(byte[] jpegByte) {
+
+        if (jpegByte == null || jpegByte.length == 0) {
+            return null;
+        }
+
+        try {
+            BufferedImage src = ImageIO.read(new ByteArrayInputStream(jpegByte));
+            if (src == null) {
+                return null;
+            }
+
+            int w = src.getWidth();
+            int h = src.getHeight();
+            if (w <= MAX_SIZE && h <= MAX_SIZE) {
+                return jpegByte;
+            }
+
+            // アスペクト比を保つ
+            double scale = Math.min((double)MAX_SIZE / w, (double)MAX_SIZE / h);
+            int tw = Math.max(1, (int)Math.round(w * scale));
+            int th = Math.max(1, (int)Math.round(h * scale));
+
+            // 半分ずつ縮めて bilinear のぼけを抑える
+            BufferedImage img = src;
+            int cw = w;
+            int ch = h;
+            do {
+                cw = Math.max(tw, cw / 2);
+                ch = Math.max(th, ch / 2);
+                img = scale(img, cw, ch);
+            } while (cw != tw || ch != th);
+
+            return write(img);
+
+        } catch (IOException | RuntimeException e) {
+            Logger.getLogger("open.dolphin").warning("can't create thumbnail: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // 透過部分は白にする（JPEG はアルファを持たない）
+    private static BufferedImage scale(BufferedImage src, int w, int h) {
+        BufferedImage dest = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = dest.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, w, h);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(src, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return dest;
+    }
+
+    private static byte[] write(BufferedImage img) throws IOException {
+        Iterator<ImageWriter> iter = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!iter.hasNext()) {
+            return null;
+        }
+        ImageWriter writer = iter.next();
+        ByteArrayOutputStream bo = new ByteArrayOutputStream(16384);
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bo)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(QUALITY);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bo.toByteArray();
+    }
+}
@@ -8,7 +8,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import open.dolphin.common.JsonMappers;
 import open.dolphin.infomodel.*;
+import open.dolphin.mbean.ModuleBeanCache;
 import open.dolphin.touch.converter.IDocument;
 import open.dolphin.touch.converter.IPriscription;
 import open.dolphin.touch.session.IPhoneServiceBean;
@@ -776,7 +778,7 @@ public class DolphinResource extends AbstractResource {
 
         for (ModuleModel module : retList) {
 
-            module.setModel((InfoModel)xmlDecode(module.getBeanBytes()));
+            module.setModel(ModuleBeanCache.getInstance().getModel(module));
 
             BundleMed med = (BundleMed)module.getModel();
             ClaimItem[] items = med.getClaimItem();
@@ -1454,7 +1456,7 @@ public class DolphinResource extends AbstractResource {
     public String postDocument(String json) throws IOException {
         
         // JSON to IDocument
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = JsonMappers.getDeserializeMapper();
         IDocument document = mapper.readValue(json, IDocument.class);
         
         // IDocument to DocumentModel
@@ -1475,7 +1477,7 @@ public class DolphinResource extends AbstractResource {
     public String postDocument2(String json) throws IOException {
         
         // JSON to IDocument2
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = JsonMappers.getDeserializeMapper();
         IDocument2 document = mapper.readValue(json, IDocument2.class);
         
         // IDocument to DocumentModel
@@ -8,7 +8,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import open.dolphin.common.JsonMappers;
 import open.dolphin.infomodel.*;
+import open.dolphin.mbean.ModuleBeanCache;
 import open.dolphin.session.KarteServiceBean;
 import open.dolphin.touch.converter.IDocument;
 import open.dolphin.touch.converter.IDocument2;
@@ -736,7 +738,7 @@ public class DolphinResourceASP extends AbstractResource {
 
         for (ModuleModel module : retList) {
 
-            module.setModel((InfoModel)xmlDecode(module.getBeanBytes()));
+            module.setModel(ModuleBeanCache.getInstance().getModel(module));
 
             BundleMed med = (BundleMed)module.getModel();
             ClaimItem[] items = med.getClaimItem();
@@ -1412,7 +1414,7 @@ public class DolphinResourceASP extends AbstractResource {
         //System.err.println("post document did call");
         System.err.println(json);
         
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = JsonMappers.getDeserializeMapper();
         IDocument document = mapper.readValue(json, IDocument.class);
         DocumentModel model = document.toModel();
         System.err.println(model.toString());
@@ -1436,7 +1438,7 @@ public class DolphinResourceASP extends AbstractResource {
         
         System.err.println(json);
         
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = JsonMappers.getDeserializeMapper();
         IDocument2 document = mapper.readValue(json, IDocument2.class);
         DocumentModel model = document.toModel();
         System.err.println(model.toString());
@@ -90,7 +90,6 @@ import open.dolphin.touch.converter.ISendPackage2;
 import open.dolphin.touch.converter.IVitalModel;
 import open.dolphin.touch.session.EHTServiceBean;
 import open.orca.rest.ORCAConnection;
-import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -308,7 +307,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 IPatientMemoModel model = mapper.readValue(json, IPatientMemoModel.class);
                 int cnt = ehtService.addPatientMemo(model.toModel());
                 mapper = getSerializeMapper();
@@ -326,7 +325,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 IPatientMemoModel model = mapper.readValue(json, IPatientMemoModel.class);
                 int cnt = ehtService.updatePatientMemo(model.toModel());
                 mapper = getSerializeMapper();
@@ -345,7 +344,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 IPatientMemoModel model = mapper.readValue(json, IPatientMemoModel.class);
                 int cnt = ehtService.deletePatientMemo(model.toModel());
                 mapper = getSerializeMapper();
@@ -405,8 +404,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IAllergyModel[] allergies = mapper.readValue(json, IAllergyModel[].class);
                 
                 int cnt = 0;
@@ -432,8 +430,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IAllergyModel[] allergies = mapper.readValue(json, IAllergyModel[].class);
                 
                 int cnt = 0;
@@ -459,8 +456,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IAllergyModel[] allergies = mapper.readValue(json, IAllergyModel[].class);
 
                 int cnt = 0;
@@ -514,8 +510,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IRegisteredDiagnosis[] list = mapper.readValue(json, IRegisteredDiagnosis[].class);
                 
                 int cnt = 0;
@@ -541,8 +536,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IRegisteredDiagnosis[] list = mapper.readValue(json, IRegisteredDiagnosis[].class);
                 
                 int cnt = 0;
@@ -568,8 +562,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 IRegisteredDiagnosis[] list = mapper.readValue(json, IRegisteredDiagnosis[].class);
                                 
                 int cnt = 0;
@@ -704,7 +697,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 ISendPackage pkg = mapper.readValue(json, ISendPackage.class);
 
                 // カルテ文書
@@ -736,7 +729,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 ISendPackage2 pkg = mapper.readValue(json, ISendPackage2.class);
 
                 // カルテ文書
@@ -767,8 +760,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
                 
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 String[] pks = mapper.readValue(json, String[].class);
                 
                 long pk = Long.parseLong(pks[0]);
@@ -1192,7 +1184,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
 
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = getDeserializeMapper();
                 InteractionCodeList input = mapper.readValue(json, InteractionCodeList.class);
                 
 //                if (input.getCodes1()!=null)
@@ -1266,8 +1258,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 
                 String fpid = getFidPid(servletReq.getRemoteUser(), param);
                 List<VitalModel> list = ehtService.getPatVital(fpid);
@@ -1291,8 +1282,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 
                 IVitalModel imodel = mapper.readValue(json, IVitalModel.class);
                 VitalModel model = imodel.toModel();
@@ -1312,8 +1302,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
 
                 int cnt = ehtService.removeVital(json);
                 mapper = getSerializeMapper();
@@ -1329,8 +1318,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 
                 long karteId = Long.parseLong(param);
                 List<IPhysicalModel> result = ehtService.getPhysicals(karteId);
@@ -1348,8 +1336,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 
                 IPhysicalModel physical = mapper.readValue(json, IPhysicalModel.class);
                 int cnt = 0;
@@ -1370,8 +1357,7 @@ public class EHTResource extends open.dolphin.rest.AbstractResource {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ObjectMapper mapper = new ObjectMapper();
-                mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                ObjectMapper mapper = getDeserializeMapper();
                 
                 String[] params = json.split(CAMMA);
                 List<Long> list = new ArrayList<Long>(params.length);
@@ -217,7 +217,7 @@ public class JsonTouchResource extends open.dolphin.rest.AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String postSendPackage(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = getDeserializeMapper();
         ISendPackage pkg = mapper.readValue(json, ISendPackage.class);
         
         long retPk = 0L;
@@ -273,7 +273,7 @@ public class JsonTouchResource extends open.dolphin.rest.AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String postSendPackage2(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = getDeserializeMapper();
         ISendPackage2 pkg = mapper.readValue(json, ISendPackage2.class);
         
         long retPk = 0L;
@@ -329,7 +329,7 @@ public class JsonTouchResource extends open.dolphin.rest.AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String postDocument(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = getDeserializeMapper();
         IDocument document = mapper.readValue(json, IDocument.class);
         DocumentModel model = document.toModel();
         
@@ -344,7 +344,7 @@ public class JsonTouchResource extends open.dolphin.rest.AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String postDocument2(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = getDeserializeMapper();
         IDocument2 document = mapper.readValue(json, IDocument2.class);
         DocumentModel model = document.toModel();
         
@@ -359,7 +359,7 @@ public class JsonTouchResource extends open.dolphin.rest.AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String postMkDocument(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = getDeserializeMapper();
         IMKDocument document = mapper.readValue(json, IMKDocument.class);
         DocumentModel model = document.toModel();
         
@@ -374,7 +374,7 @@ public class JsonTouchResource extends open.dolphin.rest.AbstractResource {
     @Produces(MediaType.TEXT_PLAIN)
     public String postMkDocument2(String json) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = getDeserializeMapper();
         IMKDocument2 document = mapper.readValue(json, IMKDocument2.class);
         DocumentModel model = document.toModel();
         
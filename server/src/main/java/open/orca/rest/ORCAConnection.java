@@ -4,15 +4,23 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
+import open.dolphin.common.JdbcConnectionPool;
 
 /**
  * 2013/08/29
+ *
+ * claim.conn=server の場合は ORCA へ直接接続し、接続はプールして使い回す。
+ *
+ * custom.properties
+ *   claim.jdbc.pool.size       同時に使う接続の数 (8)
+ *   claim.jdbc.pool.timeout    空きを待つ秒数 (30)
+ *   claim.jdbc.statement.cache 接続毎に使い回す PreparedStatement の数 (32)
+ *
  * @author kazushi
  */
 public class ORCAConnection {
@@ -26,6 +34,9 @@ public class ORCAConnection {
     private String user;
     private String password;
     
+    // 接続プール
+    private JdbcConnectionPool pool;
+    
 //minagawa^    
     private final Properties config;
 //minagawa$
@@ -58,6 +69,13 @@ public class ORCAConnection {
                 password = config.getProperty("claim.password");
             }
             
+            if (jdbcURL!=null && user!=null && password!=null) {
+                pool = JdbcConnectionPool.getPool(jdbcURL, user, password, true,
+                        intValue("claim.jdbc.pool.size", JdbcConnectionPool.DEFAULT_MAX_SIZE),
+                        intValue("claim.jdbc.pool.timeout", 30) * 1000L,
+                        intValue("claim.jdbc.statement.cache", JdbcConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE));
+            }
+            
         } catch (Exception e) {
             e.printStackTrace(System.err);
         }
@@ -66,10 +84,9 @@ public class ORCAConnection {
     public Connection getConnection() {
         
         try {
-            if (jdbcURL!=null && user!=null && password!=null) {
-                Connection conn = DriverManager.getConnection(jdbcURL, user, password);         
-                conn.setReadOnly(true);           
-                return conn;
+            if (pool!=null) {
+                // 読み取り専用の接続がプールから返る
+                return pool.getConnection();
             } else {
                 DataSource ds = (DataSource)InitialContext.doLookup("java:jboss/datasources/ORCADS");
                 return ds.getConnection();
@@ -93,5 +110,24 @@ public class ORCAConnection {
         String test = config.getProperty("claim.conn");         // connection type
         return test!=null && test.equals("server");
     }
+    
+    /**
+     * 接続プールの集計を返す。
+     * @return 集計 プールを使っていない場合は null
+     */
+    public String getPoolStatistics() {
+        return pool!=null ? pool.getStatistics() : null;
+    }
+    
+    private int intValue(String key, int def) {
+        String value = config.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+            }
+        }
+        return def;
+    }
 //minagawa$    
 }
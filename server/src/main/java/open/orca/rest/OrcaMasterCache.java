@@ -0,0 +1,929 @@
+package open.orca.rest;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import open.dolphin.infomodel.DiseaseEntry;
+import open.dolphin.infomodel.DrugInteractionModel;
+import open.dolphin.infomodel.TensuMaster;
+
+/**
+ * ORCA の点数マスター・病名マスター・一般名・併用禁忌のキャッシュ
+ *
+ * tbl_tensu, tbl_byomei, tbl_genericname, tbl_interact を丸ごと読み込み、OrcaResource の検索をメモリ上で行う。
+ * マスターはマスター更新の時にしか変わらないため、読み込んだものを次の読み直しまで使い続ける。
+ *
+ * 検索条件は ORCA に渡していた正規表現のまま受け取り、次の索引で候補を絞ってから照合する。
+ *   srycd      srycd 順に並べてあるので、正規表現の先頭の固定文字列で二分探索する
+ *   srysyukbn  値毎の行の一覧 値の種類は少ないので値毎に照合する
+ *   名称・カナ  二文字毎の行の一覧 正規表現が固定文字列の場合に使う
+ *   併用禁忌    薬剤コードの組を一つの long にし、並べたものを二分探索する
+ * 有効期間（yukostymd, yukoedymd）、廃止日（haisiymd）はメモリ上で絞る。
+ *
+ * 読み込みは別スレッドで行い、読み込み中（初回）は null を返すので呼び出し側は ORCA を検索する。
+ * 読み直しの間は前のキャッシュを使う。
+ * 読み込みに失敗した場合、検索からは読み直さず、retry() で orca.master.cache.retry 分毎に読み直す。
+ *
+ * custom.properties
+ *   orca.master.cache          キャッシュを使うかどうか (true)
+ *   orca.master.cache.refresh  読み直すまでの時間 0 の場合は日付の切り替えと明示的な読み直しのみ (24)
+ *   orca.master.cache.retry    読み込みに失敗した後、読み直すまでの分 (5)
+ *
+ * 返す TensuMaster, DiseaseEntry は共有されるため、呼び出し側で書き換えてはならない。
+ */
+public final class OrcaMasterCache {
+
+    private static final OrcaMasterCache instance = new OrcaMasterCache();
+
+    private static final String QUERY_TENSU
+            = "select srycd,name,kananame,taniname,tensikibetu,ten,nyugaitekkbn,routekkbn,srysyukbn,hospsrykbn,ykzkbn,yakkakjncd,yukostymd,yukoedymd from tbl_tensu order by srycd,yukostymd";
+
+    private static final String QUERY_DISEASE
+            = "select byomeicd, byomei, byomeikana, icd10_1, haisiymd from tbl_byomei order by byomeicd";
+
+    private static final String QUERY_GENERAL_NAME
+            = "select b.srycd,genericname from tbl_tensu b,tbl_genericname c where substring(b.yakkakjncd from 1 for 9)=c.yakkakjncd order by b.srycd,b.yukoedymd desc";
+
+    private static final String QUERY_INTERACTION
+            = "select drugcd, drugcd2, TI.syojyoucd, syojyou from tbl_interact TI inner join tbl_sskijyo TS on TI.syojyoucd = TS.syojyoucd order by drugcd, drugcd2";
+
+    private static final int FETCH_SIZE = 1000;
+
+    // ORCA の正規表現で特別な意味を持つ文字
+    private static final String REGEX_META = "\\^$.[]|(){}*+?";
+
+    private final boolean enabled;
+    private final long refreshInterval;
+    private final long retryInterval;
+    private final ThreadFactory threadFactory;
+
+    private final AtomicBoolean loading = new AtomicBoolean();
+    private volatile Master master;
+
+    // 最後に読み込みに失敗した時刻 成功すれば 0
+    private volatile long failedAt;
+
+    public static OrcaMasterCache getInstance() {
+        return instance;
+    }
+
+    private OrcaMasterCache() {
+        Properties config = ORCAConnection.getInstance().getProperties();
+        enabled = !"false".equals(config.getProperty("orca.master.cache"));
+        refreshInterval = longValue(config, "orca.master.cache.refresh", 24L) * 3600000L;
+        retryInterval = longValue(config, "orca.master.cache.retry", 5L) * 60000L;
+        threadFactory = lookupThreadFactory();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 検索に使えるかどうか。まだ読み込んでいなければ読み込みを始める。
+     * 一度使えるようになれば、以後は読み直しの間も使える。
+     * 読み込みに失敗している間はここからは読み直さない（retry に任せる）。
+     * @return 使える場合 true
+     */
+    public boolean isReady() {
+        if (!enabled) {
+            return false;
+        }
+        Master m = master;
+        if (failedAt == 0L
+                && (m == null || (refreshInterval > 0L && System.currentTimeMillis() - m.loadedAt > refreshInterval))) {
+            refresh();
+        }
+        return m != null;
+    }
+
+    /**
+     * 読み込みに失敗していて orca.master.cache.retry 分経っていれば読み直す。タイマーから呼ぶ。
+     */
+    public void retry() {
+        long failed = failedAt;
+        if (failed != 0L && System.currentTimeMillis() - failed >= retryInterval) {
+            refresh();
+        }
+    }
+
+    /**
+     * 読み込み済かどうか。読み込みは始めない。
+     * @return 読み込み済の場合 true
+     */
+    public boolean isLoaded() {
+        return master != null;
+    }
+
+    /**
+     * 別スレッドでマスターを読み直す。読み込み中であれば何もしない。
+     */
+    public void refresh() {
+        if (!enabled || !loading.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Thread t = threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        load();
+                    } finally {
+                        loading.set(false);
+                    }
+                }
+            });
+            t.setName("orca-master-cache");
+            t.start();
+        } catch (RuntimeException e) {
+            loading.set(false);
+            failedAt = System.currentTimeMillis();
+            Logger.getLogger("open.dolphin").log(Level.WARNING, "ORCA master cache: {0}", e.getMessage());
+        }
+    }
+
+    /**
+     * 診療種別区分（srysyukbn）で点数マスターを検索する。
+     * @param regExp srysyukbn の正規表現
+     * @param now 有効日 yyyyMMdd
+     * @return 該当するもの キャッシュが使えない場合は null
+     */
+    public List<TensuMaster> getTensuByShinku(String regExp, String now) {
+
+        Master m = master;
+        Pattern p = compile(regExp);
+        if (m == null || p == null) {
+            return null;
+        }
+
+        BitSet rows = new BitSet(m.tensu.length);
+        for (Map.Entry<String, int[]> e : m.shinku.entrySet()) {
+            if (p.matcher(e.getKey()).find()) {
+                for (int row : e.getValue()) {
+                    rows.set(row);
+                }
+            }
+        }
+
+        List<TensuMaster> list = new ArrayList<>();
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            addIfValid(list, m.tensu[row], now);
+        }
+        return list;
+    }
+
+    /**
+     * 名称又はカナ名称で点数マスターを検索する。
+     * @param name 名称の正規表現（one の場合は名称そのもの）
+     * @param now 有効日 yyyyMMdd
+     * @param one 名称が一文字で、完全一致で検索する場合 true
+     * @return 該当するもの キャッシュが使えない場合は null
+     */
+    public List<TensuMaster> getTensuByName(String name, String now, boolean one) {
+
+        Master m = master;
+        if (m == null) {
+            return null;
+        }
+
+        List<TensuMaster> list = new ArrayList<>();
+
+        if (one) {
+            for (TensuMaster t : m.tensu) {
+                if (name.equals(t.getName()) || name.equals(t.getKananame())) {
+                    addIfValid(list, t, now);
+                }
+            }
+            return list;
+        }
+
+        String literal = literal(name);
+        if (literal != null) {
+            boolean prefix = name.startsWith("^");
+            for (int row : m.tensuGrams.candidates(literal)) {
+                TensuMaster t = m.tensu[row];
+                if (matches(t.getName(), literal, prefix) || matches(t.getKananame(), literal, prefix)) {
+                    addIfValid(list, t, now);
+                }
+            }
+            return list;
+        }
+
+        Pattern p = compile(name);
+        if (p == null) {
+            return null;
+        }
+        for (TensuMaster t : m.tensu) {
+            if (find(p, t.getName()) || find(p, t.getKananame())) {
+                addIfValid(list, t, now);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 診療行為コードで点数マスターを検索する。
+     * @param regExp srycd の正規表現
+     * @param now 有効日 yyyyMMdd
+     * @return 該当するもの キャッシュが使えない場合は null
+     */
+    public List<TensuMaster> getTensuByCode(String regExp, String now) {
+
+        Master m = master;
+        Pattern p = compile(regExp);
+        if (m == null || p == null) {
+            return null;
+        }
+
+        // 先頭の固定文字列で範囲を絞る
+        int from = 0;
+        int to = m.tensu.length;
+        String prefix = literalPrefix(regExp);
+        if (prefix != null && prefix.length() > 0) {
+            from = lowerBound(m.tensu, prefix);
+            to = lowerBound(m.tensu, prefix + Character.MAX_VALUE);
+        }
+
+        List<TensuMaster> list = new ArrayList<>();
+        for (int row = from; row < to; row++) {
+            TensuMaster t = m.tensu[row];
+            if (find(p, t.getSrycd())) {
+                addIfValid(list, t, now);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 点数で点数マスターを検索する。
+     * @param min 点数の下限
+     * @param max 点数の上限
+     * @param now 有効日 yyyyMMdd
+     * @return 該当するもの キャッシュが使えない場合は null
+     */
+    public List<TensuMaster> getTensuByTen(float min, float max, String now) {
+
+        Master m = master;
+        if (m == null) {
+            return null;
+        }
+
+        List<TensuMaster> list = new ArrayList<>();
+        for (int row = 0; row < m.tensu.length; row++) {
+            float ten = m.ten[row];
+            if (ten >= min && ten <= max) {
+                addIfValid(list, m.tensu[row], now);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 病名又はカナで病名マスターを検索する。
+     * @param regExp 病名の正規表現
+     * @param now 廃止日と比べる日付 yyyyMMdd
+     * @return 該当するもの キャッシュが使えない場合は null
+     */
+    public List<DiseaseEntry> getDiseaseByName(String regExp, String now) {
+
+        Master m = master;
+        if (m == null) {
+            return null;
+        }
+
+        List<DiseaseEntry> list = new ArrayList<>();
+
+        String literal = literal(regExp);
+        if (literal != null) {
+            boolean prefix = regExp.startsWith("^");
+            for (int row : m.diseaseGrams.candidates(literal)) {
+                DiseaseEntry de = m.disease[row];
+                if (matches(de.getName(), literal, prefix) || matches(de.getKana(), literal, prefix)) {
+                    addIfInUse(list, de, now);
+                }
+            }
+            return list;
+        }
+
+        Pattern p = compile(regExp);
+        if (p == null) {
+            return null;
+        }
+        for (DiseaseEntry de : m.disease) {
+            if (find(p, de.getName()) || find(p, de.getKana())) {
+                addIfInUse(list, de, now);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 一般名を返す。isReady() が true の場合に使う。
+     * @param srycd 診療行為コード
+     * @return 一般名 無い場合は null
+     */
+    public String getGeneralName(String srycd) {
+        Master m = master;
+        return m != null ? m.generalNames.get(srycd) : null;
+    }
+
+    /**
+     * 併用禁忌を調べる。codes1 と codes2 の全ての組を一度に調べる。
+     * @param codes1 調べる薬剤コード
+     * @param codes2 組み合わせる薬剤コード
+     * @return 併用禁忌の一覧 キャッシュが使えない場合は null
+     */
+    public List<DrugInteractionModel> checkInteraction(Collection<String> codes1, Collection<String> codes2) {
+
+        Master m = master;
+        if (m == null || m.interactions == null) {
+            return null;
+        }
+
+        List<DrugInteractionModel> list = new ArrayList<>();
+        Set<String> drugs2 = new LinkedHashSet<>(codes2);
+        for (String drug1 : new LinkedHashSet<>(codes1)) {
+            for (String drug2 : drugs2) {
+                m.interactions.find(drug1, drug2, list);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        Master m = master;
+        StringBuilder sb = new StringBuilder();
+        sb.append("ORCA master cache");
+        if (m == null) {
+            sb.append(" not loaded");
+        } else {
+            sb.append(" tensu=").append(m.tensu.length);
+            sb.append(" disease=").append(m.disease.length);
+            sb.append(" generic=").append(m.generalNames.size());
+            sb.append(" interaction=").append(m.interactions != null ? String.valueOf(m.interactions.size()) : "none");
+            sb.append(" loaded=").append(new java.util.Date(m.loadedAt));
+        }
+        return sb.toString();
+    }
+
+    //-------------------------------------------------------------------------
+
+    private void load() {
+
+        long start = System.currentTimeMillis();
+        Connection con = ORCAConnection.getInstance().getConnection();
+        if (con == null) {
+            failedAt = System.currentTimeMillis();
+            Logger.getLogger("open.dolphin").warning("ORCA master cache: no connection");
+            return;
+        }
+
+        try {
+            // カーソルで少しずつ読む
+            con.setAutoCommit(false);
+
+            List<TensuMaster> tensu = new ArrayList<>(65536);
+            List<Float> ten = new ArrayList<>(65536);
+            try (Statement st = createStatement(con); ResultSet rs = st.executeQuery(QUERY_TENSU)) {
+                while (rs.next()) {
+                    TensuMaster t = new TensuMaster();
+                    t.setSrycd(rs.getString(1));
+                    t.setName(rs.getString(2));
+                    t.setKananame(rs.getString(3));
+                    t.setTaniname(rs.getString(4));
+                    t.setTensikibetu(rs.getString(5));
+                    t.setTen(rs.getString(6));
+                    t.setNyugaitekkbn(rs.getString(7));
+                    t.setRoutekkbn(rs.getString(8));
+                    t.setSrysyukbn(rs.getString(9));
+                    t.setHospsrykbn(rs.getString(10));
+                    t.setYkzkbn(rs.getString(11));
+                    t.setYakkakjncd(rs.getString(12));
+                    t.setYukostymd(rs.getString(13));
+                    t.setYukoedymd(rs.getString(14));
+                    tensu.add(t);
+                    float f = rs.getFloat(6);
+                    ten.add(rs.wasNull() ? Float.NaN : f);
+                }
+            }
+
+            List<DiseaseEntry> disease = new ArrayList<>(32768);
+            try (Statement st = createStatement(con); ResultSet rs = st.executeQuery(QUERY_DISEASE)) {
+                while (rs.next()) {
+                    DiseaseEntry de = new DiseaseEntry();
+                    de.setCode(rs.getString(1));
+                    de.setName(rs.getString(2));
+                    de.setKana(rs.getString(3));
+                    de.setIcdTen(rs.getString(4));
+                    de.setDisUseDate(rs.getString(5));
+                    disease.add(de);
+                }
+            }
+
+            // 有効期限の最も新しいもの
+            Map<String, String> generalNames = new HashMap<>();
+            try (Statement st = createStatement(con); ResultSet rs = st.executeQuery(QUERY_GENERAL_NAME)) {
+                while (rs.next()) {
+                    String srycd = rs.getString(1);
+                    if (!generalNames.containsKey(srycd)) {
+                        generalNames.put(srycd, rs.getString(2));
+                    }
+                }
+            }
+
+            con.commit();
+
+            // 併用禁忌は点数・病名と別に読み、失敗した場合は前のもの（無ければ無し）を使う
+            InteractionTable interactions = loadInteractions(con);
+            if (interactions == null) {
+                Master old = master;
+                interactions = old != null ? old.interactions : null;
+            }
+
+            master = new Master(tensu, ten, disease, generalNames, interactions);
+            failedAt = 0L;
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(toString()).append(" ").append(System.currentTimeMillis() - start).append("ms");
+            Logger.getLogger("open.dolphin").info(sb.toString());
+
+        } catch (SQLException | RuntimeException e) {
+            failedAt = System.currentTimeMillis();
+            Logger.getLogger("open.dolphin").log(Level.WARNING, "ORCA master cache: {0}", e.getMessage());
+
+        } finally {
+            try {
+                con.rollback();
+                con.setAutoCommit(true);
+            } catch (SQLException e) {
+            }
+            try {
+                con.close();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    private static InteractionTable loadInteractions(Connection con) {
+        InteractionTable.Builder interactions = new InteractionTable.Builder();
+        try (Statement st = createStatement(con); ResultSet rs = st.executeQuery(QUERY_INTERACTION)) {
+            while (rs.next()) {
+                interactions.add(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4));
+            }
+            con.commit();
+            return interactions.build();
+        } catch (SQLException | RuntimeException e) {
+            Logger.getLogger("open.dolphin").log(Level.WARNING, "ORCA master cache (interaction): {0}", e.getMessage());
+            try {
+                con.rollback();
+            } catch (SQLException e2) {
+            }
+            return null;
+        }
+    }
+
+    private static long longValue(Properties config, String key, long def) {
+        String value = config.getProperty(key);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+            }
+        }
+        return def;
+    }
+
+    private static Statement createStatement(Connection con) throws SQLException {
+        Statement st = con.createStatement();
+        st.setFetchSize(FETCH_SIZE);
+        return st;
+    }
+
+    private static void addIfValid(List<TensuMaster> list, TensuMaster t, String now) {
+        String st = t.getYukostymd();
+        String ed = t.getYukoedymd();
+        if (st != null && ed != null && st.compareTo(now) <= 0 && ed.compareTo(now) >= 0) {
+            list.add(t);
+        }
+    }
+
+    private static void addIfInUse(List<DiseaseEntry> list, DiseaseEntry de, String now) {
+        String haisi = de.getDisUseDate();
+        if (haisi != null && haisi.compareTo(now) >= 0) {
+            list.add(de);
+        }
+    }
+
+    private static boolean matches(String value, String literal, boolean prefix) {
+        if (value == null) {
+            return false;
+        }
+        return prefix ? value.startsWith(literal) : value.contains(literal);
+    }
+
+    private static boolean find(Pattern p, String value) {
+        return value != null && p.matcher(value).find();
+    }
+
+    private static Pattern compile(String regExp) {
+        try {
+            return Pattern.compile(regExp);
+        } catch (PatternSyntaxException e) {
+            // ORCA 側の正規表現に任せる
+            return null;
+        }
+    }
+
+    // 先頭の ^ を除いて特別な文字を含まなければその文字列
+    private static String literal(String regExp) {
+        String s = regExp.startsWith("^") ? regExp.substring(1) : regExp;
+        if (s.length() < 2) {
+            return null;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (REGEX_META.indexOf(s.charAt(i)) >= 0) {
+                return null;
+            }
+        }
+        return s;
+    }
+
+    // ^ で始まる正規表現の先頭の固定文字列 範囲を絞れない場合は null
+    private static String literalPrefix(String regExp) {
+        if (!regExp.startsWith("^") || regExp.indexOf('|') >= 0) {
+            return null;
+        }
+        int end = 1;
+        while (end < regExp.length() && REGEX_META.indexOf(regExp.charAt(end)) < 0) {
+            end++;
+        }
+        // 直後が量指定子の場合はその文字を含めない
+        if (end < regExp.length() && "*?{".indexOf(regExp.charAt(end)) >= 0) {
+            end--;
+        }
+        return end > 1 ? regExp.substring(1, end) : null;
+    }
+
+    private static int lowerBound(TensuMaster[] tensu, String key) {
+        int lo = 0;
+        int hi = tensu.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            String code = tensu[mid].getSrycd();
+            if (code == null || code.compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // コンテナ管理のスレッドを使う 取得できなければ通常のスレッド
+    private static ThreadFactory lookupThreadFactory() {
+        try {
+            return (ThreadFactory)new InitialContext().lookup("java:jboss/ee/concurrency/factory/default");
+        } catch (NamingException | ClassCastException e) {
+            return Executors.defaultThreadFactory();
+        }
+    }
+
+    /**
+     * 読み込んだマスターと索引 作った後は変更しない
+     */
+    private static final class Master {
+
+        private final TensuMaster[] tensu;
+        private final float[] ten;
+        private final Map<String, int[]> shinku;
+        private final GramIndex tensuGrams;
+        private final DiseaseEntry[] disease;
+        private final GramIndex diseaseGrams;
+        private final Map<String, String> generalNames;
+        private final InteractionTable interactions;
+        private final long loadedAt;
+
+        private Master(List<TensuMaster> tensuList, List<Float> tenList, List<DiseaseEntry> diseaseList,
+                Map<String, String> generalNames, InteractionTable interactions) {
+
+            this.tensu = tensuList.toArray(new TensuMaster[tensuList.size()]);
+            this.ten = new float[tenList.size()];
+            for (int i = 0; i < ten.length; i++) {
+                ten[i] = tenList.get(i);
+            }
+
+            // srycd の並びが DB と Java で異なる場合に備えて並べ直す（安定ソート）
+            Integer[] order = new Integer[tensu.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            final TensuMaster[] src = tensu.clone();
+            Arrays.sort(order, (a, b) -> {
+                String ca = src[a].getSrycd() != null ? src[a].getSrycd() : "";
+                String cb = src[b].getSrycd() != null ? src[b].getSrycd() : "";
+                return ca.compareTo(cb);
+            });
+            float[] srcTen = ten.clone();
+            for (int i = 0; i < order.length; i++) {
+                tensu[i] = src[order[i]];
+                ten[i] = srcTen[order[i]];
+            }
+
+            Map<String, IntList> kbn = new HashMap<>();
+            GramIndex.Builder tb = new GramIndex.Builder();
+            for (int row = 0; row < tensu.length; row++) {
+                TensuMaster t = tensu[row];
+                String key = t.getSrysyukbn() != null ? t.getSrysyukbn() : "";
+                IntList rows = kbn.get(key);
+                if (rows == null) {
+                    rows = new IntList();
+                    kbn.put(key, rows);
+                }
+                rows.add(row);
+                tb.add(row, t.getName());
+                tb.add(row, t.getKananame());
+            }
+            this.shinku = new HashMap<>(kbn.size() * 2);
+            for (Map.Entry<String, IntList> e : kbn.entrySet()) {
+                shinku.put(e.getKey(), e.getValue().toArray());
+            }
+            this.tensuGrams = tb.build();
+
+            this.disease = diseaseList.toArray(new DiseaseEntry[diseaseList.size()]);
+            GramIndex.Builder db = new GramIndex.Builder();
+            for (int row = 0; row < disease.length; row++) {
+                db.add(row, disease[row].getName());
+                db.add(row, disease[row].getKana());
+            }
+            this.diseaseGrams = db.build();
+
+            this.generalNames = generalNames;
+            this.interactions = interactions;
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 二文字毎の行の一覧
+     */
+    private static final class GramIndex {
+
+        private final Map<Integer, int[]> postings;
+
+        private GramIndex(Map<Integer, int[]> postings) {
+            this.postings = postings;
+        }
+
+        /**
+         * literal の二文字を全て含む行の候補（昇順）を返す。候補は呼び出し側で照合すること。
+         */
+        private int[] candidates(String literal) {
+            int[] best = null;
+            for (int i = 0; i + 1 < literal.length(); i++) {
+                int[] rows = postings.get(gram(literal.charAt(i), literal.charAt(i + 1)));
+                if (rows == null) {
+                    return new int[0];
+                }
+                if (best == null || rows.length < best.length) {
+                    best = rows;
+                }
+            }
+            return best;
+        }
+
+        private static int gram(char c1, char c2) {
+            return (c1 << 16) | c2;
+        }
+
+        private static final class Builder {
+
+            private final Map<Integer, IntList> map = new HashMap<>();
+
+            private void add(int row, String value) {
+                if (value == null) {
+                    return;
+                }
+                for (int i = 0; i + 1 < value.length(); i++) {
+                    Integer key = gram(value.charAt(i), value.charAt(i + 1));
+                    IntList rows = map.get(key);
+                    if (rows == null) {
+                        rows = new IntList();
+                        map.put(key, rows);
+                    }
+                    // 同じ行を二度入れない（行は昇順に追加される）
+                    if (rows.size == 0 || rows.data[rows.size - 1] != row) {
+                        rows.add(row);
+                    }
+                }
+            }
+
+            private GramIndex build() {
+                Map<Integer, int[]> postings = new HashMap<>(map.size() * 2);
+                for (Map.Entry<Integer, IntList> e : map.entrySet()) {
+                    postings.put(e.getKey(), e.getValue().toArray());
+                }
+                return new GramIndex(postings);
+            }
+        }
+    }
+
+    /**
+     * 併用禁忌の表
+     * 9 桁の薬剤コードの組を drugcd * 10^9 + drugcd2 の long にし、昇順に並べて持つ。
+     * 症状は種類が少ないので番号で持つ。数字 9 桁でないコードの組は別に持つ。
+     */
+    private static final class InteractionTable {
+
+        private static final long RADIX = 1000000000L;
+
+        private final long[] keys;
+        private final int[] symptoms;
+        private final String[] symptomCodes;
+        private final String[] symptomNames;
+        private final Map<String, int[]> others;
+
+        private InteractionTable(long[] keys, int[] symptoms, String[] symptomCodes, String[] symptomNames, Map<String, int[]> others) {
+            this.keys = keys;
+            this.symptoms = symptoms;
+            this.symptomCodes = symptomCodes;
+            this.symptomNames = symptomNames;
+            this.others = others;
+        }
+
+        private int size() {
+            return keys.length + others.size();
+        }
+
+        private void find(String drug1, String drug2, List<DrugInteractionModel> list) {
+            long key = key(drug1, drug2);
+            if (key >= 0L) {
+                for (int i = lowerBound(key); i < keys.length && keys[i] == key; i++) {
+                    list.add(model(drug1, drug2, symptoms[i]));
+                }
+            } else {
+                int[] found = others.get(drug1 + "\t" + drug2);
+                if (found != null) {
+                    for (int symptom : found) {
+                        list.add(model(drug1, drug2, symptom));
+                    }
+                }
+            }
+        }
+
+        // 列の並びは OrcaResource の SQL と同じ
+        private DrugInteractionModel model(String drug1, String drug2, int symptom) {
+            return new DrugInteractionModel(drug1, drug2, symptomCodes[symptom], symptomNames[symptom]);
+        }
+
+        private int lowerBound(long key) {
+            int lo = 0;
+            int hi = keys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // 数字 9 桁の組でなければ -1
+        private static long key(String drug1, String drug2) {
+            long c1 = code(drug1);
+            long c2 = code(drug2);
+            return (c1 < 0L || c2 < 0L) ? -1L : c1 * RADIX + c2;
+        }
+
+        private static long code(String drug) {
+            if (drug == null || drug.length() != 9) {
+                return -1L;
+            }
+            long value = 0L;
+            for (int i = 0; i < 9; i++) {
+                char c = drug.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1L;
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+
+        private static final class Builder {
+
+            private long[] keys = new long[1024];
+            private int[] symptoms = new int[1024];
+            private int size;
+            private boolean sorted = true;
+
+            private final Map<String, Integer> symptomIndex = new HashMap<>();
+            private final List<String> symptomCodes = new ArrayList<>();
+            private final List<String> symptomNames = new ArrayList<>();
+            private final Map<String, IntList> others = new HashMap<>();
+
+            private void add(String drug1, String drug2, String symptomCode, String symptomName) {
+
+                Integer symptom = symptomIndex.get(symptomCode);
+                if (symptom == null) {
+                    symptom = symptomCodes.size();
+                    symptomIndex.put(symptomCode, symptom);
+                    symptomCodes.add(symptomCode);
+                    symptomNames.add(symptomName);
+                }
+
+                long key = key(drug1, drug2);
+                if (key < 0L) {
+                    String other = drug1 + "\t" + drug2;
+                    IntList list = others.get(other);
+                    if (list == null) {
+                        list = new IntList();
+                        others.put(other, list);
+                    }
+                    list.add(symptom);
+                    return;
+                }
+
+                if (size == keys.length) {
+                    keys = Arrays.copyOf(keys, size * 2);
+                    symptoms = Arrays.copyOf(symptoms, size * 2);
+                }
+                if (size > 0 && keys[size - 1] > key) {
+                    sorted = false;
+                }
+                keys[size] = key;
+                symptoms[size] = symptom;
+                size++;
+            }
+
+            private InteractionTable build() {
+
+                long[] k = Arrays.copyOf(keys, size);
+                int[] s = Arrays.copyOf(symptoms, size);
+
+                // DB の並びが数値の並びと異なる場合
+                if (!sorted) {
+                    Integer[] order = new Integer[size];
+                    for (int i = 0; i < size; i++) {
+                        order[i] = i;
+                    }
+                    final long[] src = k.clone();
+                    Arrays.sort(order, (a, b) -> Long.compare(src[a], src[b]));
+                    int[] srcSymptoms = s.clone();
+                    for (int i = 0; i < size; i++) {
+                        k[i] = src[order[i]];
+                        s[i] = srcSymptoms[order[i]];
+                    }
+                }
+
+                Map<String, int[]> o = new HashMap<>(others.size() * 2);
+                for (Map.Entry<String, IntList> e : others.entrySet()) {
+                    o.put(e.getKey(), e.getValue().toArray());
+                }
+
+                return new InteractionTable(k, s,
+                        symptomCodes.toArray(new String[symptomCodes.size()]),
+                        symptomNames.toArray(new String[symptomNames.size()]), o);
+            }
+        }
+    }
+
+    private static final class IntList {
+
+        private int[] data = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
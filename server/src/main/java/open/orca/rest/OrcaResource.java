@@ -1,6 +1,5 @@
 package open.orca.rest;
 
-import java.beans.XMLEncoder;
 import java.io.*;
 import java.sql.*;
 import java.text.ParseException;
@@ -23,6 +22,7 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
+import open.dolphin.common.JsonMappers;
 import open.dolphin.common.OrcaConnect;
 import open.dolphin.converter.*;
 import open.dolphin.infomodel.*;
@@ -103,7 +103,6 @@ public class OrcaResource {
         
         Connection con1 = null;
         java.sql.Statement st1 = null;
-        Connection con2 = null;
         java.sql.Statement st2 = null;
         HOSP_NUM = 1;
         
@@ -152,8 +151,8 @@ public class OrcaResource {
             // Version 検索
             sql = "select version from tbl_dbkanri where kanricd='ORCADB00'";
 
-            con2 = getConnection();
-            st2 = con2.createStatement();
+            // プールの接続を同時に二つ取らないよう同じ接続で検索する
+            st2 = con1.createStatement();
             ResultSet rs2 = st2.executeQuery(sql);
 //minagawa^ BUG            
             if (rs2.next()) {
@@ -167,10 +166,9 @@ public class OrcaResource {
             e.printStackTrace(System.err);
             
         } finally {
-            closeConnection(con1);
             closeStatement(st1);
-            closeConnection(con2);
             closeStatement(st2);
+            closeConnection(con1);
         }
     }
     //masuda$
@@ -272,6 +270,15 @@ public class OrcaResource {
         }
         //System.err.println(shinku);
         
+        // マスターのキャッシュ
+        OrcaMasterCache cache = OrcaMasterCache.getInstance();
+        if (cache.isReady()) {
+            List<TensuMaster> cached = cache.getTensuByShinku(shinku, now);
+            if (cached != null) {
+                return toTensuListConverter(cached);
+            }
+        }
+        
         // 結果を格納するリスト
         ArrayList<TensuMaster> list = new ArrayList<TensuMaster>();
 
@@ -363,6 +370,15 @@ public class OrcaResource {
             }
         }
         String sql = buf.toString();
+        
+        // マスターのキャッシュ
+        OrcaMasterCache cache = OrcaMasterCache.getInstance();
+        if (cache.isReady()) {
+            List<TensuMaster> cached = cache.getTensuByName(name, now, one);
+            if (cached != null) {
+                return toTensuListConverter(cached);
+            }
+        }
 
         Connection con = null;
         PreparedStatement ps;
@@ -431,6 +447,15 @@ public class OrcaResource {
         String[] params = param.split(CAMMA);
         String regExp = params[0];
         String now = params[1];
+        
+        // マスターのキャッシュ
+        OrcaMasterCache cache = OrcaMasterCache.getInstance();
+        if (cache.isReady()) {
+            List<TensuMaster> cached = cache.getTensuByCode("^"+regExp, now);
+            if (cached != null) {
+                return toTensuListConverter(cached);
+            }
+        }
 
         // 結果を格納するリスト
         ArrayList<TensuMaster> list = new ArrayList<TensuMaster>();
@@ -507,6 +532,26 @@ public class OrcaResource {
         String[] params = param.split(CAMMA);
         String ten = params[0];
         String now = params[1];
+        
+        // マスターのキャッシュ
+        OrcaMasterCache cache = OrcaMasterCache.getInstance();
+        if (cache.isReady()) {
+            List<TensuMaster> cached = null;
+            try {
+                if (ten.indexOf("-") > 0) {
+                    String[] ten_params = ten.split("-");
+                    cached = cache.getTensuByTen(Float.parseFloat(ten_params[0]), Float.parseFloat(ten_params[1]), now);
+                } else {
+                    float f = Float.parseFloat(ten);
+                    cached = cache.getTensuByTen(f, f, now);
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                // 従来どおり ORCA の検索でエラーにする
+            }
+            if (cached != null) {
+                return toTensuListConverter(cached);
+            }
+        }
 
         // 結果を格納するリスト
         ArrayList<TensuMaster> list = new ArrayList<TensuMaster>();
@@ -627,6 +672,19 @@ public class OrcaResource {
         if (!partialMatch) {
             name = "^"+name;
         }
+        
+        // マスターのキャッシュ
+        OrcaMasterCache cache = OrcaMasterCache.getInstance();
+        if (cache.isReady()) {
+            List<DiseaseEntry> cached = cache.getDiseaseByName(name, now);
+            if (cached != null) {
+                DiseaseList wrapper = new DiseaseList();
+                wrapper.setList(cached);
+                DiseaseListConverter conv = new DiseaseListConverter();
+                conv.setModel(wrapper);
+                return conv;
+            }
+        }
 
         try
         {
@@ -673,6 +731,27 @@ public class OrcaResource {
         return null;
     }
     
+    /**
+     * マスターのキャッシュを読み直す。マスター更新の後に使う。
+     * @return キャッシュの状態
+     */
+    @PUT
+    @Path("/master/refresh")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String refreshMasterCache() {
+        OrcaMasterCache cache = OrcaMasterCache.getInstance();
+        cache.refresh();
+        return cache.toString();
+    }
+    
+    private TensuListConverter toTensuListConverter(List<TensuMaster> list) {
+        TensuList wrapper = new TensuList();
+        wrapper.setList(list);
+        TensuListConverter conv = new TensuListConverter();
+        conv.setModel(wrapper);
+        return conv;
+    }
+    
 // masuda^  ORCAのptidを取得する
     private long getOrcaPtID(String patientId){
 
@@ -711,7 +790,7 @@ public class OrcaResource {
     @Produces(MediaType.APPLICATION_JSON)
     public DragInteractionListConverter checkInteraction(String json) throws Exception {
         
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = JsonMappers.getDeserializeMapper();
         InteractionCodeList input = mapper.readValue(json, InteractionCodeList.class);
         
         // 相互作用モデルのリスト
@@ -731,6 +810,16 @@ public class OrcaResource {
                 input.getCodes2().isEmpty()) {
             return conv;
         }
+        
+        // マスターのキャッシュ
+        OrcaMasterCache cache = OrcaMasterCache.getInstance();
+        if (cache.isReady()) {
+            List<DrugInteractionModel> cached = cache.checkInteraction(input.getCodes1(), input.getCodes2());
+            if (cached != null) {
+                ret.addAll(cached);
+                return conv;
+            }
+        }
 
         // SQL文を作成
         StringBuilder sb = new StringBuilder();
@@ -785,6 +874,18 @@ public class OrcaResource {
         String sql = sb.toString();
         debug(sql);
         
+        // マスターのキャッシュ
+        OrcaMasterCache cache = OrcaMasterCache.getInstance();
+        if (cache.isReady()) {
+            gname = cache.getGeneralName(param);
+            if (gname != null) {
+                ret = new CodeNamePack(param, gname);
+            }
+            CodeNamePackConverter conv = new CodeNamePackConverter();
+            conv.setModel(ret);
+            return conv;
+        }
+        
         try {
             con = getConnection();
             ps = con.prepareStatement(sql);
@@ -1284,7 +1385,7 @@ public class OrcaResource {
             closeConnection(con);
             
             for (ModuleModel mm : retSet) {
-                byte[] bytes = getXMLBytes(mm.getModel());
+                byte[] bytes = BeanCodec.encode(mm.getModel());
                 mm.setBeanBytes(bytes);
                 mm.setModel(null);
             }
@@ -1838,14 +1939,6 @@ public class OrcaResource {
         return null;
     }
     
-    private byte[] getXMLBytes(Object bean)  {
-        ByteArrayOutputStream bo = new ByteArrayOutputStream();
-        XMLEncoder e = new XMLEncoder(new BufferedOutputStream(bo));
-        e.writeObject(bean);
-        e.close();
-        return bo.toByteArray();
-    }
-    
     // srycdのListからカンマ区切りの文字列を作る
     private String getCodes(Collection<String> srycdList){
 